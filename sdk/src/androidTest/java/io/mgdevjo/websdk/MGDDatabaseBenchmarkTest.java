@@ -0,0 +1,121 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reports the cost of looking up one session row among 10k rows with and without the unique
+ * index added in database version 3. The costs depend on the device and are only logged, the
+ * test asserts the lookups and the index.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MGDDatabaseBenchmarkTest {
+
+    private static final String TAG = "MGDDatabaseBenchmark";
+
+    private static final int ROW_COUNT = 10000;
+
+    private static final int LOOKUP_COUNT = 1000;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL(MGDSQLiteMetadataStore.CREATE_SESSION_TABLE_SQL);
+        for (String sql : MGDSQLiteMetadataStore.ADD_SESSION_ACCESS_STATS_COLUMNS_SQL) {
+            db.execSQL(sql);
+        }
+        db.execSQL(MGDSQLiteMetadataStore.ADD_STALE_EXPIRED_TIME_COLUMN_SQL);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                ContentValues contentValues = new ContentValues();
+                contentValues.put(MGDSQLiteMetadataStore.SESSION_DATA_COLUMN_SESSION_ID, "session_" + i);
+                contentValues.put(MGDSQLiteMetadataStore.SESSION_DATA_COLUMN_ETAG, "eTag_" + i);
+                contentValues.put(MGDSQLiteMetadataStore.SESSION_DATA_COLUMN_HTML_SHA1, "sha1_" + i);
+                db.insert(MGDSQLiteMetadataStore.MGD_SESSION_TABLE_NAME, null, contentValues);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void lookupWithUniqueIndex() {
+        long scanCost = measureLookups();
+        db.execSQL(MGDSQLiteMetadataStore.DEDUPLICATE_SESSION_SQL);
+        db.execSQL(MGDSQLiteMetadataStore.CREATE_SESSION_INDEX_SQL);
+        long indexCost = measureLookups();
+
+        Log.i(TAG, LOOKUP_COUNT + " lookups in " + ROW_COUNT + " rows: table scan " + scanCost / 1000 +
+                " us, unique index " + indexCost / 1000 + " us.");
+        assertEquals(ROW_COUNT, DatabaseUtils.queryNumEntries(db, MGDSQLiteMetadataStore.MGD_SESSION_TABLE_NAME));
+        assertTrue(hasUniqueIndex(MGDSQLiteMetadataStore.MGD_SESSION_TABLE_NAME + "_" + MGDSQLiteMetadataStore.SESSION_DATA_COLUMN_SESSION_ID + "_index"));
+    }
+
+    private boolean hasUniqueIndex(String indexName) {
+        Cursor cursor = db.rawQuery("PRAGMA index_list(" + MGDSQLiteMetadataStore.MGD_SESSION_TABLE_NAME + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                if (indexName.equals(cursor.getString(cursor.getColumnIndex("name")))) {
+                    return 1 == cursor.getInt(cursor.getColumnIndex("unique"));
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long measureLookups() {
+        Random random = new Random(ROW_COUNT);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            Cursor cursor = db.query(MGDSQLiteMetadataStore.MGD_SESSION_TABLE_NAME, MGDSQLiteMetadataStore.getAllSessionDataColumn(),
+                    MGDSQLiteMetadataStore.SESSION_DATA_COLUMN_SESSION_ID + "=?",
+                    new String[] {"session_" + random.nextInt(ROW_COUNT)}, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+            } finally {
+                cursor.close();
+            }
+        }
+        return System.nanoTime() - startTime;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares writing 10k session rows in batches and loading them all back between the SQLite
+ * backend and the log backend of {@link MGDMetadataStore}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MGDMetadataStoreBenchmarkTest {
+
+    private static final String TAG = "MGDMetadataStoreBenchmark";
+
+    private static final int ROW_COUNT = 10000;
+
+    private static final int BATCH_SIZE = 100;
+
+    private File dbFile;
+
+    private File logFile;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbFile = new File(context.getCacheDir(), "MGD_benchmark.db");
+        logFile = new File(context.getCacheDir(), "MGD_benchmark.log");
+        tearDown();
+    }
+
+    @After
+    public void tearDown() {
+        SQLiteDatabase.deleteDatabase(dbFile);
+        logFile.delete();
+    }
+
+    @Test
+    public void compareBackends() {
+        // SQLite, the same statements and transaction as MGDSQLiteMetadataStore
+        long startTime = System.nanoTime();
+        SQLiteDatabase db = openDatabase();
+        MGDSQLiteMetadataStore.BatchWriter batchWriter = new MGDSQLiteMetadataStore.BatchWriter(db);
+        for (int i = 0; i < ROW_COUNT; i += BATCH_SIZE) {
+            MGDMetadataStore.Batch batch = createBatch(i);
+            db.beginTransaction();
+            try {
+                batchWriter.write(batch);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        db.close();
+        long sqliteWriteCost = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        db = openDatabase();
+        int sqliteRows = MGDSQLiteMetadataStore.queryAllSessionData(db).size();
+        db.close();
+        long sqliteLoadCost = System.nanoTime() - startTime;
+
+        // log
+        startTime = System.nanoTime();
+        MGDLogMetadataStore logStore = new MGDLogMetadataStore(logFile);
+        for (int i = 0; i < ROW_COUNT; i += BATCH_SIZE) {
+            logStore.apply(createBatch(i));
+        }
+        logStore.close();
+        long logWriteCost = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        logStore = new MGDLogMetadataStore(logFile);
+        int logRows = logStore.loadSessionData().size();
+        logStore.close();
+        long logLoadCost = System.nanoTime() - startTime;
+
+        Log.i(TAG, ROW_COUNT + " rows in batches of " + BATCH_SIZE + ": SQLite write " + sqliteWriteCost / 1000000 +
+                " ms, open and load " + sqliteLoadCost / 1000000 + " ms; log write " + logWriteCost / 1000000 +
+                " ms, open and load " + logLoadCost / 1000000 + " ms.");
+        assertEquals(ROW_COUNT, sqliteRows);
+        assertEquals(ROW_COUNT, logRows);
+    }
+
+    private SQLiteDatabase openDatabase() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        db.enableWriteAheadLogging();
+        db.execSQL(MGDSQLiteMetadataStore.CREATE_SESSION_TABLE_SQL);
+        if (0 == db.getVersion()) {
+            db.execSQL(MGDSQLiteMetadataStore.CREATE_SESSION_INDEX_SQL);
+            for (String sql : MGDSQLiteMetadataStore.ADD_SESSION_ACCESS_STATS_COLUMNS_SQL) {
+                db.execSQL(sql);
+            }
+            db.execSQL(MGDSQLiteMetadataStore.ADD_STALE_EXPIRED_TIME_COLUMN_SQL);
+            db.setVersion(1);
+        }
+        return db;
+    }
+
+    private static MGDMetadataStore.Batch createBatch(int start) {
+        MGDMetadataStore.Batch batch = new MGDMetadataStore.Batch();
+        for (int i = start; i < start + BATCH_SIZE; i++) {
+            MGDDataHelper.SessionData sessionData = new MGDDataHelper.SessionData();
+            sessionData.sessionId = "session_" + i;
+            sessionData.eTag = "eTag_" + i;
+            sessionData.htmlSha1 = "sha1_" + i;
+            sessionData.htmlSize = i;
+            batch.sessionChanges.put(sessionData.sessionId, sessionData);
+        }
+        return batch;
+    }
+}
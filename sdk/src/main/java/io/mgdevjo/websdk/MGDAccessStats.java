@@ -0,0 +1,261 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <code>MGDAccessStats</code> counts the hits, the served bytes and the last access time of
+ * session caches and resource caches.
+ *
+ * <p>
+ * Recording an access only touches striped in-memory counters. The counters are drained into
+ * {@link MGDDataHelper} and {@link MGDResourceDataHelper} every {@link #FLUSH_INTERVAL_MILLIS} ms
+ * after the first access, or as soon as the app goes to background, and the helpers write them
+ * to the metadata store in one batch. A counter which has no access between two drains is
+ * removed, so only the recently accessed caches hold a counter.
+ */
+public class MGDAccessStats {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDAccessStats";
+
+    /**
+     * The counters are drained this long after the first access.
+     */
+    static final long FLUSH_INTERVAL_MILLIS = 30 * 1000;
+
+    private static final MGDAccessStats sessionStats = new MGDAccessStats(false);
+
+    private static final MGDAccessStats resourceStats = new MGDAccessStats(true);
+
+    private static final AtomicBoolean isFlushScheduled = new AtomicBoolean(false);
+
+    private static final AtomicBoolean isComponentCallbacksRegistered = new AtomicBoolean(false);
+
+    private static final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushAll();
+        }
+    };
+
+    /**
+     * The access statistics which have not been written to the metadata store yet.
+     */
+    static class AccessDelta {
+
+        long hitCount;
+
+        long bytesServed;
+
+        long lastAccessTime;
+
+        void add(long hitCount, long bytesServed, long lastAccessTime) {
+            this.hitCount += hitCount;
+            this.bytesServed += bytesServed;
+            this.lastAccessTime = Math.max(this.lastAccessTime, lastAccessTime);
+        }
+    }
+
+    private static class Counter {
+
+        final LongAdder hitCount = new LongAdder();
+
+        final LongAdder bytesServed = new LongAdder();
+
+        volatile long lastAccessTime;
+
+        /**
+         * Whether the counter has been removed from {@link #counters}, guarded by the counter.
+         * An access never lands in a removed counter.
+         */
+        boolean isRemoved;
+    }
+
+    private final boolean isResourceStats;
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    private MGDAccessStats(boolean isResourceStats) {
+        this.isResourceStats = isResourceStats;
+    }
+
+    /**
+     * @return The statistics of session caches
+     */
+    static MGDAccessStats getSessionStats() {
+        return sessionStats;
+    }
+
+    /**
+     * @return The statistics of resource caches
+     */
+    public static MGDAccessStats getResourceStats() {
+        return resourceStats;
+    }
+
+    /**
+     * Record a cache hit.
+     *
+     * @param id          Session id or resource id
+     * @param bytesServed The bytes served from the cache
+     */
+    public void recordAccess(String id, long bytesServed) {
+        while (true) {
+            Counter counter = counters.get(id);
+            if (null == counter) {
+                counter = new Counter();
+                Counter existCounter = counters.putIfAbsent(id, counter);
+                if (null != existCounter) {
+                    counter = existCounter;
+                }
+            }
+            synchronized (counter) {
+                // the counter is removed by drain() in between, take the new one
+                if (counter.isRemoved) {
+                    continue;
+                }
+                counter.hitCount.increment();
+                counter.bytesServed.add(bytesServed);
+                counter.lastAccessTime = System.currentTimeMillis();
+            }
+            break;
+        }
+        scheduleFlush();
+    }
+
+    private static void scheduleFlush() {
+        if (!isFlushScheduled.get() && isFlushScheduled.compareAndSet(false, true)) {
+            MGDEngine.getInstance().getRuntime().postTaskToThread(flushTask, FLUSH_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * @param id Session id or resource id
+     * @return The hits which have not been drained.
+     */
+    long getPendingHitCount(String id) {
+        Counter counter = counters.get(id);
+        return null != counter ? counter.hitCount.sum() : 0;
+    }
+
+    /**
+     * @param id Session id or resource id
+     * @return The last access time which has not been drained, 0 if there is none.
+     */
+    long getPendingLastAccessTime(String id) {
+        Counter counter = counters.get(id);
+        return null != counter ? counter.lastAccessTime : 0;
+    }
+
+    /**
+     * Drop the counters of a removed cache.
+     *
+     * @param id Session id or resource id
+     */
+    void remove(String id) {
+        counters.remove(id);
+    }
+
+    /**
+     * Drop all the counters.
+     */
+    void clear() {
+        counters.clear();
+    }
+
+    private int drain() {
+        int count = 0;
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            long hitCount = counter.hitCount.sumThenReset();
+            long bytesServed = counter.bytesServed.sumThenReset();
+            if (hitCount > 0 || bytesServed > 0) {
+                if (isResourceStats) {
+                    MGDResourceDataHelper.applyAccessStats(entry.getKey(), hitCount, bytesServed, counter.lastAccessTime);
+                } else {
+                    MGDDataHelper.applyAccessStats(entry.getKey(), hitCount, bytesServed, counter.lastAccessTime);
+                }
+                count++;
+            } else {
+                synchronized (counter) {
+                    // no access since the last drain
+                    if (0 == counter.hitCount.sum() && 0 == counter.bytesServed.sum()) {
+                        counter.isRemoved = true;
+                        counters.remove(entry.getKey(), counter);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drain all the counters into the in-memory indexes, they are written to the metadata store by
+     * {@link MGDMetadataStore#scheduleFlush()}.
+     */
+    static void flushAll() {
+        isFlushScheduled.set(false);
+        int count = sessionStats.drain() + resourceStats.drain();
+        if (count > 0) {
+            MGDUtils.log(TAG, Log.INFO, "flushAll: drain " + count + " counters.");
+        }
+        // drain again later so that the idle counters are removed
+        if (!sessionStats.counters.isEmpty() || !resourceStats.counters.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Drain the counters when the app goes to background.
+     *
+     * @param context The application context
+     */
+    static void registerComponentCallbacks(Context context) {
+        if (!isComponentCallbacksRegistered.compareAndSet(false, true)) {
+            return;
+        }
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                    MGDEngine.getInstance().getRuntime().postTaskToThread(flushTask, 0L);
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+
+            }
+
+            @Override
+            public void onLowMemory() {
+
+            }
+        });
+    }
+}
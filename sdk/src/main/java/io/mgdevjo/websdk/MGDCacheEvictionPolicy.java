@@ -0,0 +1,351 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <code>MGDCacheEvictionPolicy</code> decides which session or resource caches are removed
+ * when the cache exceeds its limit, see {@link MGDConfig.Builder#setSessionCacheEvictionPolicy(MGDCacheEvictionPolicy)}
+ * and {@link MGDConfig.Builder#setResourceCacheEvictionPolicy(MGDCacheEvictionPolicy)}.
+ *
+ * <p>
+ * Every policy instance serves exactly one cache. MGD provides LRU ({@link #lru()}),
+ * size-aware LFU with aging and TinyLFU style admission ({@link #lfuWithAging()}) and
+ * TTL-first sweeping ({@link #ttlFirst(MGDCacheEvictionPolicy)}).
+ */
+public abstract class MGDCacheEvictionPolicy {
+
+    /**
+     * A snapshot of one cached session or resource.
+     */
+    public static class CacheEntry {
+
+        /**
+         * Session id or resource id
+         */
+        public final String id;
+
+        /**
+         * The bytes of the cache
+         */
+        public final long size;
+
+        /**
+         * The latest time when the cache was used or updated
+         */
+        public final long lastAccessTime;
+
+        /**
+         * How many times the cache has been used
+         */
+        public final int hitCount;
+
+        /**
+         * When the cache can not be served any more, 0 if it is always usable. It is not a
+         * freshness time: a session cache which is due for revalidation is still loaded.
+         */
+        public final long expiredTime;
+
+        public CacheEntry(String id, long size, long lastAccessTime, int hitCount, long expiredTime) {
+            this.id = id;
+            this.size = size;
+            this.lastAccessTime = lastAccessTime;
+            this.hitCount = hitCount;
+            this.expiredTime = expiredTime;
+        }
+
+        boolean isExpired(long now) {
+            return expiredTime > 0 && expiredTime < now;
+        }
+    }
+
+    /**
+     * Called whenever the cache with the specified id is requested, whether it is hit or not.
+     *
+     * @param id Session id or resource id
+     */
+    public void onAccess(String id) {
+
+    }
+
+    /**
+     * Called after the cache with the specified id is removed.
+     *
+     * @param id Session id or resource id
+     */
+    public void onRemove(String id) {
+
+    }
+
+    /**
+     * Called when a new cache is about to be saved while the cache is full.
+     *
+     * @param candidate The new cache
+     * @param victim    The cache which would be evicted first to make room for the candidate
+     * @return Return {@code true} if the candidate should be saved.
+     */
+    public boolean admit(CacheEntry candidate, CacheEntry victim) {
+        return true;
+    }
+
+    /**
+     * Sort the cache entries in the order they should be evicted.
+     *
+     * @param entries All the cache entries, the list may be modified.
+     * @param now     Current time in milliseconds
+     * @return The entries to be evicted first come first.
+     */
+    public abstract List<CacheEntry> sortForEviction(List<CacheEntry> entries, long now);
+
+    /**
+     * @return A policy evicts the least recently used cache first.
+     */
+    public static MGDCacheEvictionPolicy lru() {
+        return new LruPolicy();
+    }
+
+    /**
+     * @return A policy evicts the cache with the lowest aged frequency per byte first, and
+     * only admits new cache which is requested more often than the cache it would replace.
+     */
+    public static MGDCacheEvictionPolicy lfuWithAging() {
+        return new LfuWithAgingPolicy();
+    }
+
+    /**
+     * @param fallback The policy used to sort the caches which are not expired.
+     * @return A policy evicts the cache which can not be served any more first, see
+     * {@link CacheEntry#expiredTime}, and then follows the fallback policy.
+     */
+    public static MGDCacheEvictionPolicy ttlFirst(MGDCacheEvictionPolicy fallback) {
+        return new TtlFirstPolicy(fallback);
+    }
+
+    /**
+     * Least recently used. The access time of the current process is tracked in memory,
+     * {@link CacheEntry#lastAccessTime} is used for the caches not accessed yet.
+     */
+    static class LruPolicy extends MGDCacheEvictionPolicy {
+
+        private final ConcurrentHashMap<String, Long> accessTimes = new ConcurrentHashMap<String, Long>();
+
+        @Override
+        public void onAccess(String id) {
+            accessTimes.put(id, System.currentTimeMillis());
+        }
+
+        @Override
+        public void onRemove(String id) {
+            accessTimes.remove(id);
+        }
+
+        @Override
+        public List<CacheEntry> sortForEviction(List<CacheEntry> entries, long now) {
+            Collections.sort(entries, new Comparator<CacheEntry>() {
+                @Override
+                public int compare(CacheEntry lhs, CacheEntry rhs) {
+                    return compareLong(getAccessTime(lhs), getAccessTime(rhs));
+                }
+            });
+            return entries;
+        }
+
+        private long getAccessTime(CacheEntry entry) {
+            Long accessTime = accessTimes.get(entry.id);
+            return null != accessTime ? Math.max(accessTime, entry.lastAccessTime) : entry.lastAccessTime;
+        }
+    }
+
+    /**
+     * Size-aware LFU with aging.
+     *
+     * <p>
+     * The recent request frequency is counted by a count-min sketch whose counters are halved
+     * periodically, and the persisted hit count decays with the time since last access, so a
+     * cache which was popular long ago does not stay forever. The frequency is divided by a
+     * logarithmic size factor so that one huge page does not push out many small ones.
+     */
+    static class LfuWithAgingPolicy extends MGDCacheEvictionPolicy {
+
+        /**
+         * The persisted hit count is halved every HIT_COUNT_HALF_LIFE milliseconds since last access.
+         */
+        private static final long HIT_COUNT_HALF_LIFE = 3 * 24 * 60 * 60 * 1000L;
+
+        private final FrequencySketch sketch = new FrequencySketch(256);
+
+        @Override
+        public void onAccess(String id) {
+            sketch.increment(id);
+        }
+
+        @Override
+        public boolean admit(CacheEntry candidate, CacheEntry victim) {
+            return sketch.frequency(candidate.id) > sketch.frequency(victim.id);
+        }
+
+        @Override
+        public List<CacheEntry> sortForEviction(List<CacheEntry> entries, long now) {
+            final long currentTime = now;
+            Collections.sort(entries, new Comparator<CacheEntry>() {
+                @Override
+                public int compare(CacheEntry lhs, CacheEntry rhs) {
+                    int result = Double.compare(getScore(lhs, currentTime), getScore(rhs, currentTime));
+                    return 0 != result ? result : compareLong(lhs.lastAccessTime, rhs.lastAccessTime);
+                }
+            });
+            return entries;
+        }
+
+        private double getScore(CacheEntry entry, long now) {
+            long age = Math.max(0, now - entry.lastAccessTime);
+            double agedHitCount = entry.hitCount * Math.pow(0.5, (double) age / HIT_COUNT_HALF_LIFE);
+            double frequency = sketch.frequency(entry.id) + agedHitCount;
+            return frequency / (1 + Math.log(1 + entry.size / 1024.0));
+        }
+    }
+
+    /**
+     * Caches which can not be served any more come first (the earliest expired one first), the
+     * others are sorted by the fallback policy.
+     */
+    static class TtlFirstPolicy extends MGDCacheEvictionPolicy {
+
+        private final MGDCacheEvictionPolicy fallback;
+
+        TtlFirstPolicy(MGDCacheEvictionPolicy fallback) {
+            this.fallback = fallback;
+        }
+
+        @Override
+        public void onAccess(String id) {
+            fallback.onAccess(id);
+        }
+
+        @Override
+        public void onRemove(String id) {
+            fallback.onRemove(id);
+        }
+
+        @Override
+        public boolean admit(CacheEntry candidate, CacheEntry victim) {
+            return victim.isExpired(System.currentTimeMillis()) || fallback.admit(candidate, victim);
+        }
+
+        @Override
+        public List<CacheEntry> sortForEviction(List<CacheEntry> entries, long now) {
+            List<CacheEntry> expiredEntries = new ArrayList<CacheEntry>();
+            List<CacheEntry> validEntries = new ArrayList<CacheEntry>(entries.size());
+            for (CacheEntry entry : entries) {
+                if (entry.isExpired(now)) {
+                    expiredEntries.add(entry);
+                } else {
+                    validEntries.add(entry);
+                }
+            }
+            Collections.sort(expiredEntries, new Comparator<CacheEntry>() {
+                @Override
+                public int compare(CacheEntry lhs, CacheEntry rhs) {
+                    return compareLong(lhs.expiredTime, rhs.expiredTime);
+                }
+            });
+            expiredEntries.addAll(fallback.sortForEviction(validEntries, now));
+            return expiredEntries;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4 rows with 4-bit saturating counters. All counters are halved
+     * after every {@code 10 * width} increments, which ages the recorded frequencies.
+     */
+    static class FrequencySketch {
+
+        private static final int ROWS = 4;
+
+        private static final int MAX_COUNT = 15;
+
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] table;
+
+        private final int mask;
+
+        private final int sampleSize;
+
+        private int additions;
+
+        FrequencySketch(int width) {
+            int tableWidth = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+            table = new byte[ROWS][tableWidth];
+            mask = tableWidth - 1;
+            sampleSize = 10 * tableWidth;
+        }
+
+        synchronized void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < ROWS; i++) {
+                int index = indexOf(hash, i);
+                if (table[i][index] < MAX_COUNT) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        synchronized int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < ROWS; i++) {
+                frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (byte[] row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) (row[i] >>> 1);
+                }
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % ROWS];
+            return (h ^ (h >>> 15)) & mask;
+        }
+
+        private static int spread(int hash) {
+            hash ^= (hash >>> 17);
+            hash *= 0xED5AD4BB;
+            hash ^= (hash >>> 11);
+            return hash;
+        }
+    }
+
+    private static int compareLong(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+}
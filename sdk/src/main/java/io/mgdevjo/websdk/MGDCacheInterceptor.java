@@ -72,6 +72,7 @@ public abstract class MGDCacheInterceptor {
                 return null;
             }
 
+            MGDEngine.getInstance().getConfig().SESSION_CACHE_EVICTION_POLICY.onAccess(session.id);
             MGDDataHelper.SessionData sessionData = MGDDataHelper.getSessionData(session.id);
             boolean verifyError;
             String htmlString = "";
@@ -80,7 +81,6 @@ public abstract class MGDCacheInterceptor {
                 verifyError = true;
                 MGDUtils.log(TAG, Log.INFO, "session(" + session.sId + ") runMGDFlow : session data is empty.");
             } else {
-                MGDDataHelper.updateMGDCacheHitCount(session.id);
                 File htmlCacheFile = new File(MGDFileUtils.getMGDHtmlPath(session.id));
                 htmlString = MGDFileUtils.readFile(htmlCacheFile);
                 verifyError = TextUtils.isEmpty(htmlString);
@@ -112,6 +112,8 @@ public abstract class MGDCacheInterceptor {
                 MGDUtils.removeSessionCache(session.id);
                 sessionData.reset();
                 MGDUtils.log(TAG, Log.INFO, "session(" + session.sId + ") runMGDFlow:verify error so remove session cache, cost " + +(System.currentTimeMillis() - startTime) + "ms.");
+            } else {
+                MGDAccessStats.getSessionStats().recordAccess(session.id, sessionData.htmlSize);
             }
             return htmlString;
         }
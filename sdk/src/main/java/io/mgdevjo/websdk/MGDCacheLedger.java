@@ -0,0 +1,213 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent byte ledger of one cache root directory.
+ *
+ * <p>
+ * Every cache file written or deleted through {@link MGDFileUtils} adjusts the ledger, so the
+ * current size of the cache is known in O(1) and trimming never has to walk the directory.
+ * The total is persisted into {@link MGDRuntime#getMGDSharedPreferences()} shortly after it
+ * changes. A dirty marker is committed synchronously before the first change of every persist
+ * window and cleared with the total, so a total which may have missed changes (the process was
+ * killed in the window) is never trusted. The directory is only walked when no trusted total
+ * exists (first run, after {@link #invalidate()} or after an unclean exit).
+ */
+class MGDCacheLedger {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDCacheLedger";
+
+    /**
+     * The key of session cache size saved in SharedPreference
+     */
+    private static final String SP_KEY_SESSION_CACHE_SIZE = "session_cache_ledger_size";
+
+    /**
+     * The key of resource cache size saved in SharedPreference
+     */
+    private static final String SP_KEY_RESOURCE_CACHE_SIZE = "resource_cache_ledger_size";
+
+    /**
+     * Changes are coalesced and persisted after this delay.
+     */
+    private static final long PERSIST_DELAY_MILLIS = 3000;
+
+    private static final long UNKNOWN_SIZE = -1;
+
+    /**
+     * The suffix of the key of the dirty marker, see {@link #schedulePersist()}
+     */
+    private static final String SP_KEY_DIRTY_SUFFIX = "_dirty";
+
+    private static final MGDCacheLedger sessionLedger = new MGDCacheLedger(SP_KEY_SESSION_CACHE_SIZE, false);
+
+    private static final MGDCacheLedger resourceLedger = new MGDCacheLedger(SP_KEY_RESOURCE_CACHE_SIZE, true);
+
+    private final String spKey;
+
+    private final boolean isResourceLedger;
+
+    private final AtomicLong cacheSize = new AtomicLong(UNKNOWN_SIZE);
+
+    private final AtomicBoolean isPersistPending = new AtomicBoolean(false);
+
+    /**
+     * Orders the dirty marker and the persisted total.
+     */
+    private final Object persistLock = new Object();
+
+    private final Runnable persistTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (persistLock) {
+                isPersistPending.set(false);
+                long size = cacheSize.get();
+                if (size >= 0) {
+                    SharedPreferences sp = MGDEngine.getInstance().getRuntime().getMGDSharedPreferences();
+                    sp.edit().putLong(spKey, size).remove(spKey + SP_KEY_DIRTY_SUFFIX).apply();
+                }
+            }
+        }
+    };
+
+    private MGDCacheLedger(String spKey, boolean isResourceLedger) {
+        this.spKey = spKey;
+        this.isResourceLedger = isResourceLedger;
+    }
+
+    /**
+     * @return The ledger of session cache dir, see {@link MGDFileUtils#getMGDCacheDirPath()}
+     */
+    static MGDCacheLedger getSessionLedger() {
+        return sessionLedger;
+    }
+
+    /**
+     * @return The ledger of resource cache dir, see {@link MGDFileUtils#getMGDResourceCachePath()}
+     */
+    static MGDCacheLedger getResourceLedger() {
+        return resourceLedger;
+    }
+
+    /**
+     * @return The bytes currently stored under the cache root.
+     */
+    long size() {
+        ensureLoaded();
+        return cacheSize.get();
+    }
+
+    /**
+     * Adjust the ledger after a cache file is written or deleted.
+     *
+     * @param delta The changed bytes, negative when files are deleted.
+     */
+    void add(long delta) {
+        if (0 == delta) {
+            return;
+        }
+        ensureLoaded();
+        long size;
+        long newSize;
+        do {
+            size = cacheSize.get();
+            newSize = Math.max(0, size + delta);
+        } while (!cacheSize.compareAndSet(size, newSize));
+        schedulePersist();
+    }
+
+    /**
+     * Set the ledger to zero, it should be called after all the cache files have been removed.
+     */
+    void reset() {
+        cacheSize.set(0);
+        schedulePersist();
+    }
+
+    /**
+     * Walk the cache root again and replace the total with the bytes on disk, the files which have
+     * no metadata are deleted on the way, see {@link MGDFileUtils#scanCacheDir(boolean)}. A file
+     * written during the walk may be counted twice until the next reconciliation.
+     *
+     * @return The bytes stored under the cache root.
+     */
+    synchronized long reconcile() {
+        long startTime = System.currentTimeMillis();
+        long size = MGDFileUtils.scanCacheDir(isResourceLedger);
+        long oldSize = cacheSize.getAndSet(size);
+        schedulePersist();
+        MGDUtils.log(TAG, Log.INFO, "reconcile: " + spKey + " " + oldSize + " -> " + size + ", cost " + (System.currentTimeMillis() - startTime) + " ms.");
+        return size;
+    }
+
+    /**
+     * Drop the current total, the cache root will be walked again on next access.
+     */
+    synchronized void invalidate() {
+        cacheSize.set(UNKNOWN_SIZE);
+        MGDEngine.getInstance().getRuntime().getMGDSharedPreferences().edit().remove(spKey).apply();
+    }
+
+    private void ensureLoaded() {
+        if (cacheSize.get() >= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (cacheSize.get() >= 0) {
+                return;
+            }
+            SharedPreferences sp = MGDEngine.getInstance().getRuntime().getMGDSharedPreferences();
+            long size = sp.getLong(spKey, UNKNOWN_SIZE);
+            if (sp.getBoolean(spKey + SP_KEY_DIRTY_SUFFIX, false)) {
+                MGDUtils.log(TAG, Log.INFO, "ensureLoaded: " + spKey + " is not persisted cleanly, rebuild it.");
+                size = UNKNOWN_SIZE;
+            }
+            if (size < 0) {
+                long startTime = System.currentTimeMillis();
+                size = MGDFileUtils.scanCacheDir(isResourceLedger);
+                sp.edit().putLong(spKey, size).remove(spKey + SP_KEY_DIRTY_SUFFIX).apply();
+                MGDUtils.log(TAG, Log.INFO, "ensureLoaded: build " + spKey + " = " + size + ", cost " + (System.currentTimeMillis() - startTime) + " ms.");
+            }
+            cacheSize.set(size);
+        }
+    }
+
+    /**
+     * The first change of a persist window commits the dirty marker before the total is persisted.
+     */
+    private void schedulePersist() {
+        if (isPersistPending.get()) {
+            return;
+        }
+        synchronized (persistLock) {
+            if (isPersistPending.compareAndSet(false, true)) {
+                SharedPreferences sp = MGDEngine.getInstance().getRuntime().getMGDSharedPreferences();
+                sp.edit().putBoolean(spKey + SP_KEY_DIRTY_SUFFIX, true).commit();
+                MGDEngine.getInstance().getRuntime().postTaskToThread(persistTask, PERSIST_DELAY_MILLIS);
+            }
+        }
+    }
+}
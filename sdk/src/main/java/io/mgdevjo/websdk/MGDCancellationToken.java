@@ -0,0 +1,114 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>MGDCancellationToken</code> tells blocking work that its result is no longer wanted. Loops
+ * check {@link #isCancelled()} between steps, and callbacks registered by {@link #register(Runnable)}
+ * close sockets and wake up waiting threads so that work blocked in a read is released at once.
+ * A child token created by {@link #newChild()} is cancelled together with its parent.
+ */
+public class MGDCancellationToken {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDCancellationToken";
+
+    private final List<Runnable> callbacks = new ArrayList<Runnable>();
+
+    private volatile boolean isCancelled;
+
+    private MGDCancellationToken parent;
+
+    private Runnable parentCallback;
+
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * Cancel the token and run the registered callbacks on the current thread. It does nothing if
+     * the token is cancelled already.
+     */
+    public void cancel() {
+        List<Runnable> cancelCallbacks;
+        synchronized (this) {
+            if (isCancelled) {
+                return;
+            }
+            isCancelled = true;
+            cancelCallbacks = new ArrayList<Runnable>(callbacks);
+            callbacks.clear();
+        }
+        detach();
+        for (Runnable callback : cancelCallbacks) {
+            try {
+                callback.run();
+            } catch (Throwable e) {
+                MGDUtils.log(TAG, Log.ERROR, "cancel callback error:" + e.getMessage() + ".");
+            }
+        }
+    }
+
+    /**
+     * Run the callback when the token is cancelled, or at once if it is cancelled already.
+     */
+    public void register(Runnable callback) {
+        synchronized (this) {
+            if (!isCancelled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    public synchronized void unregister(Runnable callback) {
+        callbacks.remove(callback);
+    }
+
+    /**
+     * @return A token which is cancelled when this token is cancelled, call {@link #detach()} when
+     * its work finishes so this token does not hold it any more.
+     */
+    public MGDCancellationToken newChild() {
+        final MGDCancellationToken child = new MGDCancellationToken();
+        child.parent = this;
+        child.parentCallback = new Runnable() {
+            @Override
+            public void run() {
+                child.cancel();
+            }
+        };
+        register(child.parentCallback);
+        return child;
+    }
+
+    /**
+     * Stop following the parent token.
+     */
+    public void detach() {
+        if (null != parent) {
+            parent.unregister(parentCallback);
+        }
+    }
+}
@@ -25,6 +25,38 @@ public class MGDConfig {
      */
     int MAX_PRELOAD_SESSION_COUNT = 5;
 
+    /**
+     * The max number of preload sessions whose network flows run at the same time, default is 2.
+     * The other preload sessions wait in the order of {@link MGDPreloadRequest#priority}.
+     */
+    int MAX_CONCURRENT_PRELOAD_COUNT = 2;
+
+    /**
+     * Whether to record which page follows which and preload the most probable next pages when
+     * a page is ready, default is false. See {@link MGDNavigationGraph}.
+     */
+    boolean PREDICTIVE_PRELOAD_ENABLED = false;
+
+    /**
+     * The max number of pages which are preloaded by prediction when a page is ready, default is 2.
+     */
+    int PREDICTIVE_PRELOAD_MAX_COUNT = 2;
+
+    /**
+     * A next page is preloaded only if it follows the current page with at least this probability, default is 0.3.
+     */
+    float PREDICTIVE_PRELOAD_MIN_PROBABILITY = 0.3f;
+
+    /**
+     * The max bytes which are preloaded by prediction in {@link #PREDICTIVE_PRELOAD_BUDGET_WINDOW}, default is 2M.
+     */
+    long PREDICTIVE_PRELOAD_BYTE_BUDGET = 2 * 1024 * 1024;
+
+    /**
+     * The length of the window of {@link #PREDICTIVE_PRELOAD_BYTE_BUDGET}, default is 10 minutes.
+     */
+    long PREDICTIVE_PRELOAD_BUDGET_WINDOW = 10 * 60 * 1000L;
+
     /**
      * When MGD server unavailable, MGD will not execute its flow and will execute
      * webview normal loading process. This time control MGD how log will not execute its flow.
@@ -42,15 +74,75 @@ public class MGDConfig {
     long MGD_RESOURCE_CACHE_MAX_SIZE = 60 * 1024 * 1024;
 
     /**
-     * The time interval between check MGD cache, default is 24 hours.
+     * The time interval between background sweeps of MGD cache, default is 24 hours.
+     * Each sweep removes expired resource cache and trims the caches which exceed their limits,
+     * the caches are also trimmed whenever a session is destroyed.
      */
     long MGD_CACHE_CHECK_TIME_INTERVAL = 24 * 60 * 60 * 1000L;
 
+    /**
+     * The policy to choose which session cache is evicted when MGD cache exceeds its limit,
+     * default evicts expired cache first and then follows {@link MGDCacheEvictionPolicy#lfuWithAging()}.
+     */
+    MGDCacheEvictionPolicy SESSION_CACHE_EVICTION_POLICY = MGDCacheEvictionPolicy.ttlFirst(MGDCacheEvictionPolicy.lfuWithAging());
+
+    /**
+     * The policy to choose which resource cache is evicted when resource cache exceeds its limit,
+     * default evicts expired cache first and then follows {@link MGDCacheEvictionPolicy#lfuWithAging()}.
+     */
+    MGDCacheEvictionPolicy RESOURCE_CACHE_EVICTION_POLICY = MGDCacheEvictionPolicy.ttlFirst(MGDCacheEvictionPolicy.lfuWithAging());
+
+    /**
+     * Whether background work yields to foreground sessions, default is true. While a session
+     * bound to a ready client loads its page, preload flows and their network reads, sub resource
+     * prefetching and background saves are paused. See {@link MGDForegroundGate}.
+     */
+    boolean FOREGROUND_PREEMPT_ENABLED = true;
+
+    /**
+     * The longest time in ms a foreground session pauses background work, default is 5 s.
+     */
+    long FOREGROUND_PREEMPT_MAX_MILLIS = 5000;
+
+    /**
+     * The max number of threads which run session flows, connections and sub resource downloads, default is 6.
+     * See {@link MGDSessionThreadPool#LANE_NETWORK}.
+     */
+    int SESSION_NETWORK_THREAD_COUNT = 6;
+
+    /**
+     * The max number of threads which run local work of sessions, default is 2.
+     * See {@link MGDSessionThreadPool#LANE_CPU}.
+     */
+    int SESSION_CPU_THREAD_COUNT = 2;
+
+    /**
+     * The max number of tasks waiting in each lane of {@link MGDSessionThreadPool} when all of its
+     * threads are busy, default is 64. Tasks posted to a full lane are rejected.
+     */
+    int SESSION_TASK_QUEUE_CAPACITY = 64;
+
     /**
      * The max number of tasks which is downloading in the same time.
      */
     public int MGD_MAX_NUM_OF_DOWNLOADING_TASK = 3;
 
+    /**
+     * The max number of tasks which is downloading from the same host in the same time.
+     */
+    public int MGD_MAX_NUM_OF_DOWNLOADING_TASK_PER_HOST = 2;
+
+    /**
+     * The max number of retries of a preload download which fails on a network error, the
+     * downloaded bytes are resumed by a range request if the server supports it.
+     */
+    public int MGD_DOWNLOAD_MAX_RETRY_COUNT = 3;
+
+    /**
+     * The delay before the first retry of a download, it doubles on every retry.
+     */
+    public long MGD_DOWNLOAD_RETRY_BACKOFF_MILLIS = 1000;
+
     /**
      * The max age of MGD cache before expired.
      */
@@ -67,6 +159,12 @@ public class MGDConfig {
      */
     boolean AUTO_INIT_DB_WHEN_CREATE = true;
 
+    /**
+     * The backend which persists session and resource metadata, {@link MGDMetadataStore#TYPE_SQLITE}
+     * or {@link MGDMetadataStore#TYPE_LOG}, default is {@link MGDMetadataStore#TYPE_SQLITE}.
+     */
+    int METADATA_STORE_TYPE = MGDMetadataStore.TYPE_SQLITE;
+
     /**
      * There will be a deadlock when ShouldInterceptRequest and getCookie are running at the same thread.
      * This bug was found on Android ( < 5.0) system. @see <a href="https://github.com/Tencent/VasMGD/issues/90">Issue 90</a> <br>
@@ -95,6 +193,32 @@ public class MGDConfig {
             return this;
         }
 
+        public Builder setMaxConcurrentPreloadCount(int maxConcurrentPreloadCount) {
+            target.MAX_CONCURRENT_PRELOAD_COUNT = maxConcurrentPreloadCount;
+            return this;
+        }
+
+        public Builder setPredictivePreloadEnabled(boolean enable) {
+            target.PREDICTIVE_PRELOAD_ENABLED = enable;
+            return this;
+        }
+
+        public Builder setPredictivePreloadMaxCount(int maxCount) {
+            target.PREDICTIVE_PRELOAD_MAX_COUNT = maxCount;
+            return this;
+        }
+
+        public Builder setPredictivePreloadMinProbability(float minProbability) {
+            target.PREDICTIVE_PRELOAD_MIN_PROBABILITY = minProbability;
+            return this;
+        }
+
+        public Builder setPredictivePreloadBudget(long bytes, long windowMillis) {
+            target.PREDICTIVE_PRELOAD_BYTE_BUDGET = bytes;
+            target.PREDICTIVE_PRELOAD_BUDGET_WINDOW = windowMillis;
+            return this;
+        }
+
         public Builder setUnavailableTime(long unavailableTime) {
             target.MGD_UNAVAILABLE_TIME = unavailableTime;
             return this;
@@ -120,16 +244,71 @@ public class MGDConfig {
             return this;
         }
 
+        public Builder setSessionCacheEvictionPolicy(MGDCacheEvictionPolicy policy) {
+            target.SESSION_CACHE_EVICTION_POLICY = policy;
+            return this;
+        }
+
+        public Builder setResourceCacheEvictionPolicy(MGDCacheEvictionPolicy policy) {
+            target.RESOURCE_CACHE_EVICTION_POLICY = policy;
+            return this;
+        }
+
         public Builder setMaxNumOfDownloadingTasks(int num) {
             target.MGD_MAX_NUM_OF_DOWNLOADING_TASK = num;
             return this;
         }
 
+        public Builder setMaxNumOfDownloadingTasksPerHost(int num) {
+            target.MGD_MAX_NUM_OF_DOWNLOADING_TASK_PER_HOST = num;
+            return this;
+        }
+
+        public Builder setDownloadMaxRetryCount(int count) {
+            target.MGD_DOWNLOAD_MAX_RETRY_COUNT = count;
+            return this;
+        }
+
+        public Builder setDownloadRetryBackoffMillis(long backoffMillis) {
+            target.MGD_DOWNLOAD_RETRY_BACKOFF_MILLIS = backoffMillis;
+            return this;
+        }
+
+        public Builder setForegroundPreemptEnabled(boolean enabled) {
+            target.FOREGROUND_PREEMPT_ENABLED = enabled;
+            return this;
+        }
+
+        public Builder setForegroundPreemptMaxMillis(long maxMillis) {
+            target.FOREGROUND_PREEMPT_MAX_MILLIS = maxMillis;
+            return this;
+        }
+
+        public Builder setSessionNetworkThreadCount(int threadCount) {
+            target.SESSION_NETWORK_THREAD_COUNT = threadCount;
+            return this;
+        }
+
+        public Builder setSessionCpuThreadCount(int threadCount) {
+            target.SESSION_CPU_THREAD_COUNT = threadCount;
+            return this;
+        }
+
+        public Builder setSessionTaskQueueCapacity(int capacity) {
+            target.SESSION_TASK_QUEUE_CAPACITY = capacity;
+            return this;
+        }
+
         public Builder setAutoInitDBWhenCreate(boolean autoInitDBWhenCreate) {
             target.AUTO_INIT_DB_WHEN_CREATE = autoInitDBWhenCreate;
             return this;
         }
 
+        public Builder setMetadataStoreType(int type) {
+            target.METADATA_STORE_TYPE = type;
+            return this;
+        }
+
         public Builder setGetCookieWhenSessionCreate(boolean value) {
             target.GET_COOKIE_WHEN_SESSION_CREATE = value;
             return this;
@@ -79,6 +79,11 @@ public class MGDConstants {
      */
     public static final int ERROR_CODE_CONNECT_NPE = -903;
 
+    /**
+     * Http(s) connection error : cancelled by {@link MGDCancellationToken}
+     */
+    public static final int ERROR_CODE_CONNECT_CANCELLED = -904;
+
 
     /**
      * Verify local file failed
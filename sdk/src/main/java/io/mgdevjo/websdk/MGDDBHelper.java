@@ -46,7 +46,7 @@ public class MGDDBHelper extends SQLiteOpenHelper {
     /**
      * current version code of the database (starting at <code>MGD_DATABASE_FIRST_VERSION</code>)
      */
-    private static final int MGD_DATABASE_VERSION = 2;
+    private static final int MGD_DATABASE_VERSION = 5;
 
     private static MGDDBHelper sInstance = null;
 
@@ -54,6 +54,8 @@ public class MGDDBHelper extends SQLiteOpenHelper {
 
     private MGDDBHelper(Context context) {
         super(context, MGD_DATABASE_NAME, null, MGD_DATABASE_VERSION);
+        // readers of the file thread and the session threads are not blocked by the batched writes
+        setWriteAheadLoggingEnabled(true);
     }
 
     static synchronized MGDDBHelper createInstance(Context context) {
@@ -79,7 +81,7 @@ public class MGDDBHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         // create sessionData table
-        db.execSQL(MGDDataHelper.CREATE_TABLE_SQL);
+        db.execSQL(MGDSQLiteMetadataStore.CREATE_SESSION_TABLE_SQL);
 
         // upgrade SP if need(session data save in SP on sdk 1.0)
         onUpgrade(db, -1, MGD_DATABASE_VERSION);
@@ -119,6 +121,15 @@ public class MGDDBHelper extends SQLiteOpenHelper {
         switch (oldVersion) {
             case 1: //2.0 version
                 upgradeToVersion_2(db);
+                // fall through
+            case 2:
+                upgradeToVersion_3(db);
+                // fall through
+            case 3:
+                upgradeToVersion_4(db);
+                // fall through
+            case 4:
+                upgradeToVersion_5(db);
                 break;
             default:
                 break;
@@ -132,7 +143,42 @@ public class MGDDBHelper extends SQLiteOpenHelper {
      */
     private void upgradeToVersion_2(SQLiteDatabase db) {
         // create resourceData table
-        db.execSQL(MGDResourceDataHelper.CREATE_TABLE_SQL);
+        db.execSQL(MGDSQLiteMetadataStore.CREATE_RESOURCE_TABLE_SQL);
+    }
+
+    /**
+     * upgrade database from version 2 to version 3, add unique indexes of session id and resource id.
+     *
+     * @param db The database.
+     */
+    private void upgradeToVersion_3(SQLiteDatabase db) {
+        db.execSQL(MGDSQLiteMetadataStore.DEDUPLICATE_SESSION_SQL);
+        db.execSQL(MGDSQLiteMetadataStore.CREATE_SESSION_INDEX_SQL);
+        db.execSQL(MGDSQLiteMetadataStore.DEDUPLICATE_RESOURCE_SQL);
+        db.execSQL(MGDSQLiteMetadataStore.CREATE_RESOURCE_INDEX_SQL);
+    }
+
+    /**
+     * upgrade database from version 3 to version 4, add the access statistic columns.
+     *
+     * @param db The database.
+     */
+    private void upgradeToVersion_4(SQLiteDatabase db) {
+        for (String sql : MGDSQLiteMetadataStore.ADD_SESSION_ACCESS_STATS_COLUMNS_SQL) {
+            db.execSQL(sql);
+        }
+        for (String sql : MGDSQLiteMetadataStore.ADD_RESOURCE_ACCESS_STATS_COLUMNS_SQL) {
+            db.execSQL(sql);
+        }
+    }
+
+    /**
+     * upgrade database from version 4 to version 5, add the stale-while-revalidate column.
+     *
+     * @param db The database.
+     */
+    private void upgradeToVersion_5(SQLiteDatabase db) {
+        db.execSQL(MGDSQLiteMetadataStore.ADD_STALE_EXPIRED_TIME_COLUMN_SQL);
     }
 
     /**
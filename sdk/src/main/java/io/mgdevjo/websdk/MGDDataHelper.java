@@ -15,19 +15,27 @@
 
 package io.mgdevjo.websdk;
 
-import android.content.ContentValues;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
  * MGDDataHelper provides MGD data such as eTag, templateTag, etc.
  *
+ * <p>
+ * All the rows of {@code SessionData} table are mirrored in an in-memory index which is loaded
+ * lazily (see {@link #loadIndexIfNeed()}). Reads are served from the index without touching the
+ * store, mutations update the index at once and are written to the store asynchronously,
+ * see {@link MGDMetadataStore#scheduleFlush()}.
+ *
  */
 class MGDDataHelper {
 
@@ -36,72 +44,6 @@ class MGDDataHelper {
      */
     private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDDataHelper";
 
-    /**
-     * table name of the SessionData
-     */
-    protected static final String MGD_SESSION_TABLE_NAME = "SessionData";
-
-    /**
-     * SessionData's id
-     */
-    protected static final String SESSION_DATA_COLUMN_SESSION_ID = "sessionID";
-
-    /**
-     * The key of eTag
-     */
-    protected static final String SESSION_DATA_COLUMN_ETAG = "eTag";
-
-    /**
-     * The key of templateTag
-     */
-    protected static final String SESSION_DATA_COLUMN_TEMPLATE_EAG = "templateTag";
-
-    /**
-     * The key of html sha1
-     */
-    protected static final String SESSION_DATA_COLUMN_HTML_SHA1 = "htmlSha1";
-
-    /**
-     * The key of html size
-     */
-    protected static final String SESSION_DATA_COLUMN_HTML_SIZE = "htmlSize";
-
-    /**
-     * The key of template update time
-     */
-    protected static final String SESSION_DATA_COLUMN_TEMPLATE_UPDATE_TIME = "templateUpdateTime";
-
-    /**
-     * The key of Unavailable Time
-     */
-    protected static final String SESSION_DATA_COLUMN_UNAVAILABLE_TIME = "UnavailableTime";
-
-    /**
-     * The key of cache expired Time
-     */
-    protected static final String SESSION_DATA_COLUMN_CACHE_EXPIRED_TIME = "cacheExpiredTime";
-
-    /**
-     * The key of cache hit count
-     */
-    protected static final String SESSION_DATA_COLUMN_CACHE_HIT_COUNT = "cacheHitCount";
-
-    /**
-     * The create table sql
-     */
-    public static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS " + MGD_SESSION_TABLE_NAME + " ( " +
-            "id  integer PRIMARY KEY autoincrement" +
-            " , " + SESSION_DATA_COLUMN_SESSION_ID + " text not null" +
-            " , " + SESSION_DATA_COLUMN_ETAG + " text not null" +
-            " , " + SESSION_DATA_COLUMN_TEMPLATE_EAG + " text" +
-            " , " + SESSION_DATA_COLUMN_HTML_SHA1 + " text not null" +
-            " , " + SESSION_DATA_COLUMN_UNAVAILABLE_TIME + " integer default 0" +
-            " , " + SESSION_DATA_COLUMN_HTML_SIZE + " integer default 0" +
-            " , " + SESSION_DATA_COLUMN_TEMPLATE_UPDATE_TIME + " integer default 0" +
-            " , " + SESSION_DATA_COLUMN_CACHE_EXPIRED_TIME + " integer default 0" +
-            " , " + SESSION_DATA_COLUMN_CACHE_HIT_COUNT + " integer default 0" +
-            " ); ";
-
     /**
      * MGD data structure
      */
@@ -140,6 +82,12 @@ class MGDDataHelper {
          */
         long expiredTime;
 
+        /**
+         * Indicates until when an expired cache may still be served while it is revalidated in the
+         * background, see {@link MGDSessionConfig#SUPPORT_STALE_WHILE_REVALIDATE}.
+         */
+        long staleExpiredTime;
+
         /**
          * Indicates when MGD session is unavailable.
          */
@@ -150,6 +98,16 @@ class MGDDataHelper {
          */
         int cacheHitCount;
 
+        /**
+         * The latest time when the cache was used.
+         */
+        long lastAccessTime;
+
+        /**
+         * How many bytes have been served from this cache.
+         */
+        long bytesServed;
+
         /**
          * Reset data
          */
@@ -160,163 +118,178 @@ class MGDDataHelper {
             htmlSize = 0;
             templateUpdateTime = 0;
             expiredTime = 0;
+            staleExpiredTime = 0;
             cacheHitCount = 0;
             unAvailableTime = 0;
+            lastAccessTime = 0;
+            bytesServed = 0;
+        }
+
+        /**
+         * @return A copy of this data.
+         */
+        SessionData copy() {
+            SessionData sessionData = new SessionData();
+            sessionData.sessionId = sessionId;
+            sessionData.eTag = eTag;
+            sessionData.templateTag = templateTag;
+            sessionData.htmlSha1 = htmlSha1;
+            sessionData.htmlSize = htmlSize;
+            sessionData.templateUpdateTime = templateUpdateTime;
+            sessionData.expiredTime = expiredTime;
+            sessionData.staleExpiredTime = staleExpiredTime;
+            sessionData.unAvailableTime = unAvailableTime;
+            sessionData.cacheHitCount = cacheHitCount;
+            sessionData.lastAccessTime = lastAccessTime;
+            sessionData.bytesServed = bytesServed;
+            return sessionData;
         }
     }
 
     /**
-     *
-     * @return all of the column in {@code MGD_SESSION_TABLE_NAME}
+     * The in-memory index of all session data. The values are never modified after they are put
+     * into the index, a mutation always puts a new copy.
      */
-    static String[] getAllSessionDataColumn() {
-        return new String[] {SESSION_DATA_COLUMN_SESSION_ID, SESSION_DATA_COLUMN_ETAG,
-                SESSION_DATA_COLUMN_TEMPLATE_EAG, SESSION_DATA_COLUMN_HTML_SHA1,
-                SESSION_DATA_COLUMN_UNAVAILABLE_TIME, SESSION_DATA_COLUMN_HTML_SIZE,
-                SESSION_DATA_COLUMN_TEMPLATE_UPDATE_TIME, SESSION_DATA_COLUMN_CACHE_EXPIRED_TIME,
-                SESSION_DATA_COLUMN_CACHE_HIT_COUNT};
-    }
+    private static final ConcurrentHashMap<String, SessionData> sessionIndex = new ConcurrentHashMap<String, SessionData>();
 
     /**
-     * Get MGD sessionData by unique session id
-     *
-     * @param sessionId a unique session id
-     * @return SessionData
+     * Mutations which have not been written to database, a null value means the row is removed.
+     * Guarded by {@link #sessionIndex}.
      */
-    @NonNull
-    static SessionData getSessionData(String sessionId) {
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        SessionData sessionData = getSessionData(db, sessionId);
-        if (null == sessionData) {
-            sessionData = new SessionData();
+    private static final LinkedHashMap<String, SessionData> pendingChanges = new LinkedHashMap<String, SessionData>();
+
+    /**
+     * Whether all rows should be deleted before {@link #pendingChanges} are written. Guarded by {@link #sessionIndex}.
+     */
+    private static boolean isClearPending;
+
+    /**
+     * Access statistics of the rows which are not in {@link #pendingChanges}, they are written
+     * as atomic increments instead of whole rows. Guarded by {@link #sessionIndex}.
+     */
+    private static final LinkedHashMap<String, MGDAccessStats.AccessDelta> pendingAccessStats = new LinkedHashMap<String, MGDAccessStats.AccessDelta>();
+
+    private static volatile boolean isIndexLoaded;
+
+    /**
+     * Load all the rows into the in-memory index if they have not been loaded.
+     */
+    static void loadIndexIfNeed() {
+        if (isIndexLoaded) {
+            return;
+        }
+        synchronized (sessionIndex) {
+            if (isIndexLoaded) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            for (SessionData data : MGDMetadataStore.getInstance().loadSessionData()) {
+                // the rows changed before the index is loaded are newer than the store
+                if (!pendingChanges.containsKey(data.sessionId) && !isClearPending) {
+                    sessionIndex.put(data.sessionId, data);
+                }
+            }
+            isIndexLoaded = true;
+            MGDUtils.log(TAG, Log.INFO, "loadIndexIfNeed: load " + sessionIndex.size() + " rows, cost " + (System.currentTimeMillis() - startTime) + " ms.");
         }
-        return sessionData;
     }
 
     /**
      * Get MGD sessionData by unique session id
      *
-     * @param db The database.
      * @param sessionId a unique session id
      * @return SessionData
      */
-    private static SessionData getSessionData(SQLiteDatabase db, String sessionId) {
-        Cursor cursor = db.query(MGD_SESSION_TABLE_NAME,
-                getAllSessionDataColumn(),
-                SESSION_DATA_COLUMN_SESSION_ID + "=?",
-                new String[] {sessionId},
-                null, null, null);
-
-        SessionData sessionData = null;
-        if (cursor != null && cursor.moveToFirst()) {
-            sessionData = querySessionData(cursor);
-        }
-        if(cursor != null){
-            cursor.close();
-        }
-        return sessionData;
+    @NonNull
+    static SessionData getSessionData(String sessionId) {
+        loadIndexIfNeed();
+        SessionData sessionData = sessionIndex.get(sessionId);
+        return null != sessionData ? sessionData.copy() : new SessionData();
     }
 
     /**
-     * translate cursor to session data.
-     * @param cursor db cursor
+     * @param sessionId session id
+     * @return Whether the session has metadata or not.
      */
-    private static SessionData querySessionData(Cursor cursor) {
-        SessionData sessionData = new SessionData();
-        sessionData.sessionId = cursor.getString(cursor.getColumnIndex(SESSION_DATA_COLUMN_SESSION_ID));
-        sessionData.eTag = cursor.getString(cursor.getColumnIndex(SESSION_DATA_COLUMN_ETAG));
-        sessionData.htmlSha1 = cursor.getString(cursor.getColumnIndex(SESSION_DATA_COLUMN_HTML_SHA1));
-        sessionData.htmlSize = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_HTML_SIZE));
-        sessionData.templateTag = cursor.getString(cursor.getColumnIndex(SESSION_DATA_COLUMN_TEMPLATE_EAG));
-        sessionData.templateUpdateTime = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_TEMPLATE_UPDATE_TIME));
-        sessionData.expiredTime = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_CACHE_EXPIRED_TIME));
-        sessionData.unAvailableTime = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_UNAVAILABLE_TIME));
-        sessionData.cacheHitCount = cursor.getInt(cursor.getColumnIndex(SESSION_DATA_COLUMN_CACHE_HIT_COUNT));
-        return sessionData;
+    static boolean hasSessionData(String sessionId) {
+        loadIndexIfNeed();
+        return sessionIndex.containsKey(sessionId);
     }
 
     /**
+     * Pick session data at random without copying the whole index.
      *
-     * @return all of the session data order by HitCount decrease.
+     * @param count The max number of session data
+     * @return A random sample of the session data.
      */
-    static List<SessionData> getAllSessionByHitCount() {
-        List<SessionData> sessionDatas = new ArrayList<SessionData>();
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        Cursor cursor = db.query(MGD_SESSION_TABLE_NAME,
-                getAllSessionDataColumn(),
-                null,null,null, null, SESSION_DATA_COLUMN_CACHE_HIT_COUNT + " ASC");
-        while(cursor != null && cursor.moveToNext()) {
-            sessionDatas.add(querySessionData(cursor));
+    static List<SessionData> sampleSessionData(int count) {
+        loadIndexIfNeed();
+        List<SessionData> sample = new ArrayList<SessionData>(count);
+        Random random = new Random();
+        int seen = 0;
+        for (SessionData sessionData : sessionIndex.values()) {
+            if (sample.size() < count) {
+                sample.add(sessionData);
+            } else {
+                int index = random.nextInt(seen + 1);
+                if (index < count) {
+                    sample.set(index, sessionData);
+                }
+            }
+            seen++;
         }
-
-        return sessionDatas;
+        for (int i = 0; i < sample.size(); i++) {
+            sample.set(i, sample.get(i).copy());
+        }
+        return sample;
     }
 
     /**
-     * Save or update MGD sessionData with a unique session id
      *
-     * @param sessionId   a unique session id
-     * @param sessionData SessionData
+     * @return all of the session data.
      */
-    static void saveSessionData(String sessionId, SessionData sessionData) {
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        saveSessionData(db, sessionId, sessionData);
+    static List<SessionData> getAllSessionData() {
+        loadIndexIfNeed();
+        List<SessionData> sessionDatas = new ArrayList<SessionData>(sessionIndex.size());
+        for (SessionData sessionData : sessionIndex.values()) {
+            sessionDatas.add(sessionData.copy());
+        }
+        return sessionDatas;
     }
 
     /**
      * Save or update MGD sessionData with a unique session id
      *
-     * @param db The database.
      * @param sessionId   a unique session id
      * @param sessionData SessionData
      */
-    private static void saveSessionData(SQLiteDatabase db, String sessionId, SessionData sessionData) {
-        sessionData.sessionId = sessionId;
-        SessionData storedSessionData = getSessionData(db, sessionId);
-        if (storedSessionData != null) {
-            sessionData.cacheHitCount = storedSessionData.cacheHitCount;
-            updateSessionData(db, sessionId, sessionData);
-        } else {
-            insertSessionData(db, sessionId, sessionData);
+    static void saveSessionData(String sessionId, SessionData sessionData) {
+        loadIndexIfNeed();
+        SessionData newSessionData = sessionData.copy();
+        newSessionData.sessionId = sessionId;
+        synchronized (sessionIndex) {
+            SessionData storedSessionData = sessionIndex.get(sessionId);
+            if (storedSessionData != null) {
+                newSessionData.cacheHitCount = storedSessionData.cacheHitCount;
+                newSessionData.lastAccessTime = storedSessionData.lastAccessTime;
+                newSessionData.bytesServed = storedSessionData.bytesServed;
+            }
+            putLocked(newSessionData);
         }
     }
 
-    private static void insertSessionData(SQLiteDatabase db, String sessionId, SessionData sessionData) {
-        ContentValues contentValues = getContentValues(sessionId, sessionData);
-        db.insert(MGD_SESSION_TABLE_NAME, null, contentValues);
-    }
-
-    private static void updateSessionData(SQLiteDatabase db, String sessionId, SessionData sessionData) {
-        ContentValues contentValues = getContentValues(sessionId, sessionData);
-        db.update(MGD_SESSION_TABLE_NAME, contentValues, SESSION_DATA_COLUMN_SESSION_ID + "=?",
-                new String[] {sessionId});
-    }
-
-    @NonNull
-    private static ContentValues getContentValues(String sessionId, SessionData sessionData) {
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(SESSION_DATA_COLUMN_SESSION_ID, sessionId);
-        contentValues.put(SESSION_DATA_COLUMN_ETAG, sessionData.eTag);
-        contentValues.put(SESSION_DATA_COLUMN_HTML_SHA1, sessionData.htmlSha1);
-        contentValues.put(SESSION_DATA_COLUMN_HTML_SIZE, sessionData.htmlSize);
-        contentValues.put(SESSION_DATA_COLUMN_TEMPLATE_EAG, sessionData.templateTag);
-        contentValues.put(SESSION_DATA_COLUMN_TEMPLATE_UPDATE_TIME, sessionData.templateUpdateTime);
-        contentValues.put(SESSION_DATA_COLUMN_CACHE_EXPIRED_TIME, sessionData.expiredTime);
-        contentValues.put(SESSION_DATA_COLUMN_UNAVAILABLE_TIME, sessionData.unAvailableTime);
-        contentValues.put(SESSION_DATA_COLUMN_CACHE_HIT_COUNT, sessionData.cacheHitCount);
-        return contentValues;
-    }
-
-
     /**
      * Remove a unique session data
      *
      * @param sessionId A unique session id
      */
     static void removeSessionData(String sessionId) {
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        db.delete(MGD_SESSION_TABLE_NAME, SESSION_DATA_COLUMN_SESSION_ID + "=?",
-                new String[] {sessionId});
+        synchronized (sessionIndex) {
+            sessionIndex.remove(sessionId);
+            pendingChanges.put(sessionId, null);
+            pendingAccessStats.remove(sessionId);
+        }
+        MGDMetadataStore.getInstance().scheduleFlush();
     }
 
     /**
@@ -327,21 +300,21 @@ class MGDDataHelper {
      * @return The result of save unavailable time
      */
     static boolean setMGDUnavailableTime(String sessionId, long unavailableTime) {
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        SessionData sessionData = getSessionData(db, sessionId);
-        if (sessionData != null) {
+        loadIndexIfNeed();
+        synchronized (sessionIndex) {
+            SessionData sessionData = sessionIndex.get(sessionId);
+            if (sessionData != null) {
+                sessionData = sessionData.copy();
+            } else {
+                sessionData = new SessionData();
+                sessionData.sessionId = sessionId;
+                sessionData.eTag = "Unknown";
+                sessionData.htmlSha1 = "Unknown";
+            }
             sessionData.unAvailableTime = unavailableTime;
-            updateSessionData(db, sessionId, sessionData);
-            return true;
-        } else {
-            sessionData = new SessionData();
-            sessionData.sessionId = sessionId;
-            sessionData.eTag = "Unknown";
-            sessionData.htmlSha1 = "Unknown";
-            sessionData.unAvailableTime = unavailableTime;
-            insertSessionData(db, sessionId, sessionData);
-            return true;
+            putLocked(sessionData);
         }
+        return true;
     }
 
     /**
@@ -351,38 +324,111 @@ class MGDDataHelper {
      * @return The MGD unavailable time
      */
     static long getLastMGDUnavailableTime(String sessionId) {
-        SessionData sessionData = getSessionData(sessionId);
-        return sessionData.unAvailableTime;
+        loadIndexIfNeed();
+        SessionData sessionData = sessionIndex.get(sessionId);
+        return null != sessionData ? sessionData.unAvailableTime : 0;
     }
 
     /**
-     * It will increase HitCount when local session cache is used.
-     * @param sessionId session id
+     * Apply the access statistics drained from {@link MGDAccessStats}.
+     *
+     * @param sessionId      session id
+     * @param hitCount       The hits since last drain
+     * @param bytesServed    The bytes served since last drain
+     * @param lastAccessTime The latest access time
      */
-    static void updateMGDCacheHitCount(String sessionId) {
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        updateMGDCacheHitCount(db, sessionId);
+    static void applyAccessStats(String sessionId, long hitCount, long bytesServed, long lastAccessTime) {
+        loadIndexIfNeed();
+        synchronized (sessionIndex) {
+            SessionData sessionData = sessionIndex.get(sessionId);
+            if (sessionData == null) {
+                return;
+            }
+            sessionData = sessionData.copy();
+            sessionData.cacheHitCount += hitCount;
+            sessionData.bytesServed += bytesServed;
+            sessionData.lastAccessTime = Math.max(sessionData.lastAccessTime, lastAccessTime);
+            sessionIndex.put(sessionId, sessionData);
+            if (pendingChanges.containsKey(sessionId)) {
+                pendingChanges.put(sessionId, sessionData);
+            } else {
+                MGDAccessStats.AccessDelta delta = pendingAccessStats.get(sessionId);
+                if (null == delta) {
+                    delta = new MGDAccessStats.AccessDelta();
+                    pendingAccessStats.put(sessionId, delta);
+                }
+                delta.add(hitCount, bytesServed, lastAccessTime);
+            }
+        }
+        MGDMetadataStore.getInstance().scheduleFlush();
     }
 
     /**
-     * It will increase HitCount when local session cache is used.
+     * Remove all MGD data
+     */
+    static void clear() {
+        synchronized (sessionIndex) {
+            sessionIndex.clear();
+            pendingChanges.clear();
+            pendingAccessStats.clear();
+            isClearPending = true;
+        }
+        MGDMetadataStore.getInstance().scheduleFlush();
+    }
+
+    private static void putLocked(SessionData sessionData) {
+        sessionIndex.put(sessionData.sessionId, sessionData);
+        pendingChanges.put(sessionData.sessionId, sessionData);
+        pendingAccessStats.remove(sessionData.sessionId);
+        MGDMetadataStore.getInstance().scheduleFlush();
+    }
+
+    /**
+     * Move the pending mutations into a batch, see {@link MGDMetadataStore#flush()}.
      *
-     * @param sessionId session id
-     * @param db The database.
+     * @param batch The batch to be applied
      */
-    private static void updateMGDCacheHitCount(SQLiteDatabase db, String sessionId) {
-        SessionData sessionData = getSessionData(db, sessionId);
-        if (sessionData != null) {
-            sessionData.cacheHitCount += 1;
-            updateSessionData(db, sessionId, sessionData);
+    static void drainPendingChanges(MGDMetadataStore.Batch batch) {
+        synchronized (sessionIndex) {
+            batch.sessionChanges.putAll(pendingChanges);
+            pendingChanges.clear();
+            batch.sessionAccessStats.putAll(pendingAccessStats);
+            pendingAccessStats.clear();
+            batch.isSessionClear = isClearPending;
+            isClearPending = false;
         }
     }
 
     /**
-     * Remove all MGD data
+     * Put back the mutations of a batch which failed to be applied, they are applied by the next
+     * flush. The mutations made after the batch was drained are newer and win.
+     *
+     * @param batch The batch which failed to be applied
      */
-    static synchronized void clear() {
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        db.delete(MGD_SESSION_TABLE_NAME, null, null);
+    static void restorePendingChanges(MGDMetadataStore.Batch batch) {
+        synchronized (sessionIndex) {
+            if (isClearPending) {
+                // all the rows are deleted again, the batch is out of date
+                return;
+            }
+            isClearPending = batch.isSessionClear;
+            LinkedHashMap<String, SessionData> newerChanges = new LinkedHashMap<String, SessionData>(pendingChanges);
+            pendingChanges.clear();
+            pendingChanges.putAll(batch.sessionChanges);
+            pendingChanges.putAll(newerChanges);
+            for (Map.Entry<String, MGDAccessStats.AccessDelta> entry : batch.sessionAccessStats.entrySet()) {
+                // a whole row in pendingChanges already includes the statistics
+                if (pendingChanges.containsKey(entry.getKey())) {
+                    continue;
+                }
+                MGDAccessStats.AccessDelta olderDelta = entry.getValue();
+                MGDAccessStats.AccessDelta delta = pendingAccessStats.get(entry.getKey());
+                if (null == delta) {
+                    pendingAccessStats.put(entry.getKey(), olderDelta);
+                } else {
+                    delta.add(olderDelta.hitCount, olderDelta.bytesServed, olderDelta.lastAccessTime);
+                }
+            }
+        }
     }
 }
@@ -21,8 +21,20 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.mgdevjo.websdk.download.MGDDownloadScheduler;
 
 /**
  *
@@ -52,19 +64,143 @@ public class MGDEngine {
     private static MGDEngine sInstance;
 
     /**
-     * Map containing preload session with capacity limits.
+     * Pool containing preload session with capacity limits, see {@link MGDPreloadPool}.
      */
-    private final ConcurrentHashMap<String, MGDSession> preloadSessionPool = new ConcurrentHashMap<String, MGDSession>(5);
+    private final MGDPreloadPool preloadSessionPool;
 
     /**
      * Map containing weak reference of running sessions.
      */
     private final ConcurrentHashMap<String, MGDSession> runningSessionHashMap = new ConcurrentHashMap<String, MGDSession>(5);
 
+    /**
+     * All the sessions which are running or ready, keyed by session id. Unlike {@link #runningSessionHashMap}
+     * it includes the sessions which share the response of a running one, the cache of a session id is
+     * not removed while any of them is alive. Guarded by itself.
+     */
+    private final HashMap<String, HashSet<MGDSession>> aliveSessions = new HashMap<String, HashSet<MGDSession>>();
+
+    /**
+     * Transitions between sessions, used by predictive preloading, see {@link MGDConfig#PREDICTIVE_PRELOAD_ENABLED}.
+     */
+    private final MGDNavigationGraph navigationGraph;
+
+    /**
+     * Pauses background work while foreground sessions load, see {@link MGDConfig#FOREGROUND_PREEMPT_ENABLED}.
+     */
+    private final MGDForegroundGate foregroundGate;
+
+    /**
+     * Runs the sub resource downloads of all sessions, see {@link MGDDownloadScheduler}.
+     */
+    private final MGDDownloadScheduler downloadScheduler;
+
+    /**
+     * The number of {@link #sessionLocks}
+     */
+    private static final int SESSION_LOCK_STRIPES = 16;
+
+    /**
+     * Sessions with different ids are created concurrently, the lock of a session id is
+     * {@code sessionLocks[hash(sessionId) % SESSION_LOCK_STRIPES]}. {@link #cleanCache()} takes
+     * all of them in index order.
+     */
+    private final Object[] sessionLocks = new Object[SESSION_LOCK_STRIPES];
+
+    /**
+     * Write-behind queue of session cache and resource cache, it is created lazily.
+     */
+    private volatile MGDWriteBehindQueue writeBehindQueue;
+
+    /**
+     * Whether the background cache sweep has been scheduled or not.
+     */
+    private final AtomicBoolean isCacheSweepScheduled = new AtomicBoolean(false);
+
+    /**
+     * The background cache sweep, it runs every {@link MGDConfig#MGD_CACHE_CHECK_TIME_INTERVAL} ms.
+     */
+    private final Runnable cacheSweepTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                MGDFileUtils.sweepExpiredResourceCache();
+                trimMGDCache();
+            } catch (Throwable e) {
+                runtime.log(TAG, Log.ERROR, "cacheSweepTask error:" + e.getMessage());
+            }
+            runtime.postTaskToThread(this, config.MGD_CACHE_CHECK_TIME_INTERVAL);
+        }
+    };
+
+    /**
+     * Whether the background initialization has been posted or not.
+     */
+    private final AtomicBoolean isInitStarted = new AtomicBoolean(false);
+
+    /**
+     * Tasks waiting for {@link #readyFuture}, guarded by itself.
+     */
+    private final List<PendingReadyTask> pendingReadyTasks = new ArrayList<PendingReadyTask>();
+
+    private static class PendingReadyTask {
+
+        final Runnable task;
+
+        final Runnable failTask;
+
+        PendingReadyTask(Runnable task, Runnable failTask) {
+            this.task = task;
+            this.failTask = failTask;
+        }
+    }
+
+    /**
+     * The background initialization, see {@link #initInBackground()}. It is done when the metadata
+     * store is opened and the in-memory indexes are loaded, or when the initialization fails.
+     */
+    private final FutureTask<Boolean> readyFuture = new FutureTask<Boolean>(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+            initInBackground();
+            return true;
+        }
+    }) {
+        @Override
+        protected void done() {
+            List<PendingReadyTask> tasks;
+            synchronized (pendingReadyTasks) {
+                tasks = new ArrayList<PendingReadyTask>(pendingReadyTasks);
+                pendingReadyTasks.clear();
+            }
+            boolean isSucceeded = isInitSucceeded();
+            if (isSucceeded) {
+                if (!tasks.isEmpty()) {
+                    runtime.log(TAG, Log.INFO, "engine is ready, run " + tasks.size() + " pending tasks.");
+                }
+            } else {
+                runtime.log(TAG, Log.ERROR, "engine init fail, fail " + tasks.size() + " pending tasks.");
+            }
+            for (PendingReadyTask pendingTask : tasks) {
+                if (isSucceeded) {
+                    pendingTask.task.run();
+                } else {
+                    pendingTask.failTask.run();
+                }
+            }
+        }
+    };
 
     private MGDEngine(MGDRuntime runtime, MGDConfig config) {
         this.runtime = runtime;
         this.config = config;
+        this.navigationGraph = new MGDNavigationGraph(runtime);
+        this.foregroundGate = new MGDForegroundGate(runtime, config);
+        this.downloadScheduler = new MGDDownloadScheduler(runtime, config.MGD_MAX_NUM_OF_DOWNLOADING_TASK, config.MGD_MAX_NUM_OF_DOWNLOADING_TASK_PER_HOST);
+        this.preloadSessionPool = new MGDPreloadPool(runtime, config.MAX_PRELOAD_SESSION_COUNT, config.MAX_CONCURRENT_PRELOAD_COUNT);
+        for (int i = 0; i < SESSION_LOCK_STRIPES; i++) {
+            sessionLocks[i] = new Object();
+        }
     }
 
     /**
@@ -94,6 +230,11 @@ public class MGDEngine {
 
     /**
      * Create MGDEngine instance. Meanwhile it will initialize engine and MGDRuntime.
+     * <p>
+     * Only the cheap part of the initialization runs on the caller thread. If
+     * {@link MGDConfig#AUTO_INIT_DB_WHEN_CREATE} is true the rest is posted to the background
+     * at once, otherwise it is posted when the first session starts, see {@link #getReadyFuture()}.
+     *
      * @param runtime MGDRuntime
      * @param config MGDConfig
      * @return MGDEngine object
@@ -101,8 +242,9 @@ public class MGDEngine {
     public static synchronized MGDEngine createInstance(@NonNull MGDRuntime runtime, @NonNull MGDConfig config) {
         if (null == sInstance) {
             sInstance = new MGDEngine(runtime, config);
+            MGDMetadataStore.createInstance(runtime, config.METADATA_STORE_TYPE);
             if (config.AUTO_INIT_DB_WHEN_CREATE) {
-                sInstance.initMGDDB();
+                sInstance.startInit();
             }
         }
 
@@ -110,10 +252,119 @@ public class MGDEngine {
     }
 
     /**
-     * Init MGD DB which will upgrade to new version of database.
+     * Init MGD DB which will upgrade to new version of database, see {@link MGDConfig.Builder#setMetadataStoreType(int)}.
+     * <p>
+     * This method blocks until the engine is ready, use {@link #getReadyFuture()} to wait for
+     * the background initialization instead.
      */
     public void initMGDDB() {
-        MGDDBHelper.createInstance(getRuntime().getContext()).getWritableDatabase(); // init and update db
+        readyFuture.run();
+        try {
+            readyFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            runtime.log(TAG, Log.ERROR, "initMGDDB error:" + e.getCause());
+        }
+    }
+
+    /**
+     * @return Whether the background initialization is done without error. The result does not
+     * block, it is {@code false} before the initialization is done.
+     */
+    private boolean isInitSucceeded() {
+        if (!readyFuture.isDone() || readyFuture.isCancelled()) {
+            return false;
+        }
+        try {
+            return Boolean.TRUE.equals(readyFuture.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    private void startInit() {
+        if (isInitStarted.compareAndSet(false, true)) {
+            runtime.postTaskToThread(readyFuture, 0L);
+        }
+    }
+
+    /**
+     * Open the metadata store (which may upgrade the database), warm up the in-memory indexes
+     * and the cache directories, then schedule the background cache sweep.
+     */
+    private void initInBackground() {
+        long startTime = System.currentTimeMillis();
+        MGDMetadataStore.getInstance().open();
+        // warm up the in-memory indexes so that the first session never waits for the database
+        MGDDataHelper.loadIndexIfNeed();
+        MGDResourceDataHelper.loadIndexIfNeed();
+        MGDFileUtils.getMGDCacheDirPath();
+        MGDFileUtils.getMGDResourceCachePath();
+        // the files of the flat layout are moved before any session looks for them
+        MGDCacheLedger.getSessionLedger().size();
+        MGDCacheLedger.getResourceLedger().size();
+        MGDFileUtils.sweepResourceTempFiles();
+        MGDAccessStats.registerComponentCallbacks(runtime.getContext());
+        if (config.PREDICTIVE_PRELOAD_ENABLED) {
+            navigationGraph.load();
+        }
+        if (isCacheSweepScheduled.compareAndSet(false, true)) {
+            runtime.postTaskToThread(cacheSweepTask, config.MGD_CACHE_CHECK_TIME_INTERVAL);
+        }
+        runtime.log(TAG, Log.INFO, "initInBackground: cost " + (System.currentTimeMillis() - startTime) + " ms.");
+    }
+
+    /**
+     * @return Whether the background initialization is done successfully or not.
+     */
+    public boolean isReady() {
+        return isInitSucceeded();
+    }
+
+    /**
+     * @return Whether the background initialization has failed, MGD Service is unavailable then.
+     */
+    public boolean isInitFailed() {
+        return readyFuture.isDone() && !isInitSucceeded();
+    }
+
+    /**
+     * @return The future of the background initialization, it is done when the metadata store
+     * is opened and the in-memory indexes are loaded. Its {@code get()} throws if the initialization fails.
+     */
+    public Future<Boolean> getReadyFuture() {
+        startInit();
+        return readyFuture;
+    }
+
+    /**
+     * Run the task once the engine is ready, or the fail task if the initialization fails. The
+     * task runs on the caller thread if the initialization is done, otherwise it runs on the
+     * thread which finishes the initialization.
+     *
+     * @param task     The task
+     * @param failTask The task which runs instead of {@code task} if the initialization fails
+     */
+    void runWhenReady(Runnable task, Runnable failTask) {
+        if (!readyFuture.isDone()) {
+            synchronized (pendingReadyTasks) {
+                // done() drains the list under the same lock after isDone() becomes true
+                if (!readyFuture.isDone()) {
+                    pendingReadyTasks.add(new PendingReadyTask(task, failTask));
+                    startInit();
+                    return;
+                }
+            }
+        }
+        if (isInitSucceeded()) {
+            task.run();
+        } else {
+            failTask.run();
+        }
     }
 
     /**
@@ -130,13 +381,42 @@ public class MGDEngine {
         return config;
     }
 
+    MGDForegroundGate getForegroundGate() {
+        return foregroundGate;
+    }
+
+    /**
+     * @return The scheduler which runs the sub resource downloads of all sessions.
+     */
+    public MGDDownloadScheduler getDownloadScheduler() {
+        return downloadScheduler;
+    }
 
     /**
-     * Whether MGD Service is available or not
+     * @return The queue which persists session cache and resource cache in the background.
+     */
+    public MGDWriteBehindQueue getWriteBehindQueue() {
+        if (null == writeBehindQueue) {
+            synchronized (this) {
+                if (null == writeBehindQueue) {
+                    writeBehindQueue = new MGDWriteBehindQueue();
+                }
+            }
+        }
+        return writeBehindQueue;
+    }
+
+
+    /**
+     * Whether MGD Service is available or not. Sessions created before the engine is ready are
+     * started once it is ready, so MGD Service is available during the initialization.
      * @return return true if MGD Service is available , false else others.
      */
     public boolean isMGDAvailable() {
-        return !MGDDBHelper.getInstance().isUpgrading();
+        if (readyFuture.isDone()) {
+            return isInitSucceeded() && !MGDMetadataStore.getInstance().isUpgrading();
+        }
+        return true;
     }
 
     /**
@@ -155,7 +435,12 @@ public class MGDEngine {
      * This method will preCreate MGD session .
      * And maps the specified session id to the specified value in this table {@link #preloadSessionPool} if there is no same MGD session.
      * At the same time, if the number of {@link #preloadSessionPool} exceeds {@link MGDConfig#MAX_PRELOAD_SESSION_COUNT},
-     * preCreateSession will return false and not create any MGD session.
+     * the preload session with the lowest expected-use score is replaced if the new one scores higher,
+     * otherwise preCreateSession will return false and not create any MGD session.
+     *
+     * <p>
+     * The unavailable time of the session id is checked on the session thread, a preload session
+     * which turns out to be unavailable destroys itself and is dropped from {@link #preloadSessionPool}.
      *
      * <p><b>Note: this method is intended for preload scene.</b></p>
      * @param url           url for preCreate MGD session
@@ -165,31 +450,94 @@ public class MGDEngine {
      *  it will return true,
      *  <code>false</code> otherwise.
      */
-    public synchronized boolean preCreateSession(@NonNull String url, @NonNull MGDSessionConfig sessionConfig) {
+    public boolean preCreateSession(@NonNull String url, @NonNull MGDSessionConfig sessionConfig) {
         if (isMGDAvailable()) {
             String sessionId = makeSessionId(url, sessionConfig.IS_ACCOUNT_RELATED);
-            if (!TextUtils.isEmpty(sessionId)) {
-                MGDSession mgdSession = lookupSession(sessionConfig, sessionId, false);
-                if (null != mgdSession) {
-                    runtime.log(TAG, Log.ERROR, "preCreateSession：sessionId(" + sessionId + ") is already in preload pool.");
-                    return false;
-                }
-                if (preloadSessionPool.size() < config.MAX_PRELOAD_SESSION_COUNT) {
-                    if (isSessionAvailable(sessionId) && runtime.isNetworkValid()) {
-                        mgdSession = internalCreateSession(sessionId, url, sessionConfig);
-                        if (null != mgdSession) {
-                            preloadSessionPool.put(sessionId, mgdSession);
-                            return true;
-                        }
+            int status = preCreateSession(sessionId, url, sessionConfig, MGDPreloadRequest.PRIORITY_DEFAULT);
+            return MGDPreloadResult.STATUS_STARTED == status || MGDPreloadResult.STATUS_QUEUED == status;
+        } else {
+            runtime.log(TAG, Log.ERROR, "preCreateSession fail for MGD service is unavailable!");
+        }
+        return false;
+    }
+
+    /**
+     * PreCreate MGD sessions in a batch, see {@link #preCreateSession(String, MGDSessionConfig)}.
+     * <p>
+     * The requests are handled in the order of {@link MGDPreloadRequest#priority}, and at most
+     * {@link MGDConfig#MAX_CONCURRENT_PRELOAD_COUNT} preload sessions run their network flows at
+     * the same time, the others are queued in the same order.
+     *
+     * <p><b>Note: this method is intended for preload scene.</b></p>
+     * @param requests The preloads
+     * @return Which preloads have been started, queued, deduplicated or rejected.
+     */
+    public MGDPreloadResult preCreateSessions(@NonNull List<MGDPreloadRequest> requests) {
+        MGDPreloadResult result = new MGDPreloadResult();
+        if (!isMGDAvailable()) {
+            runtime.log(TAG, Log.ERROR, "preCreateSessions fail for MGD service is unavailable!");
+            for (MGDPreloadRequest request : requests) {
+                result.add(request.url, MGDPreloadResult.STATUS_REJECTED);
+            }
+            return result;
+        }
+
+        List<MGDPreloadRequest> sortedRequests = new ArrayList<MGDPreloadRequest>(requests);
+        Collections.sort(sortedRequests, new Comparator<MGDPreloadRequest>() {
+            @Override
+            public int compare(MGDPreloadRequest lhs, MGDPreloadRequest rhs) {
+                return lhs.priority > rhs.priority ? -1 : (lhs.priority == rhs.priority ? 0 : 1);
+            }
+        });
+        HashSet<String> sessionIds = new HashSet<String>();
+        for (MGDPreloadRequest request : sortedRequests) {
+            String sessionId = makeSessionId(request.url, request.sessionConfig.IS_ACCOUNT_RELATED);
+            if (!TextUtils.isEmpty(sessionId) && !sessionIds.add(sessionId)) {
+                result.add(request.url, MGDPreloadResult.STATUS_DEDUPLICATED);
+            } else {
+                result.add(request.url, preCreateSession(sessionId, request.url, request.sessionConfig, request.priority));
+            }
+        }
+        runtime.log(TAG, Log.INFO, "preCreateSessions: " + result + ".");
+        return result;
+    }
+
+    private int preCreateSession(String sessionId, String url, MGDSessionConfig sessionConfig, int priority) {
+        if (TextUtils.isEmpty(sessionId)) {
+            return MGDPreloadResult.STATUS_REJECTED;
+        }
+        synchronized (getSessionLock(sessionId)) {
+            MGDSession mgdSession = lookupSession(sessionConfig, sessionId, false);
+            if (null != mgdSession) {
+                runtime.log(TAG, Log.ERROR, "preCreateSession：sessionId(" + sessionId + ") is already in preload pool.");
+                return MGDPreloadResult.STATUS_DEDUPLICATED;
+            }
+            if (isSessionAlive(sessionId)) {
+                runtime.log(TAG, Log.ERROR, "preCreateSession：sessionId(" + sessionId + ") is running now.");
+                return MGDPreloadResult.STATUS_DEDUPLICATED;
+            }
+            if (!runtime.isNetworkValid()) {
+                return MGDPreloadResult.STATUS_REJECTED;
+            }
+            synchronized (preloadSessionPool) {
+                if (preloadSessionPool.makeRoom(sessionId)) {
+                    mgdSession = internalCreateSession(sessionId, url, sessionConfig, true, false);
+                    if (null != mgdSession) {
+                        mgdSession.isBackgroundPreload = true;
+                        preloadSessionPool.put(sessionId, mgdSession);
                     }
                 } else {
                     runtime.log(TAG, Log.ERROR, "create id(" + sessionId + ") fail for preload size is bigger than " + config.MAX_PRELOAD_SESSION_COUNT + ".");
                 }
             }
-        } else {
-            runtime.log(TAG, Log.ERROR, "preCreateSession fail for MGD service is unavailable!");
+            if (null == mgdSession) {
+                return MGDPreloadResult.STATUS_REJECTED;
+            }
+            if (!sessionConfig.AUTO_START_WHEN_CREATE || preloadSessionPool.start(mgdSession, priority)) {
+                return MGDPreloadResult.STATUS_STARTED;
+            }
+            return MGDPreloadResult.STATUS_QUEUED;
         }
-        return false;
     }
 
     /**
@@ -198,17 +546,45 @@ public class MGDEngine {
      * @param sessionConfig MGDSession config
      * @return This method will create and return MGDSession Object when url is legal.
      */
-    public synchronized MGDSession createSession(@NonNull String url, @NonNull MGDSessionConfig sessionConfig) {
+    public MGDSession createSession(@NonNull String url, @NonNull MGDSessionConfig sessionConfig) {
+        return createSession(url, sessionConfig, false);
+    }
+
+    /**
+     * Create a session without touching the disk on the caller thread. Unlike
+     * {@link #createSession(String, MGDSessionConfig)}, the unavailable time of the session id is
+     * checked on the session thread. If the session id is unavailable the session destroys itself,
+     * its client request gets no response and the page is loaded without MGD.
+     *
+     * @param url           url for MGDSession Object
+     * @param sessionConfig MGDSession config
+     * @return This method will create and return MGDSession Object when url is legal.
+     */
+    public MGDSession createSessionAsync(@NonNull String url, @NonNull MGDSessionConfig sessionConfig) {
+        return createSession(url, sessionConfig, true);
+    }
+
+    private MGDSession createSession(String url, MGDSessionConfig sessionConfig, boolean deferAvailabilityCheck) {
         if (isMGDAvailable()) {
             String sessionId = makeSessionId(url, sessionConfig.IS_ACCOUNT_RELATED);
             if (!TextUtils.isEmpty(sessionId)) {
-                MGDSession mgdSession = lookupSession(sessionConfig, sessionId, true);
-                if (null != mgdSession) {
-                    mgdSession.setIsPreload(url);
-                } else if (isSessionAvailable(sessionId)) { // 缓存中未存在
-                    mgdSession = internalCreateSession(sessionId, url, sessionConfig);
+                if (config.PREDICTIVE_PRELOAD_ENABLED) {
+                    recordTransition(sessionId, url);
+                }
+                synchronized (getSessionLock(sessionId)) {
+                    MGDSession mgdSession = lookupSession(sessionConfig, sessionId, true);
+                    if (null != mgdSession) {
+                        mgdSession.setIsPreload(url);
+                        preloadSessionPool.startNow(mgdSession);
+                    } else {
+                        // the index is not loaded before the engine is ready, check it on the session thread
+                        boolean deferCheck = deferAvailabilityCheck || !isReady();
+                        if (deferCheck || isSessionAvailable(sessionId)) { // 缓存中未存在
+                            mgdSession = internalCreateSession(sessionId, url, sessionConfig, deferCheck, sessionConfig.AUTO_START_WHEN_CREATE);
+                        }
+                    }
+                    return mgdSession;
                 }
-                return mgdSession;
             }
         } else {
             runtime.log(TAG, Log.ERROR, "createSession fail for MGD service is unavailable!");
@@ -216,6 +592,11 @@ public class MGDEngine {
         return null;
     }
 
+    private Object getSessionLock(String sessionId) {
+        int hash = sessionId.hashCode();
+        hash ^= (hash >>> 16);
+        return sessionLocks[(hash & 0x7fffffff) % SESSION_LOCK_STRIPES];
+    }
 
     /**
      *
@@ -230,18 +611,17 @@ public class MGDEngine {
             MGDSession mgdSession = preloadSessionPool.get(sessionId);
             if (mgdSession != null) {
                 //判断session缓存是否过期,以及sessionConfig是否发生变化
-                if (!config.equals(mgdSession.config) ||
-                        mgdSession.config.PRELOAD_SESSION_EXPIRED_TIME > 0 && System.currentTimeMillis() - mgdSession.createdTime > mgdSession.config.PRELOAD_SESSION_EXPIRED_TIME) {
+                boolean isExpired = MGDPreloadPool.isExpired(mgdSession, System.currentTimeMillis());
+                if (isExpired || !config.equals(mgdSession.config) || mgdSession.isDestroyedOrWaitingForDestroy()) {
                     if (runtime.shouldLog(Log.ERROR)) {
                         runtime.log(TAG, Log.ERROR, "lookupSession error:sessionId(" + sessionId + ") is expired.");
                     }
-                    preloadSessionPool.remove(sessionId);
-                    mgdSession.destroy();
+                    preloadSessionPool.discard(sessionId, isExpired);
                     return null;
                 }
 
                 if (pick) {
-                    preloadSessionPool.remove(sessionId);
+                    preloadSessionPool.pick(sessionId);
                 }
             }
             return mgdSession;
@@ -255,19 +635,28 @@ public class MGDEngine {
      * @param sessionId session id
      * @param url origin url
      * @param sessionConfig session config
-     * @return Return new MGDSession if there was no mapping for the sessionId in {@link #runningSessionHashMap}
+     * @param deferAvailabilityCheck Whether the unavailable time is checked on the session thread
+     * @param start Whether the session is started at once
+     * @return Return new MGDSession if there was no mapping for the sessionId in {@link #runningSessionHashMap},
+     *         or the running session can share its response with the new one.
      */
-    private MGDSession internalCreateSession(String sessionId, String url, MGDSessionConfig sessionConfig) {
-        if (!runningSessionHashMap.containsKey(sessionId)) {
+    private MGDSession internalCreateSession(String sessionId, String url, MGDSessionConfig sessionConfig, boolean deferAvailabilityCheck, boolean start) {
+        MGDSession runningSession = runningSessionHashMap.get(sessionId);
+        if (null == runningSession || (sessionConfig.equals(runningSession.config) && !runningSession.isDestroyedOrWaitingForDestroy())) {
             MGDSession mgdSession;
             if (sessionConfig.sessionMode == MGDConstants.SESSION_MODE_QUICK) {
                 mgdSession = new QuickMGDSession(sessionId, url, sessionConfig);
             } else {
                 mgdSession = new StandardMGDSession(sessionId, url, sessionConfig);
             }
+            mgdSession.isAvailabilityCheckDeferred = deferAvailabilityCheck;
+            mgdSession.sharedSession = runningSession;
             mgdSession.addSessionStateChangedCallback(sessionCallback);
+            if (null != runningSession && runtime.shouldLog(Log.INFO)) {
+                runtime.log(TAG, Log.INFO, "internalCreateSession: sessionId(" + sessionId + ") is running now, share its response.");
+            }
 
-            if (sessionConfig.AUTO_START_WHEN_CREATE) {
+            if (start) {
                 mgdSession.start();
             }
             return mgdSession;
@@ -283,7 +672,7 @@ public class MGDEngine {
      * @param sessionId session id
      * @return Test if the sessionId is available.
      */
-    private boolean isSessionAvailable(String sessionId) {
+    boolean isSessionAvailable(String sessionId) {
         long unavailableTime = MGDDataHelper.getLastMGDUnavailableTime(sessionId);
         if (System.currentTimeMillis() > unavailableTime) {
             return true;
@@ -298,21 +687,34 @@ public class MGDEngine {
      * Removes all of the cache from {@link #preloadSessionPool} and deletes file caches from SDCard.
      *
      * @return
-     *      Returns {@code false} if {@link #runningSessionHashMap} is not empty.
+     *      Returns {@code false} if any session is running or ready.
      *      Returns {@code true} if all of the local file cache has been deleted, <code>false</code> otherwise
      */
-    public synchronized boolean cleanCache() {
-        if (!preloadSessionPool.isEmpty()) {
-            runtime.log(TAG, Log.INFO, "cleanCache: remove all preload sessions, size=" + preloadSessionPool.size() + ".");
-            Collection<MGDSession> mgdSessions = preloadSessionPool.values();
-            for (MGDSession session : mgdSessions) {
-                session.destroy();
+    public boolean cleanCache() {
+        return cleanCacheLocked(0);
+    }
+
+    /**
+     * Take the session locks from {@code stripe} on and clean the cache, so no session is created,
+     * preloaded or removed while the cache is cleaned.
+     */
+    private boolean cleanCacheLocked(int stripe) {
+        if (stripe < SESSION_LOCK_STRIPES) {
+            synchronized (sessionLocks[stripe]) {
+                return cleanCacheLocked(stripe + 1);
             }
-            preloadSessionPool.clear();
         }
 
-        if (!runningSessionHashMap.isEmpty()) {
-            runtime.log(TAG, Log.ERROR, "cleanCache fail, running session map's size is " + runningSessionHashMap.size() + ".");
+        if (!preloadSessionPool.isEmpty()) {
+            runtime.log(TAG, Log.INFO, "cleanCache: remove all preload sessions, size=" + preloadSessionPool.clear() + ".");
+        }
+
+        int aliveCount;
+        synchronized (aliveSessions) {
+            aliveCount = aliveSessions.size();
+        }
+        if (aliveCount > 0) {
+            runtime.log(TAG, Log.ERROR, "cleanCache fail, " + aliveCount + " session ids are running.");
             return false;
         }
 
@@ -325,17 +727,20 @@ public class MGDEngine {
      * Removes the sessionId and its corresponding MGDSession from {@link #preloadSessionPool}.
      *
      * @param sessionId A unique session id
-     * @return Return {@code true} If there is no specified sessionId in {@link #runningSessionHashMap}, <code>false</code> otherwise.
+     * @return Return {@code true} If no session of the sessionId is running or ready, <code>false</code> otherwise.
      */
-    public synchronized boolean removeSessionCache(@NonNull String sessionId) {
-        MGDSession mgdSession = preloadSessionPool.get(sessionId);
-        if (null != mgdSession) {
-            mgdSession.destroy();
-            preloadSessionPool.remove(sessionId);
+    public boolean removeSessionCache(@NonNull String sessionId) {
+        synchronized (getSessionLock(sessionId)) {
+            return internalRemoveSessionCache(sessionId);
+        }
+    }
+
+    private boolean internalRemoveSessionCache(String sessionId) {
+        if (null != preloadSessionPool.discard(sessionId, false)) {
             runtime.log(TAG, Log.INFO, "sessionId(" + sessionId + ") removeSessionCache: remove preload session.");
         }
 
-        if (!runningSessionHashMap.containsKey(sessionId)) {
+        if (!isSessionAlive(sessionId)) {
             runtime.log(TAG, Log.INFO, "sessionId(" + sessionId + ") removeSessionCache success.");
             MGDUtils.removeSessionCache(sessionId);
             return true;
@@ -344,9 +749,103 @@ public class MGDEngine {
         return false;
     }
 
+    private boolean isSessionAlive(String sessionId) {
+        synchronized (aliveSessions) {
+            return aliveSessions.containsKey(sessionId);
+        }
+    }
+
+    private void addAliveSession(MGDSession session) {
+        synchronized (aliveSessions) {
+            HashSet<MGDSession> sessions = aliveSessions.get(session.id);
+            if (null == sessions) {
+                sessions = new HashSet<MGDSession>();
+                aliveSessions.put(session.id, sessions);
+            }
+            sessions.add(session);
+        }
+    }
+
+    private void removeAliveSession(MGDSession session) {
+        synchronized (aliveSessions) {
+            HashSet<MGDSession> sessions = aliveSessions.get(session.id);
+            if (null != sessions && sessions.remove(session) && sessions.isEmpty()) {
+                aliveSessions.remove(session.id);
+            }
+        }
+    }
+
+    /**
+     * @return The hit and waste counters of preload sessions, see {@link #preCreateSession(String, MGDSessionConfig)}.
+     */
+    public MGDPreloadPool.Statistics getPreloadStatistics() {
+        return preloadSessionPool.getStatistics();
+    }
+
+    /**
+     * @param lane {@link MGDSessionThreadPool#LANE_NETWORK} or {@link MGDSessionThreadPool#LANE_CPU}
+     * @return The task counters of a lane of the session thread pool, such as rejections and queue time.
+     */
+    public MGDSessionThreadPool.Statistics getThreadPoolStatistics(int lane) {
+        return MGDSessionThreadPool.getStatistics(lane);
+    }
+
+    /**
+     * @return The accuracy counters of predictive preloading, see {@link MGDConfig#PREDICTIVE_PRELOAD_ENABLED}.
+     */
+    public MGDNavigationGraph.Statistics getPredictionStatistics() {
+        return navigationGraph.getStatistics();
+    }
+
     /**
-     * It will Post a task to trim MGD cache
-     * if the last time of check MGD cache exceed {@link MGDConfig#MGD_CACHE_CHECK_TIME_INTERVAL}.
+     * Record the opened page on the cpu lane, so that the caller thread never waits for the graph
+     * which is locked while {@link MGDNavigationGraph#predict} reads the session data.
+     *
+     * @param sessionId The session id of the opened page
+     * @param url The url of the opened page
+     */
+    private void recordTransition(final String sessionId, final String url) {
+        // the transition runs before the predictions of the pages which are ready
+        MGDSessionThreadPool.postTask(new Runnable() {
+            @Override
+            public void run() {
+                navigationGraph.recordTransition(sessionId, url);
+            }
+        }, MGDSessionThreadPool.LANE_CPU, MGDSessionThreadPool.PRIORITY_FOREGROUND);
+    }
+
+    /**
+     * Preload the most probable next pages of a session which is ready, unless the network is metered.
+     * Nothing is predicted unless the session is the page which is opened last.
+     *
+     * @param session The session which is ready
+     */
+    private void preloadPredictedSessions(MGDSession session) {
+        if (!navigationGraph.isCurrentSession(session.id)) {
+            return;
+        }
+        if (runtime.isNetworkMetered()) {
+            runtime.log(TAG, Log.INFO, "session(" + session.sId + ") preloadPredictedSessions: network is metered.");
+            return;
+        }
+        List<String> urls = navigationGraph.predict(session.id, config.PREDICTIVE_PRELOAD_MAX_COUNT, config.PREDICTIVE_PRELOAD_MIN_PROBABILITY,
+                config.PREDICTIVE_PRELOAD_BYTE_BUDGET, config.PREDICTIVE_PRELOAD_BUDGET_WINDOW);
+        if (urls.isEmpty()) {
+            return;
+        }
+        List<MGDPreloadRequest> requests = new ArrayList<MGDPreloadRequest>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            // the most probable page first, and behind all the preloads requested by the app
+            requests.add(new MGDPreloadRequest(urls.get(i), session.config, MGDPreloadRequest.PRIORITY_DEFAULT - 1 - i));
+        }
+        MGDPreloadResult result = preCreateSessions(requests);
+        runtime.log(TAG, Log.INFO, "session(" + session.sId + ") preloadPredictedSessions: " + result + ".");
+    }
+
+    /**
+     * Trim MGD cache and resource cache if they exceed their limits, see {@link MGDConfig#SESSION_CACHE_EVICTION_POLICY}
+     * and {@link MGDConfig#RESOURCE_CACHE_EVICTION_POLICY}. It is also called by the background cache sweep
+     * every {@link MGDConfig#MGD_CACHE_CHECK_TIME_INTERVAL} ms.
      */
     public void trimMGDCache() {
         MGDFileUtils.checkAndTrimCache();
@@ -367,10 +866,27 @@ public class MGDEngine {
             MGDUtils.log(TAG, Log.DEBUG, "onSessionStateChange:session(" + session.sId + ") from state " + oldState + " -> " + newState);
             switch (newState) {
                 case MGDSession.STATE_RUNNING:
-                    runningSessionHashMap.put(session.id, session);
+                    // a session sharing the response of a running one is only tracked as alive
+                    runningSessionHashMap.putIfAbsent(session.id, session);
+                    addAliveSession(session);
+                    break;
+                case MGDSession.STATE_READY:
+                    preloadSessionPool.onFlowFinished(session);
+                    // the transition may still wait on the cpu lane, the current page is checked there
+                    if (config.PREDICTIVE_PRELOAD_ENABLED) {
+                        final MGDSession readySession = session;
+                        MGDSessionThreadPool.postTask(new Runnable() {
+                            @Override
+                            public void run() {
+                                preloadPredictedSessions(readySession);
+                            }
+                        }, MGDSessionThreadPool.LANE_CPU, MGDSessionThreadPool.PRIORITY_PRELOAD);
+                    }
                     break;
                 case MGDSession.STATE_DESTROY:
-                    runningSessionHashMap.remove(session.id);
+                    runningSessionHashMap.remove(session.id, session);
+                    removeAliveSession(session);
+                    preloadSessionPool.onFlowFinished(session);
                     break;
             }
         }
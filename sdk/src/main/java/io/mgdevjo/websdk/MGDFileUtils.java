@@ -23,8 +23,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -72,15 +75,73 @@ public class MGDFileUtils {
      */
     private static final double THRESHOLD_OF_CACHE_MIN_PERCENT = 0.25;
 
+    /**
+     * Temporary file extensions
+     */
+    private static final String TMP_EXT = ".tmp";
+
+    /**
+     * Partial download extensions, it ends with {@link #TMP_EXT} so the file is never accounted
+     * into the ledger. Old partial downloads are removed by {@link #sweepResourceTempFiles()}.
+     */
+    private static final String PARTIAL_EXT = ".partial" + TMP_EXT;
+
+    /**
+     * A temporary file which has not been written for this long is left by a crash, see {@link #sweepResourceTempFiles()}.
+     */
+    private static final long TEMP_FILE_MAX_AGE_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * A partial download which is older than this is not resumed any more.
+     */
+    private static final long PARTIAL_FILE_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * The max total bytes of the partial downloads, the newest ones are kept.
+     */
+    private static final long PARTIAL_FILES_MAX_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * A cache file without metadata which has not been written for this long is deleted when the
+     * cache root is walked, a younger one may be waiting for its metadata to be saved.
+     */
+    private static final long ORPHAN_FILE_MIN_AGE_MILLIS = 60 * 1000;
+
+    /**
+     * Cache files are spread over 256 sub directories named by two hex chars.
+     */
+    private static final int SHARD_MASK = 0xFF;
+
+    /**
+     * The number of random caches whose eviction order is compared to find the victim of an admission.
+     */
+    private static final int ADMISSION_SAMPLE_SIZE = 16;
+
+    private static final char[] HEX_CHARS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    /**
+     * The resolved session cache root, see {@link MGDRuntime#getMGDCacheDir()}
+     */
+    private static volatile String cacheDirPath;
+
+    /**
+     * The resolved resource cache root, see {@link MGDRuntime#getMGDResourceCacheDir()}
+     */
+    private static volatile String resourceCacheDirPath;
+
     /**
      *
      * @return Returns the absolute path to the specific cache directory on
      *  the filesystem (including File.separator at the end of path).
      */
     static String getMGDCacheDirPath() {
-        String dirPath = MGDEngine.getInstance().getRuntime().getMGDCacheDir().getAbsolutePath();
-        if (!dirPath.endsWith(File.separator)) {
-            dirPath += File.separator;
+        String dirPath = cacheDirPath;
+        if (null == dirPath) {
+            dirPath = MGDEngine.getInstance().getRuntime().getMGDCacheDir().getAbsolutePath();
+            if (!dirPath.endsWith(File.separator)) {
+                dirPath += File.separator;
+            }
+            cacheDirPath = dirPath;
         }
         return dirPath;
     }
@@ -91,20 +152,39 @@ public class MGDFileUtils {
      *  the filesystem (including File.separator at the end of path).
      */
     static String getMGDResourceCachePath() {
-        String dirPath = MGDEngine.getInstance().getRuntime().getMGDResourceCacheDir().getAbsolutePath();
-        if (!dirPath.endsWith(File.separator)) {
-            dirPath += File.separator;
+        String dirPath = resourceCacheDirPath;
+        if (null == dirPath) {
+            dirPath = MGDEngine.getInstance().getRuntime().getMGDResourceCacheDir().getAbsolutePath();
+            if (!dirPath.endsWith(File.separator)) {
+                dirPath += File.separator;
+            }
+            resourceCacheDirPath = dirPath;
         }
         return dirPath;
     }
 
+    /**
+     * All the cache files of one session (or one resource) are stored in the same shard
+     * directory, so the shard is computed from the id rather than the file name.
+     *
+     * @param id session id or resource name
+     * @return The shard directory name (two hex chars) followed by File.separator
+     */
+    private static String getShardDir(String id) {
+        int hash = id.hashCode();
+        hash ^= (hash >>> 16);
+        hash ^= (hash >>> 8);
+        int shard = hash & SHARD_MASK;
+        return new String(new char[]{HEX_CHARS[shard >>> 4], HEX_CHARS[shard & 0xF]}) + File.separator;
+    }
+
     /**
      *
      * @param sessionId session id
      * @return The path of the directory holding MGD template cache files.
      */
     static String getMGDTemplatePath(String sessionId) {
-        return getMGDCacheDirPath() + sessionId + TEMPLATE_EXT;
+        return getMGDCacheDirPath() + getShardDir(sessionId) + sessionId + TEMPLATE_EXT;
     }
 
     /**
@@ -113,7 +193,7 @@ public class MGDFileUtils {
      * @return The path of the directory holding MGD data cache files.
      */
     static String getMGDDataPath(String sessionId) {
-        return getMGDCacheDirPath() + sessionId + DATA_EXT;
+        return getMGDCacheDirPath() + getShardDir(sessionId) + sessionId + DATA_EXT;
     }
 
     /**
@@ -122,7 +202,7 @@ public class MGDFileUtils {
      * @return he path of the directory holding MGD response http header cache files.
      */
     static String getMGDHeaderPath(String sessionId) {
-        return getMGDCacheDirPath() + sessionId + HEADER_EXT;
+        return getMGDCacheDirPath() + getShardDir(sessionId) + sessionId + HEADER_EXT;
     }
 
     /**
@@ -131,7 +211,7 @@ public class MGDFileUtils {
      * @return The path of the directory holding MGD html cache files.
      */
     static String getMGDHtmlPath(String sessionId) {
-        return getMGDCacheDirPath() + sessionId + HTML_EXT;
+        return getMGDCacheDirPath() + getShardDir(sessionId) + sessionId + HTML_EXT;
     }
 
     /**
@@ -140,7 +220,7 @@ public class MGDFileUtils {
      * @return The path of the resource file.
      */
     public static String getMGDResourcePath(String resourceName) {
-        return getMGDResourceCachePath() + resourceName;
+        return getMGDResourceCachePath() + getShardDir(resourceName) + resourceName;
     }
 
     /**
@@ -149,7 +229,7 @@ public class MGDFileUtils {
      * @return The path of the resource header file.
      */
     public static String getMGDResourceHeaderPath(String resourceName) {
-        return getMGDResourceCachePath() + resourceName + HEADER_EXT;
+        return getMGDResourceCachePath() + getShardDir(resourceName) + resourceName + HEADER_EXT;
     }
 
     /**
@@ -158,27 +238,11 @@ public class MGDFileUtils {
      * @return Return {@code true} if all of the cache files have been deleted, such as html template and the data cache files.
      */
     static boolean deleteMGDFiles(String sessionId) {
-        boolean deleteSuccess = true;
-        File htmlFile = new File(getMGDHtmlPath(sessionId));
-        if (htmlFile.exists()) {
-            deleteSuccess = htmlFile.delete();
-        }
-
-        File templateFile = new File(getMGDTemplatePath(sessionId));
-        if (templateFile.exists()) {
-            deleteSuccess &= templateFile.delete();
-        }
-
-        File dataFile = new File(getMGDDataPath(sessionId));
-        if (dataFile.exists()) {
-            deleteSuccess &= dataFile.delete();
-        }
-
-        File headerFile = new File(getMGDHeaderPath(sessionId));
-        if (headerFile.exists()){
-            deleteSuccess &= headerFile.delete();
-        }
-
+        MGDCacheLedger ledger = MGDCacheLedger.getSessionLedger();
+        boolean deleteSuccess = deleteFile(new File(getMGDHtmlPath(sessionId)), ledger);
+        deleteSuccess &= deleteFile(new File(getMGDTemplatePath(sessionId)), ledger);
+        deleteSuccess &= deleteFile(new File(getMGDDataPath(sessionId)), ledger);
+        deleteSuccess &= deleteFile(new File(getMGDHeaderPath(sessionId)), ledger);
         return deleteSuccess;
     }
 
@@ -188,18 +252,28 @@ public class MGDFileUtils {
      * @return Return {@code true} if all of the cache files have been deleted, such as resource file and resource header file.
      */
     static boolean deleteResourceFiles(String resourceId) {
-        boolean deleteSuccess = true;
-        File resourceFile = new File(getMGDResourcePath(resourceId));
-        if (resourceFile.exists()) {
-            deleteSuccess = resourceFile.delete();
-        }
+        MGDCacheLedger ledger = MGDCacheLedger.getResourceLedger();
+        boolean deleteSuccess = deleteFile(new File(getMGDResourcePath(resourceId)), ledger);
+        deleteSuccess &= deleteFile(new File(getMGDResourceHeaderPath(resourceId)), ledger);
+        return deleteSuccess;
+    }
 
-        File headerFile = new File(getMGDHeaderPath(resourceId));
-        if (headerFile.exists()){
-            deleteSuccess &= headerFile.delete();
+    /**
+     * Delete a cache file and take its length off the ledger.
+     *
+     * @param file   The cache file
+     * @param ledger The ledger of the cache root which the file belongs to
+     * @return Return {@code true} if the file does not exist anymore.
+     */
+    private static boolean deleteFile(File file, MGDCacheLedger ledger) {
+        long length = file.length();
+        if (length > 0 || file.exists()) {
+            if (!file.delete()) {
+                return false;
+            }
+            ledger.add(-length);
         }
-
-        return deleteSuccess;
+        return true;
     }
 
     /**
@@ -368,6 +442,102 @@ public class MGDFileUtils {
         return false;
     }
 
+    /**
+     *
+     * @param resourceName resource file name
+     * @return The path of the partial download of the resource, see {@link MGDResponseFile#suspend(String, Map)}
+     */
+    static String getMGDResourcePartialPath(String resourceName) {
+        return getMGDResourceCachePath() + resourceName + PARTIAL_EXT;
+    }
+
+    /**
+     *
+     * @param resourceName resource file name
+     * @return The path of the response headers of the partial download of the resource.
+     */
+    static String getMGDResourcePartialHeaderPath(String resourceName) {
+        return getMGDResourceCachePath() + resourceName + HEADER_EXT + PARTIAL_EXT;
+    }
+
+    /**
+     * Create an empty temporary file in the resource cache root, it is moved into its shard
+     * directory by {@link #moveFile(File, String, MGDCacheLedger)} when it is complete. Temporary
+     * files left by a crash are removed by {@link #sweepResourceTempFiles()} when the engine is initialized.
+     *
+     * @param resourceName resource file name
+     * @return The temporary file
+     */
+    static File createResourceTempFile(String resourceName) throws IOException {
+        File cacheRootDir = new File(getMGDResourceCachePath());
+        if (!cacheRootDir.exists() && !cacheRootDir.mkdirs()) {
+            throw new IOException("make dir(" + cacheRootDir.getAbsolutePath() + ") fail");
+        }
+        return File.createTempFile(resourceName + "_", TMP_EXT, cacheRootDir);
+    }
+
+    /**
+     * Move a complete file to a cache file atomically, the cache file is replaced if it exists.
+     *
+     * @param srcFile  The complete file, it must be on the same filesystem as the cache file
+     * @param filePath path of the cache file
+     * @param ledger   The ledger of the cache root which the file belongs to
+     * @return Returns {@code true} if the file is moved successfully.
+     */
+    static boolean moveFile(File srcFile, String filePath, MGDCacheLedger ledger) {
+        File file = new File(filePath);
+        File parentDir = file.getParentFile();
+        if (null != parentDir && !parentDir.exists() && !parentDir.mkdirs()) {
+            MGDUtils.log(TAG, Log.ERROR, "moveFile error: make dir(" + parentDir.getAbsolutePath() + ") fail!");
+            return false;
+        }
+        long oldLength = file.length();
+        long length = srcFile.length();
+        if (!srcFile.renameTo(file)) {
+            MGDUtils.log(TAG, Log.ERROR, "moveFile error: rename(" + srcFile.getName() + ") to (" + filePath + ") fail!");
+            return false;
+        }
+        ledger.add(length - oldLength);
+        return true;
+    }
+
+    /**
+     * Write string to a cache file and account the changed bytes into the ledger.
+     *
+     * @param str      The string is to be saved
+     * @param filePath path to write
+     * @param ledger   The ledger of the cache root which the file belongs to
+     * @return Returns {@code true} if string is saved successfully.
+     */
+    static boolean writeFile(String str, String filePath, MGDCacheLedger ledger) {
+        return writeFile(str.getBytes(), filePath, ledger);
+    }
+
+    /**
+     * Write bytes to a cache file and account the changed bytes into the ledger.
+     * The shard directory of the file will be created if it does not exist.
+     *
+     * @param content  The data is to be saved
+     * @param filePath path to write
+     * @param ledger   The ledger of the cache root which the file belongs to
+     * @return Returns {@code true} if string is saved successfully.
+     */
+    static boolean writeFile(byte[] content, String filePath, MGDCacheLedger ledger) {
+        File file = new File(filePath);
+        File parentDir = file.getParentFile();
+        if (null != parentDir && !parentDir.exists() && !parentDir.mkdirs()) {
+            MGDUtils.log(TAG, Log.ERROR, "writeFile error: make dir(" + parentDir.getAbsolutePath() + ") fail!");
+            return false;
+        }
+        long oldLength = file.length();
+        if (writeFile(content, filePath)) {
+            ledger.add(file.length() - oldLength);
+            return true;
+        }
+        ledger.add(file.length() - oldLength);
+        return false;
+    }
+
     /**
      * Deletes all of the files or directory denoted by this file path
      *
@@ -392,43 +562,32 @@ public class MGDFileUtils {
 
     /**
      * Check whether the MGD cache has been exceed the limit {@link MGDConfig#MGD_CACHE_MAX_SIZE}.
-     * If the size of MGD cache exceeds, then it will remove the elder cache
-     * until the size is less than threshold {@link MGDFileUtils#THRESHOLD_OF_CACHE_MIN_PERCENT}.
+     * If the size of MGD cache exceeds, then it will remove the cache in the order given by
+     * {@link MGDConfig#SESSION_CACHE_EVICTION_POLICY} until the size is less than threshold
+     * {@link MGDFileUtils#THRESHOLD_OF_CACHE_MIN_PERCENT}.
+     * <p>
+     * The ledger is reconciled with the files on disk first, the files which have no metadata can
+     * not be evicted by the policy and they are deleted then.
      */
     static void checkAndTrimCache() {
-        HashMap<String, List<String>> currentCacheFileMap = new HashMap<String, List<String>>();
-        long startTime = System.currentTimeMillis();
-        long cacheFileSize = calcCacheSize(getMGDCacheDirPath(), currentCacheFileMap);
+        MGDCacheLedger ledger = MGDCacheLedger.getSessionLedger();
+        long cacheFileSize = ledger.size();
 
-        final long MAX_CACHE_SIZE = MGDEngine.getInstance().getConfig().MGD_CACHE_MAX_SIZE;
+        final MGDConfig config = MGDEngine.getInstance().getConfig();
+        final long MAX_CACHE_SIZE = config.MGD_CACHE_MAX_SIZE;
 
         if (cacheFileSize > (MAX_CACHE_SIZE * THRESHOLD_OF_CACHE_MAX_PERCENT)) {
+            cacheFileSize = ledger.reconcile();
+        }
+        if (cacheFileSize > (MAX_CACHE_SIZE * THRESHOLD_OF_CACHE_MAX_PERCENT)) {
+            long startTime = System.currentTimeMillis();
             MGDUtils.log(TAG, Log.INFO, "now try clear cache, current cache size: " + (cacheFileSize / 1024 / 1024) + "m");
 
-            List<MGDDataHelper.SessionData> allSessions = MGDDataHelper.getAllSessionByHitCount();
-
-            long fileSize ;
-            MGDDataHelper.SessionData sessionData;
-            for (int i = 0; i < allSessions.size(); i++) {
-                sessionData = allSessions.get(i);
-                List<String> files = currentCacheFileMap.get(sessionData.sessionId);
-
-                if (files != null && files.size() > 0) {
-                    for (String filePath : files) {
-                        File file = new File(filePath);
-                        if (file.isFile() && file.exists()) {
-                            String fileName = file.getName();
-                            fileSize = file.length();
-                            if (file.delete()) {
-                                cacheFileSize -= fileSize;
-                                MGDDataHelper.removeSessionData(fileName);
-                                MGDUtils.log(TAG, Log.INFO, "delete " + file.getAbsolutePath());
-                            }
-                        }
-                    }
-                }
-
-                if (cacheFileSize <= MAX_CACHE_SIZE * THRESHOLD_OF_CACHE_MIN_PERCENT) {
+            List<MGDCacheEvictionPolicy.CacheEntry> entries = config.SESSION_CACHE_EVICTION_POLICY.sortForEviction(getSessionCacheEntries(), startTime);
+            for (MGDCacheEvictionPolicy.CacheEntry entry : entries) {
+                MGDUtils.removeSessionCache(entry.id);
+                MGDUtils.log(TAG, Log.INFO, "checkAndTrimCache: remove session(" + entry.id + ").");
+                if (ledger.size() <= MAX_CACHE_SIZE * THRESHOLD_OF_CACHE_MIN_PERCENT) {
                     break;
                 }
             }
@@ -439,78 +598,300 @@ public class MGDFileUtils {
 
     /**
      * Check whether the resource cache has been exceed the limit {@link MGDConfig#MGD_RESOURCE_CACHE_MAX_SIZE}.
-     * If the size of MGD cache exceeds, then it will remove the elder cache
-     * until the size is less than threshold {@link MGDFileUtils#THRESHOLD_OF_CACHE_MIN_PERCENT}.
+     * If the size of MGD cache exceeds, then it will remove the cache in the order given by
+     * {@link MGDConfig#RESOURCE_CACHE_EVICTION_POLICY} until the size is less than threshold
+     * {@link MGDFileUtils#THRESHOLD_OF_CACHE_MIN_PERCENT}, see {@link #checkAndTrimCache()}.
      */
     static void checkAndTrimResourceCache() {
-        HashMap<String, List<String>> currentCacheFileMap = new HashMap<String, List<String>>();
-        long startTime = System.currentTimeMillis();
-        long cacheFileSize = calcCacheSize(getMGDResourceCachePath(), currentCacheFileMap);
+        MGDCacheLedger ledger = MGDCacheLedger.getResourceLedger();
+        long cacheFileSize = ledger.size();
 
-        final long MAX_CACHE_SIZE = MGDEngine.getInstance().getConfig().MGD_RESOURCE_CACHE_MAX_SIZE;
+        final MGDConfig config = MGDEngine.getInstance().getConfig();
+        final long MAX_CACHE_SIZE = config.MGD_RESOURCE_CACHE_MAX_SIZE;
 
         if (cacheFileSize > (MAX_CACHE_SIZE * THRESHOLD_OF_CACHE_MAX_PERCENT)) {
-            MGDUtils.log(TAG, Log.INFO, "now try clear cache, current cache size: " + (cacheFileSize / 1024 / 1024) + "m");
+            cacheFileSize = ledger.reconcile();
+        }
+        if (cacheFileSize > (MAX_CACHE_SIZE * THRESHOLD_OF_CACHE_MAX_PERCENT)) {
+            long startTime = System.currentTimeMillis();
+            MGDUtils.log(TAG, Log.INFO, "now try clear resource cache, current cache size: " + (cacheFileSize / 1024 / 1024) + "m");
+
+            List<MGDCacheEvictionPolicy.CacheEntry> entries = config.RESOURCE_CACHE_EVICTION_POLICY.sortForEviction(getResourceCacheEntries(), startTime);
+            for (MGDCacheEvictionPolicy.CacheEntry entry : entries) {
+                MGDUtils.removeResourceCache(entry.id);
+                MGDUtils.log(TAG, Log.INFO, "checkAndTrimResourceCache: remove resource(" + entry.id + ").");
+                if (ledger.size() <= MAX_CACHE_SIZE * THRESHOLD_OF_CACHE_MIN_PERCENT) {
+                    break;
+                }
+            }
 
-            List<MGDResourceDataHelper.ResourceData> allSessions = MGDResourceDataHelper.getAllResourceData();
-
-            long fileSize ;
-            MGDResourceDataHelper.ResourceData sessionData;
-            for (int i = 0; i < allSessions.size(); i++) {
-                sessionData = allSessions.get(i);
-                List<String> files = currentCacheFileMap.get(sessionData.resourceId);
-
-                if (files != null && files.size() > 0) {
-                    for (String filePath : files) {
-                        File file = new File(filePath);
-                        if (file.isFile() && file.exists()) {
-                            String fileName = file.getName();
-                            fileSize = file.length();
-                            if (file.delete()) {
-                                cacheFileSize -= fileSize;
-                                MGDResourceDataHelper.removeResourceData(fileName);
-                                MGDUtils.log(TAG, Log.INFO, "delete " + file.getAbsolutePath());
-                            }
-                        }
-                    }
+            MGDUtils.log(TAG, Log.INFO, "checkAndTrimResourceCache: finish , cost " + (System.currentTimeMillis() - startTime) + "ms.");
+        }
+    }
+
+    /**
+     * Delete the temporary files left in the resource cache root by a crash, it runs once when the
+     * engine is initialized. Only the files which have not been written for {@link #TEMP_FILE_MAX_AGE_MILLIS}
+     * ms are deleted, so the downloads which have already started are not affected.
+     * <p>
+     * The partial downloads kept to be resumed are deleted after {@link #PARTIAL_FILE_MAX_AGE_MILLIS} ms,
+     * and the oldest ones are deleted if they take more than {@link #PARTIAL_FILES_MAX_SIZE} bytes.
+     */
+    static void sweepResourceTempFiles() {
+        File cacheRootDir = new File(getMGDResourceCachePath());
+        File[] childFiles = cacheRootDir.listFiles();
+        if (null == childFiles) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int count = 0;
+        final HashMap<File, Long> partialFiles = new HashMap<File, Long>();
+        for (File childFile : childFiles) {
+            String fileName = childFile.getName();
+            if (!fileName.endsWith(TMP_EXT) || !childFile.isFile()) {
+                continue;
+            }
+            long age = now - childFile.lastModified();
+            if (fileName.endsWith(HEADER_EXT + PARTIAL_EXT)) {
+                // it is deleted with its partial download
+                if (!new File(cacheRootDir, fileName.substring(0, fileName.length() - HEADER_EXT.length() - PARTIAL_EXT.length()) + PARTIAL_EXT).exists()
+                        && age > TEMP_FILE_MAX_AGE_MILLIS && childFile.delete()) {
+                    count++;
+                }
+            } else if (fileName.endsWith(PARTIAL_EXT)) {
+                if (age > PARTIAL_FILE_MAX_AGE_MILLIS) {
+                    count += deletePartialFile(cacheRootDir, childFile);
+                } else {
+                    partialFiles.put(childFile, childFile.lastModified());
                 }
+            } else if (age > TEMP_FILE_MAX_AGE_MILLIS && childFile.delete()) {
+                count++;
+            }
+        }
 
-                if (cacheFileSize <= MAX_CACHE_SIZE * THRESHOLD_OF_CACHE_MIN_PERCENT) {
-                    break;
+        List<File> sortedPartialFiles = new ArrayList<File>(partialFiles.keySet());
+        Collections.sort(sortedPartialFiles, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(partialFiles.get(rhs), partialFiles.get(lhs));
+            }
+        });
+        long partialSize = 0;
+        for (File partialFile : sortedPartialFiles) {
+            long length = partialFile.length();
+            if (partialSize + length > PARTIAL_FILES_MAX_SIZE) {
+                count += deletePartialFile(cacheRootDir, partialFile);
+            } else {
+                partialSize += length;
+            }
+        }
+        if (count > 0) {
+            MGDUtils.log(TAG, Log.INFO, "sweepResourceTempFiles: delete " + count + " temp files, cost " + (System.currentTimeMillis() - now) + "ms.");
+        }
+    }
+
+    /**
+     * Delete a partial download and its response headers.
+     *
+     * @return The number of deleted files.
+     */
+    private static int deletePartialFile(File cacheRootDir, File partialFile) {
+        String fileName = partialFile.getName();
+        File headerFile = new File(cacheRootDir, fileName.substring(0, fileName.length() - PARTIAL_EXT.length()) + HEADER_EXT + PARTIAL_EXT);
+        return (partialFile.delete() ? 1 : 0) + (headerFile.delete() ? 1 : 0);
+    }
+
+    /**
+     * Remove the resource cache which has been expired. An expired resource cache is never
+     * used again, so it is removed even if the resource cache does not exceed its limit.
+     */
+    static void sweepExpiredResourceCache() {
+        long startTime = System.currentTimeMillis();
+        int count = 0;
+        for (MGDResourceDataHelper.ResourceData resourceData : MGDResourceDataHelper.getAllResourceData()) {
+            if (resourceData.expiredTime < startTime) {
+                MGDUtils.removeResourceCache(resourceData.resourceId);
+                count++;
+            }
+        }
+        if (count > 0) {
+            MGDUtils.log(TAG, Log.INFO, "sweepExpiredResourceCache: remove " + count + " resources, cost " + (System.currentTimeMillis() - startTime) + "ms.");
+        }
+    }
+
+    /**
+     * Consult {@link MGDConfig#SESSION_CACHE_EVICTION_POLICY} whether a new session cache should
+     * be saved. The new cache is always admitted unless MGD cache would exceed its limit.
+     *
+     * @param sessionId session id
+     * @param size      The bytes of the new cache
+     * @return Return {@code true} if the cache should be saved.
+     */
+    static boolean shouldAdmitSessionCache(String sessionId, long size) {
+        final MGDConfig config = MGDEngine.getInstance().getConfig();
+        if (MGDCacheLedger.getSessionLedger().size() + size <= config.MGD_CACHE_MAX_SIZE
+                || !TextUtils.isEmpty(MGDDataHelper.getSessionData(sessionId).htmlSha1)) {
+            return true;
+        }
+        return shouldAdmit(config.SESSION_CACHE_EVICTION_POLICY,
+                getSessionCacheEntries(MGDDataHelper.sampleSessionData(ADMISSION_SAMPLE_SIZE)), sessionId, size);
+    }
+
+    /**
+     * Consult {@link MGDConfig#RESOURCE_CACHE_EVICTION_POLICY} whether a new resource cache should
+     * be saved. The new cache is always admitted unless resource cache would exceed its limit.
+     *
+     * @param resourceId resource id
+     * @param size       The bytes of the new cache
+     * @return Return {@code true} if the cache should be saved.
+     */
+    public static boolean shouldAdmitResourceCache(String resourceId, long size) {
+        final MGDConfig config = MGDEngine.getInstance().getConfig();
+        if (MGDCacheLedger.getResourceLedger().size() + size <= config.MGD_RESOURCE_CACHE_MAX_SIZE
+                || !TextUtils.isEmpty(MGDResourceDataHelper.getResourceData(resourceId).resourceSha1)) {
+            return true;
+        }
+        return shouldAdmit(config.RESOURCE_CACHE_EVICTION_POLICY,
+                getResourceCacheEntries(MGDResourceDataHelper.sampleResourceData(ADMISSION_SAMPLE_SIZE)), resourceId, size);
+    }
+
+    /**
+     * Tell {@link MGDConfig#RESOURCE_CACHE_EVICTION_POLICY} that a resource cache is requested.
+     *
+     * @param resourceId resource id
+     */
+    public static void onAccessResourceCache(String resourceId) {
+        MGDEngine.getInstance().getConfig().RESOURCE_CACHE_EVICTION_POLICY.onAccess(resourceId);
+    }
+
+    /**
+     * The victim is the first to evict of a random sample, so an admission does not sort the whole index.
+     */
+    private static boolean shouldAdmit(MGDCacheEvictionPolicy policy, List<MGDCacheEvictionPolicy.CacheEntry> entries, String id, long size) {
+        long now = System.currentTimeMillis();
+        for (MGDCacheEvictionPolicy.CacheEntry victim : policy.sortForEviction(entries, now)) {
+            if (!victim.id.equals(id)) {
+                boolean admit = policy.admit(new MGDCacheEvictionPolicy.CacheEntry(id, size, now, 0, 0), victim);
+                if (!admit) {
+                    MGDUtils.log(TAG, Log.INFO, "shouldAdmit: reject cache(" + id + "), victim is " + victim.id + ".");
                 }
+                return admit;
             }
+        }
+        return true;
+    }
 
-            MGDUtils.log(TAG, Log.INFO, "checkAndTrimCache: finish , cost " + (System.currentTimeMillis() - startTime) + "ms.");
+    private static List<MGDCacheEvictionPolicy.CacheEntry> getSessionCacheEntries() {
+        return getSessionCacheEntries(MGDDataHelper.getAllSessionData());
+    }
+
+    private static List<MGDCacheEvictionPolicy.CacheEntry> getSessionCacheEntries(List<MGDDataHelper.SessionData> allSessions) {
+        MGDAccessStats sessionStats = MGDAccessStats.getSessionStats();
+        List<MGDCacheEvictionPolicy.CacheEntry> entries = new ArrayList<MGDCacheEvictionPolicy.CacheEntry>(allSessions.size());
+        for (MGDDataHelper.SessionData sessionData : allSessions) {
+            long lastAccessTime = Math.max(Math.max(sessionData.lastAccessTime, sessionData.templateUpdateTime),
+                    sessionStats.getPendingLastAccessTime(sessionData.sessionId));
+            int hitCount = (int) (sessionData.cacheHitCount + sessionStats.getPendingHitCount(sessionData.sessionId));
+            // an expired session cache is still loaded and revalidated, it never becomes unusable by time
+            entries.add(new MGDCacheEvictionPolicy.CacheEntry(sessionData.sessionId, sessionData.htmlSize,
+                    lastAccessTime, hitCount, 0));
         }
+        return entries;
     }
 
-    private static long calcCacheSize(String cacheDirPath, Map<String, List<String>> currentCacheFileMap) {
-        File cacheRootDir = new File(cacheDirPath);
-        if (cacheRootDir.exists() && cacheRootDir.isDirectory()) {
-            File[] childFiles = cacheRootDir.listFiles();
-            if (childFiles != null && childFiles.length > 0) {
-                long cacheFileSize = 0L;
-                String fileName;
-                File file ;
-                List<String> files;
-                for (File childFile : childFiles) {
-                    file = childFile;
-                    cacheFileSize += file.length();
-                    fileName = file.getName();
-
-                    files = currentCacheFileMap.get(fileName);
-                    if (files == null) {
-                        files = new ArrayList<String>();
-                    }
+    private static List<MGDCacheEvictionPolicy.CacheEntry> getResourceCacheEntries() {
+        return getResourceCacheEntries(MGDResourceDataHelper.getAllResourceData());
+    }
 
-                    files.add(file.getAbsolutePath());
-                    currentCacheFileMap.put(fileName, files);
+    private static List<MGDCacheEvictionPolicy.CacheEntry> getResourceCacheEntries(List<MGDResourceDataHelper.ResourceData> allResources) {
+        MGDAccessStats resourceStats = MGDAccessStats.getResourceStats();
+        List<MGDCacheEvictionPolicy.CacheEntry> entries = new ArrayList<MGDCacheEvictionPolicy.CacheEntry>(allResources.size());
+        for (MGDResourceDataHelper.ResourceData resourceData : allResources) {
+            long lastAccessTime = Math.max(Math.max(resourceData.lastAccessTime, resourceData.lastUpdateTime),
+                    resourceStats.getPendingLastAccessTime(resourceData.resourceId));
+            int hitCount = (int) (resourceData.cacheHitCount + resourceStats.getPendingHitCount(resourceData.resourceId));
+            // a resource cache whose expired time is 0 is expired immediately
+            entries.add(new MGDCacheEvictionPolicy.CacheEntry(resourceData.resourceId, resourceData.resourceSize,
+                    lastAccessTime, hitCount, Math.max(1, resourceData.expiredTime)));
+        }
+        return entries;
+    }
+
+    /**
+     * Walk a cache root to build its ledger. Files left in the root by the flat layout of older
+     * versions are moved into their shard directories on the way. The files which have no metadata
+     * are deleted, nothing could evict them, see {@link #ORPHAN_FILE_MIN_AGE_MILLIS}.
+     *
+     * @param isResourceCache Whether to scan the resource cache root or the session cache root
+     * @return The total bytes of the cache files.
+     */
+    static long scanCacheDir(boolean isResourceCache) {
+        File cacheRootDir = new File(isResourceCache ? getMGDResourceCachePath() : getMGDCacheDirPath());
+        File[] childFiles = cacheRootDir.listFiles();
+        if (null == childFiles) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long cacheFileSize = 0L;
+        int orphanCount = 0;
+        for (File childFile : childFiles) {
+            if (childFile.isDirectory()) {
+                File[] shardFiles = childFile.listFiles();
+                if (null != shardFiles) {
+                    for (File shardFile : shardFiles) {
+                        if (now - shardFile.lastModified() > ORPHAN_FILE_MIN_AGE_MILLIS
+                                && !hasCacheMetadata(getCacheFileId(shardFile.getName(), isResourceCache), isResourceCache)
+                                && shardFile.delete()) {
+                            orphanCount++;
+                        } else {
+                            cacheFileSize += shardFile.length();
+                        }
+                    }
                 }
+            } else {
+                String fileName = childFile.getName();
+                if (fileName.endsWith(TMP_EXT)) {
+                    // a download may be writing it, see sweepResourceTempFiles()
+                    continue;
+                }
+                String id = getCacheFileId(fileName, isResourceCache);
+                if (!hasCacheMetadata(id, isResourceCache)) {
+                    if (childFile.delete()) {
+                        orphanCount++;
+                    }
+                    continue;
+                }
+                File shardDir = new File(cacheRootDir, getShardDir(id));
+                long length = childFile.length();
+                if ((shardDir.exists() || shardDir.mkdirs()) && childFile.renameTo(new File(shardDir, fileName))) {
+                    cacheFileSize += length;
+                } else {
+                    MGDUtils.log(TAG, Log.ERROR, "scanCacheDir: move legacy file(" + fileName + ") fail, delete it.");
+                    childFile.delete();
+                }
+            }
+        }
+        if (orphanCount > 0) {
+            MGDUtils.log(TAG, Log.INFO, "scanCacheDir: delete " + orphanCount + " files without metadata.");
+        }
+        return cacheFileSize;
+    }
+
+    private static boolean hasCacheMetadata(String id, boolean isResourceCache) {
+        return isResourceCache ? MGDResourceDataHelper.hasResourceData(id) : MGDDataHelper.hasSessionData(id);
+    }
 
-                return cacheFileSize;
+    /**
+     * @return The session id or resource name which a cache file belongs to.
+     */
+    private static String getCacheFileId(String fileName, boolean isResourceCache) {
+        String[] extensions = isResourceCache ? new String[]{HEADER_EXT} : new String[]{HTML_EXT, TEMPLATE_EXT, DATA_EXT, HEADER_EXT};
+        for (String ext : extensions) {
+            if (fileName.endsWith(ext)) {
+                return fileName.substring(0, fileName.length() - ext.length());
             }
         }
-        return 0;
+        return fileName;
     }
 
     /**
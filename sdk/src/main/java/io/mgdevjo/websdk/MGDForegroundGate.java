@@ -0,0 +1,193 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <code>MGDForegroundGate</code> lets foreground sessions go first. A session is foreground from the
+ * time its {@link MGDSessionClient} is ready until the page finishes, the session is destroyed or
+ * {@link MGDConfig#FOREGROUND_PREEMPT_MAX_MILLIS} ms passed. While any session is foreground the gate
+ * is closed: background preload flows wait, network reads of preload sessions pause between
+ * chunks, and sub resource prefetching and background saves are deferred until it opens again.
+ */
+class MGDForegroundGate {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDForegroundGate";
+
+    private final MGDRuntime runtime;
+
+    private final boolean isEnabled;
+
+    private final long maxHoldMillis;
+
+    /**
+     * The foreground sessions and the time they entered
+     */
+    private final HashMap<MGDSession, Long> foregroundSessions = new HashMap<MGDSession, Long>();
+
+    /**
+     * Tasks deferred by {@link #runWhenOpen(Runnable)}
+     */
+    private final List<Runnable> pendingTasks = new ArrayList<Runnable>();
+
+    private long deferredCount;
+
+    private long totalWaitTime;
+
+    private final Runnable expireTask = new Runnable() {
+        @Override
+        public void run() {
+            releasePendingTasks();
+        }
+    };
+
+    MGDForegroundGate(MGDRuntime runtime, MGDConfig config) {
+        this.runtime = runtime;
+        this.isEnabled = config.FOREGROUND_PREEMPT_ENABLED;
+        this.maxHoldMillis = config.FOREGROUND_PREEMPT_MAX_MILLIS;
+    }
+
+    /**
+     * The session becomes foreground, the gate is closed.
+     */
+    void enter(MGDSession session) {
+        if (!isEnabled) {
+            return;
+        }
+        synchronized (this) {
+            foregroundSessions.put(session, System.currentTimeMillis());
+            notifyAll();
+        }
+        runtime.log(TAG, Log.INFO, "session(" + session.sId + ") enter foreground.");
+        // open the gate even if the session never leaves
+        runtime.postTaskToThread(expireTask, maxHoldMillis);
+    }
+
+    /**
+     * The session is no longer foreground, the gate is opened if no other session is foreground.
+     */
+    void leave(MGDSession session) {
+        synchronized (this) {
+            if (null == foregroundSessions.remove(session)) {
+                return;
+            }
+            notifyAll();
+        }
+        runtime.log(TAG, Log.INFO, "session(" + session.sId + ") leave foreground.");
+        releasePendingTasks();
+    }
+
+    synchronized boolean isForeground(MGDSession session) {
+        return foregroundSessions.containsKey(session);
+    }
+
+    synchronized boolean isOpen() {
+        return 0 == getCloseTimeLocked(System.currentTimeMillis());
+    }
+
+    /**
+     * Wake up the sessions blocked in {@link #awaitOpen(MGDSession)}, so they check whether they still need to wait.
+     */
+    synchronized void wake() {
+        notifyAll();
+    }
+
+    /**
+     * Block a background preload session until the gate is open or the session is picked by a
+     * client. It never blocks longer than {@link MGDConfig#FOREGROUND_PREEMPT_MAX_MILLIS} ms.
+     */
+    synchronized void awaitOpen(MGDSession session) {
+        long startTime = System.currentTimeMillis();
+        long closeTime;
+        while (session.isBackgroundPreload && !session.cancellationToken.isCancelled() && (closeTime = getCloseTimeLocked(System.currentTimeMillis())) > 0) {
+            try {
+                wait(closeTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long waitTime = System.currentTimeMillis() - startTime;
+        if (waitTime > 0) {
+            deferredCount++;
+            totalWaitTime += waitTime;
+        }
+    }
+
+    /**
+     * Run the task at once if the gate is open, otherwise post it to a background thread when the gate opens.
+     */
+    void runWhenOpen(Runnable task) {
+        synchronized (this) {
+            if (getCloseTimeLocked(System.currentTimeMillis()) > 0) {
+                pendingTasks.add(task);
+                deferredCount++;
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Drop the foreground sessions which have held the gate too long.
+     *
+     * @return The time in ms until the gate opens by itself, 0 if the gate is open.
+     */
+    private long getCloseTimeLocked(long now) {
+        long closeTime = 0;
+        Iterator<Long> iterator = foregroundSessions.values().iterator();
+        while (iterator.hasNext()) {
+            long remaining = iterator.next() + maxHoldMillis - now;
+            if (remaining <= 0) {
+                iterator.remove();
+            } else {
+                closeTime = Math.max(closeTime, remaining);
+            }
+        }
+        return closeTime;
+    }
+
+    private void releasePendingTasks() {
+        List<Runnable> tasks;
+        long deferredCount;
+        long totalWaitTime;
+        synchronized (this) {
+            if (getCloseTimeLocked(System.currentTimeMillis()) > 0 || pendingTasks.isEmpty()) {
+                notifyAll();
+                return;
+            }
+            tasks = new ArrayList<Runnable>(pendingTasks);
+            pendingTasks.clear();
+            notifyAll();
+            deferredCount = this.deferredCount;
+            totalWaitTime = this.totalWaitTime;
+        }
+        runtime.log(TAG, Log.INFO, "gate is open, run " + tasks.size() + " deferred tasks, deferred=" + deferredCount + ", totalWaitTime=" + totalWaitTime + ".");
+        for (Runnable task : tasks) {
+            runtime.postTaskToThread(task, 0L);
+        }
+    }
+}
@@ -0,0 +1,587 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The append-only log backend of {@link MGDMetadataStore}, it only depends on the JVM.
+ *
+ * <p>
+ * The log file is memory mapped. Every row is written as a whole record and every batch ends
+ * with a commit record, so a batch torn by a crash is dropped when the log is replayed. Each
+ * record is framed as {@code [int length][int crc32][payload]}, a zero length marks the end of
+ * the log. When the log grows to more than {@link #COMPACT_RATIO} times the size of the live
+ * rows, it is rewritten into a new file with only the live rows and atomically renamed.
+ *
+ * <p>
+ * The in-memory rows only change after the records of a batch are written, so a failed write
+ * leaves them as the log is. A log which can not be opened is deleted and created again, the
+ * caches without metadata are not served.
+ */
+class MGDLogMetadataStore extends MGDMetadataStore {
+
+    private static final int MAGIC = 0x4D47444C;
+
+    private static final int LOG_VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    /**
+     * The log is never compacted before it reaches this size.
+     */
+    static final int MIN_COMPACT_SIZE = 256 * 1024;
+
+    static final int COMPACT_RATIO = 2;
+
+    private static final byte RECORD_PUT_SESSION = 1;
+
+    private static final byte RECORD_DELETE_SESSION = 2;
+
+    private static final byte RECORD_CLEAR_SESSION = 3;
+
+    private static final byte RECORD_PUT_RESOURCE = 4;
+
+    private static final byte RECORD_DELETE_RESOURCE = 5;
+
+    private static final byte RECORD_CLEAR_RESOURCE = 6;
+
+    private static final byte RECORD_COMMIT = 7;
+
+    private final File logFile;
+
+    private RandomAccessFile randomAccessFile;
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * Where the next record is written
+     */
+    private int writePosition;
+
+    private final LinkedHashMap<String, MGDDataHelper.SessionData> sessions = new LinkedHashMap<String, MGDDataHelper.SessionData>();
+
+    private final LinkedHashMap<String, MGDResourceDataHelper.ResourceData> resources = new LinkedHashMap<String, MGDResourceDataHelper.ResourceData>();
+
+    /**
+     * The size of the latest record of every live row, keyed by record type and id
+     */
+    private final HashMap<String, Integer> liveRecordSizes = new HashMap<String, Integer>();
+
+    private long liveBytes;
+
+    private int compactionCount;
+
+    MGDLogMetadataStore(File logFile) {
+        this.logFile = logFile;
+    }
+
+    @Override
+    synchronized void open() {
+        if (null != buffer) {
+            return;
+        }
+        try {
+            openLog();
+        } catch (IOException e) {
+            close();
+            // the log can not be read any more, start over with an empty one
+            if (!logFile.delete() && logFile.exists()) {
+                throw new IllegalStateException("open metadata log " + logFile + " error:" + e.getMessage(), e);
+            }
+            try {
+                openLog();
+            } catch (IOException recreateException) {
+                close();
+                throw new IllegalStateException("recreate metadata log " + logFile + " error:" + recreateException.getMessage(), recreateException);
+            }
+        }
+    }
+
+    /**
+     * Release the mapped log, the store is opened again on next access.
+     */
+    synchronized void close() {
+        if (null != randomAccessFile) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        randomAccessFile = null;
+        buffer = null;
+        writePosition = 0;
+        sessions.clear();
+        resources.clear();
+        liveRecordSizes.clear();
+        liveBytes = 0;
+    }
+
+    @Override
+    synchronized List<MGDDataHelper.SessionData> loadSessionData() {
+        open();
+        List<MGDDataHelper.SessionData> list = new ArrayList<MGDDataHelper.SessionData>(sessions.size());
+        for (MGDDataHelper.SessionData sessionData : sessions.values()) {
+            list.add(sessionData.copy());
+        }
+        return list;
+    }
+
+    @Override
+    synchronized List<MGDResourceDataHelper.ResourceData> loadResourceData() {
+        open();
+        List<MGDResourceDataHelper.ResourceData> list = new ArrayList<MGDResourceDataHelper.ResourceData>(resources.size());
+        for (MGDResourceDataHelper.ResourceData resourceData : resources.values()) {
+            list.add(resourceData.copy());
+        }
+        return list;
+    }
+
+    @Override
+    synchronized void apply(Batch batch) {
+        open();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        // the rows of the batch, a null value means the row is removed
+        LinkedHashMap<String, MGDDataHelper.SessionData> stagedSessions = new LinkedHashMap<String, MGDDataHelper.SessionData>();
+        LinkedHashMap<String, MGDResourceDataHelper.ResourceData> stagedResources = new LinkedHashMap<String, MGDResourceDataHelper.ResourceData>();
+        HashMap<String, Integer> stagedRecordSizes = new HashMap<String, Integer>();
+        try {
+            if (batch.isSessionClear) {
+                appendRecord(records, new byte[] {RECORD_CLEAR_SESSION});
+            }
+            for (Map.Entry<String, MGDDataHelper.SessionData> entry : batch.sessionChanges.entrySet()) {
+                if (null == entry.getValue()) {
+                    stagedSessions.put(entry.getKey(), null);
+                    appendRecord(records, encodeDelete(RECORD_DELETE_SESSION, entry.getKey()));
+                } else {
+                    stageSession(records, stagedSessions, stagedRecordSizes, entry.getValue().copy());
+                }
+            }
+            for (Map.Entry<String, MGDAccessStats.AccessDelta> entry : batch.sessionAccessStats.entrySet()) {
+                MGDDataHelper.SessionData sessionData = batch.isSessionClear ? null : sessions.get(entry.getKey());
+                if (null != sessionData && !stagedSessions.containsKey(entry.getKey())) {
+                    MGDAccessStats.AccessDelta delta = entry.getValue();
+                    sessionData = sessionData.copy();
+                    sessionData.cacheHitCount += delta.hitCount;
+                    sessionData.bytesServed += delta.bytesServed;
+                    sessionData.lastAccessTime = Math.max(sessionData.lastAccessTime, delta.lastAccessTime);
+                    stageSession(records, stagedSessions, stagedRecordSizes, sessionData);
+                }
+            }
+
+            if (batch.isResourceClear) {
+                appendRecord(records, new byte[] {RECORD_CLEAR_RESOURCE});
+            }
+            for (Map.Entry<String, MGDResourceDataHelper.ResourceData> entry : batch.resourceChanges.entrySet()) {
+                if (null == entry.getValue()) {
+                    stagedResources.put(entry.getKey(), null);
+                    appendRecord(records, encodeDelete(RECORD_DELETE_RESOURCE, entry.getKey()));
+                } else {
+                    stageResource(records, stagedResources, stagedRecordSizes, entry.getValue().copy());
+                }
+            }
+            for (Map.Entry<String, MGDAccessStats.AccessDelta> entry : batch.resourceAccessStats.entrySet()) {
+                MGDResourceDataHelper.ResourceData resourceData = batch.isResourceClear ? null : resources.get(entry.getKey());
+                if (null != resourceData && !stagedResources.containsKey(entry.getKey())) {
+                    MGDAccessStats.AccessDelta delta = entry.getValue();
+                    resourceData = resourceData.copy();
+                    resourceData.cacheHitCount += delta.hitCount;
+                    resourceData.bytesServed += delta.bytesServed;
+                    resourceData.lastAccessTime = Math.max(resourceData.lastAccessTime, delta.lastAccessTime);
+                    stageResource(records, stagedResources, stagedRecordSizes, resourceData);
+                }
+            }
+            appendRecord(records, new byte[] {RECORD_COMMIT});
+
+            write(records.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("write metadata log " + logFile + " error:" + e.getMessage(), e);
+        }
+
+        // the batch is committed, apply it to the in-memory rows
+        if (batch.isSessionClear) {
+            sessions.clear();
+            removeLiveRecords(RECORD_PUT_SESSION);
+        }
+        for (Map.Entry<String, MGDDataHelper.SessionData> entry : stagedSessions.entrySet()) {
+            if (null == entry.getValue()) {
+                sessions.remove(entry.getKey());
+                removeLiveRecord(RECORD_PUT_SESSION, entry.getKey());
+            } else {
+                sessions.put(entry.getKey(), entry.getValue());
+                putLiveRecord(RECORD_PUT_SESSION, entry.getKey(), stagedRecordSizes.get(RECORD_PUT_SESSION + entry.getKey()));
+            }
+        }
+        if (batch.isResourceClear) {
+            resources.clear();
+            removeLiveRecords(RECORD_PUT_RESOURCE);
+        }
+        for (Map.Entry<String, MGDResourceDataHelper.ResourceData> entry : stagedResources.entrySet()) {
+            if (null == entry.getValue()) {
+                resources.remove(entry.getKey());
+                removeLiveRecord(RECORD_PUT_RESOURCE, entry.getKey());
+            } else {
+                resources.put(entry.getKey(), entry.getValue());
+                putLiveRecord(RECORD_PUT_RESOURCE, entry.getKey(), stagedRecordSizes.get(RECORD_PUT_RESOURCE + entry.getKey()));
+            }
+        }
+
+        if (writePosition >= MIN_COMPACT_SIZE && writePosition > COMPACT_RATIO * (HEADER_SIZE + liveBytes)) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // the batch is already committed to the current log, which is mapped again on next access
+                close();
+            }
+        }
+    }
+
+    /**
+     * @return The bytes used by the log, including the records which have been overwritten.
+     */
+    synchronized int getLogSize() {
+        return writePosition;
+    }
+
+    /**
+     * @return How many times the log has been compacted since it was created.
+     */
+    synchronized int getCompactionCount() {
+        return compactionCount;
+    }
+
+    private static void stageSession(ByteArrayOutputStream records, Map<String, MGDDataHelper.SessionData> stagedSessions,
+                                     Map<String, Integer> stagedRecordSizes, MGDDataHelper.SessionData sessionData) throws IOException {
+        stagedSessions.put(sessionData.sessionId, sessionData);
+        byte[] record = encodeSessionData(sessionData);
+        stagedRecordSizes.put(RECORD_PUT_SESSION + sessionData.sessionId, record.length);
+        appendRecord(records, record);
+    }
+
+    private static void stageResource(ByteArrayOutputStream records, Map<String, MGDResourceDataHelper.ResourceData> stagedResources,
+                                      Map<String, Integer> stagedRecordSizes, MGDResourceDataHelper.ResourceData resourceData) throws IOException {
+        stagedResources.put(resourceData.resourceId, resourceData);
+        byte[] record = encodeResourceData(resourceData);
+        stagedRecordSizes.put(RECORD_PUT_RESOURCE + resourceData.resourceId, record.length);
+        appendRecord(records, record);
+    }
+
+    private void putLiveRecord(byte type, String id, int recordSize) {
+        Integer oldSize = liveRecordSizes.put(type + id, FRAME_HEADER_SIZE + recordSize);
+        liveBytes += FRAME_HEADER_SIZE + recordSize - (null != oldSize ? oldSize : 0);
+    }
+
+    private void removeLiveRecord(byte type, String id) {
+        Integer oldSize = liveRecordSizes.remove(type + id);
+        if (null != oldSize) {
+            liveBytes -= oldSize;
+        }
+    }
+
+    private void removeLiveRecords(byte type) {
+        String prefix = String.valueOf(type);
+        List<String> keys = new ArrayList<String>();
+        for (String key : liveRecordSizes.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        for (String key : keys) {
+            liveBytes -= liveRecordSizes.remove(key);
+        }
+    }
+
+    private void openLog() throws IOException {
+        File parentFile = logFile.getParentFile();
+        if (null != parentFile && !parentFile.exists()) {
+            parentFile.mkdirs();
+        }
+        randomAccessFile = new RandomAccessFile(logFile, "rw");
+        long fileLength = randomAccessFile.length();
+        map(Math.max(INITIAL_CAPACITY, (int) fileLength));
+        if (fileLength < HEADER_SIZE || MAGIC != buffer.getInt(0) || LOG_VERSION != buffer.getInt(4)) {
+            resetLog();
+            return;
+        }
+        replay();
+    }
+
+    private void map(int capacity) throws IOException {
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void resetLog() {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, LOG_VERSION);
+        buffer.force();
+        writePosition = HEADER_SIZE;
+    }
+
+    /**
+     * Read all the committed batches, the log after the last commit record is dropped.
+     */
+    private void replay() throws IOException {
+        List<byte[]> stagedRecords = new ArrayList<byte[]>();
+        int position = HEADER_SIZE;
+        int committedPosition = HEADER_SIZE;
+        CRC32 crc32 = new CRC32();
+        while (position + FRAME_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + FRAME_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            int checksum = buffer.getInt(position + 4);
+            byte[] record = new byte[length];
+            buffer.position(position + FRAME_HEADER_SIZE);
+            buffer.get(record);
+            crc32.reset();
+            crc32.update(record, 0, length);
+            if ((int) crc32.getValue() != checksum) {
+                break;
+            }
+            position += FRAME_HEADER_SIZE + length;
+            if (RECORD_COMMIT == record[0]) {
+                for (byte[] stagedRecord : stagedRecords) {
+                    replayRecord(stagedRecord);
+                }
+                stagedRecords.clear();
+                committedPosition = position;
+            } else {
+                stagedRecords.add(record);
+            }
+        }
+        writePosition = committedPosition;
+        if (committedPosition != position || committedPosition + FRAME_HEADER_SIZE <= buffer.capacity()
+                && 0 != buffer.getInt(committedPosition)) {
+            // drop the torn batch so that it can never be mistaken for a committed one
+            for (int i = committedPosition; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+    }
+
+    private void replayRecord(byte[] record) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1));
+        switch (record[0]) {
+            case RECORD_PUT_SESSION: {
+                MGDDataHelper.SessionData sessionData = decodeSessionData(input);
+                sessions.put(sessionData.sessionId, sessionData);
+                putLiveRecord(RECORD_PUT_SESSION, sessionData.sessionId, record.length);
+                break;
+            }
+            case RECORD_DELETE_SESSION: {
+                String sessionId = input.readUTF();
+                sessions.remove(sessionId);
+                removeLiveRecord(RECORD_PUT_SESSION, sessionId);
+                break;
+            }
+            case RECORD_CLEAR_SESSION:
+                sessions.clear();
+                removeLiveRecords(RECORD_PUT_SESSION);
+                break;
+            case RECORD_PUT_RESOURCE: {
+                MGDResourceDataHelper.ResourceData resourceData = decodeResourceData(input);
+                resources.put(resourceData.resourceId, resourceData);
+                putLiveRecord(RECORD_PUT_RESOURCE, resourceData.resourceId, record.length);
+                break;
+            }
+            case RECORD_DELETE_RESOURCE: {
+                String resourceId = input.readUTF();
+                resources.remove(resourceId);
+                removeLiveRecord(RECORD_PUT_RESOURCE, resourceId);
+                break;
+            }
+            case RECORD_CLEAR_RESOURCE:
+                resources.clear();
+                removeLiveRecords(RECORD_PUT_RESOURCE);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void write(byte[] records) throws IOException {
+        // keep room for the zero length which marks the end of the log
+        int requiredCapacity = writePosition + records.length + FRAME_HEADER_SIZE;
+        if (requiredCapacity > buffer.capacity()) {
+            int capacity = buffer.capacity();
+            while (capacity < requiredCapacity) {
+                capacity *= 2;
+            }
+            map(capacity);
+        }
+        buffer.position(writePosition);
+        buffer.put(records);
+        buffer.force();
+        writePosition += records.length;
+    }
+
+    /**
+     * Rewrite the live rows into a new log and replace the current one.
+     */
+    private void compact() throws IOException {
+        File tempFile = new File(logFile.getPath() + ".tmp");
+        ByteArrayOutputStream records = new ByteArrayOutputStream((int) liveBytes + HEADER_SIZE + 16);
+        DataOutputStream header = new DataOutputStream(records);
+        header.writeInt(MAGIC);
+        header.writeInt(LOG_VERSION);
+        for (MGDDataHelper.SessionData sessionData : sessions.values()) {
+            appendRecord(records, encodeSessionData(sessionData));
+        }
+        for (MGDResourceDataHelper.ResourceData resourceData : resources.values()) {
+            appendRecord(records, encodeResourceData(resourceData));
+        }
+        appendRecord(records, new byte[] {RECORD_COMMIT});
+
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            records.writeTo(outputStream);
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        randomAccessFile.close();
+        buffer = null;
+        if (!tempFile.renameTo(logFile)) {
+            tempFile.delete();
+            throw new IOException("rename " + tempFile + " fail");
+        }
+        randomAccessFile = new RandomAccessFile(logFile, "rw");
+        map(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(records.size()) << 1));
+        writePosition = records.size();
+        compactionCount++;
+    }
+
+    private static void appendRecord(ByteArrayOutputStream records, byte[] record) throws IOException {
+        CRC32 crc32 = new CRC32();
+        crc32.update(record, 0, record.length);
+        DataOutputStream output = new DataOutputStream(records);
+        output.writeInt(record.length);
+        output.writeInt((int) crc32.getValue());
+        output.write(record);
+    }
+
+    private static byte[] encodeDelete(byte type, String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(type);
+        output.writeUTF(id);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeSessionData(MGDDataHelper.SessionData sessionData) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(RECORD_PUT_SESSION);
+        output.writeUTF(sessionData.sessionId);
+        writeNullableUTF(output, sessionData.eTag);
+        writeNullableUTF(output, sessionData.templateTag);
+        writeNullableUTF(output, sessionData.htmlSha1);
+        output.writeLong(sessionData.htmlSize);
+        output.writeLong(sessionData.templateUpdateTime);
+        output.writeLong(sessionData.expiredTime);
+        output.writeLong(sessionData.unAvailableTime);
+        output.writeInt(sessionData.cacheHitCount);
+        output.writeLong(sessionData.lastAccessTime);
+        output.writeLong(sessionData.bytesServed);
+        output.writeLong(sessionData.staleExpiredTime);
+        return bytes.toByteArray();
+    }
+
+    private static MGDDataHelper.SessionData decodeSessionData(DataInputStream input) throws IOException {
+        MGDDataHelper.SessionData sessionData = new MGDDataHelper.SessionData();
+        sessionData.sessionId = input.readUTF();
+        sessionData.eTag = readNullableUTF(input);
+        sessionData.templateTag = readNullableUTF(input);
+        sessionData.htmlSha1 = readNullableUTF(input);
+        sessionData.htmlSize = input.readLong();
+        sessionData.templateUpdateTime = input.readLong();
+        sessionData.expiredTime = input.readLong();
+        sessionData.unAvailableTime = input.readLong();
+        sessionData.cacheHitCount = input.readInt();
+        sessionData.lastAccessTime = input.readLong();
+        sessionData.bytesServed = input.readLong();
+        // the records written before stale-while-revalidate support end here
+        if (input.available() >= 8) {
+            sessionData.staleExpiredTime = input.readLong();
+        }
+        return sessionData;
+    }
+
+    private static byte[] encodeResourceData(MGDResourceDataHelper.ResourceData resourceData) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(RECORD_PUT_RESOURCE);
+        output.writeUTF(resourceData.resourceId);
+        writeNullableUTF(output, resourceData.resourceSha1);
+        output.writeLong(resourceData.resourceSize);
+        output.writeLong(resourceData.lastUpdateTime);
+        output.writeLong(resourceData.expiredTime);
+        output.writeInt(resourceData.cacheHitCount);
+        output.writeLong(resourceData.lastAccessTime);
+        output.writeLong(resourceData.bytesServed);
+        return bytes.toByteArray();
+    }
+
+    private static MGDResourceDataHelper.ResourceData decodeResourceData(DataInputStream input) throws IOException {
+        MGDResourceDataHelper.ResourceData resourceData = new MGDResourceDataHelper.ResourceData();
+        resourceData.resourceId = input.readUTF();
+        resourceData.resourceSha1 = readNullableUTF(input);
+        resourceData.resourceSize = input.readLong();
+        resourceData.lastUpdateTime = input.readLong();
+        resourceData.expiredTime = input.readLong();
+        resourceData.cacheHitCount = input.readInt();
+        resourceData.lastAccessTime = input.readLong();
+        resourceData.bytesServed = input.readLong();
+        return resourceData;
+    }
+
+    private static void writeNullableUTF(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(null != value);
+        if (null != value) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <code>MGDMetadataStore</code> persists the rows of {@link MGDDataHelper} and {@link MGDResourceDataHelper}.
+ *
+ * <p>
+ * The helpers serve all reads from their in-memory indexes, so a store only has to load every row
+ * once at startup and apply batches of mutations. MGD provides a SQLite backend ({@link #TYPE_SQLITE})
+ * and an append-only memory-mapped log backend ({@link #TYPE_LOG}), see
+ * {@link MGDConfig.Builder#setMetadataStoreType(int)}.
+ */
+public abstract class MGDMetadataStore {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDMetadataStore";
+
+    /**
+     * Store the metadata in SQLite database, see {@link MGDDBHelper}.
+     */
+    public static final int TYPE_SQLITE = 0;
+
+    /**
+     * Store the metadata in an append-only memory-mapped log, see {@link MGDLogMetadataStore}.
+     */
+    public static final int TYPE_LOG = 1;
+
+    /**
+     * Name of the log file of {@link #TYPE_LOG}
+     */
+    private static final String LOG_FILE_NAME = "MGD_metadata.log";
+
+    /**
+     * Mutations of the in-memory indexes are batched and applied after this delay.
+     */
+    private static final long FLUSH_DELAY_MILLIS = 500;
+
+    /**
+     * The delay of retrying a failed batch is doubled on each failure, up to {@code FLUSH_DELAY_MILLIS << MAX_RETRY_SHIFT}.
+     */
+    private static final int MAX_RETRY_SHIFT = 6;
+
+    private static MGDMetadataStore sInstance;
+
+    private final AtomicBoolean isFlushScheduled = new AtomicBoolean(false);
+
+    private volatile Handler flushHandler;
+
+    /**
+     * The number of consecutive failed flushes
+     */
+    private volatile int failureCount;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * The mutations of both indexes since the last flush.
+     */
+    static class Batch {
+
+        /**
+         * Whether all the session rows should be deleted before the changes are applied
+         */
+        boolean isSessionClear;
+
+        /**
+         * The changed session rows, a null value means the row is removed
+         */
+        final Map<String, MGDDataHelper.SessionData> sessionChanges = new LinkedHashMap<String, MGDDataHelper.SessionData>();
+
+        /**
+         * The access statistics of the session rows which are not in {@link #sessionChanges}
+         */
+        final Map<String, MGDAccessStats.AccessDelta> sessionAccessStats = new LinkedHashMap<String, MGDAccessStats.AccessDelta>();
+
+        /**
+         * Whether all the resource rows should be deleted before the changes are applied
+         */
+        boolean isResourceClear;
+
+        /**
+         * The changed resource rows, a null value means the row is removed
+         */
+        final Map<String, MGDResourceDataHelper.ResourceData> resourceChanges = new LinkedHashMap<String, MGDResourceDataHelper.ResourceData>();
+
+        /**
+         * The access statistics of the resource rows which are not in {@link #resourceChanges}
+         */
+        final Map<String, MGDAccessStats.AccessDelta> resourceAccessStats = new LinkedHashMap<String, MGDAccessStats.AccessDelta>();
+
+        boolean isEmpty() {
+            return !isSessionClear && !isResourceClear && 0 == size();
+        }
+
+        int size() {
+            return sessionChanges.size() + sessionAccessStats.size() + resourceChanges.size() + resourceAccessStats.size();
+        }
+    }
+
+    static synchronized MGDMetadataStore createInstance(MGDRuntime runtime, int type) {
+        if (null == sInstance) {
+            if (TYPE_LOG == type) {
+                sInstance = new MGDLogMetadataStore(new File(runtime.getContext().getFilesDir(), LOG_FILE_NAME));
+            } else {
+                sInstance = new MGDSQLiteMetadataStore(runtime.getContext());
+            }
+        }
+        return sInstance;
+    }
+
+    public static synchronized MGDMetadataStore getInstance() {
+        if (null == sInstance) {
+            throw new IllegalStateException("MGDMetadataStore::createInstance() needs to be called before MGDMetadataStore::getInstance()!");
+        }
+        return sInstance;
+    }
+
+    /**
+     * Open the store, it may take a while and should not be called on the main thread.
+     */
+    abstract void open();
+
+    /**
+     * @return All the session rows
+     */
+    abstract List<MGDDataHelper.SessionData> loadSessionData();
+
+    /**
+     * @return All the resource rows
+     */
+    abstract List<MGDResourceDataHelper.ResourceData> loadResourceData();
+
+    /**
+     * Apply a batch of mutations atomically.
+     *
+     * @param batch The mutations
+     */
+    abstract void apply(Batch batch);
+
+    /**
+     * @return Whether the store is upgrading, no session is created until the upgrade is finished.
+     */
+    public boolean isUpgrading() {
+        return false;
+    }
+
+    /**
+     * Schedule the pending mutations of {@link MGDDataHelper} and {@link MGDResourceDataHelper}
+     * to be applied on the file thread. Calls within {@link #FLUSH_DELAY_MILLIS} are batched.
+     */
+    void scheduleFlush() {
+        if (isFlushScheduled.compareAndSet(false, true)) {
+            if (null == flushHandler) {
+                synchronized (flushTask) {
+                    if (null == flushHandler) {
+                        flushHandler = new Handler(MGDEngine.getInstance().getRuntime().getFileThreadLooper());
+                    }
+                }
+            }
+            flushHandler.postDelayed(flushTask, FLUSH_DELAY_MILLIS << Math.min(failureCount, MAX_RETRY_SHIFT));
+        }
+    }
+
+    /**
+     * Apply the pending mutations of the in-memory indexes in a single batch. If the batch fails
+     * to be applied, its mutations are put back and retried later.
+     */
+    synchronized void flush() {
+        isFlushScheduled.set(false);
+        Batch batch = new Batch();
+        MGDDataHelper.drainPendingChanges(batch);
+        MGDResourceDataHelper.drainPendingChanges(batch);
+        if (batch.isEmpty()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            apply(batch);
+            failureCount = 0;
+        } catch (Throwable e) {
+            failureCount++;
+            MGDUtils.log(TAG, Log.ERROR, "flush error(" + failureCount + "):" + e.getMessage());
+            MGDDataHelper.restorePendingChanges(batch);
+            MGDResourceDataHelper.restorePendingChanges(batch);
+            scheduleFlush();
+            return;
+        }
+        MGDUtils.log(TAG, Log.INFO, "flush: " + batch.size() + " rows, cost " + (System.currentTimeMillis() - startTime) + " ms.");
+    }
+}
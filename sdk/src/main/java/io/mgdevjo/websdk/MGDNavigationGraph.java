@@ -0,0 +1,372 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <code>MGDNavigationGraph</code> records which session follows which, keyed by session id, and
+ * predicts the most probable next pages of the current session.
+ *
+ * <p>
+ * The graph keeps at most {@link #MAX_NODE_COUNT} pages and {@link #MAX_EDGE_COUNT} next pages
+ * of each page, the counts are halved when a page has been left {@link #MAX_TRANSITION_COUNT}
+ * times so that old habits fade. It is saved in {@link MGDRuntime#getMGDSharedPreferences()}.
+ */
+public class MGDNavigationGraph {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDNavigationGraph";
+
+    private static final String SP_KEY_NAVIGATION_GRAPH = "navigation_graph";
+
+    private static final int MAX_NODE_COUNT = 64;
+
+    private static final int MAX_EDGE_COUNT = 8;
+
+    private static final int MAX_TRANSITION_COUNT = 256;
+
+    /**
+     * The graph is saved this long after the last transition.
+     */
+    private static final long SAVE_DELAY_MILLIS = 10 * 1000;
+
+    /**
+     * The estimated bytes of a page which has no session cache
+     */
+    private static final long DEFAULT_PAGE_SIZE = 100 * 1024;
+
+    /**
+     * A page of the graph
+     */
+    private static class Node {
+
+        String url;
+
+        /**
+         * The number of transitions to each next page
+         */
+        final HashMap<String, Integer> edges = new HashMap<String, Integer>();
+
+        int transitionCount;
+
+        void addTransition(String toSessionId) {
+            Integer count = edges.get(toSessionId);
+            if (null == count && edges.size() >= MAX_EDGE_COUNT) {
+                removeLeastEdge();
+            }
+            edges.put(toSessionId, null == count ? 1 : count + 1);
+            if (++transitionCount >= MAX_TRANSITION_COUNT) {
+                transitionCount = 0;
+                Iterator<Map.Entry<String, Integer>> iterator = edges.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, Integer> edge = iterator.next();
+                    int halfCount = edge.getValue() / 2;
+                    if (halfCount > 0) {
+                        edge.setValue(halfCount);
+                        transitionCount += halfCount;
+                    } else {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+
+        private void removeLeastEdge() {
+            String leastSessionId = null;
+            int leastCount = Integer.MAX_VALUE;
+            for (Map.Entry<String, Integer> edge : edges.entrySet()) {
+                if (edge.getValue() < leastCount) {
+                    leastCount = edge.getValue();
+                    leastSessionId = edge.getKey();
+                }
+            }
+            edges.remove(leastSessionId);
+            transitionCount -= leastCount;
+        }
+    }
+
+    /**
+     * The accuracy counters of the predictions
+     */
+    public static class Statistics {
+
+        /**
+         * The number of pages which have been preloaded by prediction
+         */
+        public long predictedCount;
+
+        /**
+         * The number of predicted pages which have been opened next
+         */
+        public long hitCount;
+
+        /**
+         * The number of predictions whose pages were not opened next
+         */
+        public long missCount;
+
+        /**
+         * @return The ratio of predicted pages which have been opened next
+         */
+        public float getPrecision() {
+            return predictedCount > 0 ? (float) hitCount / predictedCount : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "predicted=" + predictedCount + ", hit=" + hitCount + ", miss=" + missCount;
+        }
+    }
+
+    private final MGDRuntime runtime;
+
+    private final LinkedHashMap<String, Node> nodes = new LinkedHashMap<String, Node>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Node> eldest) {
+            return size() > MAX_NODE_COUNT;
+        }
+    };
+
+    private final Statistics statistics = new Statistics();
+
+    /**
+     * The session id of the page which is opened last
+     */
+    private String currentSessionId;
+
+    /**
+     * The session ids which have been preloaded for {@link #currentSessionId}
+     */
+    private final HashSet<String> predictedSessionIds = new HashSet<String>();
+
+    private boolean isCurrentPredicted;
+
+    /**
+     * The start time of the current budget window and the bytes which have been spent in it
+     */
+    private long budgetWindowStartTime;
+
+    private long budgetSpent;
+
+    private final AtomicBoolean isSaveScheduled = new AtomicBoolean(false);
+
+    private final Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            isSaveScheduled.set(false);
+            save();
+        }
+    };
+
+    MGDNavigationGraph(MGDRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    /**
+     * Record that the page of {@code sessionId} is opened after {@link #currentSessionId}.
+     *
+     * @param sessionId The session id of the opened page
+     * @param url The url of the opened page
+     */
+    synchronized void recordTransition(String sessionId, String url) {
+        if (sessionId.equals(currentSessionId)) {
+            return;
+        }
+        if (isCurrentPredicted) {
+            if (predictedSessionIds.contains(sessionId)) {
+                statistics.hitCount++;
+            } else {
+                statistics.missCount++;
+            }
+        }
+        if (null != currentSessionId) {
+            Node fromNode = nodes.get(currentSessionId);
+            if (null != fromNode) {
+                fromNode.addTransition(sessionId);
+            }
+        }
+        Node node = nodes.get(sessionId);
+        if (null == node) {
+            node = new Node();
+            nodes.put(sessionId, node);
+        }
+        node.url = url;
+        currentSessionId = sessionId;
+        predictedSessionIds.clear();
+        isCurrentPredicted = false;
+        if (isSaveScheduled.compareAndSet(false, true)) {
+            runtime.postTaskToThread(saveTask, SAVE_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * @return Whether {@code sessionId} is the page which is opened last.
+     */
+    synchronized boolean isCurrentSession(String sessionId) {
+        return sessionId.equals(currentSessionId);
+    }
+
+    /**
+     * Predict the next pages of the current page, the prediction is made once per page. Every
+     * predicted page spends its cached html size (or {@link #DEFAULT_PAGE_SIZE}) from the budget.
+     *
+     * @param sessionId The session id of the current page
+     * @param maxCount The max number of the predicted pages
+     * @param minProbability The min transition probability of the predicted pages
+     * @param budget The bytes which can be spent in a budget window
+     * @param window The length of a budget window
+     * @return The urls of the predicted pages, the most probable first.
+     */
+    synchronized List<String> predict(String sessionId, int maxCount, float minProbability, long budget, long window) {
+        List<String> urls = new ArrayList<String>();
+        if (!sessionId.equals(currentSessionId) || isCurrentPredicted) {
+            return urls;
+        }
+        isCurrentPredicted = true;
+        Node node = nodes.get(sessionId);
+        if (null == node || node.transitionCount <= 0) {
+            return urls;
+        }
+        List<Map.Entry<String, Integer>> edges = new ArrayList<Map.Entry<String, Integer>>(node.edges.entrySet());
+        Collections.sort(edges, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> lhs, Map.Entry<String, Integer> rhs) {
+                return rhs.getValue().compareTo(lhs.getValue());
+            }
+        });
+        for (Map.Entry<String, Integer> edge : edges) {
+            if (urls.size() >= maxCount || (float) edge.getValue() / node.transitionCount < minProbability) {
+                break;
+            }
+            Node nextNode = nodes.get(edge.getKey());
+            if (null != nextNode && !TextUtils.isEmpty(nextNode.url)) {
+                long pageSize = MGDDataHelper.getSessionData(edge.getKey()).htmlSize;
+                if (!consumeBudget(pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE, budget, window)) {
+                    runtime.log(TAG, Log.INFO, "predict: budget is used up, " + budgetSpent + " bytes are spent.");
+                    break;
+                }
+                urls.add(nextNode.url);
+                predictedSessionIds.add(edge.getKey());
+            }
+        }
+        statistics.predictedCount += urls.size();
+        return urls;
+    }
+
+    /**
+     * Spend the preload budget.
+     *
+     * @param bytes The estimated bytes of a preload
+     * @param budget The bytes which can be spent in a window
+     * @param window The length of a window
+     * @return Whether there is enough budget or not.
+     */
+    private boolean consumeBudget(long bytes, long budget, long window) {
+        long now = System.currentTimeMillis();
+        if (now - budgetWindowStartTime >= window) {
+            budgetWindowStartTime = now;
+            budgetSpent = 0;
+        }
+        if (budgetSpent + bytes > budget) {
+            return false;
+        }
+        budgetSpent += bytes;
+        return true;
+    }
+
+    /**
+     * @return A snapshot of the accuracy counters
+     */
+    synchronized Statistics getStatistics() {
+        Statistics snapshot = new Statistics();
+        snapshot.predictedCount = statistics.predictedCount;
+        snapshot.hitCount = statistics.hitCount;
+        snapshot.missCount = statistics.missCount;
+        return snapshot;
+    }
+
+    /**
+     * Load the saved graph, the pages which have been recorded since startup are kept.
+     */
+    void load() {
+        String json = runtime.getMGDSharedPreferences().getString(SP_KEY_NAVIGATION_GRAPH, "");
+        if (TextUtils.isEmpty(json)) {
+            return;
+        }
+        try {
+            JSONArray nodeArray = new JSONArray(json);
+            synchronized (this) {
+                for (int i = 0; i < nodeArray.length(); i++) {
+                    JSONObject nodeObject = nodeArray.getJSONObject(i);
+                    String sessionId = nodeObject.getString("id");
+                    if (nodes.containsKey(sessionId)) {
+                        continue;
+                    }
+                    Node node = new Node();
+                    node.url = nodeObject.optString("url");
+                    JSONObject edgeObject = nodeObject.getJSONObject("edges");
+                    Iterator<String> keys = edgeObject.keys();
+                    while (keys.hasNext()) {
+                        String toSessionId = keys.next();
+                        int count = edgeObject.getInt(toSessionId);
+                        node.edges.put(toSessionId, count);
+                        node.transitionCount += count;
+                    }
+                    nodes.put(sessionId, node);
+                }
+            }
+        } catch (Throwable e) {
+            runtime.log(TAG, Log.ERROR, "load error:" + e.getMessage());
+        }
+    }
+
+    private void save() {
+        try {
+            JSONArray nodeArray = new JSONArray();
+            synchronized (this) {
+                for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+                    JSONObject nodeObject = new JSONObject();
+                    nodeObject.put("id", entry.getKey());
+                    nodeObject.put("url", entry.getValue().url);
+                    nodeObject.put("edges", new JSONObject(entry.getValue().edges));
+                    nodeArray.put(nodeObject);
+                }
+            }
+            runtime.getMGDSharedPreferences().edit().putString(SP_KEY_NAVIGATION_GRAPH, nodeArray.toString()).apply();
+        } catch (Throwable e) {
+            runtime.log(TAG, Log.ERROR, "save error:" + e.getMessage());
+        }
+    }
+}
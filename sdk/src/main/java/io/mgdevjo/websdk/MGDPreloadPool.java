@@ -0,0 +1,451 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <code>MGDPreloadPool</code> holds the preload sessions of {@link MGDEngine}.
+ *
+ * <p>
+ * When the pool is full a new preload replaces the entry with the lowest expected-use score if
+ * the new one scores higher, otherwise it is rejected. The score of an entry is the historical
+ * conversion rate of its session id (from preload to real session), decayed by its age and
+ * discounted by the memory it holds. Expired entries are destroyed by a background reaper every
+ * {@link #REAP_INTERVAL_MILLIS} ms instead of waiting for someone to look them up.
+ *
+ * <p>
+ * At most {@link MGDConfig#MAX_CONCURRENT_PRELOAD_COUNT} preload sessions run their network flows
+ * at the same time, the others wait in the order of their priority, see {@link #start(MGDSession, int)}.
+ */
+public class MGDPreloadPool {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDPreloadPool";
+
+    /**
+     * The interval of the background reaper
+     */
+    static final long REAP_INTERVAL_MILLIS = 30 * 1000;
+
+    /**
+     * The memory held by an entry halves its score every time it grows by this many bytes.
+     */
+    private static final long MEMORY_UNIT = 512 * 1024;
+
+    /**
+     * The max number of session ids whose conversion history is kept
+     */
+    private static final int MAX_HISTORY_SIZE = 128;
+
+    /**
+     * The age of an entry is measured in this unit if its session has no expired time.
+     */
+    private static final long DEFAULT_AGE_UNIT = 3 * 60 * 1000;
+
+    /**
+     * The preload and real session counts of a session id
+     */
+    private static class Conversion {
+
+        int preloadCount;
+
+        int hitCount;
+
+        float getRate() {
+            // Laplace smoothing, a session id without history scores 0.5
+            return (hitCount + 1f) / (preloadCount + 2f);
+        }
+    }
+
+    /**
+     * A preload session waiting for its network flow to start
+     */
+    private static class PendingStart implements Comparable<PendingStart> {
+
+        final MGDSession session;
+
+        final int priority;
+
+        final long sequence;
+
+        PendingStart(MGDSession session, int priority, long sequence) {
+            this.session = session;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PendingStart another) {
+            if (priority != another.priority) {
+                return priority > another.priority ? -1 : 1;
+            }
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * The hit and waste counters of the pool
+     */
+    public static class Statistics {
+
+        /**
+         * The number of sessions which have been put into the pool
+         */
+        public long preloadCount;
+
+        /**
+         * The number of preload sessions which have been picked by a real session
+         */
+        public long hitCount;
+
+        /**
+         * The number of preload sessions which expired before being picked
+         */
+        public long expiredCount;
+
+        /**
+         * The number of preload sessions which have been replaced by a higher-score preload
+         */
+        public long evictedCount;
+
+        /**
+         * The number of preload sessions which have been removed for other reasons, such as
+         * a changed session config or {@link MGDEngine#cleanCache()}
+         */
+        public long discardedCount;
+
+        /**
+         * The number of preloads which have been rejected because the pool is full
+         */
+        public long rejectedCount;
+
+        /**
+         * @return The ratio of preload sessions which have been picked
+         */
+        public float getHitRatio() {
+            return preloadCount > 0 ? (float) hitCount / preloadCount : 0;
+        }
+
+        /**
+         * @return The ratio of preload sessions which have been destroyed without being picked
+         */
+        public float getWasteRatio() {
+            return preloadCount > 0 ? (float) (expiredCount + evictedCount + discardedCount) / preloadCount : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "preload=" + preloadCount + ", hit=" + hitCount + ", expired=" + expiredCount + ", evicted=" + evictedCount +
+                    ", discarded=" + discardedCount + ", rejected=" + rejectedCount;
+        }
+    }
+
+    private final MGDRuntime runtime;
+
+    private final int maxSize;
+
+    private final int maxConcurrentFlows;
+
+    /**
+     * The preload sessions whose network flows are running
+     */
+    private final HashSet<MGDSession> runningFlows = new HashSet<MGDSession>();
+
+    private final PriorityQueue<PendingStart> pendingStarts = new PriorityQueue<PendingStart>();
+
+    private long nextSequence;
+
+    private final HashMap<String, MGDSession> sessions = new HashMap<String, MGDSession>();
+
+    private final LinkedHashMap<String, Conversion> history = new LinkedHashMap<String, Conversion>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Conversion> eldest) {
+            return size() > MAX_HISTORY_SIZE;
+        }
+    };
+
+    private final Statistics statistics = new Statistics();
+
+    private final AtomicBoolean isReapScheduled = new AtomicBoolean(false);
+
+    private final Runnable reapTask = new Runnable() {
+        @Override
+        public void run() {
+            isReapScheduled.set(false);
+            reap();
+        }
+    };
+
+    MGDPreloadPool(MGDRuntime runtime, int maxSize, int maxConcurrentFlows) {
+        this.runtime = runtime;
+        this.maxSize = maxSize;
+        this.maxConcurrentFlows = Math.max(1, maxConcurrentFlows);
+    }
+
+    synchronized MGDSession get(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    synchronized int size() {
+        return sessions.size();
+    }
+
+    synchronized boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+
+    /**
+     * Make room for a new preload of {@code sessionId}, the entry with the lowest score is evicted
+     * if the pool is full and the new preload scores higher.
+     *
+     * @return Whether there is room for the new preload or not.
+     */
+    synchronized boolean makeRoom(String sessionId) {
+        if (sessions.size() < maxSize) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        String lowestId = null;
+        float lowestScore = Float.MAX_VALUE;
+        for (Map.Entry<String, MGDSession> entry : sessions.entrySet()) {
+            float score = getScore(entry.getValue(), now);
+            if (score < lowestScore) {
+                lowestScore = score;
+                lowestId = entry.getKey();
+            }
+        }
+        float newScore = getConversionRate(sessionId);
+        if (null == lowestId || lowestScore >= newScore) {
+            statistics.rejectedCount++;
+            runtime.log(TAG, Log.ERROR, "makeRoom: reject id(" + sessionId + "), score " + newScore + " is not higher than " + lowestScore + ".");
+            return false;
+        }
+        MGDSession evictedSession = sessions.remove(lowestId);
+        statistics.evictedCount++;
+        runtime.log(TAG, Log.INFO, "makeRoom: evict id(" + lowestId + ") with score " + lowestScore + " for id(" + sessionId + ").");
+        evictedSession.destroy();
+        return true;
+    }
+
+    /**
+     * Put a preload session into the pool, call {@link #makeRoom(String)} first.
+     */
+    synchronized void put(String sessionId, MGDSession session) {
+        sessions.put(sessionId, session);
+        getConversion(sessionId).preloadCount++;
+        statistics.preloadCount++;
+        scheduleReap();
+    }
+
+    /**
+     * Remove the preload session which is picked by a real session.
+     */
+    synchronized MGDSession pick(String sessionId) {
+        MGDSession session = sessions.remove(sessionId);
+        if (null != session) {
+            getConversion(sessionId).hitCount++;
+            statistics.hitCount++;
+        }
+        return session;
+    }
+
+    /**
+     * Remove and destroy a preload session which will never be picked.
+     *
+     * @param isExpired Whether the session is removed because it is expired
+     */
+    synchronized MGDSession discard(String sessionId, boolean isExpired) {
+        MGDSession session = sessions.remove(sessionId);
+        if (null != session) {
+            if (isExpired) {
+                statistics.expiredCount++;
+            } else {
+                statistics.discardedCount++;
+            }
+            session.destroy();
+        }
+        return session;
+    }
+
+    /**
+     * Remove and destroy all the preload sessions.
+     *
+     * @return The number of sessions which have been removed.
+     */
+    synchronized int clear() {
+        int count = sessions.size();
+        for (MGDSession session : sessions.values()) {
+            session.destroy();
+        }
+        sessions.clear();
+        statistics.discardedCount += count;
+        return count;
+    }
+
+    /**
+     * Start the network flow of a preload session, or queue it if {@link #maxConcurrentFlows}
+     * flows are running.
+     *
+     * @param priority Sessions with a larger priority are started first
+     * @return Whether the session has been started or not.
+     */
+    boolean start(MGDSession session, int priority) {
+        synchronized (this) {
+            if (runningFlows.size() >= maxConcurrentFlows) {
+                pendingStarts.add(new PendingStart(session, priority, nextSequence++));
+                runtime.log(TAG, Log.INFO, "start: session(" + session.sId + ") is queued, " + pendingStarts.size() + " sessions are waiting.");
+                return false;
+            }
+            runningFlows.add(session);
+        }
+        session.start();
+        return true;
+    }
+
+    /**
+     * Start a queued preload session at once because a real session is waiting for it.
+     */
+    void startNow(MGDSession session) {
+        boolean isQueued;
+        synchronized (this) {
+            isQueued = removePendingStart(session);
+        }
+        if (isQueued) {
+            session.start();
+        }
+    }
+
+    /**
+     * Called when a session leaves {@link MGDSession#STATE_RUNNING} or is destroyed, the next
+     * queued preload session is started if the session held a network flow slot.
+     */
+    void onFlowFinished(MGDSession session) {
+        List<MGDSession> nextSessions = new ArrayList<MGDSession>();
+        synchronized (this) {
+            if (!runningFlows.remove(session) && !removePendingStart(session)) {
+                return;
+            }
+            while (runningFlows.size() < maxConcurrentFlows && !pendingStarts.isEmpty()) {
+                MGDSession nextSession = pendingStarts.poll().session;
+                runningFlows.add(nextSession);
+                nextSessions.add(nextSession);
+            }
+        }
+        for (MGDSession nextSession : nextSessions) {
+            nextSession.start();
+        }
+    }
+
+    private boolean removePendingStart(MGDSession session) {
+        Iterator<PendingStart> iterator = pendingStarts.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().session == session) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return A snapshot of the hit and waste counters
+     */
+    synchronized Statistics getStatistics() {
+        Statistics snapshot = new Statistics();
+        snapshot.preloadCount = statistics.preloadCount;
+        snapshot.hitCount = statistics.hitCount;
+        snapshot.expiredCount = statistics.expiredCount;
+        snapshot.evictedCount = statistics.evictedCount;
+        snapshot.discardedCount = statistics.discardedCount;
+        snapshot.rejectedCount = statistics.rejectedCount;
+        return snapshot;
+    }
+
+    static boolean isExpired(MGDSession session, long now) {
+        long expiredTime = session.config.PRELOAD_SESSION_EXPIRED_TIME;
+        return expiredTime > 0 && now - session.createdTime > expiredTime;
+    }
+
+    private float getScore(MGDSession session, long now) {
+        long ageUnit = session.config.PRELOAD_SESSION_EXPIRED_TIME > 0 ? session.config.PRELOAD_SESSION_EXPIRED_TIME : DEFAULT_AGE_UNIT;
+        float recency = 1f / (1f + (float) Math.max(0, now - session.createdTime) / ageUnit);
+        float memory = 1f / (1f + (float) session.getMemoryFootprint() / MEMORY_UNIT);
+        return getConversionRate(session.id) * recency * memory;
+    }
+
+    private float getConversionRate(String sessionId) {
+        Conversion conversion = history.get(sessionId);
+        return null != conversion ? conversion.getRate() : new Conversion().getRate();
+    }
+
+    private Conversion getConversion(String sessionId) {
+        Conversion conversion = history.get(sessionId);
+        if (null == conversion) {
+            conversion = new Conversion();
+            history.put(sessionId, conversion);
+        }
+        return conversion;
+    }
+
+    private void scheduleReap() {
+        if (isReapScheduled.compareAndSet(false, true)) {
+            runtime.postTaskToThread(reapTask, REAP_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Destroy the expired preload sessions, and the ones which have been destroyed by themselves.
+     */
+    void reap() {
+        List<MGDSession> reapedSessions = new ArrayList<MGDSession>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (MGDSession session : new ArrayList<MGDSession>(sessions.values())) {
+                if (session.isDestroyedOrWaitingForDestroy()) {
+                    sessions.remove(session.id);
+                    statistics.discardedCount++;
+                    reapedSessions.add(session);
+                } else if (isExpired(session, now)) {
+                    sessions.remove(session.id);
+                    statistics.expiredCount++;
+                    reapedSessions.add(session);
+                }
+            }
+            if (!sessions.isEmpty()) {
+                scheduleReap();
+            }
+        }
+        for (MGDSession session : reapedSessions) {
+            session.destroy();
+        }
+        if (!reapedSessions.isEmpty()) {
+            runtime.log(TAG, Log.INFO, "reap: destroy " + reapedSessions.size() + " preload sessions, " + getStatistics() + ".");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A preload of {@link MGDEngine#preCreateSessions(java.util.List)}.
+ */
+public class MGDPreloadRequest {
+
+    /**
+     * The default priority, it is also the priority of {@link MGDEngine#preCreateSession(String, MGDSessionConfig)}.
+     */
+    public static final int PRIORITY_DEFAULT = 0;
+
+    /**
+     * Url for preCreate MGD session
+     */
+    public final String url;
+
+    /**
+     * MGDSession config
+     */
+    public final MGDSessionConfig sessionConfig;
+
+    /**
+     * Requests with a larger priority are created and start their network flows first.
+     */
+    public final int priority;
+
+    public MGDPreloadRequest(@NonNull String url, @NonNull MGDSessionConfig sessionConfig, int priority) {
+        this.url = url;
+        this.sessionConfig = sessionConfig;
+        this.priority = priority;
+    }
+
+    public MGDPreloadRequest(@NonNull String url, @NonNull MGDSessionConfig sessionConfig) {
+        this(url, sessionConfig, PRIORITY_DEFAULT);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of {@link MGDEngine#preCreateSessions(List)}, every url of the requests is in exactly
+ * one of the lists.
+ */
+public class MGDPreloadResult {
+
+    static final int STATUS_STARTED = 0;
+
+    static final int STATUS_QUEUED = 1;
+
+    static final int STATUS_DEDUPLICATED = 2;
+
+    static final int STATUS_REJECTED = 3;
+
+    /**
+     * The preloads whose sessions have been created and started
+     */
+    public final List<String> startedUrls = new ArrayList<String>();
+
+    /**
+     * The preloads whose sessions have been created, they start when there is room under
+     * {@link MGDConfig#MAX_CONCURRENT_PRELOAD_COUNT}
+     */
+    public final List<String> queuedUrls = new ArrayList<String>();
+
+    /**
+     * The preloads whose session id is already preloaded, running or requested earlier in the same batch
+     */
+    public final List<String> deduplicatedUrls = new ArrayList<String>();
+
+    /**
+     * The preloads which have been rejected, because MGD service is unavailable, the network is
+     * invalid or the preload pool is full
+     */
+    public final List<String> rejectedUrls = new ArrayList<String>();
+
+    void add(String url, int status) {
+        switch (status) {
+            case STATUS_STARTED:
+                startedUrls.add(url);
+                break;
+            case STATUS_QUEUED:
+                queuedUrls.add(url);
+                break;
+            case STATUS_DEDUPLICATED:
+                deduplicatedUrls.add(url);
+                break;
+            default:
+                rejectedUrls.add(url);
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "started=" + startedUrls.size() + ", queued=" + queuedUrls.size() + ", deduplicated=" + deduplicatedUrls.size() +
+                ", rejected=" + rejectedUrls.size();
+    }
+}
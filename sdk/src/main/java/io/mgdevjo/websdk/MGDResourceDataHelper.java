@@ -15,18 +15,23 @@
 
 package io.mgdevjo.websdk;
 
-import android.content.ContentValues;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * MGDResourceDataHelper manages the resource database.
+ *
+ * <p>
+ * Like {@link MGDDataHelper}, all the rows are mirrored in an in-memory index which is loaded
+ * lazily, reads never touch the database and mutations are written asynchronously.
  */
 public class MGDResourceDataHelper {
 
@@ -35,47 +40,13 @@ public class MGDResourceDataHelper {
      */
     private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDResourceDataHelper";
 
-    /**
-     * table name of resource data.
-     */
-    private static final String MGD_RESOURCE_TABLE_NAME = "ResourceData";
-
-    /**
-     * resource data's id.
-     */
-    private static final String RESOURCE_DATA_COLUMN_RESOURCE_ID = "resourceID";
-
-    /**
-     * key of resource sha1.
-     */
-    private static final String RESOURCE_DATA_COLUMN_RESOURCE_SHA1 = "resourceSha1";
-
-    /**
-     * key of resource size.
-     */
-    private static final String RESOURCE_DATA_COLUMN_RESOURCE_SIZE = "resourceSize";
-
-    /**
-     * key of last update time.
-     */
-    private static final String RESOURCE_DATA_COLUMN_LAST_UPDATE_TIME = "resourceUpdateTime";
-
-    /**
-     * key of cache expired time.
-     */
-    private static final String RESOURCE_DATA_COLUMN_CACHE_EXPIRED_TIME = "cacheExpiredTime";
-
     /**
      * The create table sql
+     *
+     * @deprecated The schema is owned by the metadata store, this will be removed.
      */
-    public static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS " + MGD_RESOURCE_TABLE_NAME + " ( " +
-            "id  integer PRIMARY KEY autoincrement" +
-            " , " + RESOURCE_DATA_COLUMN_RESOURCE_ID + " text not null" +
-            " , " + RESOURCE_DATA_COLUMN_RESOURCE_SHA1 + " text not null" +
-            " , " + RESOURCE_DATA_COLUMN_RESOURCE_SIZE + " integer default 0" +
-            " , " + RESOURCE_DATA_COLUMN_LAST_UPDATE_TIME + " integer default 0" +
-            " , " + RESOURCE_DATA_COLUMN_CACHE_EXPIRED_TIME + " integer default 0" +
-            " ); ";
+    @Deprecated
+    public static final String CREATE_TABLE_SQL = MGDSQLiteMetadataStore.CREATE_RESOURCE_TABLE_SQL;
 
     /**
      * resource data structure
@@ -105,6 +76,21 @@ public class MGDResourceDataHelper {
          */
         public long expiredTime;
 
+        /**
+         * How many times the cache has been used
+         */
+        int cacheHitCount;
+
+        /**
+         * The latest time when the cache was used
+         */
+        long lastAccessTime;
+
+        /**
+         * How many bytes have been served from this cache
+         */
+        long bytesServed;
+
         /**
          * Reset data
          */
@@ -113,75 +99,104 @@ public class MGDResourceDataHelper {
             resourceSize = 0;
             lastUpdateTime = 0;
             expiredTime = 0;
+            cacheHitCount = 0;
+            lastAccessTime = 0;
+            bytesServed = 0;
+        }
+
+        /**
+         * @return A copy of this data.
+         */
+        ResourceData copy() {
+            ResourceData resourceData = new ResourceData();
+            resourceData.resourceId = resourceId;
+            resourceData.resourceSha1 = resourceSha1;
+            resourceData.resourceSize = resourceSize;
+            resourceData.lastUpdateTime = lastUpdateTime;
+            resourceData.expiredTime = expiredTime;
+            resourceData.cacheHitCount = cacheHitCount;
+            resourceData.lastAccessTime = lastAccessTime;
+            resourceData.bytesServed = bytesServed;
+            return resourceData;
         }
     }
 
     /**
-     * Get MGD ResourceData by unique resource id
-     *
-     * @param resourceId a unique resource id
-     * @return ResourceData
+     * The in-memory index of all resource data, the values are never modified after they are put into the index.
      */
-    @NonNull
-    public static ResourceData getResourceData(String resourceId) {
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        ResourceData resourceData = getResourceData(db, resourceId);
-        if (null == resourceData) {
-            resourceData = new ResourceData();
+    private static final ConcurrentHashMap<String, ResourceData> resourceIndex = new ConcurrentHashMap<String, ResourceData>();
+
+    /**
+     * Mutations which have not been written to database, a null value means the row is removed.
+     * Guarded by {@link #resourceIndex}.
+     */
+    private static final LinkedHashMap<String, ResourceData> pendingChanges = new LinkedHashMap<String, ResourceData>();
+
+    /**
+     * Whether all rows should be deleted before {@link #pendingChanges} are written. Guarded by {@link #resourceIndex}.
+     */
+    private static boolean isClearPending;
+
+    /**
+     * Access statistics of the rows which are not in {@link #pendingChanges}. Guarded by {@link #resourceIndex}.
+     */
+    private static final LinkedHashMap<String, MGDAccessStats.AccessDelta> pendingAccessStats = new LinkedHashMap<String, MGDAccessStats.AccessDelta>();
+
+    private static volatile boolean isIndexLoaded;
+
+    /**
+     * Load all the rows into the in-memory index if they have not been loaded.
+     */
+    static void loadIndexIfNeed() {
+        if (isIndexLoaded) {
+            return;
+        }
+        synchronized (resourceIndex) {
+            if (isIndexLoaded) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            for (ResourceData data : MGDMetadataStore.getInstance().loadResourceData()) {
+                // the rows changed before the index is loaded are newer than the store
+                if (!pendingChanges.containsKey(data.resourceId) && !isClearPending) {
+                    resourceIndex.put(data.resourceId, data);
+                }
+            }
+            isIndexLoaded = true;
+            MGDUtils.log(TAG, Log.INFO, "loadIndexIfNeed: load " + resourceIndex.size() + " rows, cost " + (System.currentTimeMillis() - startTime) + " ms.");
         }
-        return resourceData;
     }
 
     /**
-     * Get MGD resourceData by unique resource id
+     * Get MGD ResourceData by unique resource id
      *
-     * @param db The database.
      * @param resourceId a unique resource id
      * @return ResourceData
      */
-    private static ResourceData getResourceData(SQLiteDatabase db, String resourceId) {
-        Cursor cursor = db.query(MGD_RESOURCE_TABLE_NAME,
-                getAllResourceDataColumn(),
-                RESOURCE_DATA_COLUMN_RESOURCE_ID + "=?",
-                new String[] {resourceId},
-                null, null, null);
-
-        ResourceData resourceData = null;
-        if (cursor != null && cursor.moveToFirst()) {
-            resourceData = queryResourceData(cursor);
-        }
-        if(cursor != null){
-            cursor.close();
-        }
-        return resourceData;
+    @NonNull
+    public static ResourceData getResourceData(String resourceId) {
+        loadIndexIfNeed();
+        ResourceData resourceData = resourceIndex.get(resourceId);
+        return null != resourceData ? resourceData.copy() : new ResourceData();
     }
 
     /**
-     *
-     * @return all of the column in {@code MGD_RESOURCE_TABLE_NAME}
+     * @param resourceId resource id
+     * @return Whether the resource has metadata or not.
      */
-    public static String[] getAllResourceDataColumn() {
-        return new String[]{
-                RESOURCE_DATA_COLUMN_RESOURCE_ID,
-                RESOURCE_DATA_COLUMN_RESOURCE_SHA1,
-                RESOURCE_DATA_COLUMN_RESOURCE_SIZE,
-                RESOURCE_DATA_COLUMN_LAST_UPDATE_TIME,
-                RESOURCE_DATA_COLUMN_CACHE_EXPIRED_TIME
-        };
+    static boolean hasResourceData(String resourceId) {
+        loadIndexIfNeed();
+        return resourceIndex.containsKey(resourceId);
     }
 
     /**
-     * translate cursor to resource data.
-     * @param cursor db cursor
+     *
+     * @return all of the column in {@code ResourceData} table
+     * @deprecated The schema is owned by the metadata store, this will be removed.
      */
-    private static ResourceData queryResourceData(Cursor cursor) {
-        ResourceData resourceData = new ResourceData();
-        resourceData.resourceId = cursor.getString(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_RESOURCE_ID));
-        resourceData.resourceSha1 = cursor.getString(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_RESOURCE_SHA1));
-        resourceData.resourceSize = cursor.getLong(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_RESOURCE_SIZE));
-        resourceData.lastUpdateTime = cursor.getLong(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_LAST_UPDATE_TIME));
-        resourceData.expiredTime = cursor.getLong(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_CACHE_EXPIRED_TIME));
-        return resourceData;
+    @Deprecated
+    public static String[] getAllResourceDataColumn() {
+        return MGDSQLiteMetadataStore.getAllResourceDataColumn();
     }
 
     /**
@@ -191,77 +206,167 @@ public class MGDResourceDataHelper {
      * @param resourceData ResourceData
      */
     static void saveResourceData(String resourceId, ResourceData resourceData) {
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        saveResourceData(db, resourceId, resourceData);
+        loadIndexIfNeed();
+        ResourceData newResourceData = resourceData.copy();
+        newResourceData.resourceId = resourceId;
+        synchronized (resourceIndex) {
+            ResourceData storedResourceData = resourceIndex.get(resourceId);
+            if (null != storedResourceData) {
+                newResourceData.cacheHitCount = storedResourceData.cacheHitCount;
+                newResourceData.lastAccessTime = storedResourceData.lastAccessTime;
+                newResourceData.bytesServed = storedResourceData.bytesServed;
+            }
+            resourceIndex.put(resourceId, newResourceData);
+            pendingChanges.put(resourceId, newResourceData);
+            pendingAccessStats.remove(resourceId);
+        }
+        MGDMetadataStore.getInstance().scheduleFlush();
     }
 
     /**
-     * Save or update MGD resourceData with a unique resource id
+     * Apply the access statistics drained from {@link MGDAccessStats}.
      *
-     * @param db The database.
-     * @param resourceId   a unique resource id
-     * @param resourceData ResourceData
+     * @param resourceId     resource id
+     * @param hitCount       The hits since last drain
+     * @param bytesServed    The bytes served since last drain
+     * @param lastAccessTime The latest access time
      */
-    private static void saveResourceData(SQLiteDatabase db, String resourceId, ResourceData resourceData) {
-        resourceData.resourceId = resourceId;
-        ResourceData storedResourceData = getResourceData(db, resourceId);
-        if (storedResourceData != null) {
-            updateResourceData(db, resourceId, resourceData);
-        } else {
-            insertResourceData(db, resourceId, resourceData);
+    static void applyAccessStats(String resourceId, long hitCount, long bytesServed, long lastAccessTime) {
+        loadIndexIfNeed();
+        synchronized (resourceIndex) {
+            ResourceData resourceData = resourceIndex.get(resourceId);
+            if (null == resourceData) {
+                return;
+            }
+            resourceData = resourceData.copy();
+            resourceData.cacheHitCount += hitCount;
+            resourceData.bytesServed += bytesServed;
+            resourceData.lastAccessTime = Math.max(resourceData.lastAccessTime, lastAccessTime);
+            resourceIndex.put(resourceId, resourceData);
+            if (pendingChanges.containsKey(resourceId)) {
+                pendingChanges.put(resourceId, resourceData);
+            } else {
+                MGDAccessStats.AccessDelta delta = pendingAccessStats.get(resourceId);
+                if (null == delta) {
+                    delta = new MGDAccessStats.AccessDelta();
+                    pendingAccessStats.put(resourceId, delta);
+                }
+                delta.add(hitCount, bytesServed, lastAccessTime);
+            }
         }
+        MGDMetadataStore.getInstance().scheduleFlush();
     }
 
-    private static void insertResourceData(SQLiteDatabase db, String resourceId, ResourceData resourceData) {
-        ContentValues contentValues = getContentValues(resourceId, resourceData);
-        db.insert(MGD_RESOURCE_TABLE_NAME, null, contentValues);
-    }
-
-    private static void updateResourceData(SQLiteDatabase db, String resourceId, ResourceData resourceData) {
-        ContentValues contentValues = getContentValues(resourceId, resourceData);
-        db.update(MGD_RESOURCE_TABLE_NAME, contentValues, RESOURCE_DATA_COLUMN_RESOURCE_ID + "=?",
-                new String[] {resourceId});
+    /**
+     * Pick resource data at random without copying the whole index.
+     *
+     * @param count The max number of resource data
+     * @return A random sample of the resource data.
+     */
+    static List<ResourceData> sampleResourceData(int count) {
+        loadIndexIfNeed();
+        List<ResourceData> sample = new ArrayList<ResourceData>(count);
+        Random random = new Random();
+        int seen = 0;
+        for (ResourceData resourceData : resourceIndex.values()) {
+            if (sample.size() < count) {
+                sample.add(resourceData);
+            } else {
+                int index = random.nextInt(seen + 1);
+                if (index < count) {
+                    sample.set(index, resourceData);
+                }
+            }
+            seen++;
+        }
+        for (int i = 0; i < sample.size(); i++) {
+            sample.set(i, sample.get(i).copy());
+        }
+        return sample;
     }
 
     static List<ResourceData> getAllResourceData() {
-        List<ResourceData> resourceDataList = new ArrayList<ResourceData>();
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        Cursor cursor = db.query(MGD_RESOURCE_TABLE_NAME, getAllResourceDataColumn(),
-                null,null,null, null, "");
-        while(cursor != null && cursor.moveToNext()) {
-            resourceDataList.add(queryResourceData(cursor));
+        loadIndexIfNeed();
+        List<ResourceData> resourceDataList = new ArrayList<ResourceData>(resourceIndex.size());
+        for (ResourceData resourceData : resourceIndex.values()) {
+            resourceDataList.add(resourceData.copy());
         }
         return resourceDataList;
     }
 
-    @NonNull
-    private static ContentValues getContentValues(String resourceId, ResourceData resourceData) {
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(RESOURCE_DATA_COLUMN_RESOURCE_ID, resourceId);
-        contentValues.put(RESOURCE_DATA_COLUMN_RESOURCE_SHA1, resourceData.resourceSha1);
-        contentValues.put(RESOURCE_DATA_COLUMN_RESOURCE_SIZE, resourceData.resourceSize);
-        contentValues.put(RESOURCE_DATA_COLUMN_LAST_UPDATE_TIME, resourceData.lastUpdateTime);
-        contentValues.put(RESOURCE_DATA_COLUMN_CACHE_EXPIRED_TIME, resourceData.expiredTime);
-        return contentValues;
-    }
-
-
     /**
      * Remove a unique resource data
      *
      * @param resourceId A unique resource id
      */
     static void removeResourceData(String resourceId) {
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        db.delete(MGD_RESOURCE_TABLE_NAME, RESOURCE_DATA_COLUMN_RESOURCE_ID + "=?",
-                new String[] {resourceId});
+        synchronized (resourceIndex) {
+            resourceIndex.remove(resourceId);
+            pendingChanges.put(resourceId, null);
+            pendingAccessStats.remove(resourceId);
+        }
+        MGDMetadataStore.getInstance().scheduleFlush();
     }
 
     /**
      * Remove all MGD data
      */
-    static synchronized void clear() {
-        SQLiteDatabase db = MGDDBHelper.getInstance().getWritableDatabase();
-        db.delete(MGD_RESOURCE_TABLE_NAME, null, null);
+    static void clear() {
+        synchronized (resourceIndex) {
+            resourceIndex.clear();
+            pendingChanges.clear();
+            pendingAccessStats.clear();
+            isClearPending = true;
+        }
+        MGDMetadataStore.getInstance().scheduleFlush();
+    }
+
+    /**
+     * Move the pending mutations into a batch, see {@link MGDMetadataStore#flush()}.
+     *
+     * @param batch The batch to be applied
+     */
+    static void drainPendingChanges(MGDMetadataStore.Batch batch) {
+        synchronized (resourceIndex) {
+            batch.resourceChanges.putAll(pendingChanges);
+            pendingChanges.clear();
+            batch.resourceAccessStats.putAll(pendingAccessStats);
+            pendingAccessStats.clear();
+            batch.isResourceClear = isClearPending;
+            isClearPending = false;
+        }
+    }
+
+    /**
+     * Put back the mutations of a batch which failed to be applied, they are applied by the next
+     * flush. The mutations made after the batch was drained are newer and win.
+     *
+     * @param batch The batch which failed to be applied
+     */
+    static void restorePendingChanges(MGDMetadataStore.Batch batch) {
+        synchronized (resourceIndex) {
+            if (isClearPending) {
+                // all the rows are deleted again, the batch is out of date
+                return;
+            }
+            isClearPending = batch.isResourceClear;
+            LinkedHashMap<String, ResourceData> newerChanges = new LinkedHashMap<String, ResourceData>(pendingChanges);
+            pendingChanges.clear();
+            pendingChanges.putAll(batch.resourceChanges);
+            pendingChanges.putAll(newerChanges);
+            for (Map.Entry<String, MGDAccessStats.AccessDelta> entry : batch.resourceAccessStats.entrySet()) {
+                // a whole row in pendingChanges already includes the statistics
+                if (pendingChanges.containsKey(entry.getKey())) {
+                    continue;
+                }
+                MGDAccessStats.AccessDelta olderDelta = entry.getValue();
+                MGDAccessStats.AccessDelta delta = pendingAccessStats.get(entry.getKey());
+                if (null == delta) {
+                    pendingAccessStats.put(entry.getKey(), olderDelta);
+                } else {
+                    delta.add(olderDelta.hitCount, olderDelta.bytesServed, olderDelta.lastAccessTime);
+                }
+            }
+        }
     }
 }
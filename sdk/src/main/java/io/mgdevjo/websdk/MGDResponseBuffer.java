@@ -0,0 +1,166 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The response bytes of a {@link MGDServer}. The session which owns the server fills the buffer
+ * while it reads the network, sessions with the same id which attach to the server read it
+ * through their own {@link #newReader(long)} streams, each at its own position, and block until
+ * more bytes arrive or the response is finished.
+ */
+class MGDResponseBuffer extends ByteArrayOutputStream {
+
+    private boolean isFinished;
+
+    private boolean isComplete;
+
+    @Override
+    public synchronized void write(int b) {
+        super.write(b);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        super.write(b, off, len);
+        notifyAll();
+    }
+
+    /**
+     * Mark the end of the response, waiting readers are woken up.
+     *
+     * @param complete Whether the whole response has been written
+     */
+    synchronized void finish(boolean complete) {
+        if (!isFinished) {
+            isFinished = true;
+            isComplete = complete;
+            notifyAll();
+        }
+    }
+
+    synchronized boolean isFinished() {
+        return isFinished;
+    }
+
+    /**
+     * Wait until the response is finished.
+     *
+     * @param timeoutMillis The longest time to wait
+     * @return Whether the whole response has been written
+     */
+    synchronized boolean awaitFinish(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (!isFinished && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return isComplete;
+    }
+
+    /**
+     * @param timeoutMillis The longest time a read waits for new bytes
+     * @return A stream which reads the response from the beginning
+     */
+    InputStream newReader(long timeoutMillis) {
+        return new Reader(timeoutMillis);
+    }
+
+    private synchronized int read(int position, byte[] b, int off, int len, long timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (position >= count && !isFinished) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IOException("wait for shared response timeout");
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        if (position < count) {
+            int n = Math.min(len, count - position);
+            System.arraycopy(buf, position, b, off, n);
+            return n;
+        }
+
+        if (!isComplete) {
+            throw new IOException("shared response is not complete");
+        }
+        return -1;
+    }
+
+    private class Reader extends InputStream {
+
+        private final long timeoutMillis;
+
+        private int position;
+
+        private boolean isClosed;
+
+        Reader(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return -1 == read(b, 0, 1) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (isClosed) {
+                throw new IOException("stream is closed");
+            }
+            if (0 == len) {
+                return 0;
+            }
+
+            int n = MGDResponseBuffer.this.read(position, b, off, len, timeoutMillis);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            synchronized (MGDResponseBuffer.this) {
+                return isClosed ? 0 : Math.max(0, count - position);
+            }
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response bytes of a sub resource download, written to a temporary file as they arrive so the
+ * heap usage does not grow with the resource size. The SHA-1 of the content is computed on the way.
+ * Consumers read the file through their own {@link #newReader(long)} streams while it grows and
+ * block until more bytes arrive or the response is finished. A complete file is moved into the
+ * resource cache by {@link #commit(String, MGDCacheLedger)}, an incomplete one is deleted unless it
+ * is kept by {@link #suspend(String, Map)} to be resumed later by {@link #restorePartial(String)}.
+ */
+public class MGDResponseFile {
+
+    private File file;
+
+    private FileOutputStream outputStream;
+
+    private MessageDigest digest;
+
+    private long length;
+
+    private String sha1;
+
+    private boolean isFinished;
+
+    private boolean isComplete;
+
+    private boolean isClaimed;
+
+    private boolean isCommitted;
+
+    /**
+     * the validator of the written bytes for a range request, or null if they can not be resumed
+     */
+    private String validator;
+
+    /**
+     * increased when the written bytes are dropped by {@link #restart()}
+     */
+    private int generation;
+
+    /**
+     * the response headers of the written bytes, null until the response is accepted
+     */
+    private Map<String, List<String>> headers;
+
+    /**
+     * Create the temporary file of a resource in the resource cache root, it must be called before
+     * the first {@link #write(byte[], int, int)}.
+     *
+     * @param resourceName resource file name
+     */
+    public void open(String resourceName) throws IOException {
+        open(MGDFileUtils.createResourceTempFile(resourceName));
+    }
+
+    synchronized void open(File tempFile) throws IOException {
+        open(tempFile, false);
+    }
+
+    /**
+     * @param append Whether to keep the bytes in the file and write after them
+     */
+    synchronized void open(File tempFile, boolean append) throws IOException {
+        if (isFinished) {
+            tempFile.delete();
+            throw new IOException("response is finished");
+        }
+        try {
+            digest = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            tempFile.delete();
+            throw new IOException(e);
+        }
+        length = 0;
+        if (append) {
+            FileInputStream inputStream = new FileInputStream(tempFile);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while (-1 != (n = inputStream.read(buffer))) {
+                    digest.update(buffer, 0, n);
+                    length += n;
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+        outputStream = new FileOutputStream(tempFile, append);
+        file = tempFile;
+        notifyAll();
+    }
+
+    public synchronized boolean isOpened() {
+        return null != file;
+    }
+
+    /**
+     * Open the partial download of a resource kept by {@link #suspend(String, Map)}, the bytes are
+     * written after it. Nothing is opened if there is no partial download.
+     *
+     * @param resourceName resource file name
+     * @return The response headers of the partial download, or null if there is no partial download.
+     */
+    public synchronized Map<String, List<String>> restorePartial(String resourceName) {
+        if (null != file || isFinished) {
+            return null;
+        }
+        File partialFile = new File(MGDFileUtils.getMGDResourcePartialPath(resourceName));
+        File headerFile = new File(MGDFileUtils.getMGDResourcePartialHeaderPath(resourceName));
+        Map<String, List<String>> headers = null;
+        if (partialFile.length() > 0 && headerFile.exists()) {
+            File tempFile = null;
+            try {
+                tempFile = MGDFileUtils.createResourceTempFile(resourceName);
+                if (partialFile.renameTo(tempFile)) {
+                    open(tempFile, true);
+                    headers = MGDFileUtils.getHeaderFromLocalCache(headerFile.getAbsolutePath());
+                } else {
+                    tempFile.delete();
+                }
+            } catch (IOException e) {
+                if (null != tempFile) {
+                    tempFile.delete();
+                }
+            }
+        }
+        partialFile.delete();
+        headerFile.delete();
+        return headers;
+    }
+
+    public synchronized String getValidator() {
+        return validator;
+    }
+
+    /**
+     * @param validator the validator of the written bytes, see {@link #getValidator()}
+     */
+    public synchronized void setValidator(String validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * Drop the written bytes and write the response again from the beginning. The readers which
+     * have read some of the dropped bytes fail.
+     */
+    public synchronized void restart() throws IOException {
+        if (null == outputStream) {
+            throw new IOException(isFinished ? "response is finished" : "response file is not opened");
+        }
+        outputStream.close();
+        outputStream = new FileOutputStream(file);
+        digest.reset();
+        length = 0;
+        validator = null;
+        generation++;
+        notifyAll();
+    }
+
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (null == outputStream) {
+            throw new IOException(isFinished ? "response is finished" : "response file is not opened");
+        }
+        outputStream.write(b, off, len);
+        digest.update(b, off, len);
+        length += len;
+        notifyAll();
+    }
+
+    /**
+     * Mark the end of the response, waiting readers are woken up. The file of an incomplete
+     * response is deleted, the readers which have opened it still read the written bytes.
+     *
+     * @param complete Whether the whole response has been written
+     */
+    public synchronized void finish(boolean complete) {
+        if (isFinished) {
+            return;
+        }
+        isFinished = true;
+        if (null != outputStream) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                complete = false;
+            }
+            outputStream = null;
+        }
+        isComplete = complete && null != file;
+        if (isComplete) {
+            sha1 = MGDUtils.toHexString(digest.digest());
+        } else if (null != file) {
+            file.delete();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Finish an incomplete response like {@link #finish(boolean)}, but keep the written bytes with the
+     * response headers in the resource cache root so a later download can resume it. They are
+     * dropped if they can not be resumed, see {@link #getValidator()}.
+     *
+     * @param resourceName resource file name
+     * @param headers      the response headers of the written bytes
+     */
+    public synchronized void suspend(String resourceName, Map<String, List<String>> headers) {
+        if (isFinished) {
+            return;
+        }
+        if (null == outputStream || 0 == length || null == validator || null == headers) {
+            finish(false);
+            return;
+        }
+        isFinished = true;
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            // the bytes are verified by the validator and the sha1 when the download is complete
+        }
+        outputStream = null;
+        File partialFile = new File(MGDFileUtils.getMGDResourcePartialPath(resourceName));
+        String headerPath = MGDFileUtils.getMGDResourcePartialHeaderPath(resourceName);
+        if (!file.renameTo(partialFile) || !MGDFileUtils.writeFile(MGDFileUtils.convertHeadersToString(headers), headerPath)) {
+            file.delete();
+            partialFile.delete();
+        }
+        notifyAll();
+    }
+
+    public synchronized boolean isFinished() {
+        return isFinished;
+    }
+
+    /**
+     * @param headers the response headers of the bytes to be written, the callers of {@link #awaitHeaders(long)} are woken up
+     */
+    public synchronized void setHeaders(Map<String, List<String>> headers) {
+        this.headers = headers;
+        notifyAll();
+    }
+
+    /**
+     * Wait until the response headers are known.
+     *
+     * @param timeoutMillis the longest time to wait
+     * @return the response headers, or null if the response finishes or the time runs out before they are known
+     */
+    public synchronized Map<String, List<String>> awaitHeaders(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (null == headers && !isFinished && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return headers;
+    }
+
+    /**
+     * @return Whether the response is finished without being complete.
+     */
+    public synchronized boolean isFailed() {
+        return isFinished && !isComplete;
+    }
+
+    /**
+     * @return The bytes written so far.
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * @return The SHA-1 of a complete response, or null if it is not complete.
+     */
+    public synchronized String getSha1() {
+        return sha1;
+    }
+
+    /**
+     * Claim a complete response to be saved into the cache, only the first claim succeeds.
+     *
+     * @return Return {@code true} if the caller should save the response.
+     */
+    public synchronized boolean claim() {
+        if (!isComplete || isClaimed) {
+            return false;
+        }
+        isClaimed = true;
+        return true;
+    }
+
+    /**
+     * Delete the temporary file of a complete response which is not saved into the cache.
+     */
+    public synchronized void discard() {
+        if (isComplete && !isCommitted) {
+            isClaimed = true;
+            file.delete();
+        }
+    }
+
+    /**
+     * Move the complete file into the cache atomically, the readers opened later read the cache file.
+     *
+     * @param filePath path of the cache file
+     * @param ledger   The ledger of the cache root which the file belongs to
+     * @return Returns {@code true} if the file is moved successfully.
+     */
+    synchronized boolean commit(String filePath, MGDCacheLedger ledger) {
+        if (!isComplete || isCommitted) {
+            return false;
+        }
+        if (!MGDFileUtils.moveFile(file, filePath, ledger)) {
+            file.delete();
+            return false;
+        }
+        isCommitted = true;
+        file = new File(filePath);
+        return true;
+    }
+
+    /**
+     * @param timeoutMillis The longest time a read waits for new bytes
+     * @return A stream which reads the response from the beginning, even before the file is opened
+     */
+    public InputStream newReader(long timeoutMillis) {
+        return new Reader(timeoutMillis);
+    }
+
+    /**
+     * Wait until more bytes than {@code position} are written.
+     *
+     * @return The number of readable bytes, or -1 at the end of a complete response.
+     */
+    private synchronized long await(Reader reader) throws IOException {
+        long position = reader.position;
+        checkGeneration(reader);
+        long deadline = System.currentTimeMillis() + reader.timeoutMillis;
+        while (position >= length && !isFinished) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IOException("wait for response file timeout");
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            checkGeneration(reader);
+        }
+
+        if (position < length) {
+            return length - position;
+        }
+        if (!isComplete) {
+            throw new IOException("response file is not complete");
+        }
+        return -1;
+    }
+
+    /**
+     * A reader which has read some of the bytes dropped by {@link #restart()} can not go on.
+     */
+    private void checkGeneration(Reader reader) throws IOException {
+        if (reader.generation != generation) {
+            if (reader.position > 0) {
+                throw new IOException("response is restarted");
+            }
+            reader.generation = generation;
+        }
+    }
+
+    private synchronized InputStream openFile() throws IOException {
+        if (null == file) {
+            throw new IOException("response file is not opened");
+        }
+        return new FileInputStream(file);
+    }
+
+    private class Reader extends InputStream {
+
+        private final long timeoutMillis;
+
+        private InputStream fileStream;
+
+        private long position;
+
+        private int generation;
+
+        private boolean isClosed;
+
+        Reader(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            synchronized (MGDResponseFile.this) {
+                generation = MGDResponseFile.this.generation;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return -1 == read(b, 0, 1) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (isClosed) {
+                throw new IOException("stream is closed");
+            }
+            if (0 == len) {
+                return 0;
+            }
+
+            long available = await(this);
+            if (available < 0) {
+                return -1;
+            }
+            if (null == fileStream) {
+                fileStream = openFile();
+            }
+            int n = fileStream.read(b, off, (int) Math.min(len, available));
+            if (n < 0) {
+                throw new IOException("response file is truncated");
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            synchronized (MGDResponseFile.this) {
+                return isClosed ? 0 : (int) Math.min(Integer.MAX_VALUE, Math.max(0, length - position));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            isClosed = true;
+            if (null != fileStream) {
+                fileStream.close();
+            }
+        }
+    }
+}
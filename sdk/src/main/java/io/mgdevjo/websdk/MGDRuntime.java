@@ -17,6 +17,7 @@ package io.mgdevjo.websdk;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
 import android.net.Uri;
 import android.os.Environment;
 import android.os.Handler;
@@ -285,6 +286,23 @@ public abstract class MGDRuntime {
      */
     public abstract boolean isNetworkValid();
 
+    /**
+     * This method is used to judge whether the active network is metered, MGD does not preload
+     * predicted pages on a metered network. The default implementation needs the
+     * <code>ACCESS_NETWORK_STATE</code> permission and treats the network as metered without it.
+     *
+     * @return Network metered or not
+     */
+    public boolean isNetworkMetered() {
+        try {
+            ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            return null == connectivityManager || connectivityManager.isActiveNetworkMetered();
+        } catch (Throwable e) {
+            log(TAG, Log.ERROR, "isNetworkMetered error:" + e.getMessage());
+            return true;
+        }
+    }
+
     /**
      * Get the direct address of a url(host)，format as[ip:port]，the default http port is 80 and
      * 443 for https.
@@ -322,6 +340,18 @@ public abstract class MGDRuntime {
         MGDSessionThreadPool.postTask(task);
     }
 
+    /**
+     * Post a task to session thread with a priority, tasks wait in the order of their priorities
+     * when all the session threads are busy.
+     *
+     * @param task     A runnable task
+     * @param priority The priority such as {@link MGDSessionThreadPool#PRIORITY_FOREGROUND}
+     * @return Submit success or not, the task is only rejected if too many tasks are waiting.
+     */
+    public boolean postTaskToSessionThread(Runnable task, int priority) {
+        return MGDSessionThreadPool.postTask(task, MGDSessionThreadPool.LANE_NETWORK, priority);
+    }
+
     /**
      * Post a task in main thread
      *
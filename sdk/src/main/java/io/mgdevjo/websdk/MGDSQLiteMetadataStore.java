@@ -0,0 +1,540 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The SQLite backend of {@link MGDMetadataStore}, the schema is managed by {@link MGDDBHelper}.
+ * Every batch is written in one transaction.
+ *
+ * <p>
+ * All the SQL of the session and resource tables lives here, {@link MGDDataHelper} and
+ * {@link MGDResourceDataHelper} only hand over their rows in {@link MGDMetadataStore.Batch}.
+ */
+class MGDSQLiteMetadataStore extends MGDMetadataStore {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDSQLiteMetadataStore";
+
+    /**
+     * table name of the SessionData
+     */
+    static final String MGD_SESSION_TABLE_NAME = "SessionData";
+
+    /**
+     * SessionData's id
+     */
+    static final String SESSION_DATA_COLUMN_SESSION_ID = "sessionID";
+
+    /**
+     * The key of eTag
+     */
+    static final String SESSION_DATA_COLUMN_ETAG = "eTag";
+
+    /**
+     * The key of templateTag
+     */
+    static final String SESSION_DATA_COLUMN_TEMPLATE_EAG = "templateTag";
+
+    /**
+     * The key of html sha1
+     */
+    static final String SESSION_DATA_COLUMN_HTML_SHA1 = "htmlSha1";
+
+    /**
+     * The key of html size
+     */
+    static final String SESSION_DATA_COLUMN_HTML_SIZE = "htmlSize";
+
+    /**
+     * The key of template update time
+     */
+    static final String SESSION_DATA_COLUMN_TEMPLATE_UPDATE_TIME = "templateUpdateTime";
+
+    /**
+     * The key of Unavailable Time
+     */
+    static final String SESSION_DATA_COLUMN_UNAVAILABLE_TIME = "UnavailableTime";
+
+    /**
+     * The key of cache expired Time
+     */
+    static final String SESSION_DATA_COLUMN_CACHE_EXPIRED_TIME = "cacheExpiredTime";
+
+    /**
+     * The key of cache hit count
+     */
+    static final String SESSION_DATA_COLUMN_CACHE_HIT_COUNT = "cacheHitCount";
+
+    /**
+     * Key of last access time
+     */
+    static final String SESSION_DATA_COLUMN_LAST_ACCESS_TIME = "lastAccessTime";
+
+    /**
+     * Key of the bytes served from cache
+     */
+    static final String SESSION_DATA_COLUMN_BYTES_SERVED = "bytesServed";
+
+    /**
+     * Key of the time until which an expired cache may be served while it is revalidated
+     */
+    static final String SESSION_DATA_COLUMN_STALE_EXPIRED_TIME = "staleExpiredTime";
+
+    /**
+     * The create session table sql
+     */
+    static final String CREATE_SESSION_TABLE_SQL = "CREATE TABLE IF NOT EXISTS " + MGD_SESSION_TABLE_NAME + " ( " +
+            "id  integer PRIMARY KEY autoincrement" +
+            " , " + SESSION_DATA_COLUMN_SESSION_ID + " text not null" +
+            " , " + SESSION_DATA_COLUMN_ETAG + " text not null" +
+            " , " + SESSION_DATA_COLUMN_TEMPLATE_EAG + " text" +
+            " , " + SESSION_DATA_COLUMN_HTML_SHA1 + " text not null" +
+            " , " + SESSION_DATA_COLUMN_UNAVAILABLE_TIME + " integer default 0" +
+            " , " + SESSION_DATA_COLUMN_HTML_SIZE + " integer default 0" +
+            " , " + SESSION_DATA_COLUMN_TEMPLATE_UPDATE_TIME + " integer default 0" +
+            " , " + SESSION_DATA_COLUMN_CACHE_EXPIRED_TIME + " integer default 0" +
+            " , " + SESSION_DATA_COLUMN_CACHE_HIT_COUNT + " integer default 0" +
+            " ); ";
+
+    /**
+     * Remove the duplicated rows of the same session id, only the latest one is kept.
+     */
+    static final String DEDUPLICATE_SESSION_SQL = "DELETE FROM " + MGD_SESSION_TABLE_NAME + " WHERE id NOT IN (" +
+            "SELECT MAX(id) FROM " + MGD_SESSION_TABLE_NAME + " GROUP BY " + SESSION_DATA_COLUMN_SESSION_ID + ");";
+
+    /**
+     * The create unique index sql of session id
+     */
+    static final String CREATE_SESSION_INDEX_SQL = "CREATE UNIQUE INDEX IF NOT EXISTS " + MGD_SESSION_TABLE_NAME + "_" +
+            SESSION_DATA_COLUMN_SESSION_ID + "_index ON " + MGD_SESSION_TABLE_NAME + " (" + SESSION_DATA_COLUMN_SESSION_ID + ");";
+
+    /**
+     * Add the access statistic columns of the session table
+     */
+    static final String[] ADD_SESSION_ACCESS_STATS_COLUMNS_SQL = {
+            "ALTER TABLE " + MGD_SESSION_TABLE_NAME + " ADD COLUMN " + SESSION_DATA_COLUMN_LAST_ACCESS_TIME + " integer default 0;",
+            "ALTER TABLE " + MGD_SESSION_TABLE_NAME + " ADD COLUMN " + SESSION_DATA_COLUMN_BYTES_SERVED + " integer default 0;"
+    };
+
+    /**
+     * Add the stale-while-revalidate column
+     */
+    static final String ADD_STALE_EXPIRED_TIME_COLUMN_SQL = "ALTER TABLE " + MGD_SESSION_TABLE_NAME + " ADD COLUMN " +
+            SESSION_DATA_COLUMN_STALE_EXPIRED_TIME + " integer default 0;";
+
+    private static final String UPSERT_SESSION_SQL = "INSERT OR REPLACE INTO " + MGD_SESSION_TABLE_NAME + " (" +
+            SESSION_DATA_COLUMN_SESSION_ID + ", " + SESSION_DATA_COLUMN_ETAG + ", " +
+            SESSION_DATA_COLUMN_TEMPLATE_EAG + ", " + SESSION_DATA_COLUMN_HTML_SHA1 + ", " +
+            SESSION_DATA_COLUMN_UNAVAILABLE_TIME + ", " + SESSION_DATA_COLUMN_HTML_SIZE + ", " +
+            SESSION_DATA_COLUMN_TEMPLATE_UPDATE_TIME + ", " + SESSION_DATA_COLUMN_CACHE_EXPIRED_TIME + ", " +
+            SESSION_DATA_COLUMN_CACHE_HIT_COUNT + ", " + SESSION_DATA_COLUMN_LAST_ACCESS_TIME + ", " +
+            SESSION_DATA_COLUMN_BYTES_SERVED + ", " + SESSION_DATA_COLUMN_STALE_EXPIRED_TIME + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+    private static final String DELETE_SESSION_SQL = "DELETE FROM " + MGD_SESSION_TABLE_NAME +
+            " WHERE " + SESSION_DATA_COLUMN_SESSION_ID + " = ?;";
+
+    private static final String UPDATE_SESSION_ACCESS_STATS_SQL = "UPDATE " + MGD_SESSION_TABLE_NAME +
+            " SET " + SESSION_DATA_COLUMN_CACHE_HIT_COUNT + " = " + SESSION_DATA_COLUMN_CACHE_HIT_COUNT + " + ?" +
+            " , " + SESSION_DATA_COLUMN_BYTES_SERVED + " = " + SESSION_DATA_COLUMN_BYTES_SERVED + " + ?" +
+            " , " + SESSION_DATA_COLUMN_LAST_ACCESS_TIME + " = MAX(" + SESSION_DATA_COLUMN_LAST_ACCESS_TIME + ", ?)" +
+            " WHERE " + SESSION_DATA_COLUMN_SESSION_ID + " = ?;";
+
+    /**
+     * table name of resource data.
+     */
+    static final String MGD_RESOURCE_TABLE_NAME = "ResourceData";
+
+    /**
+     * resource data's id.
+     */
+    static final String RESOURCE_DATA_COLUMN_RESOURCE_ID = "resourceID";
+
+    /**
+     * key of resource sha1.
+     */
+    static final String RESOURCE_DATA_COLUMN_RESOURCE_SHA1 = "resourceSha1";
+
+    /**
+     * key of resource size.
+     */
+    static final String RESOURCE_DATA_COLUMN_RESOURCE_SIZE = "resourceSize";
+
+    /**
+     * key of last update time.
+     */
+    static final String RESOURCE_DATA_COLUMN_LAST_UPDATE_TIME = "resourceUpdateTime";
+
+    /**
+     * key of cache expired time.
+     */
+    static final String RESOURCE_DATA_COLUMN_CACHE_EXPIRED_TIME = "cacheExpiredTime";
+
+    /**
+     * key of cache hit count.
+     */
+    static final String RESOURCE_DATA_COLUMN_CACHE_HIT_COUNT = "cacheHitCount";
+
+    /**
+     * key of last access time.
+     */
+    static final String RESOURCE_DATA_COLUMN_LAST_ACCESS_TIME = "lastAccessTime";
+
+    /**
+     * key of the bytes served from cache.
+     */
+    static final String RESOURCE_DATA_COLUMN_BYTES_SERVED = "bytesServed";
+
+    /**
+     * The create resource table sql
+     */
+    static final String CREATE_RESOURCE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS " + MGD_RESOURCE_TABLE_NAME + " ( " +
+            "id  integer PRIMARY KEY autoincrement" +
+            " , " + RESOURCE_DATA_COLUMN_RESOURCE_ID + " text not null" +
+            " , " + RESOURCE_DATA_COLUMN_RESOURCE_SHA1 + " text not null" +
+            " , " + RESOURCE_DATA_COLUMN_RESOURCE_SIZE + " integer default 0" +
+            " , " + RESOURCE_DATA_COLUMN_LAST_UPDATE_TIME + " integer default 0" +
+            " , " + RESOURCE_DATA_COLUMN_CACHE_EXPIRED_TIME + " integer default 0" +
+            " ); ";
+
+    /**
+     * Remove the duplicated rows of the same resource id, only the latest one is kept.
+     */
+    static final String DEDUPLICATE_RESOURCE_SQL = "DELETE FROM " + MGD_RESOURCE_TABLE_NAME + " WHERE id NOT IN (" +
+            "SELECT MAX(id) FROM " + MGD_RESOURCE_TABLE_NAME + " GROUP BY " + RESOURCE_DATA_COLUMN_RESOURCE_ID + ");";
+
+    /**
+     * The create unique index sql of resource id
+     */
+    static final String CREATE_RESOURCE_INDEX_SQL = "CREATE UNIQUE INDEX IF NOT EXISTS " + MGD_RESOURCE_TABLE_NAME + "_" +
+            RESOURCE_DATA_COLUMN_RESOURCE_ID + "_index ON " + MGD_RESOURCE_TABLE_NAME + " (" + RESOURCE_DATA_COLUMN_RESOURCE_ID + ");";
+
+    /**
+     * Add the access statistic columns of the resource table
+     */
+    static final String[] ADD_RESOURCE_ACCESS_STATS_COLUMNS_SQL = {
+            "ALTER TABLE " + MGD_RESOURCE_TABLE_NAME + " ADD COLUMN " + RESOURCE_DATA_COLUMN_CACHE_HIT_COUNT + " integer default 0;",
+            "ALTER TABLE " + MGD_RESOURCE_TABLE_NAME + " ADD COLUMN " + RESOURCE_DATA_COLUMN_LAST_ACCESS_TIME + " integer default 0;",
+            "ALTER TABLE " + MGD_RESOURCE_TABLE_NAME + " ADD COLUMN " + RESOURCE_DATA_COLUMN_BYTES_SERVED + " integer default 0;"
+    };
+
+    private static final String UPSERT_RESOURCE_SQL = "INSERT OR REPLACE INTO " + MGD_RESOURCE_TABLE_NAME + " (" +
+            RESOURCE_DATA_COLUMN_RESOURCE_ID + ", " + RESOURCE_DATA_COLUMN_RESOURCE_SHA1 + ", " +
+            RESOURCE_DATA_COLUMN_RESOURCE_SIZE + ", " + RESOURCE_DATA_COLUMN_LAST_UPDATE_TIME + ", " +
+            RESOURCE_DATA_COLUMN_CACHE_EXPIRED_TIME + ", " + RESOURCE_DATA_COLUMN_CACHE_HIT_COUNT + ", " +
+            RESOURCE_DATA_COLUMN_LAST_ACCESS_TIME + ", " + RESOURCE_DATA_COLUMN_BYTES_SERVED + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
+
+    private static final String DELETE_RESOURCE_SQL = "DELETE FROM " + MGD_RESOURCE_TABLE_NAME +
+            " WHERE " + RESOURCE_DATA_COLUMN_RESOURCE_ID + " = ?;";
+
+    private static final String UPDATE_RESOURCE_ACCESS_STATS_SQL = "UPDATE " + MGD_RESOURCE_TABLE_NAME +
+            " SET " + RESOURCE_DATA_COLUMN_CACHE_HIT_COUNT + " = " + RESOURCE_DATA_COLUMN_CACHE_HIT_COUNT + " + ?" +
+            " , " + RESOURCE_DATA_COLUMN_BYTES_SERVED + " = " + RESOURCE_DATA_COLUMN_BYTES_SERVED + " + ?" +
+            " , " + RESOURCE_DATA_COLUMN_LAST_ACCESS_TIME + " = MAX(" + RESOURCE_DATA_COLUMN_LAST_ACCESS_TIME + ", ?)" +
+            " WHERE " + RESOURCE_DATA_COLUMN_RESOURCE_ID + " = ?;";
+
+    private final MGDDBHelper dbHelper;
+
+    /**
+     * The statements compiled for the database of {@link #dbHelper}, only used inside {@link MGDMetadataStore#flush()}.
+     */
+    private BatchWriter batchWriter;
+
+    MGDSQLiteMetadataStore(Context context) {
+        dbHelper = MGDDBHelper.createInstance(context);
+    }
+
+    @Override
+    void open() {
+        dbHelper.getWritableDatabase(); // init and update db
+    }
+
+    @Override
+    List<MGDDataHelper.SessionData> loadSessionData() {
+        return queryAllSessionData(dbHelper.getWritableDatabase());
+    }
+
+    @Override
+    List<MGDResourceDataHelper.ResourceData> loadResourceData() {
+        return queryAllResourceData(dbHelper.getWritableDatabase());
+    }
+
+    @Override
+    void apply(Batch batch) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        if (null == batchWriter || batchWriter.db != db) {
+            batchWriter = new BatchWriter(db);
+        }
+        db.beginTransaction();
+        try {
+            batchWriter.write(batch);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public boolean isUpgrading() {
+        return dbHelper.isUpgrading();
+    }
+
+    /**
+     *
+     * @return all of the column in {@code MGD_SESSION_TABLE_NAME}
+     */
+    static String[] getAllSessionDataColumn() {
+        return new String[] {SESSION_DATA_COLUMN_SESSION_ID, SESSION_DATA_COLUMN_ETAG,
+                SESSION_DATA_COLUMN_TEMPLATE_EAG, SESSION_DATA_COLUMN_HTML_SHA1,
+                SESSION_DATA_COLUMN_UNAVAILABLE_TIME, SESSION_DATA_COLUMN_HTML_SIZE,
+                SESSION_DATA_COLUMN_TEMPLATE_UPDATE_TIME, SESSION_DATA_COLUMN_CACHE_EXPIRED_TIME,
+                SESSION_DATA_COLUMN_CACHE_HIT_COUNT, SESSION_DATA_COLUMN_LAST_ACCESS_TIME,
+                SESSION_DATA_COLUMN_BYTES_SERVED, SESSION_DATA_COLUMN_STALE_EXPIRED_TIME};
+    }
+
+    /**
+     *
+     * @return all of the column in {@code MGD_RESOURCE_TABLE_NAME}
+     */
+    static String[] getAllResourceDataColumn() {
+        return new String[]{
+                RESOURCE_DATA_COLUMN_RESOURCE_ID,
+                RESOURCE_DATA_COLUMN_RESOURCE_SHA1,
+                RESOURCE_DATA_COLUMN_RESOURCE_SIZE,
+                RESOURCE_DATA_COLUMN_LAST_UPDATE_TIME,
+                RESOURCE_DATA_COLUMN_CACHE_EXPIRED_TIME,
+                RESOURCE_DATA_COLUMN_CACHE_HIT_COUNT,
+                RESOURCE_DATA_COLUMN_LAST_ACCESS_TIME,
+                RESOURCE_DATA_COLUMN_BYTES_SERVED
+        };
+    }
+
+    /**
+     * Query all the rows of {@code MGD_SESSION_TABLE_NAME}.
+     *
+     * @param db The database.
+     * @return All the rows
+     */
+    static List<MGDDataHelper.SessionData> queryAllSessionData(SQLiteDatabase db) {
+        List<MGDDataHelper.SessionData> list = new ArrayList<MGDDataHelper.SessionData>();
+        Cursor cursor = db.query(MGD_SESSION_TABLE_NAME, getAllSessionDataColumn(),
+                null, null, null, null, null);
+        if (null != cursor) {
+            try {
+                while (cursor.moveToNext()) {
+                    list.add(querySessionData(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Query all the rows of {@code MGD_RESOURCE_TABLE_NAME}.
+     *
+     * @param db The database.
+     * @return All the rows
+     */
+    static List<MGDResourceDataHelper.ResourceData> queryAllResourceData(SQLiteDatabase db) {
+        List<MGDResourceDataHelper.ResourceData> list = new ArrayList<MGDResourceDataHelper.ResourceData>();
+        Cursor cursor = db.query(MGD_RESOURCE_TABLE_NAME, getAllResourceDataColumn(),
+                null, null, null, null, null);
+        if (null != cursor) {
+            try {
+                while (cursor.moveToNext()) {
+                    list.add(queryResourceData(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return list;
+    }
+
+    /**
+     * translate cursor to session data.
+     * @param cursor db cursor
+     */
+    private static MGDDataHelper.SessionData querySessionData(Cursor cursor) {
+        MGDDataHelper.SessionData sessionData = new MGDDataHelper.SessionData();
+        sessionData.sessionId = cursor.getString(cursor.getColumnIndex(SESSION_DATA_COLUMN_SESSION_ID));
+        sessionData.eTag = cursor.getString(cursor.getColumnIndex(SESSION_DATA_COLUMN_ETAG));
+        sessionData.htmlSha1 = cursor.getString(cursor.getColumnIndex(SESSION_DATA_COLUMN_HTML_SHA1));
+        sessionData.htmlSize = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_HTML_SIZE));
+        sessionData.templateTag = cursor.getString(cursor.getColumnIndex(SESSION_DATA_COLUMN_TEMPLATE_EAG));
+        sessionData.templateUpdateTime = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_TEMPLATE_UPDATE_TIME));
+        sessionData.expiredTime = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_CACHE_EXPIRED_TIME));
+        sessionData.unAvailableTime = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_UNAVAILABLE_TIME));
+        sessionData.cacheHitCount = cursor.getInt(cursor.getColumnIndex(SESSION_DATA_COLUMN_CACHE_HIT_COUNT));
+        sessionData.lastAccessTime = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_LAST_ACCESS_TIME));
+        sessionData.bytesServed = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_BYTES_SERVED));
+        sessionData.staleExpiredTime = cursor.getLong(cursor.getColumnIndex(SESSION_DATA_COLUMN_STALE_EXPIRED_TIME));
+        return sessionData;
+    }
+
+    /**
+     * translate cursor to resource data.
+     * @param cursor db cursor
+     */
+    private static MGDResourceDataHelper.ResourceData queryResourceData(Cursor cursor) {
+        MGDResourceDataHelper.ResourceData resourceData = new MGDResourceDataHelper.ResourceData();
+        resourceData.resourceId = cursor.getString(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_RESOURCE_ID));
+        resourceData.resourceSha1 = cursor.getString(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_RESOURCE_SHA1));
+        resourceData.resourceSize = cursor.getLong(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_RESOURCE_SIZE));
+        resourceData.lastUpdateTime = cursor.getLong(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_LAST_UPDATE_TIME));
+        resourceData.expiredTime = cursor.getLong(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_CACHE_EXPIRED_TIME));
+        resourceData.cacheHitCount = cursor.getInt(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_CACHE_HIT_COUNT));
+        resourceData.lastAccessTime = cursor.getLong(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_LAST_ACCESS_TIME));
+        resourceData.bytesServed = cursor.getLong(cursor.getColumnIndex(RESOURCE_DATA_COLUMN_BYTES_SERVED));
+        return resourceData;
+    }
+
+    /**
+     * Writes batches with the statements compiled once for a database, it is called inside a transaction.
+     */
+    static class BatchWriter {
+
+        final SQLiteDatabase db;
+
+        private final SQLiteStatement upsertSessionStatement;
+
+        private final SQLiteStatement deleteSessionStatement;
+
+        private final SQLiteStatement updateSessionAccessStatsStatement;
+
+        private final SQLiteStatement upsertResourceStatement;
+
+        private final SQLiteStatement deleteResourceStatement;
+
+        private final SQLiteStatement updateResourceAccessStatsStatement;
+
+        BatchWriter(SQLiteDatabase db) {
+            this.db = db;
+            upsertSessionStatement = db.compileStatement(UPSERT_SESSION_SQL);
+            deleteSessionStatement = db.compileStatement(DELETE_SESSION_SQL);
+            updateSessionAccessStatsStatement = db.compileStatement(UPDATE_SESSION_ACCESS_STATS_SQL);
+            upsertResourceStatement = db.compileStatement(UPSERT_RESOURCE_SQL);
+            deleteResourceStatement = db.compileStatement(DELETE_RESOURCE_SQL);
+            updateResourceAccessStatsStatement = db.compileStatement(UPDATE_RESOURCE_ACCESS_STATS_SQL);
+        }
+
+        /**
+         * Write the session and resource mutations of a batch.
+         *
+         * @param batch The mutations
+         */
+        void write(Batch batch) {
+            if (batch.isSessionClear) {
+                db.delete(MGD_SESSION_TABLE_NAME, null, null);
+            }
+            for (Map.Entry<String, MGDDataHelper.SessionData> entry : batch.sessionChanges.entrySet()) {
+                try {
+                    if (null == entry.getValue()) {
+                        deleteSessionStatement.bindString(1, entry.getKey());
+                        deleteSessionStatement.executeUpdateDelete();
+                    } else {
+                        bindSessionData(upsertSessionStatement, entry.getValue());
+                        upsertSessionStatement.executeInsert();
+                    }
+                } catch (SQLException e) {
+                    MGDUtils.log(TAG, Log.ERROR, "session(" + entry.getKey() + ") writeBatch error:" + e.getMessage());
+                }
+            }
+            for (Map.Entry<String, MGDAccessStats.AccessDelta> entry : batch.sessionAccessStats.entrySet()) {
+                bindAccessDelta(updateSessionAccessStatsStatement, entry.getKey(), entry.getValue());
+                updateSessionAccessStatsStatement.executeUpdateDelete();
+            }
+
+            if (batch.isResourceClear) {
+                db.delete(MGD_RESOURCE_TABLE_NAME, null, null);
+            }
+            for (Map.Entry<String, MGDResourceDataHelper.ResourceData> entry : batch.resourceChanges.entrySet()) {
+                try {
+                    if (null == entry.getValue()) {
+                        deleteResourceStatement.bindString(1, entry.getKey());
+                        deleteResourceStatement.executeUpdateDelete();
+                    } else {
+                        bindResourceData(upsertResourceStatement, entry.getValue());
+                        upsertResourceStatement.executeInsert();
+                    }
+                } catch (SQLException e) {
+                    MGDUtils.log(TAG, Log.ERROR, "resource(" + entry.getKey() + ") writeBatch error:" + e.getMessage());
+                }
+            }
+            for (Map.Entry<String, MGDAccessStats.AccessDelta> entry : batch.resourceAccessStats.entrySet()) {
+                bindAccessDelta(updateResourceAccessStatsStatement, entry.getKey(), entry.getValue());
+                updateResourceAccessStatsStatement.executeUpdateDelete();
+            }
+        }
+
+        private static void bindSessionData(SQLiteStatement statement, MGDDataHelper.SessionData sessionData) {
+            statement.clearBindings();
+            statement.bindString(1, sessionData.sessionId);
+            bindStringOrNull(statement, 2, sessionData.eTag);
+            bindStringOrNull(statement, 3, sessionData.templateTag);
+            bindStringOrNull(statement, 4, sessionData.htmlSha1);
+            statement.bindLong(5, sessionData.unAvailableTime);
+            statement.bindLong(6, sessionData.htmlSize);
+            statement.bindLong(7, sessionData.templateUpdateTime);
+            statement.bindLong(8, sessionData.expiredTime);
+            statement.bindLong(9, sessionData.cacheHitCount);
+            statement.bindLong(10, sessionData.lastAccessTime);
+            statement.bindLong(11, sessionData.bytesServed);
+            statement.bindLong(12, sessionData.staleExpiredTime);
+        }
+
+        private static void bindResourceData(SQLiteStatement statement, MGDResourceDataHelper.ResourceData resourceData) {
+            statement.clearBindings();
+            statement.bindString(1, resourceData.resourceId);
+            bindStringOrNull(statement, 2, resourceData.resourceSha1);
+            statement.bindLong(3, resourceData.resourceSize);
+            statement.bindLong(4, resourceData.lastUpdateTime);
+            statement.bindLong(5, resourceData.expiredTime);
+            statement.bindLong(6, resourceData.cacheHitCount);
+            statement.bindLong(7, resourceData.lastAccessTime);
+            statement.bindLong(8, resourceData.bytesServed);
+        }
+
+        private static void bindAccessDelta(SQLiteStatement statement, String id, MGDAccessStats.AccessDelta delta) {
+            statement.bindLong(1, delta.hitCount);
+            statement.bindLong(2, delta.bytesServed);
+            statement.bindLong(3, delta.lastAccessTime);
+            statement.bindString(4, id);
+        }
+
+        private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+            if (null != value) {
+                statement.bindString(index, value);
+            } else {
+                statement.bindNull(index);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * A serial lane over the shared workers of {@link MGDSessionThreadPool#LANE_CPU}. Tasks posted to
+ * one lane run one at a time in the order they are posted, tasks of different lanes run in
+ * parallel. Each session owns a lane for its persistence work, so a slow save of one session does
+ * not delay the saves of other sessions.
+ */
+class MGDSerialExecutor {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDSerialExecutor";
+
+    private final String name;
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+    private boolean isScheduled;
+
+    /**
+     * A rejected lane retries to get on the shared workers after this delay.
+     */
+    private static final long RETRY_DELAY_MILLIS = 50;
+
+    private int priority = MGDSessionThreadPool.PRIORITY_FOREGROUND;
+
+    private Handler retryHandler;
+
+    /**
+     * Runs the head task and then schedules the next one, so a worker is held for one task at a
+     * time and the lanes take turns.
+     */
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            Runnable task;
+            synchronized (MGDSerialExecutor.this) {
+                task = tasks.poll();
+            }
+            try {
+                if (null != task) {
+                    task.run();
+                }
+            } catch (Throwable e) {
+                MGDUtils.log(TAG, Log.ERROR, name + " run task error:" + e.getMessage());
+            } finally {
+                synchronized (MGDSerialExecutor.this) {
+                    isScheduled = false;
+                    scheduleNext();
+                }
+            }
+        }
+    };
+
+    /**
+     * Posts the drain task to the shared workers again after they rejected it.
+     */
+    private final Runnable retryTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (MGDSerialExecutor.this) {
+                postDrainTask();
+            }
+        }
+    };
+
+    MGDSerialExecutor(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Post a task to this lane.
+     *
+     * @param task     The runnable task
+     * @param priority The priority of the lane on the shared workers, such as {@link MGDSessionThreadPool#PRIORITY_FOREGROUND}
+     */
+    synchronized void post(Runnable task, int priority) {
+        tasks.offer(task);
+        this.priority = priority;
+        if (!isScheduled) {
+            scheduleNext();
+        }
+    }
+
+    private void scheduleNext() {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        isScheduled = true;
+        postDrainTask();
+    }
+
+    private void postDrainTask() {
+        if (!MGDSessionThreadPool.postTask(drainTask, MGDSessionThreadPool.LANE_CPU, priority)) {
+            // the workers are too busy, keep the tasks queued and retry later, the file thread
+            // only keeps the timer and never runs the tasks
+            MGDUtils.log(TAG, Log.ERROR, name + " post task fail, retry in " + RETRY_DELAY_MILLIS + " ms.");
+            if (null == retryHandler) {
+                retryHandler = new Handler(MGDEngine.getInstance().getRuntime().getFileThreadLooper());
+            }
+            retryHandler.postDelayed(retryTask, RETRY_DELAY_MILLIS);
+        }
+    }
+}
@@ -74,36 +74,130 @@ public class MGDServer implements MGDSessionStream.Callback {
      *  {@code com.tencent.MGD.sdk.MGDSessionConfig}
      */
     protected Map<String, List<String>> cachedResponseHeaders;
-    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private final MGDResponseBuffer outputStream = new MGDResponseBuffer();
+
+    private final Object connectLock = new Object();
+
+    private boolean isConnected;
+
+    private int connectResult;
+
+    /**
+     * Whether the network stream has been handed to a {@link MGDSessionStream}, after which the
+     * response only grows through that stream.
+     */
+    private boolean isNetStreamTaken;
+
+    /**
+     * The number of sessions holding this server, the connection is closed when the last one disconnects.
+     */
+    private int holderCount = 1;
+
+    /**
+     * Cancelled by {@link #cancel()}, it closes the connection to unblock the reading thread.
+     */
+    private final MGDCancellationToken cancellationToken = new MGDCancellationToken();
 
     public MGDServer(MGDSession session, Intent requestIntent) {
         this.session = session;
         this.requestIntent = requestIntent;
         connectionImpl = MGDSessionConnectionInterceptor.getMGDSessionConnection(session, requestIntent);
+        cancellationToken.register(new Runnable() {
+            @Override
+            public void run() {
+                outputStream.finish(false);
+                connectionImpl.disconnect();
+            }
+        });
+    }
+
+    /**
+     * The session holding this server is cancelled. The connection is closed at once, even if a
+     * thread is blocked in connecting or reading, unless attached sessions still read the response.
+     */
+    void cancel() {
+        synchronized (this) {
+            if (holderCount > 1) {
+                return;
+            }
+        }
+        if (!cancellationToken.isCancelled()) {
+            MGDUtils.log(TAG, Log.INFO, "session(" + session.sId + ") server cancel.");
+            cancellationToken.cancel();
+        }
+    }
+
+    /**
+     * @return The number of response bytes buffered in memory
+     */
+    int getBufferedSize() {
+        return outputStream.size();
+    }
+
+    /**
+     * Attach another session with the same id to the response of this server. It succeeds only while
+     * the response is still in flight and answers the same conditional request, so the attached
+     * session can treat the response as its own.
+     *
+     * @param eTag        The eTag of the attaching session's cache
+     * @param templateTag The template tag of the attaching session's cache
+     * @return Whether the session is attached, it must call {@link #disconnect()} when it is done.
+     */
+    synchronized boolean attach(String eTag, String templateTag) {
+        if (0 == holderCount || outputStream.isFinished()) {
+            return false;
+        }
+        if (!TextUtils.equals(eTag, requestIntent.getStringExtra(getCustomHeadFieldEtagKey()))
+                || !TextUtils.equals(templateTag, requestIntent.getStringExtra(CUSTOM_HEAD_FILED_TEMPLATE_TAG))) {
+            return false;
+        }
+        holderCount++;
+        return true;
     }
 
     /**
      *
      * Opens a communications link to the resource referenced by MGD session.
      * If this request support Local MGD Server, it will separate html into template and data file.
+     * Sessions attached to this server get the result of the first call.
      *
      * @return Returns the response code of connection
      */
     protected int connect() {
+        synchronized (connectLock) {
+            if (!isConnected) {
+                connectResult = internalConnect();
+                isConnected = true;
+            }
+            return connectResult;
+        }
+    }
+
+    private int internalConnect() {
+        if (cancellationToken.isCancelled()) {
+            return MGDConstants.ERROR_CODE_CONNECT_CANCELLED;
+        }
+        session.deadline.enterPhase(MGDSessionDeadline.PHASE_CONNECT);
         long startTime = System.currentTimeMillis();
 
         int resultCode = connectionImpl.connect();
         session.statistics.connectionConnectTime = System.currentTimeMillis();
+        if (cancellationToken.isCancelled()) {
+            return MGDConstants.ERROR_CODE_CONNECT_CANCELLED;
+        }
         if (MGDUtils.shouldLog(Log.DEBUG)) {
             MGDUtils.log(TAG, Log.DEBUG, "session(" + session.id + ") server connect cost = " + (System.currentTimeMillis() - startTime) + " ms.");
         }
 
         if (MGDConstants.ERROR_CODE_SUCCESS != resultCode) {
+            session.deadline.checkExhausted(MGDSessionDeadline.PHASE_CONNECT);
             return resultCode; // error case
         }
 
+        session.deadline.enterPhase(MGDSessionDeadline.PHASE_FIRST_BYTE);
         startTime = System.currentTimeMillis();
         responseCode = connectionImpl.getResponseCode(); // update response code
+        session.deadline.checkExhausted(MGDSessionDeadline.PHASE_FIRST_BYTE);
         session.statistics.connectionRespondTime = System.currentTimeMillis();
         if (MGDUtils.shouldLog(Log.DEBUG)) {
             MGDUtils.log(TAG, Log.DEBUG, "session(" + session.id + ") server response cost = " + (System.currentTimeMillis() - startTime) + " ms.");
@@ -224,6 +318,13 @@ public class MGDServer implements MGDSessionStream.Callback {
      * Disconnect the communications link to the resource referenced by MGD session
      */
     public void disconnect() {
+        synchronized (this) {
+            if (holderCount > 0 && --holderCount > 0) {
+                return; // still read by attached sessions
+            }
+        }
+        outputStream.finish(false);
+
         // We need to close connectionImpl.getResponseStream() manually.
         // ConnectionImpl.disconnect() doesn't close the stream because doing so would require all stream
         // access to be synchronized. It's expected that the thread using the
@@ -320,12 +421,29 @@ public class MGDServer implements MGDSessionStream.Callback {
     public synchronized InputStream getResponseStream(AtomicBoolean breakConditions) {
         if (readServerResponse(breakConditions)) {
             BufferedInputStream netStream = !TextUtils.isEmpty(serverRsp) ? null : connectionImpl.getResponseStream();
+            isNetStreamTaken = null != netStream;
             return new MGDSessionStream(this, outputStream, netStream);
         } else {
             return null;
         }
     }
 
+    /**
+     * Return a response stream for {@code reader}. The session which owns this server gets
+     * {@link #getResponseStream(AtomicBoolean)}, an attached session gets its own stream over the
+     * shared response which blocks until the owner has read more data from network.
+     *
+     * @param reader          The session which reads the response
+     * @param breakConditions See {@link #getResponseStream(AtomicBoolean)}
+     * @return The response stream
+     */
+    public InputStream getResponseStream(MGDSession reader, AtomicBoolean breakConditions) {
+        if (reader != session) {
+            return outputStream.newReader(session.config.READ_TIMEOUT_MILLIS);
+        }
+        return getResponseStream(breakConditions);
+    }
+
     /**
      * Put key and value into http header.
      * @param key the name of a header field.
@@ -348,11 +466,21 @@ public class MGDServer implements MGDSessionStream.Callback {
      * @return
      *      Returns {@code serverRsp} current cached server response data.
      */
-    public synchronized String getResponseData(boolean readUntilEnd) {
-        if (readUntilEnd && TextUtils.isEmpty(serverRsp)) {
-            readServerResponse(null);
+    public String getResponseData(boolean readUntilEnd) {
+        if (readUntilEnd && isNetStreamTakenLocked()) {
+            // the owner's stream reads the rest, wait for it without holding the server lock
+            outputStream.awaitFinish(session.deadline.remaining(session.config.READ_TIMEOUT_MILLIS));
+        }
+        synchronized (this) {
+            if (readUntilEnd && TextUtils.isEmpty(serverRsp) && !isNetStreamTaken) {
+                readServerResponse(null);
+            }
+            return serverRsp;
         }
-        return serverRsp;
+    }
+
+    private synchronized boolean isNetStreamTakenLocked() {
+        return isNetStreamTaken;
     }
 
     /**
@@ -386,7 +514,7 @@ public class MGDServer implements MGDSessionStream.Callback {
      * @return True when read any of data from {@link MGDSessionConnection#getResponseStream()} and write into {@code outputStream}
      */
     private boolean readServerResponse(AtomicBoolean breakCondition) {
-        if (TextUtils.isEmpty(serverRsp)) {
+        if (TextUtils.isEmpty(serverRsp) && !isNetStreamTaken) {
             BufferedInputStream bufferedInputStream = connectionImpl.getResponseStream();
             if (null == bufferedInputStream) {
                 MGDUtils.log(TAG, Log.ERROR, "session(" + session.sId + ") readServerResponse error: bufferedInputStream is null!");
@@ -395,17 +523,34 @@ public class MGDServer implements MGDSessionStream.Callback {
 
             try {
                 byte[] buffer = new byte[session.config.READ_BUF_SIZE];
+                MGDForegroundGate gate = MGDEngine.getInstance().getForegroundGate();
+
+                // a stream for the kernel is handed over when the budget runs out, it reads the rest by itself
+                MGDSessionDeadline deadline = null != breakCondition ? session.deadline : null;
+                session.deadline.enterPhase(MGDSessionDeadline.PHASE_FULL_BODY);
 
                 int n = 0;
-                while (((breakCondition == null) || !breakCondition.get()) && -1 != (n = bufferedInputStream.read(buffer))) {
+                while (((breakCondition == null) || !breakCondition.get()) && !cancellationToken.isCancelled()
+                        && (null == deadline || !deadline.checkExhausted(MGDSessionDeadline.PHASE_FULL_BODY))
+                        && -1 != (n = bufferedInputStream.read(buffer))) {
                     outputStream.write(buffer, 0, n);
+                    if (session.isBackgroundPreload) {
+                        // leave the bandwidth to the foreground sessions
+                        gate.awaitOpen(session);
+                    }
                 }
 
                 if (n == -1) {
                     serverRsp = outputStream.toString(session.getCharsetFromHeaders());
+                    outputStream.finish(true);
                 }
             } catch (Exception e) {
-                MGDUtils.log(TAG, Log.ERROR, "session(" + session.sId + ") readServerResponse error:" + e.getMessage() + ".");
+                if (cancellationToken.isCancelled()) {
+                    MGDUtils.log(TAG, Log.INFO, "session(" + session.sId + ") readServerResponse is cancelled.");
+                } else {
+                    MGDUtils.log(TAG, Log.ERROR, "session(" + session.sId + ") readServerResponse error:" + e.getMessage() + ".");
+                }
+                outputStream.finish(false);
                 return false;
             }
         }
@@ -471,6 +616,7 @@ public class MGDServer implements MGDSessionStream.Callback {
                 MGDUtils.log(TAG, Log.ERROR, "session(" + session.sId + "), onClose error:" + e.getMessage() + ".");
             }
         }
+        this.outputStream.finish(readComplete);
         session.onServerClosed(this, readComplete);
     }
 
@@ -29,7 +29,6 @@ import androidx.annotation.Nullable;
 
 import org.json.JSONObject;
 
-import java.io.File;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
@@ -41,9 +40,11 @@ import java.util.Random;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.mgdevjo.websdk.download.MGDDownloadCache;
 import io.mgdevjo.websdk.download.MGDDownloadEngine;
+import io.mgdevjo.websdk.download.MGDSubResourceScanner;
 import io.mgdevjo.websdk.MGDSessionCallback;
 
 /**
@@ -231,18 +232,6 @@ public abstract class MGDSession implements Handler.Callback {
     protected static final int COMMON_MSG_END = COMMON_MSG_BEGIN + 4;
 
 
-    protected static final int FILE_THREAD_MSG_BEGIN = 0;
-
-    /**
-     * The message of saving MGD cache while server close.
-     */
-    protected static final int FILE_THREAD_SAVE_CACHE_ON_SERVER_CLOSE = FILE_THREAD_MSG_BEGIN + 1;
-
-    /**
-     * The message of saving MGD cache while session finish.
-     */
-    protected static final int FILE_THREAD_SAVE_CACHE_ON_SESSION_FINISHED = FILE_THREAD_MSG_BEGIN + 2;
-
     /**
      * Resource Intercept State : none
      */
@@ -296,6 +285,36 @@ public abstract class MGDSession implements Handler.Callback {
      */
     protected final AtomicBoolean isWaitingForSessionThread = new AtomicBoolean(false);
 
+    /**
+     * Whether the stale cache is served while the flow revalidates it, the session keeps
+     * {@link #STATE_RUNNING} until the revalidation finishes.
+     */
+    protected final AtomicBoolean isServingStaleCache = new AtomicBoolean(false);
+
+    /**
+     * The start task of a background preload session which waits for {@link MGDForegroundGate}.
+     */
+    private final AtomicReference<Runnable> deferredStartTask = new AtomicReference<Runnable>();
+
+    /**
+     * Whether the unavailable time of this session id is checked on the session thread instead of
+     * by the caller, see {@link MGDEngine#createSessionAsync(String, MGDSessionConfig)}.
+     */
+    volatile boolean isAvailabilityCheckDeferred;
+
+    /**
+     * The running session with the same id when this session is created. If its response is still
+     * in flight for the same request, this session reads it instead of sending its own request and
+     * leaves saving the cache to that session.
+     */
+    volatile MGDSession sharedSession;
+
+    /**
+     * Whether this session is preloaded and not picked by a client yet, its tasks run behind the
+     * tasks of other sessions.
+     */
+    volatile boolean isBackgroundPreload;
+
 
     /**
      * Whether the local html is loaded, it is used only the template changes.
@@ -327,6 +346,12 @@ public abstract class MGDSession implements Handler.Callback {
      */
     protected volatile MGDServer server;
 
+    /**
+     * The server whose connection is started in parallel with loading the local cache, see
+     * {@link #startConnectionInParallel(MGDDataHelper.SessionData)}.
+     */
+    private volatile MGDServer preparedServer;
+
     /**
      * MGD sub resource downloader
      */
@@ -380,9 +405,27 @@ public abstract class MGDSession implements Handler.Callback {
 
     protected MGDDiffDataCallback diffDataCallback;
 
-    protected final Handler fileHandler;
+    /**
+     * The serial lane which saves the cache of this session
+     */
+    protected final MGDSerialExecutor fileExecutor;
+
+    /**
+     * Cancelled when the session is destroyed, it closes the connections and stops the downloads of this session.
+     */
+    protected final MGDCancellationToken cancellationToken = new MGDCancellationToken();
+
+    /**
+     * The latency budget of the session, see {@link MGDSessionConfig#SESSION_DEADLINE_MILLIS}.
+     */
+    final MGDSessionDeadline deadline;
     protected List<String> preloadLinks;
 
+    /**
+     * Whether the html has been scanned for sub resources, see {@link MGDSessionConfig#SUPPORT_SUB_RESOURCE_DISCOVERY}.
+     */
+    private final AtomicBoolean wasSubResourceDiscovered = new AtomicBoolean(false);
+
     protected final CopyOnWriteArrayList<WeakReference<MGDSessionCallback>> sessionCallbackList = new CopyOnWriteArrayList<WeakReference<MGDSessionCallback>>();
 
     /**
@@ -446,6 +489,8 @@ public abstract class MGDSession implements Handler.Callback {
         }
 
         if (!TextUtils.isEmpty(htmlString)) {
+            // a page without cache is scanned when its html arrives, the resources are cached for the next load
+            handleFlow_DiscoverSubResource(htmlString);
             long startTime = System.currentTimeMillis();
             doSaveMGDCache(MGDServer, htmlString);
             MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") onClose:separate And save ache finish, cost " + (System.currentTimeMillis() - startTime) + " ms.");
@@ -465,23 +510,21 @@ public abstract class MGDSession implements Handler.Callback {
         this.srcUrl = statistics.srcUrl = url.trim();
         this.createdTime = System.currentTimeMillis();
 
-        fileHandler = new Handler(MGDEngine.getInstance().getRuntime().getFileThreadLooper(), new Handler.Callback() {
+        fileExecutor = new MGDSerialExecutor("session(" + sId + ")");
+        deadline = new MGDSessionDeadline(this, config.SESSION_DEADLINE_MILLIS);
+        cancellationToken.register(new Runnable() {
             @Override
-            public boolean handleMessage(Message msg) {
-                switch (msg.what) {
-                    case FILE_THREAD_SAVE_CACHE_ON_SERVER_CLOSE: {
-                        final MGDServer MGDServer = (MGDServer) msg.obj;
-                        saveMGDCacheOnServerClose(MGDServer);
-                        return true;
-                    }
-
-                    case FILE_THREAD_SAVE_CACHE_ON_SESSION_FINISHED: {
-                        final String htmlString = (String)msg.obj;
-                        doSaveMGDCache(server, htmlString);
-                        return true;
-                    }
+            public void run() {
+                MGDServer currentServer = server;
+                if (null != currentServer) {
+                    currentServer.cancel();
+                }
+                currentServer = preparedServer;
+                if (null != currentServer) {
+                    currentServer.cancel();
                 }
-                return false;
+                // wake up the network reads paused by the foreground gate
+                MGDEngine.getInstance().getForegroundGate().wake();
             }
         });
 
@@ -520,23 +563,95 @@ public abstract class MGDSession implements Handler.Callback {
         }
         statistics.MGDStartTime = System.currentTimeMillis();
         isWaitingForSessionThread.set(true);
+        if (!isBackgroundPreload) {
+            // a background preload starts the budget when a client picks it
+            deadline.begin();
+        }
 
-        MGDEngine.getInstance().getRuntime().postTaskToSessionThread(new Runnable() {
+        final Runnable startTask = new Runnable() {
             @Override
             public void run() {
-                runMGDFlow(true);
+                boolean isPosted = MGDEngine.getInstance().getRuntime().postTaskToSessionThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runMGDFlow(true);
+                    }
+                }, getTaskPriority());
+                if (!isPosted) {
+                    // the client request gets no response and the page is loaded without MGD
+                    MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") start error:session thread is too busy.");
+                    switchState(STATE_RUNNING, STATE_READY, true);
+                    isWaitingForSessionThread.set(false);
+                    destroy();
+                }
+            }
+        };
+
+        // a session created before the engine is ready waits for the metadata store and the indexes
+        MGDEngine.getInstance().runWhenReady(new Runnable() {
+            @Override
+            public void run() {
+                if (!isBackgroundPreload) {
+                    startTask.run();
+                    return;
+                }
+                // a background preload waits for the foreground sessions, unless a client picks it first
+                deferredStartTask.set(startTask);
+                MGDEngine.getInstance().getForegroundGate().runWhenOpen(new Runnable() {
+                    @Override
+                    public void run() {
+                        runDeferredStartTask();
+                    }
+                });
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                // the client request gets no response and the page is loaded without MGD
+                MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") start error:engine init fail.");
+                switchState(STATE_RUNNING, STATE_READY, true);
+                isWaitingForSessionThread.set(false);
+                destroy();
             }
         });
 
         notifyStateChange(STATE_NONE, STATE_RUNNING, null);
     }
 
+    private void runDeferredStartTask() {
+        Runnable startTask = deferredStartTask.getAndSet(null);
+        if (null != startTask) {
+            startTask.run();
+        }
+    }
+
+    /**
+     * The client of this session is ready, background work yields to this session until the page finishes.
+     */
+    void enterForeground() {
+        if (isDestroyedOrWaitingForDestroy()) {
+            return;
+        }
+        MGDEngine.getInstance().getForegroundGate().enter(this);
+        deadline.begin();
+        runDeferredStartTask();
+    }
+
     private void runMGDFlow(boolean firstRequest) {
         if (STATE_RUNNING != sessionState.get()) {
             MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") runMGDFlow error:sessionState=" + sessionState.get() + ".");
             return;
         }
 
+        if (firstRequest && isAvailabilityCheckDeferred && !MGDEngine.getInstance().isSessionAvailable(id)) {
+            // the waiting client request gets no response and the page is loaded without MGD
+            MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") runMGDFlow error:session is unavailable now.");
+            switchState(STATE_RUNNING, STATE_READY, true);
+            isWaitingForSessionThread.set(false);
+            destroy();
+            return;
+        }
+
         statistics.MGDFlowStartTime = System.currentTimeMillis();
 
         String cacheHtml = null;
@@ -544,10 +659,24 @@ public abstract class MGDSession implements Handler.Callback {
         sessionData = getSessionData(firstRequest);
 
         if (firstRequest) {
+            // the request only needs the eTag and template tag, so it overlaps reading and verifying the cache
+            startConnectionInParallel(sessionData);
+
+            deadline.enterPhase(MGDSessionDeadline.PHASE_CACHE_LOAD);
             cacheHtml = MGDCacheInterceptor.getMGDCacheData(this);
             statistics.cacheVerifyTime = System.currentTimeMillis();
             MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") runMGDFlow verify cache cost " + (statistics.cacheVerifyTime - statistics.MGDFlowStartTime) + " ms");
             handleFlow_LoadLocalCache(cacheHtml); // local cache if exist before connection
+            handleFlow_DiscoverSubResource(cacheHtml);
+
+            if (TextUtils.isEmpty(cacheHtml) && !TextUtils.isEmpty(sessionData.eTag)) {
+                // the cache failed verification, a conditional request could be answered with 304
+                MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") runMGDFlow: cache is invalid, send the request without eTag.");
+                discardPreparedServer();
+                MGDDataHelper.SessionData emptySessionData = new MGDDataHelper.SessionData();
+                emptySessionData.sessionId = id;
+                sessionData = emptySessionData;
+            }
         }
 
         boolean hasHtmlCache = !TextUtils.isEmpty(cacheHtml) || !firstRequest;
@@ -566,10 +695,14 @@ public abstract class MGDSession implements Handler.Callback {
                 }, 1500);
             }
             MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") runMGDFlow error:network is not valid!");
+        } else if (firstRequest && deadline.checkExhausted(MGDSessionDeadline.PHASE_CACHE_LOAD)) {
+            // no time left for a request, the page is loaded from the cache or by the kernel itself
+            MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") runMGDFlow: deadline is exhausted, skip the connection, hasCache=" + hasHtmlCache + ".");
         } else {
             handleFlow_Connection(hasHtmlCache, sessionData);
             statistics.connectionFlowFinishTime = System.currentTimeMillis();
         }
+        discardPreparedServer();
 
         // Update session state
         switchState(STATE_RUNNING, STATE_READY, true);
@@ -591,6 +724,7 @@ public abstract class MGDSession implements Handler.Callback {
 
         wasInterceptInvoked.set(false);
         clientIsReload.set(true);
+        isServingStaleCache.set(false);
 
         srcResultCode = finalResultCode = MGD_RESULT_CODE_UNKNOWN;
 
@@ -598,6 +732,7 @@ public abstract class MGDSession implements Handler.Callback {
         MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") now refresh MGD flow task.");
 
         statistics.MGDStartTime = System.currentTimeMillis();
+        deadline.restart();
 
         for (WeakReference<MGDSessionCallback> ref : sessionCallbackList) {
             MGDSessionCallback callback = ref.get();
@@ -608,12 +743,18 @@ public abstract class MGDSession implements Handler.Callback {
 
         isWaitingForSessionThread.set(true);
 
-        MGDEngine.getInstance().getRuntime().postTaskToSessionThread(new Runnable() {
+        boolean isPosted = MGDEngine.getInstance().getRuntime().postTaskToSessionThread(new Runnable() {
             @Override
             public void run() {
                 runMGDFlow(false);
             }
-        });
+        }, getTaskPriority());
+        if (!isPosted) {
+            MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") refresh error:session thread is too busy.");
+            isWaitingForSessionThread.set(false);
+            sessionState.set(STATE_READY);
+            return false;
+        }
 
         notifyStateChange(STATE_READY, STATE_RUNNING, null);
         return true;
@@ -660,8 +801,12 @@ public abstract class MGDSession implements Handler.Callback {
      * @param sessionData  SessionData holds eTag templateTag
      */
     protected void handleFlow_Connection(boolean hasCache, MGDDataHelper.SessionData sessionData) {
-        // create connection for current session
-        statistics.connectionFlowStartTime = System.currentTimeMillis();
+        MGDServer startedServer = preparedServer;
+        preparedServer = null;
+        if (null == startedServer) {
+            // create connection for current session
+            statistics.connectionFlowStartTime = System.currentTimeMillis();
+        }
 
         if (config.SUPPORT_CACHE_CONTROL && statistics.connectionFlowStartTime < sessionData.expiredTime) {
             if (MGDUtils.shouldLog(Log.DEBUG)) {
@@ -676,9 +821,27 @@ public abstract class MGDSession implements Handler.Callback {
             return;
         }
 
-        server = new MGDServer(this, createConnectionIntent(sessionData));
+        if (hasCache && config.SUPPORT_CACHE_CONTROL && config.SUPPORT_STALE_WHILE_REVALIDATE
+                && statistics.connectionFlowStartTime < sessionData.staleExpiredTime) {
+            // serve the stale cache now, the request below only revalidates it
+            MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") handleFlow_Connection: cache is stale, revalidate in the background.");
+            statistics.isStaleWhileRevalidate = true;
+            isServingStaleCache.set(true);
+            // wake up the client request waiting for the flow, the state is not changed
+            synchronized (sessionState) {
+                sessionState.notify();
+            }
+            for (WeakReference<MGDSessionCallback> ref : sessionCallbackList) {
+                MGDSessionCallback callback = ref.get();
+                if (callback != null) {
+                    callback.onSessionHitCache();
+                }
+            }
+        }
+
+        server = null != startedServer ? startedServer : createServer(sessionData);
 
-        // Connect to web server
+        // Connect to web server, or wait for the connection started in parallel
         int responseCode = server.connect();
         if (MGDConstants.ERROR_CODE_SUCCESS == responseCode) {
             responseCode = server.getResponseCode();
@@ -779,6 +942,61 @@ public abstract class MGDSession implements Handler.Callback {
         }
     }
 
+    /**
+     * Create the server for a request, it reads the response of {@link #sharedSession} if it can be shared.
+     *
+     * @param sessionData SessionData holds eTag templateTag
+     * @return The server
+     */
+    private MGDServer createServer(MGDDataHelper.SessionData sessionData) {
+        MGDSession runningSession = sharedSession;
+        sharedSession = null; // only the first request can be shared
+        MGDServer sharedServer = null != runningSession ? runningSession.shareServer(sessionData) : null;
+        if (null != sharedServer) {
+            MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") createServer: share the response of session(" + runningSession.sId + ").");
+            statistics.isSharedResponse = true;
+            return sharedServer;
+        }
+        return new MGDServer(this, createConnectionIntent(sessionData));
+    }
+
+    /**
+     * Connect to web server on another thread while the session thread loads the local cache.
+     * {@link #handleFlow_Connection(boolean, MGDDataHelper.SessionData)} waits for the result.
+     * Nothing is started if no request will be sent.
+     *
+     * @param sessionData SessionData holds eTag templateTag
+     */
+    private void startConnectionInParallel(MGDDataHelper.SessionData sessionData) {
+        long now = System.currentTimeMillis();
+        if ((config.SUPPORT_CACHE_CONTROL && now < sessionData.expiredTime) || !MGDEngine.getInstance().getRuntime().isNetworkValid()) {
+            return;
+        }
+
+        statistics.connectionFlowStartTime = now;
+        final MGDServer startedServer = createServer(sessionData);
+        preparedServer = startedServer;
+        // if the task is rejected, the connection is made on the session thread when it is needed
+        MGDEngine.getInstance().getRuntime().postTaskToSessionThread(new Runnable() {
+            @Override
+            public void run() {
+                startedServer.connect();
+            }
+        }, getTaskPriority());
+    }
+
+    /**
+     * Disconnect the server started in parallel if it is not used.
+     */
+    private void discardPreparedServer() {
+        MGDServer startedServer = preparedServer;
+        preparedServer = null;
+        if (null != startedServer) {
+            statistics.isSharedResponse = false;
+            startedServer.disconnect();
+        }
+    }
+
     @Nullable
     private MGDDataHelper.SessionData getSessionData(boolean firstRequest) {
         MGDDataHelper.SessionData sessionData;
@@ -849,20 +1067,85 @@ public abstract class MGDSession implements Handler.Callback {
         if (preloadLinks == null || preloadLinks.isEmpty()) {
             return;
         }
+        postSubResourceTask(new Runnable() {
+            @Override
+            public void run() {
+                getResourceDownloaderEngine().addSubResourcePreloadTask(preloadLinks);
+            }
+        });
+    }
+
+    /**
+     * Scan the html for the sub resources which block rendering and prefetch them, it is done once a session.
+     *
+     * @param html The cached html, or the html from server if there is no cache
+     */
+    protected void handleFlow_DiscoverSubResource(final String html) {
+        if (!config.SUPPORT_SUB_RESOURCE_DISCOVERY || TextUtils.isEmpty(html) || !wasSubResourceDiscovered.compareAndSet(false, true)) {
+            return;
+        }
+        postSubResourceTask(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.currentTimeMillis();
+                List<MGDSubResourceScanner.SubResource> resources = MGDSubResourceScanner.scan(html, srcUrl);
+                MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") discover " + resources.size() + " sub resources, cost " + (System.currentTimeMillis() - startTime) + " ms.");
+                if (!resources.isEmpty()) {
+                    getResourceDownloaderEngine().addSubResourcePrefetchTask(resources);
+                }
+            }
+        });
+    }
+
+    private synchronized MGDDownloadEngine getResourceDownloaderEngine() {
+        if (resourceDownloaderEngine == null) {
+            resourceDownloaderEngine = new MGDDownloadEngine(MGDDownloadCache.getSubResourceCache(), cancellationToken);
+        }
+        return resourceDownloaderEngine;
+    }
+
+    private void postSubResourceTask(final Runnable preloadTask) {
+        final MGDForegroundGate gate = MGDEngine.getInstance().getForegroundGate();
         MGDEngine.getInstance().getRuntime().postTaskToThread(new Runnable() {
             @Override
             public void run() {
-                if (resourceDownloaderEngine == null) {
-                    resourceDownloaderEngine = new MGDDownloadEngine(MGDDownloadCache.getSubResourceCache());
+                // the sub resources of the foreground page go at once, the others wait for it
+                if (gate.isForeground(MGDSession.this)) {
+                    preloadTask.run();
+                } else {
+                    gate.runWhenOpen(preloadTask);
                 }
-                resourceDownloaderEngine.addSubResourcePreloadTask(preloadLinks);
             }
         }, 0);
     }
 
 
 
+    /**
+     * Attach another session with the same id to the response of this session, see {@link MGDServer#attach(String, String)}.
+     *
+     * @param sessionData The cache metadata of the attaching session
+     * @return The server of this session, or null if its response can not be shared.
+     */
+    private MGDServer shareServer(MGDDataHelper.SessionData sessionData) {
+        MGDServer currentServer = server;
+        if (null != currentServer && !isDestroyedOrWaitingForDestroy() && currentServer.attach(sessionData.eTag, sessionData.templateTag)) {
+            return currentServer;
+        }
+        return null;
+    }
+
+    /**
+     * @return The priority of the tasks of this session in {@link MGDSessionThreadPool}
+     */
+    int getTaskPriority() {
+        return isBackgroundPreload ? MGDSessionThreadPool.PRIORITY_PRELOAD : MGDSessionThreadPool.PRIORITY_FOREGROUND;
+    }
+
     void setIsPreload(String url) {
+        this.isBackgroundPreload = false;
+        // network reads paused by the foreground gate go on
+        MGDEngine.getInstance().getForegroundGate().wake();
         this.isPreload = true;
         this.srcUrl = statistics.srcUrl = url.trim();
         if (MGDUtils.shouldLog(Log.INFO)) {
@@ -878,6 +1161,18 @@ public abstract class MGDSession implements Handler.Callback {
         return statistics;
     }
 
+    public MGDSessionDeadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return The number of response bytes this session holds in memory
+     */
+    long getMemoryFootprint() {
+        MGDServer currentServer = server;
+        return null != currentServer ? currentServer.getBufferedSize() : 0;
+    }
+
     protected boolean addSessionStateChangedCallback(Callback callback) {
         return stateChangedCallbackList.add(new WeakReference<Callback>(callback));
     }
@@ -919,6 +1214,13 @@ public abstract class MGDSession implements Handler.Callback {
         return srcResultCode;
     }
 
+    /**
+     * @return Whether a client request should wait for the running flow.
+     */
+    protected boolean isWaitingForFlow() {
+        return STATE_RUNNING == sessionState.get() && !isServingStaleCache.get();
+    }
+
     public boolean isDestroyedOrWaitingForDestroy() {
         return STATE_DESTROY == sessionState.get() || isWaitingForDestroy.get();
     }
@@ -989,10 +1291,12 @@ public abstract class MGDSession implements Handler.Callback {
             if (MGDUtils.needSaveData(config.SUPPORT_CACHE_CONTROL, cacheOffline, MGDServer.getResponseHeaderFields())) {
                 MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") onClose:offline->" + cacheOffline + " , post separateAndSaveCache task.");
 
-                Message message = Message.obtain();
-                message.what = FILE_THREAD_SAVE_CACHE_ON_SERVER_CLOSE;
-                message.obj = MGDServer;
-                fileHandler.sendMessageDelayed(message, 1500);
+                postTaskToFileExecutor(new Runnable() {
+                    @Override
+                    public void run() {
+                        saveMGDCacheOnServerClose(MGDServer);
+                    }
+                });
                 return;
             }
             MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") onClose:offline->" + cacheOffline + " , so do not need cache to file.");
@@ -1012,11 +1316,29 @@ public abstract class MGDSession implements Handler.Callback {
     }
 
     protected void postTaskToSaveMGDCache(final String htmlString) {
-        Message msg = Message.obtain();
-        msg.what = FILE_THREAD_SAVE_CACHE_ON_SESSION_FINISHED;
-        msg.obj = htmlString;
+        postTaskToFileExecutor(new Runnable() {
+            @Override
+            public void run() {
+                doSaveMGDCache(server, htmlString);
+            }
+        });
+    }
 
-        fileHandler.sendMessageDelayed(msg, 1500);
+    /**
+     * Post a task to the serial lane of this session, the saving of a background preload waits for
+     * the foreground sessions.
+     */
+    private void postTaskToFileExecutor(final Runnable task) {
+        if (!isBackgroundPreload) {
+            fileExecutor.post(task, getTaskPriority());
+            return;
+        }
+        MGDEngine.getInstance().getForegroundGate().runWhenOpen(new Runnable() {
+            @Override
+            public void run() {
+                fileExecutor.post(task, getTaskPriority());
+            }
+        });
     }
 
     protected void doSaveMGDCache(MGDServer MGDServer, String htmlString) {
@@ -1026,6 +1348,11 @@ public abstract class MGDSession implements Handler.Callback {
             return;
         }
 
+        if (MGDServer.session != this) {
+            MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") doSaveMGDCache: response is shared, session(" + MGDServer.session.sId + ") saves it.");
+            return;
+        }
+
         long startTime = System.currentTimeMillis();
         String template = MGDServer.getTemplate();
         String updatedData = MGDServer.getUpdatedData();
@@ -1047,12 +1374,11 @@ public abstract class MGDSession implements Handler.Callback {
                 }
             }
 
-            if (MGDUtils.saveSessionFiles(id, htmlString, template, updatedData, headers)) {
-                long htmlSize = new File(MGDFileUtils.getMGDHtmlPath(id)).length();
-                MGDUtils.saveMGDData(id, eTag, templateTag, newHtmlSha1, htmlSize, headers);
+            long cacheSize = MGDUtils.getUtf8Length(htmlString) + MGDUtils.getUtf8Length(template) + MGDUtils.getUtf8Length(updatedData);
+            if (!MGDFileUtils.shouldAdmitSessionCache(id, cacheSize)) {
+                MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") doSaveMGDCache: cache is not admitted by eviction policy.");
             } else {
-                MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") doSaveMGDCache: save session files fail.");
-                MGDEngine.getInstance().getRuntime().notifyError(sessionClient, srcUrl, MGDConstants.ERROR_CODE_WRITE_FILE_FAIL);
+                MGDEngine.getInstance().getWriteBehindQueue().enqueueSessionWrite(id, htmlString, template, updatedData, headers, eTag, templateTag, newHtmlSha1, sessionClient, srcUrl);
             }
         } else {
             MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") doSaveMGDCache: save separate template and data files fail.");
@@ -1099,6 +1425,7 @@ public abstract class MGDSession implements Handler.Callback {
 
         if (null == diffDataCallback) {
             MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ")  setResult: notify fail as webCallback is not set, please wait!");
+            deadline.enterPhase(MGDSessionDeadline.PHASE_WEB_READY);
             return;
         }
 
@@ -1120,7 +1447,8 @@ public abstract class MGDSession implements Handler.Callback {
                     return;
                 } else {
                     long timeDelta = System.currentTimeMillis() - pendingObject.optLong("local_refresh_time", 0);
-                    if (timeDelta > 30 * 1000) {
+                    // an update after the session deadline is as late as one after 30 s, the page keeps the cache
+                    if (timeDelta > 30 * 1000 || deadline.checkExhausted(MGDSessionDeadline.PHASE_WEB_READY)) {
                         MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") setResult: notify fail as receive js call too late, " + (timeDelta / 1000.0) + " s.");
                         pendingDiffData = "";
                         return;
@@ -1297,6 +1625,7 @@ public abstract class MGDSession implements Handler.Callback {
         if (isMatchCurrentUrl(url)) {
             MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") onClientPageFinished:url=" + url + ".");
             wasOnPageFinishInvoked.set(true);
+            MGDEngine.getInstance().getForegroundGate().leave(this);
             return true;
         }
         return false;
@@ -1391,6 +1720,11 @@ public abstract class MGDSession implements Handler.Callback {
                 sessionClient = null;
             }
 
+            MGDEngine.getInstance().getForegroundGate().leave(this);
+
+            // release the threads blocked in network reads of this session at once
+            cancellationToken.cancel();
+
             if (null != pendingWebResourceStream) {
                 try {
                     pendingWebResourceStream.close();
@@ -1414,9 +1748,14 @@ public abstract class MGDSession implements Handler.Callback {
                     sessionState.notify();
                 }
 
-                if (null != server && !force) {
-                    server.disconnect();
-                    server = null;
+                // a forced destroy releases the server too, or a shared response is never closed
+                MGDServer currentServer = server;
+                if (null != currentServer) {
+                    currentServer.disconnect();
+                    // the session thread may still use the server after a forced destroy
+                    if (!force) {
+                        server = null;
+                    }
                 }
 
                 notifyStateChange(curState, STATE_DESTROY, null);
@@ -1449,16 +1788,14 @@ public abstract class MGDSession implements Handler.Callback {
     }
 
     /**
-     * check and clear the MGD cache and resource cache
+     * check and clear the MGD cache and resource cache, the check itself only compares the
+     * cache ledgers with their limits so it is cheap enough to run after every session.
      */
     private void checkAndClearCacheData() {
         MGDEngine.getInstance().getRuntime().postTaskToThread(new Runnable() {
             @Override
             public void run() {
-                if (MGDUtils.shouldClearCache(MGDEngine.getInstance().getConfig().MGD_CACHE_CHECK_TIME_INTERVAL)) {
-                    MGDEngine.getInstance().trimMGDCache();
-                    MGDUtils.saveClearCacheTime(System.currentTimeMillis());
-                }
+                MGDEngine.getInstance().trimMGDCache();
             }
         }, 50);
     }
@@ -39,6 +39,7 @@ public abstract class MGDSessionClient {
      */
     public void clientReady() {
         if (session != null) {
+            session.enterForeground();
             session.onClientReady();
         }
     }
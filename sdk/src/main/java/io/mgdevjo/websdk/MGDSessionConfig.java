@@ -36,6 +36,12 @@ public class MGDSessionConfig {
      */
     int READ_TIMEOUT_MILLIS = 15000;
 
+    /**
+     * The latency budget of a session in ms, 0 means no budget which is the default. The phases of
+     * the session draw their timeouts from it, see {@link MGDSessionDeadline}.
+     */
+    long SESSION_DEADLINE_MILLIS = 0;
+
     /**
      * Buffer size when read data from network, default 10KB
      */
@@ -73,6 +79,22 @@ public class MGDSessionConfig {
      */
     boolean SUPPORT_CACHE_CONTROL = false;
 
+    /**
+     * Honor the stale-while-revalidate directive of Cache-Control, it only works with
+     * {@link #SUPPORT_CACHE_CONTROL}. Within the stale window an expired cache is served at once
+     * and the revalidation request runs in the background, its result updates the cache and is
+     * pushed to the page as usual.
+     */
+    boolean SUPPORT_STALE_WHILE_REVALIDATE = false;
+
+    /**
+     * Scan the html for the sub resources the page needs to render, such as stylesheets, synchronous
+     * scripts, fonts and the first images, and prefetch them into the resource cache in that order.
+     * The cached html is scanned when the session starts, the html from server is scanned when
+     * there is no cache. Default is false.
+     */
+    boolean SUPPORT_SUB_RESOURCE_DISCOVERY = false;
+
     /**
      * Use local MGD Server or not. If SUPPORT_LOCAL_SERVER is true, MGD will treat normal request as MGD request
      * to separate html into template and data file.
@@ -113,13 +135,26 @@ public class MGDSessionConfig {
     public boolean equals(Object other) {
         if (other instanceof MGDSessionConfig) {
             MGDSessionConfig config = (MGDSessionConfig)other;
-            return sessionMode == config.sessionMode && SUPPORT_LOCAL_SERVER == config.SUPPORT_LOCAL_SERVER;
+            return sessionMode == config.sessionMode && SUPPORT_LOCAL_SERVER == config.SUPPORT_LOCAL_SERVER
+                    && SUPPORT_STALE_WHILE_REVALIDATE == config.SUPPORT_STALE_WHILE_REVALIDATE
+                    && SESSION_DEADLINE_MILLIS == config.SESSION_DEADLINE_MILLIS
+                    && SUPPORT_SUB_RESOURCE_DISCOVERY == config.SUPPORT_SUB_RESOURCE_DISCOVERY;
         }
 
         return false;
 
     }
 
+    @Override
+    public int hashCode() {
+        int result = sessionMode;
+        result = 31 * result + (SUPPORT_LOCAL_SERVER ? 1 : 0);
+        result = 31 * result + (SUPPORT_STALE_WHILE_REVALIDATE ? 1 : 0);
+        result = 31 * result + (int) (SESSION_DEADLINE_MILLIS ^ (SESSION_DEADLINE_MILLIS >>> 32));
+        result = 31 * result + (SUPPORT_SUB_RESOURCE_DISCOVERY ? 1 : 0);
+        return result;
+    }
+
     private MGDSessionConfig() {
 
     }
@@ -145,6 +180,11 @@ public class MGDSessionConfig {
             return this;
         }
 
+        public Builder setSessionDeadlineMillis(long sessionDeadlineMillis) {
+            target.SESSION_DEADLINE_MILLIS = sessionDeadlineMillis;
+            return this;
+        }
+
         public Builder setReadBufferSize(int readBufferSize) {
             target.READ_BUF_SIZE = readBufferSize;
             return this;
@@ -210,6 +250,16 @@ public class MGDSessionConfig {
             return this;
         }
 
+        public Builder setSupportStaleWhileRevalidate(boolean supportStaleWhileRevalidate) {
+            target.SUPPORT_STALE_WHILE_REVALIDATE = supportStaleWhileRevalidate;
+            return this;
+        }
+
+        public Builder setSupportSubResourceDiscovery(boolean enable) {
+            target.SUPPORT_SUB_RESOURCE_DISCOVERY = enable;
+            return this;
+        }
+
         public Builder setSupportLocalServer(boolean enable) {
             target.SUPPORT_LOCAL_SERVER = enable;
             return this;
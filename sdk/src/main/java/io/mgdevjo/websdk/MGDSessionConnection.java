@@ -388,6 +388,13 @@ public abstract class MGDSessionConnection {
             if (connectionImpl instanceof HttpURLConnection) {
                 HttpURLConnection httpURLConnection = (HttpURLConnection) connectionImpl;
                 try {
+                    // the connect timeout is drawn from the session deadline, the read timeout stays as
+                    // it is because it also bounds the reads of the kernel after the budget runs out
+                    long connectTimeout = session.deadline.remaining(session.config.CONNECT_TIMEOUT_MILLIS);
+                    if (connectTimeout <= 0) {
+                        return MGDConstants.ERROR_CODE_CONNECT_TOE;
+                    }
+                    httpURLConnection.setConnectTimeout((int) connectTimeout);
                     httpURLConnection.connect();
                     return MGDConstants.ERROR_CODE_SUCCESS;
                 } catch (Throwable e) {
@@ -0,0 +1,165 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <code>MGDSessionDeadline</code> is the latency budget of a session, see
+ * {@link MGDSessionConfig#SESSION_DEADLINE_MILLIS}. Every phase of the session (cache load, connect,
+ * first byte, full body and the web ready callback) draws its timeout from the same budget, capped
+ * by the timeout the phase had before. When the budget runs out the phase falls back to the best
+ * result it has, and the phase is reported in {@link MGDSessionStatistics#deadlineExhaustedPhase}.
+ */
+public class MGDSessionDeadline {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDSessionDeadline";
+
+    /**
+     * The budget is not exhausted
+     */
+    public static final int PHASE_NONE = 0;
+
+    /**
+     * Loading the local cache
+     */
+    public static final int PHASE_CACHE_LOAD = 1;
+
+    /**
+     * Connecting to web server
+     */
+    public static final int PHASE_CONNECT = 2;
+
+    /**
+     * Waiting for the response code and headers
+     */
+    public static final int PHASE_FIRST_BYTE = 3;
+
+    /**
+     * Reading the response body
+     */
+    public static final int PHASE_FULL_BODY = 4;
+
+    /**
+     * Waiting for the page to receive the result through the web ready callback
+     */
+    public static final int PHASE_WEB_READY = 5;
+
+    private final MGDSession session;
+
+    private final long budgetMillis;
+
+    /**
+     * The time the budget runs out, 0 if the budget is not started
+     */
+    private volatile long deadline;
+
+    private final AtomicInteger exhaustedPhase = new AtomicInteger(PHASE_NONE);
+
+    private volatile int currentPhase = PHASE_NONE;
+
+    MGDSessionDeadline(MGDSession session, long budgetMillis) {
+        this.session = session;
+        this.budgetMillis = budgetMillis;
+    }
+
+    /**
+     * Start the budget if it is not started yet. A background preload starts it when a client picks it.
+     */
+    synchronized void begin() {
+        if (budgetMillis > 0 && 0 == deadline) {
+            deadline = System.currentTimeMillis() + budgetMillis;
+        }
+    }
+
+    /**
+     * Start the budget again for a new load of the session, such as a refresh.
+     */
+    synchronized void restart() {
+        if (budgetMillis > 0) {
+            deadline = System.currentTimeMillis() + budgetMillis;
+            exhaustedPhase.set(PHASE_NONE);
+            currentPhase = PHASE_NONE;
+        }
+    }
+
+    void enterPhase(int phase) {
+        currentPhase = phase;
+    }
+
+    int getCurrentPhase() {
+        return currentPhase;
+    }
+
+    /**
+     * @param capMillis The timeout of the phase without a budget
+     * @return The timeout of the phase, the smaller of {@code capMillis} and the rest of the budget, never below 0.
+     */
+    public long remaining(long capMillis) {
+        long currentDeadline = deadline;
+        if (0 == currentDeadline) {
+            return capMillis;
+        }
+        return Math.max(0, Math.min(capMillis, currentDeadline - System.currentTimeMillis()));
+    }
+
+    boolean isExhausted() {
+        long currentDeadline = deadline;
+        return 0 != currentDeadline && System.currentTimeMillis() >= currentDeadline;
+    }
+
+    /**
+     * Check the budget at the end of a phase, the first phase which finds it exhausted is reported.
+     *
+     * @return Whether the budget is exhausted
+     */
+    boolean checkExhausted(int phase) {
+        if (!isExhausted()) {
+            return false;
+        }
+        if (exhaustedPhase.compareAndSet(PHASE_NONE, phase)) {
+            session.statistics.deadlineExhaustedPhase = phase;
+            MGDUtils.log(TAG, Log.ERROR, "session(" + session.sId + ") deadline of " + budgetMillis + " ms is exhausted in phase " + getPhaseName(phase) + ".");
+        }
+        return true;
+    }
+
+    int getExhaustedPhase() {
+        return exhaustedPhase.get();
+    }
+
+    public static String getPhaseName(int phase) {
+        switch (phase) {
+            case PHASE_CACHE_LOAD:
+                return "cache_load";
+            case PHASE_CONNECT:
+                return "connect";
+            case PHASE_FIRST_BYTE:
+                return "first_byte";
+            case PHASE_FULL_BODY:
+                return "full_body";
+            case PHASE_WEB_READY:
+                return "web_ready";
+            default:
+                return "none";
+        }
+    }
+}
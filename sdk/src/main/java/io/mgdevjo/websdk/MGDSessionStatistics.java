@@ -78,6 +78,22 @@ public class MGDSessionStatistics {
      */
     public boolean isDirectAddress;
 
+    /**
+     * Whether an expired cache was served and revalidated in the background, see
+     * {@link MGDSessionConfig#SUPPORT_STALE_WHILE_REVALIDATE}
+     */
+    public boolean isStaleWhileRevalidate;
+
+    /**
+     * Whether the response of a running session with the same id was shared instead of sending a request
+     */
+    public boolean isSharedResponse;
+
+    /**
+     * The phase which exhausted the session deadline, see {@link MGDSessionDeadline#PHASE_NONE} and the other phases
+     */
+    public int deadlineExhaustedPhase;
+
 
     /**
      * The time when website try get diff data.
@@ -19,8 +19,7 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +27,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * MGDSession ThreadPool
+ *
+ * <p>Tasks run in two lanes: {@link #LANE_NETWORK} for the tasks which block on sockets, such as
+ * session flows, connections and sub resource downloads, and {@link #LANE_CPU} for local work.
+ * When all the threads of a lane are busy, tasks wait in a bounded queue in the order of their
+ * priority. A task is only rejected when the queue of its lane is full.
  */
 public class MGDSessionThreadPool {
 
@@ -36,15 +40,86 @@ public class MGDSessionThreadPool {
      */
     private final static String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDSessionThreadPool";
 
+    /**
+     * The lane of tasks which block on network
+     */
+    public static final int LANE_NETWORK = 0;
+
+    /**
+     * The lane of tasks which only do local work
+     */
+    public static final int LANE_CPU = 1;
+
+    /**
+     * The priority of tasks of a session which is loaded by a client
+     */
+    public static final int PRIORITY_FOREGROUND = 2;
+
+    /**
+     * The priority of sub resource downloads
+     */
+    public static final int PRIORITY_SUB_RESOURCE = 1;
+
+    /**
+     * The priority of tasks of a preload session
+     */
+    public static final int PRIORITY_PRELOAD = 0;
+
     /**
      * Singleton object
      */
-    private final static MGDSessionThreadPool sInstance = new MGDSessionThreadPool();
+    private static MGDSessionThreadPool sInstance;
+
+    private final Lane[] lanes;
 
     /**
-     * ExecutorService object (Executors.newCachedThreadPool())
+     * The task counters of a lane.
      */
-    private final ExecutorService executorServiceImpl;
+    public static class Statistics {
+
+        /**
+         * The number of tasks which have been accepted
+         */
+        public long submittedCount;
+
+        /**
+         * The number of tasks which have been rejected because the queue is full
+         */
+        public long rejectedCount;
+
+        /**
+         * The number of tasks which have started running
+         */
+        public long startedCount;
+
+        /**
+         * The number of tasks which wait in the queue now
+         */
+        public int queueSize;
+
+        /**
+         * The total time in ms tasks waited in the queue before running
+         */
+        public long totalQueueTime;
+
+        /**
+         * The longest time in ms a task waited in the queue before running
+         */
+        public long maxQueueTime;
+
+        /**
+         * @return The average time in ms tasks waited in the queue before running
+         */
+        public long getAverageQueueTime() {
+            return startedCount > 0 ? totalQueueTime / startedCount : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "submitted=" + submittedCount + ", rejected=" + rejectedCount + ", started=" + startedCount +
+                    ", queueSize=" + queueSize + ", averageQueueTime=" + getAverageQueueTime() + ", maxQueueTime=" + maxQueueTime;
+        }
+    }
 
     /**
      * MGDSession ThreadFactory
@@ -64,14 +139,15 @@ public class MGDSessionThreadPool {
         /**
          * Thread prefix name
          */
-        private final static String NAME_PREFIX = "pool-MGD-session-thread-";
+        private final String namePrefix;
 
         /**
          * Constructor
          */
-        SessionThreadFactory() {
+        SessionThreadFactory(String namePrefix) {
             SecurityManager securityManager = System.getSecurityManager();
             this.group = securityManager != null ? securityManager.getThreadGroup() : Thread.currentThread().getThreadGroup();
+            this.namePrefix = namePrefix;
         }
 
         /**
@@ -83,7 +159,7 @@ public class MGDSessionThreadPool {
          * create a thread is rejected
          */
         public Thread newThread(@NonNull Runnable r) {
-            Thread thread = new Thread(this.group, r, NAME_PREFIX + this.threadNumber.getAndIncrement(), 0L);
+            Thread thread = new Thread(this.group, r, namePrefix + this.threadNumber.getAndIncrement(), 0L);
             if (thread.isDaemon()) {
                 thread.setDaemon(false);
             }
@@ -97,33 +173,120 @@ public class MGDSessionThreadPool {
     }
 
     /**
-     * Constructor and initialize thread pool object
-     * default one core pool and the maximum number of threads is 6
-     *
+     * A task waiting in a lane, tasks with a larger priority run first and tasks with the same
+     * priority run in the order they were posted.
      */
-    private MGDSessionThreadPool() {
-        executorServiceImpl = new ThreadPoolExecutor(1, 6,
-                60L, TimeUnit.SECONDS,
-                new SynchronousQueue<Runnable>(),
-                new SessionThreadFactory());
+    private static class Task implements Runnable, Comparable<Task> {
+
+        final Lane lane;
+
+        final Runnable runnable;
+
+        final int priority;
+
+        final long sequence;
+
+        final long postTime = System.currentTimeMillis();
+
+        Task(Lane lane, Runnable runnable, int priority, long sequence) {
+            this.lane = lane;
+            this.runnable = runnable;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(@NonNull Task another) {
+            if (priority != another.priority) {
+                return priority > another.priority ? -1 : 1;
+            }
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            lane.onTaskStart(System.currentTimeMillis() - postTime);
+            runnable.run();
+        }
+    }
+
+    private static class Lane {
+
+        private final String name;
+
+        private final int queueCapacity;
+
+        private final ThreadPoolExecutor executor;
+
+        private final Statistics statistics = new Statistics();
+
+        private long nextSequence;
+
+        Lane(String name, int threadCount, int queueCapacity) {
+            this.name = name;
+            this.queueCapacity = queueCapacity;
+            threadCount = Math.max(1, threadCount);
+            // the queue only fills when all the threads are busy, and idle threads exit after 60 s
+            executor = new ThreadPoolExecutor(threadCount, threadCount,
+                    60L, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(),
+                    new SessionThreadFactory("pool-MGD-" + name + "-thread-"));
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        synchronized boolean execute(Runnable runnable, int priority) {
+            int queueSize = executor.getQueue().size();
+            if (queueSize >= queueCapacity) {
+                statistics.rejectedCount++;
+                MGDUtils.log(TAG, Log.ERROR, "execute task error: " + name + " queue is full, size=" + queueSize + ".");
+                return false;
+            }
+            try {
+                executor.execute(new Task(this, runnable, priority, nextSequence++));
+                statistics.submittedCount++;
+                return true;
+            } catch (Throwable e) {
+                statistics.rejectedCount++;
+                MGDUtils.log(TAG, Log.ERROR, "execute task error:" + e.getMessage());
+                return false;
+            }
+        }
+
+        synchronized void onTaskStart(long queueTime) {
+            statistics.startedCount++;
+            statistics.totalQueueTime += queueTime;
+            statistics.maxQueueTime = Math.max(statistics.maxQueueTime, queueTime);
+        }
+
+        synchronized Statistics getStatistics() {
+            Statistics snapshot = new Statistics();
+            snapshot.submittedCount = statistics.submittedCount;
+            snapshot.rejectedCount = statistics.rejectedCount;
+            snapshot.startedCount = statistics.startedCount;
+            snapshot.queueSize = executor.getQueue().size();
+            snapshot.totalQueueTime = statistics.totalQueueTime;
+            snapshot.maxQueueTime = statistics.maxQueueTime;
+            return snapshot;
+        }
     }
 
     /**
-     * Executes the given command at some time in the future.  The command
-     * may execute in a new thread, in a pooled thread, or in the calling
-     * thread, at the discretion of the {@code Executor} implementation.
-     *
-     * @param task The runnable task
-     * @return Submit success or not
+     * Constructor and initialize the lanes, see {@link MGDConfig#SESSION_NETWORK_THREAD_COUNT},
+     * {@link MGDConfig#SESSION_CPU_THREAD_COUNT} and {@link MGDConfig#SESSION_TASK_QUEUE_CAPACITY}
      */
-    private boolean execute(Runnable task) {
-        try {
-            executorServiceImpl.execute(task);
-            return true;
-        } catch (Throwable e) {
-            MGDUtils.log(TAG, Log.ERROR, "execute task error:" + e.getMessage());
-            return false;
+    private MGDSessionThreadPool(MGDConfig config) {
+        lanes = new Lane[]{
+                new Lane("session", config.SESSION_NETWORK_THREAD_COUNT, config.SESSION_TASK_QUEUE_CAPACITY),
+                new Lane("worker", config.SESSION_CPU_THREAD_COUNT, config.SESSION_TASK_QUEUE_CAPACITY)
+        };
+    }
+
+    private static synchronized MGDSessionThreadPool getInstance() {
+        if (null == sInstance) {
+            MGDConfig config = MGDEngine.isGetInstanceAllowed() ? MGDEngine.getInstance().getConfig() : new MGDConfig.Builder().build();
+            sInstance = new MGDSessionThreadPool(config);
         }
+        return sInstance;
     }
 
     /**
@@ -134,6 +297,26 @@ public class MGDSessionThreadPool {
      */
 
     static boolean postTask(Runnable task) {
-        return sInstance.execute(task);
+        return postTask(task, LANE_NETWORK, PRIORITY_FOREGROUND);
+    }
+
+    /**
+     * Post an runnable to a lane of the pool
+     *
+     * @param task     The runnable task
+     * @param lane     {@link #LANE_NETWORK} or {@link #LANE_CPU}
+     * @param priority The priority of the task, such as {@link #PRIORITY_FOREGROUND}
+     * @return Submit success or not, a task is only rejected if the queue of the lane is full.
+     */
+    static boolean postTask(Runnable task, int lane, int priority) {
+        return getInstance().lanes[lane].execute(task, priority);
+    }
+
+    /**
+     * @param lane {@link #LANE_NETWORK} or {@link #LANE_CPU}
+     * @return The task counters of the lane
+     */
+    static Statistics getStatistics(int lane) {
+        return getInstance().lanes[lane].getStatistics();
     }
 }
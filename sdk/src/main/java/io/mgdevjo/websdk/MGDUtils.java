@@ -16,7 +16,6 @@
 package io.mgdevjo.websdk;
 
 import android.annotation.TargetApi;
-import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Build;
 import android.text.TextUtils;
@@ -96,11 +95,6 @@ public class MGDUtils {
      */
     private static final String MGD_TAG_KEY_END = "}";
 
-    /**
-     * the key of last cache check and clear time saved in SharedPreference
-     */
-    private static final String MGD_CLEAR_CACHE_TIME = "check_and_clear_cache_time";
-
     /**
      * Logger function
      *
@@ -138,6 +132,23 @@ public class MGDUtils {
         if (MGDUtils.shouldLog(Log.INFO)) {
             MGDUtils.log(TAG, Log.INFO, "saveMGDData sessionId = " + sessionId + ", eTag = " + eTag + ", templateTag = " + templateTag + ",htmlSha1 = " + htmlSha1 + ", htmlSize = " + htmlSize );
         }
+        MGDDataHelper.SessionData sessionData = createSessionData(sessionId, eTag, templateTag, htmlSha1, htmlSize, headers);
+        MGDDataHelper.saveSessionData(sessionId, sessionData);
+    }
+
+    /**
+     * Create the session data to be saved, the expired time is calculated from the response headers.
+     *
+     * @param sessionId   A unique session id
+     * @param eTag        Html eTag
+     * @param templateTag Template tag
+     * @param htmlSha1    Html sha1
+     * @param htmlSize    Html size
+     * @param headers     Response headers
+     * @return The session data
+     */
+    static MGDDataHelper.SessionData createSessionData(String sessionId, String eTag, String templateTag, String htmlSha1,
+                                                       long htmlSize, Map<String, List<String>> headers) {
         MGDDataHelper.SessionData sessionData = new MGDDataHelper.SessionData();
         sessionData.sessionId = sessionId;
         handleCacheControl(headers, sessionData);
@@ -146,7 +157,7 @@ public class MGDUtils {
         sessionData.htmlSha1 = htmlSha1;
         sessionData.htmlSize = htmlSize;
         sessionData.templateUpdateTime = System.currentTimeMillis();
-        MGDDataHelper.saveSessionData(sessionId, sessionData);
+        return sessionData;
     }
 
     /**
@@ -198,6 +209,36 @@ public class MGDUtils {
             if (sessionData.expiredTime > maxAge) {
                 sessionData.expiredTime = maxAge;
             }
+
+            // stale-while-revalidate extends a fresh cache by a window in which it is revalidated in the background
+            responseHeaderValues = headers.get(MGDSessionConnection.HTTP_HEAD_FIELD_CACHE_CONTROL.toLowerCase());
+            if (sessionData.expiredTime > 0 && responseHeaderValues != null && responseHeaderValues.size() > 0) {
+                long staleTime = getCacheControlSeconds(responseHeaderValues.get(0).toLowerCase(), "stale-while-revalidate");
+                if (staleTime > 0) {
+                    sessionData.staleExpiredTime = sessionData.expiredTime + staleTime * 1000;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param header    The lower case value of Cache-Control
+     * @param directive The directive, such as "stale-while-revalidate"
+     * @return The seconds of the directive, -1 if there is no such directive or it is malformed.
+     */
+    static long getCacheControlSeconds(String header, String directive) {
+        int index = header.indexOf(directive + "=");
+        if (index < 0) {
+            return -1;
+        }
+        String temp = header.substring(index + directive.length() + 1);
+        int endIndex = temp.indexOf(",");
+        endIndex = endIndex == -1 ? temp.length() : endIndex;
+        try {
+            return Long.parseLong(temp.substring(0, endIndex).trim());
+        } catch (NumberFormatException e) {
+            log(TAG, Log.ERROR, "getCacheControlSeconds:" + directive + " error:" + e.getMessage());
+            return -1;
         }
     }
 
@@ -212,13 +253,26 @@ public class MGDUtils {
         if (MGDUtils.shouldLog(Log.INFO)) {
             MGDUtils.log(TAG, Log.INFO, "saveMGDResourceData resourceUrl = " + resourceUrl + ", resourceSha1 = " + resourceSha1 + ", resourceSize = " + resourceSize);
         }
+        MGDResourceDataHelper.ResourceData resourceData = createResourceData(resourceUrl, resourceSha1, resourceSize);
+        MGDResourceDataHelper.saveResourceData(resourceData.resourceId, resourceData);
+    }
+
+    /**
+     * Create the resource data to be saved, the expired time is parsed from the resource url.
+     *
+     * @param resourceUrl the resource url
+     * @param resourceSha1 the resource sha1
+     * @param resourceSize the resource size
+     * @return The resource data
+     */
+    static MGDResourceDataHelper.ResourceData createResourceData(String resourceUrl, String resourceSha1, long resourceSize) {
         MGDResourceDataHelper.ResourceData resourceData = new MGDResourceDataHelper.ResourceData();
         resourceData.resourceId = getMD5(resourceUrl);
         resourceData.resourceSha1 = resourceSha1;
         resourceData.resourceSize = resourceSize;
         handleResourceExpireTime(resourceUrl, resourceData);
         resourceData.lastUpdateTime = System.currentTimeMillis();
-        MGDResourceDataHelper.saveResourceData(resourceData.resourceId, resourceData);
+        return resourceData;
     }
 
     /**
@@ -254,7 +308,10 @@ public class MGDUtils {
     static JSONObject getDiffData(String sessionId, JSONObject serverDataJson) {
         JSONObject diffData;
         try {
-            String localDataString = MGDFileUtils.readFile(new File(MGDFileUtils.getMGDDataPath(sessionId)));
+            String localDataString = MGDEngine.getInstance().getWriteBehindQueue().getPendingSessionData(sessionId);
+            if (TextUtils.isEmpty(localDataString)) {
+                localDataString = MGDFileUtils.readFile(new File(MGDFileUtils.getMGDDataPath(sessionId)));
+            }
             if (!TextUtils.isEmpty(localDataString)) {
                 JSONObject localDataJson = new JSONObject(localDataString);
                 diffData = getDiffData(localDataJson, serverDataJson);
@@ -302,9 +359,12 @@ public class MGDUtils {
     }
 
     static String buildHtml(final String sessionId, JSONObject dataJson, String sha1, int dataMaxSize) {
+        String templateString = MGDEngine.getInstance().getWriteBehindQueue().getPendingSessionTemplate(sessionId);
         File templateFile = new File(MGDFileUtils.getMGDTemplatePath(sessionId));
-        if (templateFile.exists()) {
-            String templateString = MGDFileUtils.readFile(templateFile);
+        if (!TextUtils.isEmpty(templateString) || templateFile.exists()) {
+            if (TextUtils.isEmpty(templateString)) {
+                templateString = MGDFileUtils.readFile(templateFile);
+            }
             if (!TextUtils.isEmpty(templateString)) {
 
                 final String htmlString = buildHtml(templateString, dataJson, dataMaxSize);
@@ -370,23 +430,24 @@ public class MGDUtils {
      * @return The result of save files.true if all data is saved successfully
      */
     static boolean saveSessionFiles(String sessionId, String htmlString, String templateString, String dataString, Map<String, List<String>> headers) {
-        if (!TextUtils.isEmpty(htmlString) && !MGDFileUtils.writeFile(htmlString, MGDFileUtils.getMGDHtmlPath(sessionId))) {
+        MGDCacheLedger ledger = MGDCacheLedger.getSessionLedger();
+        if (!TextUtils.isEmpty(htmlString) && !MGDFileUtils.writeFile(htmlString, MGDFileUtils.getMGDHtmlPath(sessionId), ledger)) {
             log(TAG, Log.ERROR, "saveSessionData error: write html file fail.");
             return false;
         }
 
-        if (!TextUtils.isEmpty(templateString) && !MGDFileUtils.writeFile(templateString, MGDFileUtils.getMGDTemplatePath(sessionId))) {
+        if (!TextUtils.isEmpty(templateString) && !MGDFileUtils.writeFile(templateString, MGDFileUtils.getMGDTemplatePath(sessionId), ledger)) {
             log(TAG, Log.ERROR, "saveSessionData error: write template file fail.");
             return false;
         }
 
-        if (!TextUtils.isEmpty(dataString) && !MGDFileUtils.writeFile(dataString, MGDFileUtils.getMGDDataPath(sessionId))) {
+        if (!TextUtils.isEmpty(dataString) && !MGDFileUtils.writeFile(dataString, MGDFileUtils.getMGDDataPath(sessionId), ledger)) {
             log(TAG, Log.ERROR, "saveSessionData error: write data file fail.");
             return false;
         }
 
         if (headers != null && headers.size() > 0
-                &&!MGDFileUtils.writeFile(MGDFileUtils.convertHeadersToString(headers), MGDFileUtils.getMGDHeaderPath(sessionId))) {
+                &&!MGDFileUtils.writeFile(MGDFileUtils.convertHeadersToString(headers), MGDFileUtils.getMGDHeaderPath(sessionId), ledger)) {
             log(TAG, Log.ERROR, "saveSessionData error: write header file fail.");
             return false;
         }
@@ -402,13 +463,37 @@ public class MGDUtils {
      * @return The result of save files. true if all data is saved successfully.
      */
     public static boolean saveResourceFiles(String resourceName, byte[] resourceBytes, Map<String, List<String>> headers) {
-        if (resourceBytes != null && !MGDFileUtils.writeFile(resourceBytes, MGDFileUtils.getMGDResourcePath(resourceName))) {
+        MGDCacheLedger ledger = MGDCacheLedger.getResourceLedger();
+        if (resourceBytes != null && !MGDFileUtils.writeFile(resourceBytes, MGDFileUtils.getMGDResourcePath(resourceName), ledger)) {
             log(TAG, Log.ERROR, "saveResourceFiles error: write resource data fail.");
             return false;
         }
 
         if (headers != null && headers.size() > 0
-                &&!MGDFileUtils.writeFile(MGDFileUtils.convertHeadersToString(headers), MGDFileUtils.getMGDResourceHeaderPath(resourceName))) {
+                &&!MGDFileUtils.writeFile(MGDFileUtils.convertHeadersToString(headers), MGDFileUtils.getMGDResourceHeaderPath(resourceName), ledger)) {
+            log(TAG, Log.ERROR, "saveResourceFiles error: write header file fail.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * save resource files, the resource file is a complete download which is moved into the cache.
+     *
+     * @param resourceName resource file name
+     * @param resourceFile the downloaded resource
+     * @param headers resource headers
+     * @return The result of save files. true if all data is saved successfully.
+     */
+    static boolean saveResourceFiles(String resourceName, MGDResponseFile resourceFile, Map<String, List<String>> headers) {
+        MGDCacheLedger ledger = MGDCacheLedger.getResourceLedger();
+        if (!resourceFile.commit(MGDFileUtils.getMGDResourcePath(resourceName), ledger)) {
+            log(TAG, Log.ERROR, "saveResourceFiles error: move resource file fail.");
+            return false;
+        }
+
+        if (headers != null && headers.size() > 0
+                &&!MGDFileUtils.writeFile(MGDFileUtils.convertHeadersToString(headers), MGDFileUtils.getMGDResourceHeaderPath(resourceName), ledger)) {
             log(TAG, Log.ERROR, "saveResourceFiles error: write header file fail.");
             return false;
         }
@@ -539,8 +624,11 @@ public class MGDUtils {
      * @param sessionId A unique session id
      */
     static void removeSessionCache(String sessionId) {
+        MGDEngine.getInstance().getWriteBehindQueue().cancelSessionWrite(sessionId);
         MGDDataHelper.removeSessionData(sessionId);
         MGDFileUtils.deleteMGDFiles(sessionId);
+        MGDEngine.getInstance().getConfig().SESSION_CACHE_EVICTION_POLICY.onRemove(sessionId);
+        MGDAccessStats.getSessionStats().remove(sessionId);
     }
 
     /**
@@ -549,8 +637,11 @@ public class MGDUtils {
      * @param resourceId a unique resource id
      */
     public static void removeResourceCache(String resourceId) {
+        MGDEngine.getInstance().getWriteBehindQueue().cancelResourceWrite(resourceId);
         MGDResourceDataHelper.removeResourceData(resourceId);
         MGDFileUtils.deleteResourceFiles(resourceId);
+        MGDEngine.getInstance().getConfig().RESOURCE_CACHE_EVICTION_POLICY.onRemove(resourceId);
+        MGDAccessStats.getResourceStats().remove(resourceId);
     }
 
     /**
@@ -560,8 +651,14 @@ public class MGDUtils {
     static boolean removeAllSessionCache() {
         File cacheRootDir = new File(MGDFileUtils.getMGDCacheDirPath());
         if (cacheRootDir.exists()) {
+            MGDEngine.getInstance().getWriteBehindQueue().cancelAllSessionWrites();
             MGDDataHelper.clear();
-            return MGDFileUtils.deleteAllChildFiles(cacheRootDir);
+            MGDAccessStats.getSessionStats().clear();
+            if (MGDFileUtils.deleteAllChildFiles(cacheRootDir)) {
+                MGDCacheLedger.getSessionLedger().reset();
+                return true;
+            }
+            MGDCacheLedger.getSessionLedger().invalidate();
         }
         return false;
     }
@@ -676,6 +773,38 @@ public class MGDUtils {
             '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
 
 
+    /**
+     * Count the bytes of the content encoded in UTF-8 without encoding it, the cache files are
+     * written in UTF-8 so it is the size they take on disk.
+     *
+     * @param content The content, it may be null
+     * @return The encoded length in bytes.
+     */
+    static long getUtf8Length(String content) {
+        if (null == content) {
+            return 0;
+        }
+        long length = 0;
+        int count = content.length();
+        for (int i = 0; i < count; i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(content.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // a malformed surrogate is encoded as '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
     static String getSHA1(String content) {
         if (TextUtils.isEmpty(content)) {
             return "";
@@ -709,7 +838,7 @@ public class MGDUtils {
         }
     }
 
-    private static String toHexString(byte b[]) {
+    static String toHexString(byte b[]) {
         StringBuilder sb = new StringBuilder(b.length * 2);
         for (byte aB : b) {
             sb.append(hexChar[(aB & 0xf0) >>> 4]);
@@ -717,25 +846,4 @@ public class MGDUtils {
         }
         return sb.toString();
     }
-
-    /**
-     *
-     * @param timeInterval The time interval between check and clear MGD cache
-     * @return true if we should clear MGD cache.
-     */
-    static boolean shouldClearCache(long timeInterval) {
-        SharedPreferences sp = MGDEngine.getInstance().getRuntime().getMGDSharedPreferences();
-        long lastCheckTime = sp.getLong(MGD_CLEAR_CACHE_TIME, 0L);
-        return System.currentTimeMillis() - lastCheckTime > timeInterval;
-    }
-
-    /**
-     * save the clear cache time.
-     *
-     * @param timestamp time when clear the cache
-     */
-    static void saveClearCacheTime(long timestamp) {
-        SharedPreferences sp = MGDEngine.getInstance().getRuntime().getMGDSharedPreferences();
-        sp.edit().putLong(MGD_CLEAR_CACHE_TIME, timestamp).apply();
-    }
 }
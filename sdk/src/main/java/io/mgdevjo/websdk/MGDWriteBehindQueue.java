@@ -0,0 +1,705 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.os.Handler;
+import android.os.Message;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>MGDWriteBehindQueue</code> persists session cache and resource cache in the background.
+ *
+ * <p>
+ * Pending writes are keyed by session id or resource id, a newer write of the same key replaces
+ * the pending one (latest wins). A flush is scheduled on the file thread
+ * {@link MGDRuntime#getFileThreadLooper()} {@link #FLUSH_DELAY_MILLIS} ms after the first pending
+ * write, or at once if too many bytes are pending. The flush shards its entries by key over
+ * {@link #WRITE_LANE_COUNT} serial lanes of {@link MGDSessionThreadPool#LANE_CPU}, so a slow save
+ * of one session does not delay the others while the writes of one key keep their order. Each
+ * entry writes its cache files and then updates its metadata in the in-memory index, which is
+ * written to the metadata store in one batch by {@link MGDMetadataStore#scheduleFlush()}.
+ *
+ * <p>
+ * The writes of a running flush stay visible as in-flight writes until their metadata is saved,
+ * a cancel marks them as discarded and the flush deletes their files instead of saving the metadata.
+ */
+public class MGDWriteBehindQueue implements Handler.Callback {
+
+    /**
+     * Log filter
+     */
+    private static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDWriteBehindQueue";
+
+    /**
+     * Pending writes are coalesced within this delay.
+     */
+    private static final long FLUSH_DELAY_MILLIS = 1500;
+
+    /**
+     * The queue is flushed at once if the pending bytes exceed this threshold.
+     */
+    private static final long MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * The number of serial lanes the writes of a flush are sharded over.
+     */
+    private static final int WRITE_LANE_COUNT = 4;
+
+    private static final int MSG_FLUSH = 1;
+
+    private static final String SESSION_KEY_PREFIX = "session:";
+
+    private static final String RESOURCE_KEY_PREFIX = "resource:";
+
+    private final Handler fileHandler;
+
+    private final MGDSerialExecutor[] writeLanes = new MGDSerialExecutor[WRITE_LANE_COUNT];
+
+    /**
+     * Pending writes in the order they are enqueued, guarded by itself.
+     */
+    private final LinkedHashMap<String, PendingWrite> pendingWrites = new LinkedHashMap<String, PendingWrite>();
+
+    /**
+     * Writes taken by the running flush whose metadata is not saved yet, guarded by {@link #pendingWrites}.
+     */
+    private final LinkedHashMap<String, PendingWrite> inFlightWrites = new LinkedHashMap<String, PendingWrite>();
+
+    private long pendingBytes;
+
+    private boolean isFlushScheduled;
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private final AtomicLong lastFlushLatency = new AtomicLong();
+
+    private final AtomicLong maxFlushLatency = new AtomicLong();
+
+    private final AtomicLong totalFlushLatency = new AtomicLong();
+
+    MGDWriteBehindQueue() {
+        fileHandler = new Handler(MGDEngine.getInstance().getRuntime().getFileThreadLooper(), this);
+        for (int i = 0; i < WRITE_LANE_COUNT; i++) {
+            writeLanes[i] = new MGDSerialExecutor("writeBehind(" + i + ")");
+        }
+    }
+
+    /**
+     * A pending write of one session or resource.
+     */
+    private static abstract class PendingWrite {
+
+        final String key;
+
+        /**
+         * Whether the write is cancelled while it is in flight, the metadata is saved or the files
+         * are deleted holding the lock of the write, so it does not change in between.
+         */
+        volatile boolean isDiscarded;
+
+        PendingWrite(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return The bytes held by this write.
+         */
+        abstract long size();
+
+        /**
+         * Merge an older pending write of the same key, fields missing in this write are taken from the older one.
+         */
+        abstract void merge(PendingWrite older);
+
+        /**
+         * Write the cache files.
+         *
+         * @return Return {@code true} if all the files are saved successfully.
+         */
+        abstract boolean writeFiles();
+
+        /**
+         * Save the metadata, it is called after {@link #writeFiles()} succeeded.
+         */
+        abstract void saveMetadata();
+
+        /**
+         * Delete the files written by {@link #writeFiles()}, it is called if the write is cancelled
+         * after the files are written.
+         */
+        abstract void deleteFiles();
+
+        /**
+         * Release what the write holds when it is dropped, replaced or fails.
+         */
+        void discard() {
+        }
+
+        /**
+         * Called when {@link #writeFiles()} fails.
+         */
+        void onWriteFail() {
+        }
+    }
+
+    private static class SessionWrite extends PendingWrite {
+
+        final String sessionId;
+
+        String htmlString;
+
+        String templateString;
+
+        String dataString;
+
+        final Map<String, List<String>> headers;
+
+        final String eTag;
+
+        final String templateTag;
+
+        final String htmlSha1;
+
+        /**
+         * the client and url the write failure is notified to
+         */
+        final MGDSessionClient sessionClient;
+
+        final String srcUrl;
+
+        /**
+         * the encoded bytes of the contents, it is counted on the first call of {@link #size()}
+         */
+        private long size = -1;
+
+        SessionWrite(String sessionId, String htmlString, String templateString, String dataString,
+                     Map<String, List<String>> headers, String eTag, String templateTag, String htmlSha1,
+                     MGDSessionClient sessionClient, String srcUrl) {
+            super(getSessionWriteKey(sessionId));
+            this.sessionId = sessionId;
+            this.htmlString = htmlString;
+            this.templateString = templateString;
+            this.dataString = dataString;
+            this.headers = headers;
+            this.eTag = eTag;
+            this.templateTag = templateTag;
+            this.htmlSha1 = htmlSha1;
+            this.sessionClient = sessionClient;
+            this.srcUrl = srcUrl;
+        }
+
+        @Override
+        long size() {
+            if (size < 0) {
+                size = MGDUtils.getUtf8Length(htmlString) + MGDUtils.getUtf8Length(templateString) + MGDUtils.getUtf8Length(dataString);
+            }
+            return size;
+        }
+
+        @Override
+        void merge(PendingWrite older) {
+            SessionWrite olderWrite = (SessionWrite) older;
+            if (TextUtils.isEmpty(templateString)) {
+                templateString = olderWrite.templateString;
+            }
+            if (TextUtils.isEmpty(dataString)) {
+                dataString = olderWrite.dataString;
+            }
+            size = -1;
+        }
+
+        @Override
+        boolean writeFiles() {
+            return MGDUtils.saveSessionFiles(sessionId, htmlString, templateString, dataString, headers);
+        }
+
+        @Override
+        void saveMetadata() {
+            long htmlSize = new File(MGDFileUtils.getMGDHtmlPath(sessionId)).length();
+            MGDDataHelper.SessionData sessionData = MGDUtils.createSessionData(sessionId, eTag, templateTag, htmlSha1, htmlSize, headers);
+            MGDDataHelper.saveSessionData(sessionId, sessionData);
+        }
+
+        @Override
+        void deleteFiles() {
+            MGDFileUtils.deleteMGDFiles(sessionId);
+        }
+
+        @Override
+        void onWriteFail() {
+            MGDEngine.getInstance().getRuntime().notifyError(sessionClient, srcUrl, MGDConstants.ERROR_CODE_WRITE_FILE_FAIL);
+        }
+    }
+
+    private static class ResourceWrite extends PendingWrite {
+
+        final String resourceUrl;
+
+        final String resourceId;
+
+        final byte[] content;
+
+        /**
+         * the downloaded file, it is used instead of {@link #content} and holds no heap bytes
+         */
+        final MGDResponseFile contentFile;
+
+        final Map<String, List<String>> headers;
+
+        ResourceWrite(String resourceUrl, String resourceId, byte[] content, MGDResponseFile contentFile, Map<String, List<String>> headers) {
+            super(RESOURCE_KEY_PREFIX + resourceId);
+            this.resourceUrl = resourceUrl;
+            this.resourceId = resourceId;
+            this.content = content;
+            this.contentFile = contentFile;
+            this.headers = headers;
+        }
+
+        @Override
+        long size() {
+            return null != content ? content.length : 0;
+        }
+
+        @Override
+        void merge(PendingWrite older) {
+            // a resource is always written as a whole
+        }
+
+        @Override
+        boolean writeFiles() {
+            if (null != contentFile) {
+                return MGDUtils.saveResourceFiles(resourceId, contentFile, headers);
+            }
+            return MGDUtils.saveResourceFiles(resourceId, content, headers);
+        }
+
+        @Override
+        void saveMetadata() {
+            MGDResourceDataHelper.ResourceData resourceData;
+            if (null != contentFile) {
+                resourceData = MGDUtils.createResourceData(resourceUrl, contentFile.getSha1(), contentFile.getLength());
+            } else {
+                resourceData = MGDUtils.createResourceData(resourceUrl, MGDUtils.getSHA1(content), content.length);
+            }
+            MGDResourceDataHelper.saveResourceData(resourceId, resourceData);
+        }
+
+        @Override
+        void deleteFiles() {
+            MGDFileUtils.deleteResourceFiles(resourceId);
+        }
+
+        @Override
+        void discard() {
+            if (null != contentFile) {
+                contentFile.discard();
+            }
+        }
+    }
+
+    /**
+     * Enqueue the session cache files and the metadata to be saved.
+     *
+     * @param sessionId      A unique session id
+     * @param htmlString     Html content
+     * @param templateString Template content, the template file is kept if it is empty
+     * @param dataString     Data content, the data file is kept if it is empty
+     * @param headers        Response headers
+     * @param eTag           Html eTag
+     * @param templateTag    Template tag
+     * @param htmlSha1       Html sha1
+     * @param sessionClient  The session client which is notified if the files fail to be written
+     * @param srcUrl         The session url
+     */
+    void enqueueSessionWrite(String sessionId, String htmlString, String templateString, String dataString,
+                             Map<String, List<String>> headers, String eTag, String templateTag, String htmlSha1,
+                             MGDSessionClient sessionClient, String srcUrl) {
+        enqueue(new SessionWrite(sessionId, htmlString, templateString, dataString, headers, eTag, templateTag, htmlSha1, sessionClient, srcUrl));
+    }
+
+    /**
+     * Enqueue the resource cache file and the metadata to be saved.
+     *
+     * @param resourceUrl The resource url
+     * @param content     The resource bytes
+     * @param headers     Response headers
+     */
+    public void enqueueResourceWrite(String resourceUrl, byte[] content, Map<String, List<String>> headers) {
+        enqueue(new ResourceWrite(resourceUrl, MGDUtils.getMD5(resourceUrl), content, null, headers));
+    }
+
+    /**
+     * Enqueue a downloaded resource file to be moved into the cache and the metadata to be saved.
+     * Only the first enqueue of the same download is taken, see {@link MGDResponseFile#claim()}.
+     *
+     * @param resourceUrl The resource url
+     * @param contentFile The complete download
+     * @param headers     Response headers
+     */
+    public void enqueueResourceWrite(String resourceUrl, MGDResponseFile contentFile, Map<String, List<String>> headers) {
+        if (contentFile.claim()) {
+            enqueue(new ResourceWrite(resourceUrl, MGDUtils.getMD5(resourceUrl), null, contentFile, headers));
+        }
+    }
+
+    /**
+     * Drop the pending write of a session, it should be called when the session cache is removed.
+     *
+     * @param sessionId A unique session id
+     */
+    void cancelSessionWrite(String sessionId) {
+        cancel(getSessionWriteKey(sessionId));
+    }
+
+    /**
+     * Drop the pending write of a resource, it should be called when the resource cache is removed.
+     *
+     * @param resourceId A unique resource id
+     */
+    void cancelResourceWrite(String resourceId) {
+        cancel(RESOURCE_KEY_PREFIX + resourceId);
+    }
+
+    /**
+     * Drop all the pending and in-flight session writes.
+     */
+    void cancelAllSessionWrites() {
+        List<PendingWrite> inFlightList = new ArrayList<PendingWrite>();
+        synchronized (pendingWrites) {
+            List<String> keys = new ArrayList<String>();
+            for (String key : pendingWrites.keySet()) {
+                if (key.startsWith(SESSION_KEY_PREFIX)) {
+                    keys.add(key);
+                }
+            }
+            for (String key : keys) {
+                PendingWrite write = pendingWrites.remove(key);
+                pendingBytes -= write.size();
+                write.discard();
+            }
+            for (PendingWrite write : inFlightWrites.values()) {
+                if (write.key.startsWith(SESSION_KEY_PREFIX)) {
+                    inFlightList.add(write);
+                }
+            }
+        }
+        for (PendingWrite write : inFlightList) {
+            markDiscarded(write);
+        }
+    }
+
+    /**
+     * Get the pending data content of a session which has not been written to file yet.
+     *
+     * @param sessionId A unique session id
+     * @return The data content, or null if there is no pending data.
+     */
+    String getPendingSessionData(String sessionId) {
+        SessionWrite write = getPendingSessionWrite(sessionId);
+        return null != write ? write.dataString : null;
+    }
+
+    /**
+     * Get the pending template content of a session which has not been written to file yet.
+     *
+     * @param sessionId A unique session id
+     * @return The template content, or null if there is no pending template.
+     */
+    String getPendingSessionTemplate(String sessionId) {
+        SessionWrite write = getPendingSessionWrite(sessionId);
+        return null != write ? write.templateString : null;
+    }
+
+    /**
+     * @return The pending write of the session, or the in-flight one if there is no pending write.
+     */
+    private SessionWrite getPendingSessionWrite(String sessionId) {
+        String key = getSessionWriteKey(sessionId);
+        synchronized (pendingWrites) {
+            PendingWrite write = pendingWrites.get(key);
+            if (null == write) {
+                write = inFlightWrites.get(key);
+            }
+            return null != write && !write.isDiscarded ? (SessionWrite) write : null;
+        }
+    }
+
+    /**
+     * @return The number of pending writes.
+     */
+    public int getQueueDepth() {
+        synchronized (pendingWrites) {
+            return pendingWrites.size();
+        }
+    }
+
+    /**
+     * @return The bytes held by pending writes.
+     */
+    public long getPendingBytes() {
+        synchronized (pendingWrites) {
+            return pendingBytes;
+        }
+    }
+
+    /**
+     * @return The number of writes enqueued.
+     */
+    public long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    /**
+     * @return The number of writes replaced by a newer write of the same key before being flushed.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return The number of flushes.
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * @return The cost of last flush in milliseconds.
+     */
+    public long getLastFlushLatency() {
+        return lastFlushLatency.get();
+    }
+
+    /**
+     * @return The max cost of flushes in milliseconds.
+     */
+    public long getMaxFlushLatency() {
+        return maxFlushLatency.get();
+    }
+
+    /**
+     * @return The average cost of flushes in milliseconds.
+     */
+    public long getAverageFlushLatency() {
+        long count = flushCount.get();
+        return count > 0 ? totalFlushLatency.get() / count : 0;
+    }
+
+    private void enqueue(PendingWrite write) {
+        enqueuedCount.incrementAndGet();
+        boolean flushNow;
+        synchronized (pendingWrites) {
+            PendingWrite older = pendingWrites.remove(write.key);
+            if (null != older) {
+                write.merge(older);
+                older.discard();
+                pendingBytes -= older.size();
+                coalescedCount.incrementAndGet();
+            }
+            pendingWrites.put(write.key, write);
+            pendingBytes += write.size();
+
+            flushNow = pendingBytes > MAX_PENDING_BYTES;
+            if (flushNow) {
+                fileHandler.removeMessages(MSG_FLUSH);
+                isFlushScheduled = true;
+            } else if (!isFlushScheduled) {
+                isFlushScheduled = true;
+                fileHandler.sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY_MILLIS);
+            }
+        }
+        if (flushNow) {
+            fileHandler.sendEmptyMessage(MSG_FLUSH);
+        }
+    }
+
+    private void cancel(String key) {
+        PendingWrite inFlightWrite;
+        synchronized (pendingWrites) {
+            PendingWrite write = pendingWrites.remove(key);
+            if (null != write) {
+                pendingBytes -= write.size();
+                write.discard();
+            }
+            inFlightWrite = inFlightWrites.get(key);
+        }
+        if (null != inFlightWrite) {
+            markDiscarded(inFlightWrite);
+        }
+    }
+
+    /**
+     * Mark an in-flight write as discarded. It returns after the metadata of the write is saved if
+     * the flush has got there, so the caller can remove the metadata and the files afterwards.
+     */
+    private static void markDiscarded(PendingWrite write) {
+        synchronized (write) {
+            write.isDiscarded = true;
+        }
+    }
+
+    private void removeInFlight(PendingWrite write) {
+        synchronized (pendingWrites) {
+            if (inFlightWrites.get(write.key) == write) {
+                inFlightWrites.remove(write.key);
+            }
+        }
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        if (MSG_FLUSH == msg.what) {
+            synchronized (pendingWrites) {
+                // the disk is left to the foreground sessions unless too many bytes are pending
+                if (pendingBytes <= MAX_PENDING_BYTES && !MGDEngine.getInstance().getForegroundGate().isOpen()) {
+                    fileHandler.sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY_MILLIS);
+                    return true;
+                }
+            }
+            flush();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Take all the pending writes and post each of them to the write lane of its key, it runs on
+     * the file thread.
+     */
+    private void flush() {
+        List<PendingWrite> writes;
+        synchronized (pendingWrites) {
+            isFlushScheduled = false;
+            writes = new ArrayList<PendingWrite>(pendingWrites.values());
+            for (PendingWrite write : writes) {
+                inFlightWrites.put(write.key, write);
+            }
+            pendingWrites.clear();
+            pendingBytes = 0;
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
+
+        final FlushBatch batch = new FlushBatch(writes.size());
+        for (final PendingWrite write : writes) {
+            writeLanes[getWriteLaneIndex(write.key)].post(new Runnable() {
+                @Override
+                public void run() {
+                    if (persist(write)) {
+                        batch.savedCount.incrementAndGet();
+                    }
+                    if (0 == batch.remainingCount.decrementAndGet()) {
+                        onFlushFinish(batch);
+                    }
+                }
+            }, MGDSessionThreadPool.PRIORITY_PRELOAD);
+        }
+    }
+
+    /**
+     * @return The index of the write lane which the writes of the key run on.
+     */
+    static int getWriteLaneIndex(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % WRITE_LANE_COUNT;
+    }
+
+    /**
+     * @return The key of the writes of the session.
+     */
+    static String getSessionWriteKey(String sessionId) {
+        return SESSION_KEY_PREFIX + sessionId;
+    }
+
+    /**
+     * Write the files of one write and then save its metadata, it runs on the write lane of its key.
+     *
+     * @return Return {@code true} if the metadata is saved.
+     */
+    private boolean persist(PendingWrite write) {
+        if (write.isDiscarded) {
+            write.discard();
+            removeInFlight(write);
+            return false;
+        }
+        if (!write.writeFiles()) {
+            write.discard();
+            removeInFlight(write);
+            MGDUtils.log(TAG, Log.ERROR, "flush: write files of " + write.key + " fail.");
+            if (!write.isDiscarded) {
+                write.onWriteFail();
+            }
+            return false;
+        }
+        boolean isSaved = false;
+        synchronized (write) {
+            if (write.isDiscarded) {
+                // the cache is removed while its files were being written
+                write.deleteFiles();
+            } else {
+                write.saveMetadata();
+                isSaved = true;
+            }
+        }
+        removeInFlight(write);
+        return isSaved;
+    }
+
+    private void onFlushFinish(FlushBatch batch) {
+        long cost = System.currentTimeMillis() - batch.startTime;
+        flushCount.incrementAndGet();
+        lastFlushLatency.set(cost);
+        totalFlushLatency.addAndGet(cost);
+        long maxCost;
+        do {
+            maxCost = maxFlushLatency.get();
+        } while (cost > maxCost && !maxFlushLatency.compareAndSet(maxCost, cost));
+
+        MGDUtils.log(TAG, Log.INFO, "flush: " + batch.savedCount.get() + "/" + batch.size + " writes, cost " + cost + " ms.");
+    }
+
+    /**
+     * The progress of one flush over the write lanes.
+     */
+    private static class FlushBatch {
+
+        final long startTime = System.currentTimeMillis();
+
+        final int size;
+
+        final AtomicInteger remainingCount;
+
+        final AtomicInteger savedCount = new AtomicInteger();
+
+        FlushBatch(int size) {
+            this.size = size;
+            this.remainingCount = new AtomicInteger(size);
+        }
+    }
+}
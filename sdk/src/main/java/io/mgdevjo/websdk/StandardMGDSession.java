@@ -26,7 +26,6 @@ import android.util.Log;
 import org.json.JSONObject;
 
 import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.List;
 import java.util.Map;
@@ -159,12 +158,17 @@ public class StandardMGDSession extends MGDSession implements Handler.Callback {
 
         wasInterceptInvoked.set(true);
         long startTime = System.currentTimeMillis();
-        if (sessionState.get() == STATE_RUNNING) {
+        if (isWaitingForFlow()) {
             synchronized (sessionState) {
                 try {
-                    if (sessionState.get() == STATE_RUNNING) {
+                    long waitMillis = deadline.remaining(30 * 1000);
+                    if (isWaitingForFlow() && waitMillis > 0) {
                         MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") now wait for pendingWebResourceStream!");
-                        sessionState.wait(30 * 1000);
+                        sessionState.wait(waitMillis);
+                    }
+                    if (isWaitingForFlow()) {
+                        // the kernel loads the page by itself if the flow runs out of the budget
+                        deadline.checkExhausted(deadline.getCurrentPhase());
                     }
                 } catch (Throwable e) {
                     MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") wait for pendingWebResourceStream failed" + e.getMessage());
@@ -243,7 +247,7 @@ public class StandardMGDSession extends MGDSession implements Handler.Callback {
             String htmlString = newHtml;
             // When serverRsp is empty
             if (TextUtils.isEmpty(htmlString)) {
-                pendingWebResourceStream = server.getResponseStream(wasOnPageFinishInvoked);
+                pendingWebResourceStream = server.getResponseStream(this, wasOnPageFinishInvoked);
                 if (pendingWebResourceStream == null) {
                     MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") handleFlow_TemplateChange error:server.getResponseStream = null!");
                     return;
@@ -343,7 +347,7 @@ public class StandardMGDSession extends MGDSession implements Handler.Callback {
      */
     protected void handleFlow_FirstLoad() {
         synchronized (webResponseLock) {
-            pendingWebResourceStream = server.getResponseStream(wasInterceptInvoked);
+            pendingWebResourceStream = server.getResponseStream(this, wasInterceptInvoked);
         }
 
         if (null == pendingWebResourceStream) {
@@ -507,15 +511,8 @@ public class StandardMGDSession extends MGDSession implements Handler.Callback {
                 }
             }
 
-            if (MGDUtils.saveSessionFiles(id, htmlString, null, serverDataJson.toString(), headers)) {
-                long htmlSize = new File(MGDFileUtils.getMGDHtmlPath(id)).length();
-                MGDUtils.saveMGDData(id, eTag, templateTag, htmlSha1, htmlSize, headers);
-                MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") handleFlow_DataUpdate: finish save session cache, cost " + (System.currentTimeMillis() - startTime) + " ms.");
-
-            } else {
-                MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") handleFlow_DataUpdate: save session files fail.");
-                MGDEngine.getInstance().getRuntime().notifyError(sessionClient, srcUrl, MGDConstants.ERROR_CODE_WRITE_FILE_FAIL);
-            }
+            MGDEngine.getInstance().getWriteBehindQueue().enqueueSessionWrite(id, htmlString, null, serverDataJson.toString(), headers, eTag, templateTag, htmlSha1, sessionClient, srcUrl);
+            MGDUtils.log(TAG, Log.INFO, "session(" + sId + ") handleFlow_DataUpdate: enqueue session cache, cost " + (System.currentTimeMillis() - startTime) + " ms.");
 
         } catch (Throwable e) {
             MGDUtils.log(TAG, Log.ERROR, "session(" + sId + ") handleFlow_DataUpdate error:" + e.getMessage());
@@ -23,6 +23,7 @@ import java.io.File;
 import java.util.List;
 import java.util.Map;
 
+import io.mgdevjo.websdk.MGDAccessStats;
 import io.mgdevjo.websdk.MGDConstants;
 import io.mgdevjo.websdk.MGDEngine;
 import io.mgdevjo.websdk.MGDFileUtils;
@@ -73,6 +74,7 @@ public abstract class MGDDownloadCache {
                 return null;
             }
             String resourceId = MGDUtils.getMD5(resourceUrl);
+            MGDFileUtils.onAccessResourceCache(resourceId);
             MGDResourceDataHelper.ResourceData resourceData = MGDResourceDataHelper.getResourceData(resourceId);
 
             // the resource cache expired
@@ -117,6 +119,8 @@ public abstract class MGDDownloadCache {
                 MGDUtils.removeResourceCache(resourceId);
                 resourceData.reset();
                 MGDUtils.log(TAG, Log.INFO, "get resource data(" + resourceUrl + ") :verify error so remove session cache, cost " + +(System.currentTimeMillis() - startTime) + "ms.");
+            } else {
+                MGDAccessStats.getResourceStats().recordAccess(resourceId, resourceBytes.length);
             }
             return resourceBytes;
         }
@@ -18,6 +18,8 @@ package io.mgdevjo.websdk.download;
 import java.util.List;
 import java.util.Map;
 
+import io.mgdevjo.websdk.MGDResponseFile;
+
 /**
  * download callback.
  */
@@ -39,10 +41,10 @@ public interface MGDDownloadCallback {
     /**
      * notify download success.
      *
-     * @param content downloaded content bytes
+     * @param content downloaded content file, read it by {@link MGDResponseFile#newReader(long)}
      * @param rspHeaders http response headers
      */
-    void onSuccess(byte[] content, Map<String, List<String>> rspHeaders);
+    void onSuccess(MGDResponseFile content, Map<String, List<String>> rspHeaders);
 
     /**
      * notify download failed.
@@ -68,7 +70,7 @@ public interface MGDDownloadCallback {
         public void onProgress(int pro, int total) { }
 
         @Override
-        public void onSuccess(byte[] content, Map<String, List<String>> rspHeaders) { }
+        public void onSuccess(MGDResponseFile content, Map<String, List<String>> rspHeaders) { }
 
         @Override
         public void onError(int errorCode) { }
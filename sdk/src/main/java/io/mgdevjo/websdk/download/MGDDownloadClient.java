@@ -19,7 +19,6 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -32,15 +31,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
 import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
 
 import static io.mgdevjo.websdk.MGDSessionConnection.HTTP_HEAD_FIELD_COOKIE;
 
+import io.mgdevjo.websdk.MGDCancellationToken;
+import io.mgdevjo.websdk.MGDConfig;
 import io.mgdevjo.websdk.MGDConstants;
-import io.mgdevjo.websdk.MGDSessionStream;
+import io.mgdevjo.websdk.MGDEngine;
+import io.mgdevjo.websdk.MGDFileUtils;
+import io.mgdevjo.websdk.MGDResponseFile;
 import io.mgdevjo.websdk.MGDUtils;
 
-public class MGDDownloadClient implements MGDSessionStream.Callback {
+public class MGDDownloadClient {
 
     /**
      * log filter
@@ -82,6 +87,26 @@ public class MGDDownloadClient implements MGDSessionStream.Callback {
          */
         public static final int STATE_LOAD_FROM_CACHE = 4;
 
+        /**
+         * download priority of images.
+         */
+        public static final int PRIORITY_IMAGE = 0;
+
+        /**
+         * download priority of fonts.
+         */
+        public static final int PRIORITY_FONT = 1;
+
+        /**
+         * download priority of render-blocking stylesheets and scripts, and of the links declared by server.
+         */
+        public static final int PRIORITY_CRITICAL = 2;
+
+        /**
+         * download priority of a task the kernel is waiting for.
+         */
+        public static final int PRIORITY_INTERCEPTED = 3;
+
         /**
          * url of the resource to be download
          */
@@ -103,10 +128,25 @@ public class MGDDownloadClient implements MGDSessionStream.Callback {
         public Map<String, List<String>> mRspHeaders;
 
         /**
-         * the network stream or memory stream or the bridge stream
+         * the memory stream of the cached resource
          */
         public InputStream mInputStream;
 
+        /**
+         * the downloaded bytes in a temporary file, the kernel reads them while they arrive, see {@link #newStream(long)}
+         */
+        public final MGDResponseFile mResponseFile = new MGDResponseFile();
+
+        /**
+         * the task which downloads the resource when this task is attached to the download of another session
+         */
+        public DownloadTask mSharedTask;
+
+        /**
+         * the task's download priority, the queued tasks of a higher priority start first
+         */
+        public int mPriority = PRIORITY_CRITICAL;
+
         /**
          * the task's download state
          */
@@ -121,119 +161,260 @@ public class MGDDownloadClient implements MGDSessionStream.Callback {
          * list of download callback
          */
         public List<MGDDownloadCallback> mCallbacks = new ArrayList<MGDDownloadCallback>();
+
+        /**
+         * cancelled when the task is no longer wanted, it closes the connection of the task
+         */
+        public MGDCancellationToken mCancellationToken = new MGDCancellationToken();
+
+        /**
+         * the number of requesters sharing the task, guarded by {@link MGDDownloadScheduler}
+         */
+        int mRequesterCount;
+
+        /**
+         * whether the task preloads a resource before the kernel asks for it, it is retried on network errors
+         */
+        public boolean mIsPreload;
+
+        /**
+         * the number of download attempts, only the download thread of the task accesses it
+         */
+        int mAttemptCount;
+
+        /**
+         * whether the result has been delivered, no callback can be attached after it
+         */
+        private boolean mIsResultDelivered;
+
+        /**
+         * attach a callback to the task unless its result has been delivered.
+         *
+         * @return whether the callback is attached
+         */
+        public synchronized boolean attachCallback(MGDDownloadCallback callback) {
+            if (mIsResultDelivered) {
+                return false;
+            }
+            mCallbacks.add(callback);
+            return true;
+        }
+
+        /**
+         * @param timeoutMillis the longest time a read of the stream waits for new bytes
+         * @return a stream which delivers the bytes as they are downloaded, even if the task is still queued
+         */
+        public InputStream newStream(long timeoutMillis) {
+            return mResponseFile.newReader(timeoutMillis);
+        }
+
+        synchronized List<MGDDownloadCallback> getCallbacks() {
+            return new ArrayList<MGDDownloadCallback>(mCallbacks);
+        }
+
+        /**
+         * @return the callbacks to notify the result, the later callbacks can not be attached.
+         */
+        synchronized List<MGDDownloadCallback> takeCallbacksForResult() {
+            mIsResultDelivered = true;
+            return new ArrayList<MGDDownloadCallback>(mCallbacks);
+        }
     }
 
     /**
      * A download connection implement.
      */
-    private final MGDDownloadConnection mConn;
+    private volatile MGDDownloadConnection mConn;
 
     /**
      * the responding download task
      */
     private DownloadTask mTask;
 
-    private ByteArrayOutputStream mOutputStream;
-
     /**
-     * whether the download task is finished or is a bridge stream
+     * close the connection and fail the streams of the kernel when the task is cancelled
      */
-    private boolean mDownloadFinished = false;
+    private final Runnable mCancelCallback = new Runnable() {
+        @Override
+        public void run() {
+            MGDUtils.log(TAG, Log.INFO, "sub resource download is cancelled (" + mTask.mResourceUrl + ").");
+            mTask.mResponseFile.finish(false);
+            mConn.disconnect();
+        }
+    };
 
     public MGDDownloadClient(DownloadTask task) {
         mTask = task;
-        mConn = new MGDDownloadConnection(task.mResourceUrl);
-        mOutputStream = new ByteArrayOutputStream();
     }
 
     /**
-     * download the resource and notify download progress
+     * download the resource and notify download progress. A partial download left by an earlier
+     * attempt is resumed by a range request, a preload download which fails on a network error is
+     * downloaded again by {@link MGDDownloadScheduler} after a delay.
      *
      * @return response code
      */
     public int download() {
-        onStart();
+        MGDResponseFile responseFile = mTask.mResponseFile;
+        if (0 == mTask.mAttemptCount++) {
+            onStart();
+            restorePartialDownload();
+        }
+
+        if (mTask.mCancellationToken.isCancelled()) {
+            onError(MGDConstants.ERROR_CODE_CONNECT_CANCELLED);
+            return MGDConstants.ERROR_CODE_CONNECT_CANCELLED;
+        }
+        long offset = responseFile.getLength();
+        String validator = responseFile.getValidator();
+        boolean isRangeRequest = offset > 0 && null != validator;
+        mConn = new MGDDownloadConnection(mTask.mResourceUrl);
+        if (isRangeRequest && null != mConn.connectionImpl) {
+            MGDDownloadRange.addRangeHeaders(mConn.connectionImpl, offset, validator);
+        }
+        mTask.mCancellationToken.register(mCancelCallback);
 
         int resultCode = mConn.connect();
+        if (mTask.mCancellationToken.isCancelled()) {
+            resultCode = MGDConstants.ERROR_CODE_CONNECT_CANCELLED;
+        }
 
         if (MGDConstants.ERROR_CODE_SUCCESS != resultCode) {
-            onError(resultCode);
-            return resultCode; // error case
+            return onAttemptFailed(resultCode); // error case
         }
 
         int responseCode = mConn.getResponseCode();
-        if (responseCode != HTTP_OK) {
-            onError(responseCode);
-            return responseCode;
+        try {
+            if (isRangeRequest && HTTP_PARTIAL == responseCode) {
+                long start = MGDDownloadRange.getContentRangeStart(mConn.connectionImpl.getHeaderField("Content-Range"));
+                if (start != offset) {
+                    MGDUtils.log(TAG, Log.ERROR, "download error: range starts at " + start + " instead of " + offset + ", url(" + mTask.mResourceUrl + ").");
+                    responseFile.restart();
+                    return onAttemptFailed(MGDConstants.ERROR_CODE_SERVER_DATA_EXCEPTION);
+                }
+                MGDUtils.log(TAG, Log.INFO, "resume download from " + offset + " bytes, url(" + mTask.mResourceUrl + ").");
+            } else if (HTTP_OK == responseCode) {
+                if (responseFile.getLength() > 0) {
+                    // the resource has changed since the partial download
+                    MGDUtils.log(TAG, Log.INFO, "restart download, url(" + mTask.mResourceUrl + ").");
+                    responseFile.restart();
+                }
+                mTask.mRspHeaders = mConn.getResponseHeaderFields();
+                responseFile.setValidator(MGDDownloadRange.getValidator(mTask.mRspHeaders));
+            } else {
+                return onAttemptFailed(responseCode);
+            }
+        } catch (IOException e) {
+            MGDUtils.log(TAG, Log.ERROR, "download error:" + e.getMessage() + ".");
+            return onAttemptFailed(MGDConstants.ERROR_CODE_CONNECT_IOE);
+        }
+
+        // the kernel waits for the headers of the accepted response, see MGDDownloadEngine#onRequestSubResource
+        mTask.mResponseFile.setHeaders(mTask.mRspHeaders);
+        return readServerResponse();
+    }
+
+    /**
+     * open the partial download which an earlier download of the resource kept, see {@link MGDResponseFile#suspend(String, Map)}.
+     */
+    private void restorePartialDownload() {
+        MGDResponseFile responseFile = mTask.mResponseFile;
+        Map<String, List<String>> headers = responseFile.restorePartial(MGDUtils.getMD5(mTask.mResourceUrl));
+        if (null == headers) {
+            return;
+        }
+        String validator = MGDDownloadRange.getValidator(headers);
+        if (null == validator) {
+            return;
+        }
+        mTask.mRspHeaders = headers;
+        responseFile.setValidator(validator);
+        MGDUtils.log(TAG, Log.INFO, "restore partial download of " + responseFile.getLength() + " bytes, url(" + mTask.mResourceUrl + ").");
+    }
+
+    /**
+     * retry the download later if it fails on a network error, otherwise notify the error. The downloaded
+     * bytes are kept to be resumed by the retry or by the next download of the resource.
+     *
+     * @return the error code
+     */
+    private int onAttemptFailed(int errCode) {
+        MGDConfig config = MGDEngine.getInstance().getConfig();
+        boolean isRetryable = MGDConstants.ERROR_CODE_CONNECT_IOE == errCode || MGDConstants.ERROR_CODE_CONNECT_TOE == errCode
+                || MGDConstants.ERROR_CODE_SERVER_DATA_EXCEPTION == errCode || errCode >= HTTP_INTERNAL_ERROR;
+        if (isRetryable && mTask.mIsPreload && mTask.mAttemptCount <= config.MGD_DOWNLOAD_MAX_RETRY_COUNT
+                && !mTask.mCancellationToken.isCancelled()) {
+            long delayMillis = config.MGD_DOWNLOAD_RETRY_BACKOFF_MILLIS << (mTask.mAttemptCount - 1);
+            MGDUtils.log(TAG, Log.INFO, "download error: code = " + errCode + ", retry in " + delayMillis + " ms, url(" + mTask.mResourceUrl + ").");
+            mTask.mCancellationToken.unregister(mCancelCallback);
+            mConn.disconnect();
+            MGDEngine.getInstance().getDownloadScheduler().retryLater(mTask, delayMillis);
+            return errCode;
         }
 
-        mTask.mRspHeaders = mConn.getResponseHeaderFields();
-        if (getResponseStream(mTask.mWasInterceptInvoked)) {
-            return MGDConstants.ERROR_CODE_SUCCESS;
+        if (isRetryable && !mTask.mCancellationToken.isCancelled()) {
+            mTask.mResponseFile.suspend(MGDUtils.getMD5(mTask.mResourceUrl), mTask.mRspHeaders);
         }
-        return MGDConstants.ERROR_CODE_UNKNOWN;
+        onError(errCode);
+        return errCode;
     }
 
-    private boolean readServerResponse(AtomicBoolean breakCondition) {
+    /**
+     * write the rest of the response into {@link DownloadTask#mResponseFile}, the kernel reads it at the same
+     * time through the streams from {@link DownloadTask#newStream(long)}.
+     *
+     * @return response code
+     */
+    private int readServerResponse() {
         BufferedInputStream bufferedInputStream = mConn.getResponseStream();
         if (null == bufferedInputStream) {
             MGDUtils.log(TAG, Log.ERROR, "readServerResponse error: bufferedInputStream is null!");
-            return false;
+            return onAttemptFailed(MGDConstants.ERROR_CODE_CONNECT_IOE);
         }
 
+        MGDResponseFile responseFile = mTask.mResponseFile;
         try {
+            if (!responseFile.isOpened()) {
+                responseFile.open(MGDUtils.getMD5(mTask.mResourceUrl));
+            }
             byte[] buffer = new byte[READ_BUFFER_SIZE];
 
-            int total = mConn.connectionImpl.getContentLength();
-            int n = 0, sum = 0;
-            while (((breakCondition == null) || !breakCondition.get()) && -1 != (n = bufferedInputStream.read(buffer))) {
-                mOutputStream.write(buffer, 0, n);
+            long offset = responseFile.getLength();
+            int contentLength = mConn.connectionImpl.getContentLength();
+            long total = contentLength >= 0 ? offset + contentLength : -1;
+            int n = 0;
+            long sum = offset;
+            MGDCancellationToken cancellationToken = mTask.mCancellationToken;
+            while (!cancellationToken.isCancelled() && -1 != (n = bufferedInputStream.read(buffer))) {
+                responseFile.write(buffer, 0, n);
                 sum += n;
                 if (total > 0) {
-                    onProgress(sum, total);
+                    onProgress((int) sum, (int) total);
                 }
             }
 
-            if (n == -1) {
-                mDownloadFinished = true;
-                onSuccess(mOutputStream.toByteArray(), mConn.getResponseHeaderFields());
+            if (n != -1) {
+                onError(MGDConstants.ERROR_CODE_CONNECT_CANCELLED);
+                return MGDConstants.ERROR_CODE_CONNECT_CANCELLED;
+            }
+            if (total >= 0 && sum < total) {
+                throw new IOException("connection closed at " + sum + " of " + total + " bytes");
             }
         } catch (Exception e) {
             MGDUtils.log(TAG, Log.ERROR, "readServerResponse error:" + e.getMessage() + ".");
-            return false;
-        }
-
-        return true;
-    }
-
-    private synchronized boolean getResponseStream(AtomicBoolean breakConditions) {
-        if (readServerResponse(breakConditions)) {
-            BufferedInputStream netStream = mDownloadFinished ? null : mConn.getResponseStream();
-            mTask.mInputStream = new MGDSessionStream(this, mOutputStream, netStream);
-            synchronized (mTask.mWasInterceptInvoked) {
-                mTask.mWasInterceptInvoked.notify();
-            }
-            if (mDownloadFinished) {
-                MGDUtils.log(TAG, Log.INFO, "sub resource compose a memory stream (" + mTask.mResourceUrl + ").");
-            } else {
-                MGDUtils.log(TAG, Log.INFO, "sub resource compose a bridge stream (" + mTask.mResourceUrl + ").");
+            if (mTask.mCancellationToken.isCancelled()) {
+                onError(MGDConstants.ERROR_CODE_CONNECT_CANCELLED);
+                return MGDConstants.ERROR_CODE_CONNECT_CANCELLED;
             }
-            return true;
-        } else {
-            return false;
+            return onAttemptFailed(MGDConstants.ERROR_CODE_CONNECT_IOE);
         }
-    }
 
-    @Override
-    public void onClose(boolean readComplete, ByteArrayOutputStream outputStream) {
-        MGDUtils.log(TAG, Log.INFO, "sub resource bridge stream on close(" + mTask.mResourceUrl + ").");
-        if (!mDownloadFinished) {
-            onSuccess(outputStream.toByteArray(), mConn.getResponseHeaderFields());
-        }
+        onSuccess(responseFile, mTask.mRspHeaders);
+        return MGDConstants.ERROR_CODE_SUCCESS;
     }
 
     private void onStart() {
-        for (MGDDownloadCallback callback : mTask.mCallbacks) {
+        for (MGDDownloadCallback callback : mTask.getCallbacks()) {
             if (callback != null) {
                 callback.onStart();
             }
@@ -241,33 +422,46 @@ public class MGDDownloadClient implements MGDSessionStream.Callback {
     }
 
     private void onProgress(int pro, int total) {
-        for (MGDDownloadCallback callback : mTask.mCallbacks) {
+        for (MGDDownloadCallback callback : mTask.getCallbacks()) {
             if (callback != null) {
                 callback.onProgress(pro, total);
             }
         }
     }
 
-    private void onSuccess(byte[] content, Map<String, List<String>> rspHeaders) {
-        for (MGDDownloadCallback callback : mTask.mCallbacks) {
+    private void onSuccess(MGDResponseFile content, Map<String, List<String>> rspHeaders) {
+        content.finish(true);
+        if (content.isFailed()) {
+            onError(MGDConstants.ERROR_CODE_CONNECT_IOE);
+            return;
+        }
+        List<MGDDownloadCallback> callbacks = mTask.takeCallbacksForResult();
+        for (MGDDownloadCallback callback : callbacks) {
             if (callback != null) {
                 callback.onSuccess(content, rspHeaders);
             }
         }
-        onFinish();
+        // nobody saves the download into the cache
+        if (content.claim()) {
+            content.discard();
+        }
+        onFinish(callbacks);
     }
 
     private void onError(int errCode) {
-        for (MGDDownloadCallback callback : mTask.mCallbacks) {
+        mTask.mResponseFile.finish(false);
+        List<MGDDownloadCallback> callbacks = mTask.takeCallbacksForResult();
+        for (MGDDownloadCallback callback : callbacks) {
             if (callback != null) {
                 callback.onError(errCode);
             }
         }
-        onFinish();
+        onFinish(callbacks);
     }
 
-    private void onFinish() {
-        for (MGDDownloadCallback callback : mTask.mCallbacks) {
+    private void onFinish(List<MGDDownloadCallback> callbacks) {
+        mTask.mCancellationToken.unregister(mCancelCallback);
+        for (MGDDownloadCallback callback : callbacks) {
             if (callback != null) {
                 callback.onFinish();
             }
@@ -416,13 +610,13 @@ public class MGDDownloadClient implements MGDSessionStream.Callback {
         }
 
         @Override
-        public void onSuccess(byte[] content, Map<String, List<String>> rspHeaders) {
-            // save cache files
+        public void onSuccess(MGDResponseFile content, Map<String, List<String>> rspHeaders) {
+            // move the downloaded file into the cache and save resource data in the background
             String fileName = MGDUtils.getMD5(resourceUrl);
-            MGDUtils.saveResourceFiles(fileName, content, rspHeaders);
-            // save resource data to db
-            MGDUtils.saveMGDResourceData(resourceUrl, MGDUtils.getSHA1(content), content.length);
-
+            if (!MGDFileUtils.shouldAdmitResourceCache(fileName, content.getLength())) {
+                return;
+            }
+            MGDEngine.getInstance().getWriteBehindQueue().enqueueResourceWrite(resourceUrl, content, rspHeaders);
         }
 
         @Override
@@ -15,14 +15,13 @@
 
 package io.mgdevjo.websdk.download;
 
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Message;
 import android.text.TextUtils;
 import android.util.Log;
 
+import io.mgdevjo.websdk.MGDCancellationToken;
 import io.mgdevjo.websdk.MGDConstants;
 import io.mgdevjo.websdk.MGDEngine;
+import io.mgdevjo.websdk.MGDResponseFile;
 import io.mgdevjo.websdk.MGDRuntime;
 import io.mgdevjo.websdk.MGDSession;
 import io.mgdevjo.websdk.MGDUtils;
@@ -30,119 +29,67 @@ import io.mgdevjo.websdk.download.MGDDownloadClient.DownloadTask;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * an download initiator
+ * an download initiator of a session, the downloads run on the engine-wide {@link MGDDownloadScheduler}.
  */
-public class MGDDownloadEngine implements Handler.Callback {
+public class MGDDownloadEngine {
     /**
      * log filter
      */
     public static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDDownloadEngine";
 
     /**
-     * message code enqueue:
-     * when downloading tasks more than config number, the task should enqueue for waiting.
+     * the longest time a read of a progressive stream waits for new bytes, it covers the time in the queue
      */
-    private static final int MSG_ENQUEUE = 0;
+    private static final long STREAM_READ_TIMEOUT_MILLIS = 30 * 1000;
 
     /**
-     * message code: one download task is complete and the download queue is free.
+     * the longest time the kernel waits for the response headers of a queued or connecting download,
+     * capped by the session deadline
      */
-    private static final int MSG_DEQUEUE = 1;
+    private static final long HEADER_WAIT_MILLIS = 5 * 1000;
 
     private ConcurrentMap<String, DownloadTask> resourceTasks = new ConcurrentHashMap<String, DownloadTask>();
 
-
-    /**
-     * A queue implementation using {@link LinkedHashMap}.
-     * A queue with map function.
-     */
-    private static class MGDDownloadQueue
-            extends LinkedHashMap<String, DownloadTask> {
-
-        synchronized DownloadTask dequeue() {
-            if (values().iterator().hasNext()) {
-                DownloadTask task = values().iterator().next();
-                return remove(task.mResourceUrl);
-            }
-            return null;
-        }
-
-        synchronized void enqueue(DownloadTask task) {
-            if (task != null && !TextUtils.isEmpty(task.mResourceUrl)) {
-                put(task.mResourceUrl, task);
-            }
-        }
-    }
-
     /**
-     * the download task queue.
-     */
-    private final MGDDownloadQueue mQueue;
-
-    /**
-     * download thread handler.
+     * A download cache.
      */
-    private Handler mHandler;
+    private MGDDownloadCache mCache;
 
     /**
-     * number of downloading tasks.
+     * the parent token of the requests of this engine, the scheduler cancels a download when all
+     * of its requesters are cancelled.
      */
-    private AtomicInteger mNumOfDownloadingTask;
+    private final MGDCancellationToken mCancellationToken;
 
     /**
-     * A download cache.
+     *
+     * @param cache A specific implementation of {@link MGDDownloadCache}
      */
-    private MGDDownloadCache mCache;
+    public MGDDownloadEngine(MGDDownloadCache cache) {
+        this(cache, new MGDCancellationToken());
+    }
 
     /**
      *
      * @param cache A specific implementation of {@link MGDDownloadCache}
+     * @param cancellationToken The token of the owner, such as a session. When it is cancelled the
+     *                          requests of this engine are released.
      */
-    public MGDDownloadEngine(MGDDownloadCache cache) {
-        mQueue = new MGDDownloadQueue();
-        HandlerThread queueThread = new HandlerThread("Download-Thread");
-        queueThread.start();
-        mHandler = new Handler(queueThread.getLooper(), this);
-
-        mNumOfDownloadingTask = new AtomicInteger(0);
+    public MGDDownloadEngine(MGDDownloadCache cache, MGDCancellationToken cancellationToken) {
         mCache = cache;
-    }
-
-    @Override
-    public boolean handleMessage(Message msg) {
-        switch (msg.what) {
-            case MSG_ENQUEUE: {
-                DownloadTask task = (DownloadTask) msg.obj;
-                mQueue.enqueue(task);
-                task.mState.set(DownloadTask.STATE_QUEUEING);
-                MGDUtils.log(TAG, Log.INFO, "enqueue sub resource(" + task.mResourceUrl + ").");
-                break;
-            }
-            case MSG_DEQUEUE: {
-                if (!mQueue.isEmpty()) {
-                    DownloadTask task = mQueue.dequeue();
-                    startDownload(task);
-                    MGDUtils.log(TAG, Log.INFO, "dequeue sub resource(" + task.mResourceUrl + ").");
-                }
-                break;
-            }
-            default:
-                break;
-        }
-        return false;
+        mCancellationToken = cancellationToken;
     }
 
     /**
      * start downloading one resource.
      * if the responding cache exists and isn't expire, will use the cache directly and won't launch a http request;
+     * if another session is downloading the same url, the request is attached to that download;
      * if the number of downloading tasks is bigger than config, the task will be delayed before downloading pool is free.
      *
      * @param resourceUrl the resource's url
@@ -152,27 +99,30 @@ public class MGDDownloadEngine implements Handler.Callback {
      * @return the download task info
      */
     public DownloadTask download(String resourceUrl, String ipAddress, String cookie, MGDDownloadCallback callback) {
-        if (TextUtils.isEmpty(resourceUrl)) {
-            return null;
-        }
+        return download(resourceUrl, ipAddress, cookie, DownloadTask.PRIORITY_CRITICAL, callback);
+    }
 
-        synchronized (mQueue) {
-            if (mQueue.containsKey(resourceUrl)) {
-                MGDUtils.log(TAG, Log.INFO, "sub resource download task has been in queue (" + resourceUrl + ").");
-                return mQueue.get(resourceUrl);
-            }
+    /**
+     * start downloading one resource with a priority, see {@link #download(String, String, String, MGDDownloadCallback)}.
+     *
+     * @param priority the priority in the download queue, such as {@link DownloadTask#PRIORITY_CRITICAL}
+     */
+    public DownloadTask download(String resourceUrl, String ipAddress, String cookie, int priority, MGDDownloadCallback callback) {
+        return download(resourceUrl, ipAddress, cookie, priority, false, callback);
+    }
+
+    /**
+     * @param isPreload whether the resource is preloaded, a preload download is retried on network errors
+     */
+    private DownloadTask download(String resourceUrl, String ipAddress, String cookie, int priority, boolean isPreload, MGDDownloadCallback callback) {
+        if (TextUtils.isEmpty(resourceUrl) || mCancellationToken.isCancelled()) {
+            return null;
         }
 
         final DownloadTask task = new DownloadTask();
         task.mResourceUrl = resourceUrl;
-        task.mCallbacks.add(callback);
-        task.mCallbacks.add(new MGDDownloadCallback.SimpleDownloadCallback() {
-            @Override
-            public void onFinish() {
-                task.mState.set(DownloadTask.STATE_DOWNLOADED);
-                mHandler.sendEmptyMessage(MSG_DEQUEUE);
-            }
-        });
+        task.mPriority = priority;
+        task.mIsPreload = isPreload;
 
         // query cache
         byte[] resourceBytes = mCache.getResourceCache(resourceUrl);
@@ -185,32 +135,99 @@ public class MGDDownloadEngine implements Handler.Callback {
         }
 
         // no cache then start download
+        final MGDCancellationToken requesterToken = mCancellationToken.newChild();
         task.mIpAddress = ipAddress;
         task.mCookie = cookie;
-        if (mNumOfDownloadingTask.get() < MGDEngine.getInstance().getConfig().MGD_MAX_NUM_OF_DOWNLOADING_TASK) {
-            startDownload(task);
-        } else {
-            Message enqueueMsg = mHandler.obtainMessage(MSG_ENQUEUE, task);
-            mHandler.sendMessage(enqueueMsg);
+        task.mCallbacks.add(callback);
+        task.mCallbacks.add(new MGDDownloadCallback.SimpleDownloadCallback() {
+            @Override
+            public void onFinish() {
+                task.mState.set(DownloadTask.STATE_DOWNLOADED);
+                requesterToken.detach();
+            }
+        });
+
+        // the task this engine sees when the request is attached to the download of another session
+        final DownloadTask attachedTask = new DownloadTask();
+        attachedTask.mResourceUrl = resourceUrl;
+        MGDDownloadCallback attachedCallback = new AttachedDownloadCallback(attachedTask, callback, requesterToken);
+
+        final MGDDownloadScheduler scheduler = MGDEngine.getInstance().getDownloadScheduler();
+        final DownloadTask activeTask = scheduler.schedule(task, attachedCallback);
+        if (null == activeTask) {
+            MGDUtils.log(TAG, Log.INFO, "sub resource(" + resourceUrl + ") is just downloaded by another session, skip it.");
+            requesterToken.detach();
+            return null;
+        }
+        requesterToken.register(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.release(activeTask);
+            }
+        });
+        if (activeTask == task) {
+            return task;
         }
-        return task;
+        attachedTask.mSharedTask = activeTask;
+        attachedTask.mState.compareAndSet(DownloadTask.STATE_INITIATE, activeTask.mState.get());
+        return attachedTask;
     }
 
     /**
-     * dispatch the download task to really download.
-     *
-     * @param task download task
+     * Keep the task of an attached request in step with the shared download.
      */
-    private void startDownload(final DownloadTask task) {
-        MGDEngine.getInstance().getRuntime().postTaskToSessionThread(new Runnable() {
-            @Override
-            public void run() {
-                mNumOfDownloadingTask.incrementAndGet();
-                task.mState.set(DownloadTask.STATE_DOWNLOADING);
-                MGDDownloadClient engine = new MGDDownloadClient(task);
-                engine.download();
+    private static class AttachedDownloadCallback implements MGDDownloadCallback {
+
+        private final DownloadTask attachedTask;
+
+        private final MGDDownloadCallback callback;
+
+        private final MGDCancellationToken requesterToken;
+
+        AttachedDownloadCallback(DownloadTask attachedTask, MGDDownloadCallback callback, MGDCancellationToken requesterToken) {
+            this.attachedTask = attachedTask;
+            this.callback = callback;
+            this.requesterToken = requesterToken;
+        }
+
+        @Override
+        public void onStart() {
+            attachedTask.mState.set(DownloadTask.STATE_DOWNLOADING);
+            if (callback != null) {
+                callback.onStart();
             }
-        });
+        }
+
+        @Override
+        public void onProgress(int pro, int total) {
+            if (callback != null) {
+                callback.onProgress(pro, total);
+            }
+        }
+
+        @Override
+        public void onSuccess(MGDResponseFile content, Map<String, List<String>> rspHeaders) {
+            attachedTask.mRspHeaders = rspHeaders;
+            if (callback != null) {
+                callback.onSuccess(content, rspHeaders);
+            }
+        }
+
+        @Override
+        public void onError(int errorCode) {
+            if (callback != null) {
+                callback.onError(errorCode);
+            }
+        }
+
+        @Override
+        public void onFinish() {
+            attachedTask.mState.set(DownloadTask.STATE_DOWNLOADED);
+            if (callback != null) {
+                callback.onFinish();
+            }
+            requesterToken.detach();
+        }
     }
 
     /**
@@ -225,31 +242,36 @@ public class MGDDownloadEngine implements Handler.Callback {
             MGDUtils.log(TAG, Log.INFO, "session onRequestSubResource: resource url(" + url + ").");
         }
 
-        InputStream inputStream = null;
-        Map<String, List<String>> headers = null;
-        if (resourceTasks.containsKey(url)) {
-            DownloadTask subRes = resourceTasks.get(url);
-            subRes.mWasInterceptInvoked.set(true);
-            if (subRes.mState.get() == DownloadTask.STATE_INITIATE
-                    || subRes.mState.get() == DownloadTask.STATE_QUEUEING) {
+        DownloadTask subRes = resourceTasks.get(url);
+        if (null == subRes) {
+            return null;
+        }
+        subRes.mWasInterceptInvoked.set(true);
+
+        InputStream inputStream;
+        Map<String, List<String>> headers;
+        if (DownloadTask.STATE_LOAD_FROM_CACHE == subRes.mState.get()) {
+            inputStream = subRes.mInputStream;
+            headers = subRes.mRspHeaders;
+        } else {
+            // the stream delivers the bytes as the running download gets them, only the headers are waited for
+            DownloadTask downloadTask = null != subRes.mSharedTask ? subRes.mSharedTask : subRes;
+            if (downloadTask.mResponseFile.isFailed()) {
+                return null; // the kernel loads it by itself
+            }
+            MGDEngine.getInstance().getDownloadScheduler().promote(downloadTask);
+            headers = downloadTask.mResponseFile.awaitHeaders(session.getDeadline().remaining(HEADER_WAIT_MILLIS));
+            if (null == headers) {
+                // the download is not connected in time, the kernel loads it by itself and the download goes on for the cache
+                MGDUtils.log(TAG, Log.INFO, "session onRequestSubResource: no response headers, state=" + downloadTask.mState.get() + ", url(" + url + ").");
                 return null;
-            } else {
-                if (subRes.mInputStream == null) {
-                    synchronized (subRes.mWasInterceptInvoked) {
-                        try {
-                            subRes.mWasInterceptInvoked.wait(3 * 1000);
-                        } catch (InterruptedException e) {
-                            MGDUtils.log(TAG, Log.ERROR, "session onRequestSubResource error: " + e.getMessage());
-                        }
-                    }
-                }
-                if (subRes.mInputStream == null) {
-                    return null;
-                }
-                inputStream = subRes.mInputStream;
-                headers = subRes.mRspHeaders;
             }
-        } else {
+            inputStream = downloadTask.newStream(STREAM_READ_TIMEOUT_MILLIS);
+            if (MGDUtils.shouldLog(Log.INFO)) {
+                MGDUtils.log(TAG, Log.INFO, "session onRequestSubResource: progressive stream, state=" + downloadTask.mState.get() + ", url(" + url + ").");
+            }
+        }
+        if (null == inputStream) {
             return null;
         }
 
@@ -271,18 +293,35 @@ public class MGDDownloadEngine implements Handler.Callback {
      * @param preloadLinks The links which need to be preloaded.
      */
     public void addSubResourcePreloadTask(List<String> preloadLinks) {
+        for (final String link : preloadLinks) {
+            addSubResourcePreloadTask(link, DownloadTask.PRIORITY_CRITICAL);
+        }
+    }
 
+    /**
+     * prefetch the sub resources found in the html by {@link MGDSubResourceScanner}, in their priority order.
+     * @param resources The sub resources which need to be preloaded.
+     */
+    public void addSubResourcePrefetchTask(List<MGDSubResourceScanner.SubResource> resources) {
+        for (MGDSubResourceScanner.SubResource resource : resources) {
+            addSubResourcePreloadTask(resource.url, resource.priority);
+        }
+    }
+
+    private void addSubResourcePreloadTask(String link, int priority) {
+        if (mCancellationToken.isCancelled() || resourceTasks.containsKey(link)) {
+            return;
+        }
         MGDRuntime runtime = MGDEngine.getInstance().getRuntime();
-        for (final String link : preloadLinks) {
-            if (!resourceTasks.containsKey(link)) {
-                resourceTasks.put(link,
-                        download(link,
-                                runtime.getHostDirectAddress(link),
-                                runtime.getCookie(link),
-                                new MGDDownloadClient.SubResourceDownloadCallback(link)
-                        )
-                );
-            }
+        DownloadTask task = download(link,
+                runtime.getHostDirectAddress(link),
+                runtime.getCookie(link),
+                priority,
+                true,
+                new MGDDownloadClient.SubResourceDownloadCallback(link)
+        );
+        if (null != task) {
+            resourceTasks.put(link, task);
         }
     }
 }
@@ -0,0 +1,93 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk.download;
+
+import java.net.URLConnection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers of resuming a partial download with a {@code Range} request. A download can be resumed
+ * only if its response has a validator for {@code If-Range}, a strong {@code ETag} or else
+ * {@code Last-Modified}, and no {@code Content-Encoding}: the downloaded bytes are decoded, the
+ * offsets of an encoded response would not match them.
+ */
+public class MGDDownloadRange {
+
+    /**
+     * @param headers the headers of a full response
+     * @return the validator to send in {@code If-Range}, or null if the response can not be resumed
+     */
+    public static String getValidator(Map<String, List<String>> headers) {
+        String contentEncoding = getHeader(headers, "Content-Encoding");
+        if (null != contentEncoding && !"identity".equalsIgnoreCase(contentEncoding)) {
+            return null;
+        }
+        if ("none".equalsIgnoreCase(getHeader(headers, "Accept-Ranges"))) {
+            return null;
+        }
+        String eTag = getHeader(headers, "ETag");
+        if (null != eTag && !eTag.startsWith("W/")) {
+            return eTag;
+        }
+        return getHeader(headers, "Last-Modified");
+    }
+
+    /**
+     * Ask for the rest of a partial download, the whole resource is sent if it has changed.
+     *
+     * @param connection the connection which is not connected yet
+     * @param offset     the downloaded bytes
+     * @param validator  the validator of the downloaded bytes, see {@link #getValidator(Map)}
+     */
+    public static void addRangeHeaders(URLConnection connection, long offset, String validator) {
+        connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        connection.setRequestProperty("If-Range", validator);
+        // the offset is of the decoded bytes
+        connection.setRequestProperty("Accept-Encoding", "identity");
+    }
+
+    /**
+     * @param contentRange the {@code Content-Range} header of a 206 response, such as "bytes 100-199/200"
+     * @return the first byte position of the response, or -1 if the header is invalid
+     */
+    public static long getContentRangeStart(String contentRange) {
+        if (null == contentRange || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int end = contentRange.indexOf('-');
+        if (end < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), end).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        if (null == headers) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey()) && null != entry.getValue() && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+}
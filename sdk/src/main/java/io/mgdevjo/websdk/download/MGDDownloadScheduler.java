@@ -0,0 +1,288 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk.download;
+
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import io.mgdevjo.websdk.MGDConstants;
+import io.mgdevjo.websdk.MGDRuntime;
+import io.mgdevjo.websdk.MGDSessionThreadPool;
+import io.mgdevjo.websdk.MGDUtils;
+import io.mgdevjo.websdk.download.MGDDownloadClient.DownloadTask;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * The engine-wide scheduler of sub resource downloads, it is shared by the {@link MGDDownloadEngine}
+ * of all sessions. It runs at most {@code maxTasks} downloads at the same time and at most
+ * {@code maxTasksPerHost} of them against one host, the others wait in a queue ordered by
+ * {@link DownloadTask#mPriority} and then by arrival. A url requested
+ * by several sessions is downloaded once: later requesters attach to the queued or running task,
+ * and the task is cancelled only when all of its requesters are released.
+ */
+public class MGDDownloadScheduler {
+
+    /**
+     * log filter
+     */
+    public static final String TAG = MGDConstants.MGDWEB_SDK_LOG_PREFIX + "MGDDownloadScheduler";
+
+    /**
+     * the delay to dispatch again when the session thread pool rejects a download
+     */
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private final MGDRuntime runtime;
+
+    private final int maxTasks;
+
+    private final int maxTasksPerHost;
+
+    /**
+     * the queued and running tasks by url
+     */
+    private final HashMap<String, DownloadTask> activeTasks = new HashMap<String, DownloadTask>();
+
+    private final LinkedList<DownloadTask> queue = new LinkedList<DownloadTask>();
+
+    /**
+     * the number of running tasks by host
+     */
+    private final HashMap<String, Integer> hostCounts = new HashMap<String, Integer>();
+
+    private int runningCount;
+
+    private final Runnable dispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    public MGDDownloadScheduler(MGDRuntime runtime, int maxTasks, int maxTasksPerHost) {
+        this.runtime = runtime;
+        this.maxTasks = Math.max(1, maxTasks);
+        this.maxTasksPerHost = Math.max(1, maxTasksPerHost);
+    }
+
+    /**
+     * Schedule the download of {@code task}, or attach {@code callback} to the active task of the
+     * same url. Each successful call must be paired with {@link #release(DownloadTask)}.
+     *
+     * @param task     a new task, its callbacks are notified if it is scheduled
+     * @param callback the callback to attach if another task of the same url is active
+     * @return the task which downloads the url, {@code task} itself or the active task, or null if
+     * the active task has delivered its result and {@code callback} can not be attached any more.
+     */
+    public DownloadTask schedule(final DownloadTask task, MGDDownloadCallback callback) {
+        synchronized (this) {
+            DownloadTask activeTask = activeTasks.get(task.mResourceUrl);
+            if (null != activeTask && !activeTask.mCancellationToken.isCancelled()) {
+                if (!activeTask.attachCallback(callback)) {
+                    return null;
+                }
+                activeTask.mRequesterCount++;
+                if (task.mPriority > activeTask.mPriority && queue.remove(activeTask)) {
+                    // the queued task goes up to the priority of the new requester
+                    activeTask.mPriority = task.mPriority;
+                    enqueue(activeTask, false);
+                }
+                MGDUtils.log(TAG, Log.INFO, "attach to the active download(" + task.mResourceUrl + "), requesters=" + activeTask.mRequesterCount + ".");
+                return activeTask;
+            }
+
+            task.mRequesterCount = 1;
+            task.mCallbacks.add(new MGDDownloadCallback.SimpleDownloadCallback() {
+                @Override
+                public void onFinish() {
+                    onTaskFinished(task);
+                }
+            });
+            task.mState.set(DownloadTask.STATE_QUEUEING);
+            activeTasks.put(task.mResourceUrl, task);
+            enqueue(task, false);
+        }
+        dispatch();
+        return task;
+    }
+
+    /**
+     * A requester of the task does not need it any more, the task is cancelled when it has no requester.
+     */
+    public void release(DownloadTask task) {
+        synchronized (this) {
+            if (task.mRequesterCount <= 0 || --task.mRequesterCount > 0) {
+                return;
+            }
+            if (queue.remove(task)) {
+                activeTasks.remove(task.mResourceUrl);
+            }
+        }
+        if (!task.mCancellationToken.isCancelled() && DownloadTask.STATE_DOWNLOADED != task.mState.get()) {
+            MGDUtils.log(TAG, Log.INFO, "cancel the download without requester(" + task.mResourceUrl + ").");
+        }
+        task.mCancellationToken.cancel();
+        // a task cancelled in the queue never runs, its streams fail now
+        task.mResponseFile.finish(false);
+    }
+
+    /**
+     * The running task failed on a network error and it is downloaded again after a delay, its
+     * requesters keep waiting for it. Other tasks may run in the meantime.
+     */
+    void retryLater(final DownloadTask task, long delayMillis) {
+        synchronized (this) {
+            decreaseRunningCount(task);
+        }
+        task.mState.set(DownloadTask.STATE_QUEUEING);
+        runtime.postTaskToThread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (MGDDownloadScheduler.this) {
+                    if (activeTasks.get(task.mResourceUrl) != task) {
+                        return;
+                    }
+                    if (task.mCancellationToken.isCancelled()) {
+                        activeTasks.remove(task.mResourceUrl);
+                        return;
+                    }
+                    enqueue(task, true);
+                }
+                dispatch();
+            }
+        }, delayMillis);
+        dispatch();
+    }
+
+    /**
+     * The kernel is waiting for the task, move it to the head of the queue if it is queued.
+     */
+    public void promote(DownloadTask task) {
+        synchronized (this) {
+            if (!queue.remove(task)) {
+                return;
+            }
+            task.mPriority = DownloadTask.PRIORITY_INTERCEPTED;
+            enqueue(task, true);
+        }
+        MGDUtils.log(TAG, Log.INFO, "promote the queued download(" + task.mResourceUrl + ").");
+        dispatch();
+    }
+
+    /**
+     * @return the number of running downloads
+     */
+    public synchronized int getRunningCount() {
+        return runningCount;
+    }
+
+    /**
+     * @return the number of queued downloads
+     */
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    private void dispatch() {
+        List<DownloadTask> readyTasks = new ArrayList<DownloadTask>();
+        synchronized (this) {
+            Iterator<DownloadTask> iterator = queue.iterator();
+            while (runningCount < maxTasks && iterator.hasNext()) {
+                DownloadTask task = iterator.next();
+                String host = getHost(task.mResourceUrl);
+                Integer hostCount = hostCounts.get(host);
+                if (null != hostCount && hostCount >= maxTasksPerHost) {
+                    continue;
+                }
+                iterator.remove();
+                hostCounts.put(host, null == hostCount ? 1 : hostCount + 1);
+                runningCount++;
+                readyTasks.add(task);
+            }
+        }
+
+        for (final DownloadTask task : readyTasks) {
+            boolean isPosted = runtime.postTaskToSessionThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (task.mCancellationToken.isCancelled()) {
+                        onTaskFinished(task);
+                        return;
+                    }
+                    task.mState.set(DownloadTask.STATE_DOWNLOADING);
+                    new MGDDownloadClient(task).download();
+                }
+            }, MGDSessionThreadPool.PRIORITY_SUB_RESOURCE);
+            if (!isPosted) {
+                // wait at the head of the queue and try again later
+                synchronized (this) {
+                    decreaseRunningCount(task);
+                    enqueue(task, true);
+                }
+                runtime.postTaskToThread(dispatchTask, RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Insert the task after the tasks of a higher priority, and after the tasks of the same priority
+     * unless {@code first} is true.
+     */
+    private void enqueue(DownloadTask task, boolean first) {
+        ListIterator<DownloadTask> iterator = queue.listIterator();
+        while (iterator.hasNext()) {
+            DownloadTask queuedTask = iterator.next();
+            if (queuedTask.mPriority < task.mPriority || (first && queuedTask.mPriority == task.mPriority)) {
+                iterator.previous();
+                break;
+            }
+        }
+        iterator.add(task);
+    }
+
+    private void onTaskFinished(DownloadTask task) {
+        synchronized (this) {
+            if (activeTasks.get(task.mResourceUrl) == task) {
+                activeTasks.remove(task.mResourceUrl);
+            }
+            decreaseRunningCount(task);
+        }
+        dispatch();
+    }
+
+    private void decreaseRunningCount(DownloadTask task) {
+        runningCount--;
+        String host = getHost(task.mResourceUrl);
+        Integer hostCount = hostCounts.get(host);
+        if (null == hostCount || hostCount <= 1) {
+            hostCounts.remove(host);
+        } else {
+            hostCounts.put(host, hostCount - 1);
+        }
+    }
+
+    private static String getHost(String url) {
+        String host = Uri.parse(url).getHost();
+        return TextUtils.isEmpty(host) ? "" : host;
+    }
+}
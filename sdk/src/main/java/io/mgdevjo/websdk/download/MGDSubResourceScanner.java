@@ -0,0 +1,210 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk.download;
+
+import io.mgdevjo.websdk.download.MGDDownloadClient.DownloadTask;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the sub resources an html page needs to render: render-blocking stylesheets, synchronous
+ * scripts, preload links and the first images of the page, which are likely above the fold. It is
+ * a light scan over the tags rather than a full html parser, so it may miss resources but never
+ * blocks on a malformed page.
+ */
+public class MGDSubResourceScanner {
+
+    /**
+     * the max number of sub resources found in a page
+     */
+    static final int MAX_RESOURCE_COUNT = 20;
+
+    /**
+     * the max number of images found in a page, the first images are taken as above the fold
+     */
+    static final int MAX_IMAGE_COUNT = 4;
+
+    private static final Pattern COMMENT_PATTERN = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+
+    private static final Pattern TAG_PATTERN = Pattern.compile("<(link|script|img)\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern ATTRIBUTE_PATTERN = Pattern.compile(
+            "([a-zA-Z_:][-a-zA-Z0-9_:.]*)\\s*(?:=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+)))?");
+
+    /**
+     * A sub resource and its download priority, see {@link DownloadTask#PRIORITY_CRITICAL}.
+     */
+    public static class SubResource {
+
+        public final String url;
+
+        public final int priority;
+
+        SubResource(String url, int priority) {
+            this.url = url;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * @param html    the html of the page
+     * @param pageUrl the url of the page, relative urls are resolved against it
+     * @return the sub resources in priority order: stylesheets and synchronous scripts, fonts, images.
+     */
+    public static List<SubResource> scan(String html, String pageUrl) {
+        List<SubResource> resources = new ArrayList<SubResource>();
+        if (null == html || null == pageUrl) {
+            return resources;
+        }
+        URL baseUrl;
+        try {
+            baseUrl = new URL(pageUrl);
+        } catch (MalformedURLException e) {
+            return resources;
+        }
+
+        LinkedHashMap<String, Integer> found = new LinkedHashMap<String, Integer>();
+        int imageCount = 0;
+        Matcher matcher = TAG_PATTERN.matcher(COMMENT_PATTERN.matcher(html).replaceAll(""));
+        while (matcher.find() && found.size() < MAX_RESOURCE_COUNT) {
+            String tag = matcher.group(1).toLowerCase(Locale.US);
+            Map<String, String> attributes = parseAttributes(matcher.group(2));
+            String src;
+            int priority;
+            if ("link".equals(tag)) {
+                src = attributes.get("href");
+                priority = getLinkPriority(attributes);
+            } else if ("script".equals(tag)) {
+                src = attributes.get("src");
+                boolean isDeferred = attributes.containsKey("async") || attributes.containsKey("defer")
+                        || "module".equalsIgnoreCase(attributes.get("type"));
+                priority = isDeferred ? -1 : DownloadTask.PRIORITY_CRITICAL;
+            } else {
+                src = attributes.get("src");
+                priority = imageCount < MAX_IMAGE_COUNT && !"lazy".equalsIgnoreCase(attributes.get("loading"))
+                        ? DownloadTask.PRIORITY_IMAGE : -1;
+                imageCount++;
+            }
+
+            String url = resolve(baseUrl, src);
+            if (priority < 0 || null == url) {
+                continue;
+            }
+            Integer foundPriority = found.get(url);
+            if (null == foundPriority || foundPriority < priority) {
+                found.put(url, priority);
+            }
+        }
+
+        for (Map.Entry<String, Integer> entry : found.entrySet()) {
+            resources.add(new SubResource(entry.getKey(), entry.getValue()));
+        }
+        // the sort is stable, resources of the same priority keep the document order
+        Collections.sort(resources, new Comparator<SubResource>() {
+            @Override
+            public int compare(SubResource lhs, SubResource rhs) {
+                return rhs.priority - lhs.priority;
+            }
+        });
+        return resources;
+    }
+
+    /**
+     * @return the priority of a link tag, -1 if it does not block rendering.
+     */
+    private static int getLinkPriority(Map<String, String> attributes) {
+        String rel = attributes.get("rel");
+        if (null == rel) {
+            return -1;
+        }
+        List<String> relTokens = new ArrayList<String>();
+        for (String token : rel.toLowerCase(Locale.US).trim().split("\\s+")) {
+            relTokens.add(token);
+        }
+        if (relTokens.contains("stylesheet")) {
+            String media = attributes.get("media");
+            boolean isPrintOnly = null != media && "print".equalsIgnoreCase(media.trim());
+            return relTokens.contains("alternate") || isPrintOnly ? -1 : DownloadTask.PRIORITY_CRITICAL;
+        }
+        if (relTokens.contains("modulepreload")) {
+            return DownloadTask.PRIORITY_CRITICAL;
+        }
+        if (relTokens.contains("preload")) {
+            String as = attributes.get("as");
+            as = null == as ? "" : as.toLowerCase(Locale.US);
+            if ("style".equals(as) || "script".equals(as)) {
+                return DownloadTask.PRIORITY_CRITICAL;
+            } else if ("font".equals(as)) {
+                return DownloadTask.PRIORITY_FONT;
+            } else if ("image".equals(as)) {
+                return DownloadTask.PRIORITY_IMAGE;
+            }
+        }
+        return -1;
+    }
+
+    private static Map<String, String> parseAttributes(String attributeString) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        Matcher matcher = ATTRIBUTE_PATTERN.matcher(attributeString);
+        while (matcher.find()) {
+            String value = matcher.group(2);
+            if (null == value) {
+                value = null != matcher.group(3) ? matcher.group(3) : matcher.group(4);
+            }
+            String name = matcher.group(1).toLowerCase(Locale.US);
+            if (!attributes.containsKey(name)) {
+                attributes.put(name, null == value ? "" : value);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * @return the absolute http(s) url without fragment, or null if {@code src} is not a downloadable url.
+     */
+    private static String resolve(URL baseUrl, String src) {
+        if (null == src) {
+            return null;
+        }
+        src = src.trim().replace("&amp;", "&");
+        if (src.isEmpty() || src.startsWith("data:") || src.startsWith("#")) {
+            return null;
+        }
+        try {
+            URL url = new URL(baseUrl, src);
+            String protocol = url.getProtocol();
+            if (!"http".equals(protocol) && !"https".equals(protocol)) {
+                return null;
+            }
+            String result = url.toString();
+            int fragmentIndex = result.indexOf('#');
+            return fragmentIndex >= 0 ? result.substring(0, fragmentIndex) : result;
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
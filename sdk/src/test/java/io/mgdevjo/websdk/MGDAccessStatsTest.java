@@ -0,0 +1,113 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDAccessStats}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDAccessStatsTest {
+
+    private MGDAccessStats stats;
+
+    @Before
+    public void setUp() throws IOException {
+        MGDTestRuntime.getEngine();
+        stats = MGDAccessStats.getSessionStats();
+        MGDDataHelper.clear();
+        stats.clear();
+    }
+
+    @Test
+    public void accessesRecordedDuringFlushesAreNotLost() throws Exception {
+        final String[] sessionIds = {"stats1", "stats2", "stats3"};
+        for (String sessionId : sessionIds) {
+            MGDDataHelper.SessionData sessionData = new MGDDataHelper.SessionData();
+            sessionData.htmlSha1 = "sha1_" + sessionId;
+            MGDDataHelper.saveSessionData(sessionId, sessionData);
+        }
+        final int threadCount = 4;
+        final int accessCount = 5000;
+        final CountDownLatch finished = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < accessCount; j++) {
+                        stats.recordAccess(sessionIds[j % sessionIds.length], 10);
+                    }
+                    finished.countDown();
+                }
+            }).start();
+        }
+        // drain and remove idle counters while the accesses are recorded
+        final AtomicBoolean isFlushing = new AtomicBoolean(true);
+        Thread flushThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (isFlushing.get()) {
+                    MGDAccessStats.flushAll();
+                }
+            }
+        });
+        flushThread.start();
+        finished.await();
+        isFlushing.set(false);
+        flushThread.join();
+        MGDAccessStats.flushAll();
+
+        long hitCount = 0;
+        long bytesServed = 0;
+        for (String sessionId : sessionIds) {
+            MGDDataHelper.SessionData sessionData = MGDDataHelper.getSessionData(sessionId);
+            hitCount += sessionData.cacheHitCount;
+            bytesServed += sessionData.bytesServed;
+            assertEquals(0, stats.getPendingHitCount(sessionId));
+        }
+        assertEquals(threadCount * accessCount, hitCount);
+        assertEquals(threadCount * accessCount * 10L, bytesServed);
+    }
+
+    @Test
+    public void pendingStatsAreVisibleUntilDrained() {
+        stats.recordAccess("pending", 100);
+        stats.recordAccess("pending", 100);
+        assertEquals(2, stats.getPendingHitCount("pending"));
+        assertTrue(stats.getPendingLastAccessTime("pending") > 0);
+
+        // the counter is drained but kept, it is removed by the next flush if it stays idle
+        MGDAccessStats.flushAll();
+        assertEquals(0, stats.getPendingHitCount("pending"));
+        assertTrue(stats.getPendingLastAccessTime("pending") > 0);
+        MGDAccessStats.flushAll();
+        assertEquals(0, stats.getPendingLastAccessTime("pending"));
+
+        stats.recordAccess("pending", 100);
+        assertEquals(1, stats.getPendingHitCount("pending"));
+    }
+}
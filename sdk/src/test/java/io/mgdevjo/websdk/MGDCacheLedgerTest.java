@@ -0,0 +1,105 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDCacheLedger} and the cache files it accounts for.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDCacheLedgerTest {
+
+    private static final long OLD_FILE_AGE_MILLIS = 10 * 60 * 1000;
+
+    private MGDCacheLedger ledger;
+
+    private File cacheRootDir;
+
+    @Before
+    public void setUp() throws IOException {
+        MGDTestRuntime.getEngine();
+        MGDUtils.removeAllSessionCache();
+        ledger = MGDCacheLedger.getSessionLedger();
+        cacheRootDir = new File(MGDFileUtils.getMGDCacheDirPath());
+    }
+
+    @Test
+    public void scanMigratesLegacyFilesAndDeletesOrphans() throws IOException {
+        saveSessionData("kept");
+        File keptFile = writeFile(MGDFileUtils.getMGDHtmlPath("kept"), 1000, 0);
+        saveSessionData("legacy");
+        File legacyFile = writeFile(new File(cacheRootDir, "legacy.tpl").getPath(), 2000, OLD_FILE_AGE_MILLIS);
+        File droppedLegacyFile = writeFile(new File(cacheRootDir, "dropped.tpl").getPath(), 4000, OLD_FILE_AGE_MILLIS);
+        File orphanFile = writeFile(MGDFileUtils.getMGDHtmlPath("orphan"), 8000, OLD_FILE_AGE_MILLIS);
+        // its metadata may be on the way
+        File youngOrphanFile = writeFile(MGDFileUtils.getMGDDataPath("young"), 16000, 0);
+
+        ledger.invalidate();
+        assertEquals(1000 + 2000 + 16000, ledger.size());
+        assertTrue(keptFile.exists());
+        assertFalse(legacyFile.exists());
+        assertEquals(2000, new File(MGDFileUtils.getMGDTemplatePath("legacy")).length());
+        assertFalse(droppedLegacyFile.exists());
+        assertFalse(orphanFile.exists());
+        assertTrue(youngOrphanFile.exists());
+    }
+
+    @Test
+    public void trimDeletesOrphansBeforeEvicting() throws IOException {
+        saveSessionData("kept");
+        File keptFile = writeFile(MGDFileUtils.getMGDHtmlPath("kept"), 8 * 1024, 0);
+        File orphanFile = writeFile(MGDFileUtils.getMGDHtmlPath("orphan"), 48 * 1024, 0);
+        ledger.invalidate();
+        assertEquals(56 * 1024, ledger.size());
+
+        // the orphan gets old, and the cache is over the threshold of trim
+        assertTrue(orphanFile.setLastModified(System.currentTimeMillis() - OLD_FILE_AGE_MILLIS));
+        assertTrue(ledger.size() > MGDTestRuntime.CACHE_MAX_SIZE * 0.8);
+        MGDFileUtils.checkAndTrimCache();
+
+        assertFalse(orphanFile.exists());
+        assertTrue(keptFile.exists());
+        assertTrue(MGDDataHelper.hasSessionData("kept"));
+        assertEquals(8 * 1024, ledger.size());
+    }
+
+    private static void saveSessionData(String sessionId) {
+        MGDDataHelper.SessionData sessionData = new MGDDataHelper.SessionData();
+        sessionData.htmlSha1 = "sha1_" + sessionId;
+        sessionData.htmlSize = 1;
+        MGDDataHelper.saveSessionData(sessionId, sessionData);
+    }
+
+    private static File writeFile(String path, int length, long ageMillis) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        assertTrue(MGDFileUtils.writeFile(new byte[length], path));
+        if (ageMillis > 0) {
+            assertTrue(file.setLastModified(System.currentTimeMillis() - ageMillis));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDCancellationToken}.
+ */
+public class MGDCancellationTokenTest {
+
+    @Test
+    public void callbacksRunOnce() {
+        MGDCancellationToken token = new MGDCancellationToken();
+        final AtomicInteger count = new AtomicInteger();
+        Runnable callback = new Runnable() {
+            @Override
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+        token.register(callback);
+        token.cancel();
+        token.cancel();
+        assertTrue(token.isCancelled());
+        assertEquals(1, count.get());
+
+        // registered after the cancellation, it runs at once
+        token.register(callback);
+        assertEquals(2, count.get());
+    }
+
+    @Test
+    public void childFollowsParentUntilDetached() {
+        MGDCancellationToken parent = new MGDCancellationToken();
+        MGDCancellationToken child = parent.newChild();
+        MGDCancellationToken detachedChild = parent.newChild();
+        detachedChild.detach();
+
+        parent.cancel();
+        assertTrue(child.isCancelled());
+        assertFalse(detachedChild.isCancelled());
+        assertTrue(parent.newChild().isCancelled());
+
+        MGDCancellationToken other = new MGDCancellationToken();
+        other.newChild().cancel();
+        assertFalse(other.isCancelled());
+    }
+}
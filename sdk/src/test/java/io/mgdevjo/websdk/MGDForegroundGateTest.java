@@ -0,0 +1,106 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDForegroundGate}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDForegroundGateTest {
+
+    private static final long MAX_HOLD_MILLIS = 300;
+
+    private MGDForegroundGate gate;
+
+    @Before
+    public void setUp() throws IOException {
+        MGDRuntime runtime = MGDTestRuntime.getEngine().getRuntime();
+        gate = new MGDForegroundGate(runtime, new MGDConfig.Builder().setForegroundPreemptMaxMillis(MAX_HOLD_MILLIS).build());
+    }
+
+    @Test
+    public void awaitOpenReturnsWhenTheForegroundSessionExpires() {
+        MGDPreloadPoolTest.TestSession foreground = new MGDPreloadPoolTest.TestSession("foreground");
+        MGDPreloadPoolTest.TestSession preload = new MGDPreloadPoolTest.TestSession("preload");
+        preload.isBackgroundPreload = true;
+
+        gate.enter(foreground);
+        assertFalse(gate.isOpen());
+
+        // the foreground session never leaves, the gate opens by itself
+        long startTime = System.currentTimeMillis();
+        gate.awaitOpen(preload);
+        long waitTime = System.currentTimeMillis() - startTime;
+
+        assertTrue("waitTime=" + waitTime, waitTime >= MAX_HOLD_MILLIS - 50);
+        assertTrue("waitTime=" + waitTime, waitTime < MAX_HOLD_MILLIS + 1000);
+        assertTrue(gate.isOpen());
+        assertFalse(gate.isForeground(foreground));
+    }
+
+    @Test
+    public void awaitOpenReturnsWhenTheForegroundSessionLeaves() throws InterruptedException {
+        final MGDPreloadPoolTest.TestSession foreground = new MGDPreloadPoolTest.TestSession("foreground");
+        MGDPreloadPoolTest.TestSession preload = new MGDPreloadPoolTest.TestSession("preload");
+        preload.isBackgroundPreload = true;
+
+        gate.enter(foreground);
+        Thread leaveThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                gate.leave(foreground);
+            }
+        });
+        leaveThread.start();
+
+        long startTime = System.currentTimeMillis();
+        gate.awaitOpen(preload);
+        long waitTime = System.currentTimeMillis() - startTime;
+        leaveThread.join();
+
+        assertTrue("waitTime=" + waitTime, waitTime < MAX_HOLD_MILLIS - 50);
+        assertTrue(gate.isOpen());
+    }
+
+    @Test
+    public void awaitOpenDoesNotHoldAForegroundSession() {
+        MGDPreloadPoolTest.TestSession foreground = new MGDPreloadPoolTest.TestSession("foreground");
+        MGDPreloadPoolTest.TestSession other = new MGDPreloadPoolTest.TestSession("other");
+
+        gate.enter(foreground);
+
+        long startTime = System.currentTimeMillis();
+        gate.awaitOpen(other);
+        long waitTime = System.currentTimeMillis() - startTime;
+
+        assertTrue("waitTime=" + waitTime, waitTime < MAX_HOLD_MILLIS - 50);
+        assertFalse(gate.isOpen());
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDLogMetadataStore}.
+ */
+public class MGDLogMetadataStoreTest {
+
+    private File logFile;
+
+    private MGDLogMetadataStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = File.createTempFile("MGD_metadata", ".log");
+        logFile.delete();
+        store = new MGDLogMetadataStore(logFile);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        logFile.delete();
+    }
+
+    @Test
+    public void rowsSurviveReopen() {
+        MGDMetadataStore.Batch batch = new MGDMetadataStore.Batch();
+        MGDDataHelper.SessionData sessionData = createSessionData("session1", "eTag1");
+        sessionData.staleExpiredTime = 67890;
+        batch.sessionChanges.put("session1", sessionData);
+        batch.sessionChanges.put("session2", createSessionData("session2", null));
+        batch.resourceChanges.put("resource1", createResourceData("resource1", 100));
+        store.apply(batch);
+
+        reopen();
+        Map<String, MGDDataHelper.SessionData> sessions = getSessions();
+        assertEquals(2, sessions.size());
+        assertEquals("eTag1", sessions.get("session1").eTag);
+        assertEquals("sha1_session1", sessions.get("session1").htmlSha1);
+        assertEquals(67890, sessions.get("session1").staleExpiredTime);
+        assertNull(sessions.get("session2").eTag);
+        List<MGDResourceDataHelper.ResourceData> resources = store.loadResourceData();
+        assertEquals(1, resources.size());
+        assertEquals(100, resources.get(0).resourceSize);
+    }
+
+    @Test
+    public void deleteClearAndAccessStats() {
+        MGDMetadataStore.Batch batch = new MGDMetadataStore.Batch();
+        batch.sessionChanges.put("session1", createSessionData("session1", "eTag1"));
+        batch.sessionChanges.put("session2", createSessionData("session2", "eTag2"));
+        batch.resourceChanges.put("resource1", createResourceData("resource1", 100));
+        store.apply(batch);
+
+        batch = new MGDMetadataStore.Batch();
+        batch.sessionChanges.put("session2", null);
+        MGDAccessStats.AccessDelta delta = new MGDAccessStats.AccessDelta();
+        delta.add(3, 300, 12345);
+        batch.sessionAccessStats.put("session1", delta);
+        batch.isResourceClear = true;
+        store.apply(batch);
+
+        reopen();
+        Map<String, MGDDataHelper.SessionData> sessions = getSessions();
+        assertEquals(1, sessions.size());
+        assertEquals(3, sessions.get("session1").cacheHitCount);
+        assertEquals(300, sessions.get("session1").bytesServed);
+        assertEquals(12345, sessions.get("session1").lastAccessTime);
+        assertTrue(store.loadResourceData().isEmpty());
+    }
+
+    @Test
+    public void tornBatchIsDropped() throws IOException {
+        MGDMetadataStore.Batch batch = new MGDMetadataStore.Batch();
+        batch.sessionChanges.put("session1", createSessionData("session1", "eTag1"));
+        store.apply(batch);
+
+        batch = new MGDMetadataStore.Batch();
+        batch.sessionChanges.put("session1", createSessionData("session1", "eTag2"));
+        batch.sessionChanges.put("session2", createSessionData("session2", "eTag2"));
+        store.apply(batch);
+        int logSize = store.getLogSize();
+        store.close();
+
+        // corrupt the commit record of the second batch
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        try {
+            file.seek(logSize - 1);
+            file.writeByte(0x7F);
+        } finally {
+            file.close();
+        }
+
+        Map<String, MGDDataHelper.SessionData> sessions = getSessions();
+        assertEquals(1, sessions.size());
+        assertEquals("eTag1", sessions.get("session1").eTag);
+
+        batch = new MGDMetadataStore.Batch();
+        batch.sessionChanges.put("session3", createSessionData("session3", "eTag3"));
+        store.apply(batch);
+        reopen();
+        sessions = getSessions();
+        assertEquals(2, sessions.size());
+        assertEquals("eTag1", sessions.get("session1").eTag);
+        assertTrue(sessions.containsKey("session3"));
+    }
+
+    @Test
+    public void compactKeepsLiveRows() {
+        for (int i = 0; store.getCompactionCount() == 0; i++) {
+            MGDMetadataStore.Batch batch = new MGDMetadataStore.Batch();
+            batch.sessionChanges.put("session" + (i % 10), createSessionData("session" + (i % 10), "eTag" + i));
+            store.apply(batch);
+            assertTrue("log is never compacted", i < 100000);
+        }
+        assertTrue(store.getLogSize() < MGDLogMetadataStore.MIN_COMPACT_SIZE);
+        assertTrue(logFile.length() < 2 * MGDLogMetadataStore.MIN_COMPACT_SIZE);
+
+        reopen();
+        assertEquals(10, getSessions().size());
+    }
+
+    @Test
+    public void unreadableLogIsRecreated() {
+        // a directory in place of the log can not be opened
+        assertTrue(logFile.mkdir());
+        assertTrue(store.loadSessionData().isEmpty());
+        assertTrue(logFile.isFile());
+
+        MGDMetadataStore.Batch batch = new MGDMetadataStore.Batch();
+        batch.sessionChanges.put("session1", createSessionData("session1", "eTag1"));
+        store.apply(batch);
+        reopen();
+        assertEquals("eTag1", getSessions().get("session1").eTag);
+    }
+
+    private void reopen() {
+        store.close();
+        store = new MGDLogMetadataStore(logFile);
+    }
+
+    private Map<String, MGDDataHelper.SessionData> getSessions() {
+        Map<String, MGDDataHelper.SessionData> sessions = new HashMap<String, MGDDataHelper.SessionData>();
+        for (MGDDataHelper.SessionData sessionData : store.loadSessionData()) {
+            sessions.put(sessionData.sessionId, sessionData);
+        }
+        return sessions;
+    }
+
+    private static MGDDataHelper.SessionData createSessionData(String sessionId, String eTag) {
+        MGDDataHelper.SessionData sessionData = new MGDDataHelper.SessionData();
+        sessionData.sessionId = sessionId;
+        sessionData.eTag = eTag;
+        sessionData.htmlSha1 = "sha1_" + sessionId;
+        sessionData.htmlSize = 1024;
+        return sessionData;
+    }
+
+    private static MGDResourceDataHelper.ResourceData createResourceData(String resourceId, long size) {
+        MGDResourceDataHelper.ResourceData resourceData = new MGDResourceDataHelper.ResourceData();
+        resourceData.resourceId = resourceId;
+        resourceData.resourceSha1 = "sha1_" + resourceId;
+        resourceData.resourceSize = size;
+        return resourceData;
+    }
+}
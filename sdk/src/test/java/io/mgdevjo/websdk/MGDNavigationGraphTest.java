@@ -0,0 +1,126 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDNavigationGraph}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDNavigationGraphTest {
+
+    private static final long LARGE_BUDGET = 1L << 40;
+
+    private static final long WINDOW = 60 * 60 * 1000;
+
+    private MGDNavigationGraph graph;
+
+    @Before
+    public void setUp() throws IOException {
+        graph = new MGDNavigationGraph(MGDTestRuntime.getEngine().getRuntime());
+        MGDDataHelper.clear();
+    }
+
+    @Test
+    public void predictOrdersByProbabilityOncePerPage() {
+        for (int i = 0; i < 3; i++) {
+            open("home", "detail");
+        }
+        open("home", "list");
+        open("home");
+
+        List<String> urls = graph.predict("home", 5, 0.2f, LARGE_BUDGET, WINDOW);
+        assertEquals(Arrays.asList(url("detail"), url("list")), urls);
+        // the prediction is made once per page
+        assertTrue(graph.predict("home", 5, 0.2f, LARGE_BUDGET, WINDOW).isEmpty());
+        // only the current page is predicted
+        assertTrue(graph.predict("detail", 5, 0.2f, LARGE_BUDGET, WINDOW).isEmpty());
+
+        open("detail");
+        open("home");
+        assertEquals(Collections.singletonList(url("detail")), graph.predict("home", 5, 0.3f, LARGE_BUDGET, WINDOW));
+        open("list");
+
+        MGDNavigationGraph.Statistics statistics = graph.getStatistics();
+        assertEquals(3, statistics.predictedCount);
+        assertEquals(1, statistics.hitCount);
+        assertEquals(1, statistics.missCount);
+    }
+
+    @Test
+    public void predictSpendsTheBudgetOfTheWindow() {
+        saveHtmlSize("detail", 60 * 1024);
+        saveHtmlSize("list", 30 * 1024);
+        for (int i = 0; i < 2; i++) {
+            open("home", "detail");
+        }
+        open("home", "list");
+        open("home");
+
+        // the cached html size is spent, the second page does not fit in the rest
+        assertEquals(Collections.singletonList(url("detail")), graph.predict("home", 5, 0f, 80 * 1024, WINDOW));
+
+        open("detail", "home");
+        // 20KB is left in the window
+        assertTrue(graph.predict("home", 5, 0f, 80 * 1024, WINDOW).isEmpty());
+
+        // a new window has the whole budget
+        open("detail", "home");
+        assertEquals(Arrays.asList(url("detail"), url("list")), graph.predict("home", 5, 0f, 100 * 1024, 0));
+    }
+
+    @Test
+    public void transitionCountsDecay() {
+        open("home", "rare");
+        // the counts are halved at the 256th transition and the rare page is forgotten
+        for (int i = 0; i < 254; i++) {
+            open("home", "detail");
+        }
+        open("home");
+        assertEquals(Arrays.asList(url("detail"), url("rare")), graph.predict("home", 5, 0f, LARGE_BUDGET, WINDOW));
+
+        open("detail", "home");
+        assertEquals(Collections.singletonList(url("detail")), graph.predict("home", 5, 0f, LARGE_BUDGET, WINDOW));
+    }
+
+    private void open(String... pages) {
+        for (String page : pages) {
+            graph.recordTransition(page, url(page));
+        }
+    }
+
+    private static String url(String page) {
+        return "http://mgd.test/" + page;
+    }
+
+    private static void saveHtmlSize(String page, long htmlSize) {
+        MGDDataHelper.SessionData sessionData = new MGDDataHelper.SessionData();
+        sessionData.htmlSha1 = "sha1_" + page;
+        sessionData.htmlSize = htmlSize;
+        MGDDataHelper.saveSessionData(page, sessionData);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDPreloadPool}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDPreloadPoolTest {
+
+    private static final long EXPIRED_TIME = 3 * 60 * 1000;
+
+    private MGDRuntime runtime;
+
+    @Before
+    public void setUp() throws IOException {
+        runtime = MGDTestRuntime.getEngine().getRuntime();
+    }
+
+    @Test
+    public void makeRoomEvictsTheLowestScoreForAHigherScore() {
+        MGDPreloadPool pool = new MGDPreloadPool(runtime, 2, 2);
+        TestSession oldSession = new TestSession("old");
+        oldSession.createdTime -= 3 * EXPIRED_TIME;
+        TestSession newSession = new TestSession("new");
+        pool.put(oldSession.id, oldSession);
+        pool.put(newSession.id, newSession);
+
+        // a session id without history scores higher than the old entry
+        assertTrue(pool.makeRoom("other"));
+        assertEquals(1, oldSession.destroyCount);
+        assertEquals(0, newSession.destroyCount);
+        assertNull(pool.get(oldSession.id));
+        assertSame(newSession, pool.get(newSession.id));
+        assertEquals(1, pool.getStatistics().evictedCount);
+    }
+
+    @Test
+    public void makeRoomRejectsALowerScore() {
+        MGDPreloadPool pool = new MGDPreloadPool(runtime, 2, 2);
+        // a session id which has been preloaded many times but never picked
+        for (int i = 0; i < 4; i++) {
+            TestSession wastedSession = new TestSession("wasted");
+            pool.put(wastedSession.id, wastedSession);
+            pool.discard(wastedSession.id, false);
+        }
+        TestSession session1 = new TestSession("session1");
+        TestSession session2 = new TestSession("session2");
+        pool.put(session1.id, session1);
+        pool.put(session2.id, session2);
+
+        assertFalse(pool.makeRoom("wasted"));
+        assertEquals(0, session1.destroyCount);
+        assertEquals(0, session2.destroyCount);
+        assertEquals(2, pool.size());
+        assertEquals(1, pool.getStatistics().rejectedCount);
+        assertEquals(0, pool.getStatistics().evictedCount);
+
+        // there is always room below the max size
+        pool.discard(session1.id, false);
+        assertTrue(pool.makeRoom("wasted"));
+    }
+
+    @Test
+    public void reapDestroysExpiredAndDestroyedSessions() {
+        MGDPreloadPool pool = new MGDPreloadPool(runtime, 4, 2);
+        TestSession expiredSession = new TestSession("expired");
+        expiredSession.createdTime -= EXPIRED_TIME + 1000;
+        TestSession destroyedSession = new TestSession("destroyed");
+        destroyedSession.isDestroyed = true;
+        TestSession aliveSession = new TestSession("alive");
+        pool.put(expiredSession.id, expiredSession);
+        pool.put(destroyedSession.id, destroyedSession);
+        pool.put(aliveSession.id, aliveSession);
+
+        pool.reap();
+
+        assertEquals(1, expiredSession.destroyCount);
+        assertEquals(1, destroyedSession.destroyCount);
+        assertEquals(0, aliveSession.destroyCount);
+        assertEquals(1, pool.size());
+        assertSame(aliveSession, pool.get(aliveSession.id));
+        MGDPreloadPool.Statistics statistics = pool.getStatistics();
+        assertEquals(1, statistics.expiredCount);
+        assertEquals(1, statistics.discardedCount);
+        assertEquals(0, statistics.hitCount);
+    }
+
+    @Test
+    public void queuedSessionsStartByPriorityWhenFlowsFinish() {
+        MGDPreloadPool pool = new MGDPreloadPool(runtime, 8, 2);
+        TestSession running1 = new TestSession("running1");
+        TestSession running2 = new TestSession("running2");
+        TestSession lowPriority = new TestSession("low");
+        TestSession highPriority = new TestSession("high");
+        assertTrue(pool.start(running1, 0));
+        assertTrue(pool.start(running2, 0));
+        assertFalse(pool.start(lowPriority, 0));
+        assertFalse(pool.start(highPriority, 1));
+        assertEquals(1, running1.startCount);
+        assertEquals(1, running2.startCount);
+        assertEquals(0, lowPriority.startCount);
+        assertEquals(0, highPriority.startCount);
+
+        pool.onFlowFinished(running1);
+        assertEquals(1, highPriority.startCount);
+        assertEquals(0, lowPriority.startCount);
+
+        pool.onFlowFinished(running2);
+        assertEquals(1, lowPriority.startCount);
+    }
+
+    @Test
+    public void aFlowFreesItsSlotOnlyOnce() {
+        MGDPreloadPool pool = new MGDPreloadPool(runtime, 8, 1);
+        TestSession running = new TestSession("running");
+        TestSession queued1 = new TestSession("queued1");
+        TestSession queued2 = new TestSession("queued2");
+        assertTrue(pool.start(running, 0));
+        assertFalse(pool.start(queued1, 0));
+        assertFalse(pool.start(queued2, 0));
+
+        // the session is ready first and destroyed later
+        pool.onFlowFinished(running);
+        pool.onFlowFinished(running);
+        assertEquals(1, queued1.startCount);
+        assertEquals(0, queued2.startCount);
+
+        // a session which never held a slot does not free one
+        pool.onFlowFinished(new TestSession("unknown"));
+        assertEquals(0, queued2.startCount);
+
+        pool.onFlowFinished(queued1);
+        assertEquals(1, queued2.startCount);
+    }
+
+    @Test
+    public void startNowBypassesTheQueueWithoutTakingASlot() {
+        MGDPreloadPool pool = new MGDPreloadPool(runtime, 8, 1);
+        TestSession running = new TestSession("running");
+        TestSession urgent = new TestSession("urgent");
+        TestSession queued = new TestSession("queued");
+        assertTrue(pool.start(running, 0));
+        assertFalse(pool.start(urgent, 0));
+        assertFalse(pool.start(queued, 0));
+
+        pool.startNow(urgent);
+        assertEquals(1, urgent.startCount);
+        // a session which is not queued is not started again
+        pool.startNow(running);
+        assertEquals(1, running.startCount);
+
+        // the finished flow of the urgent session does not free the slot of the running one
+        pool.onFlowFinished(urgent);
+        assertEquals(0, queued.startCount);
+        pool.onFlowFinished(running);
+        assertEquals(1, queued.startCount);
+    }
+
+    /**
+     * A session which only counts its starts and destroys.
+     */
+    static class TestSession extends MGDSession {
+
+        int startCount;
+
+        int destroyCount;
+
+        boolean isDestroyed;
+
+        TestSession(String id) {
+            super(id, "http://mgd.test/" + id, new MGDSessionConfig.Builder().setPreloadSessionExpiredTimeMillis(EXPIRED_TIME).build());
+        }
+
+        @Override
+        public void start() {
+            startCount++;
+        }
+
+        @Override
+        public void destroy() {
+            destroyCount++;
+            isDestroyed = true;
+        }
+
+        @Override
+        public boolean isDestroyedOrWaitingForDestroy() {
+            return isDestroyed;
+        }
+
+        @Override
+        protected void handleFlow_LoadLocalCache(String cacheHtml) {
+
+        }
+
+        @Override
+        protected void handleFlow_FirstLoad() {
+
+        }
+
+        @Override
+        protected void handleFlow_DataUpdate(String serverRsp) {
+
+        }
+
+        @Override
+        protected void handleFlow_TemplateChange(String newHtml) {
+
+        }
+
+        @Override
+        protected void handleFlow_HttpError(int responseCode) {
+
+        }
+
+        @Override
+        protected void handleFlow_ServiceUnavailable() {
+
+        }
+    }
+}
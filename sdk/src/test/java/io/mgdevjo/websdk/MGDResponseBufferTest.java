@@ -0,0 +1,84 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDResponseBuffer}.
+ */
+public class MGDResponseBufferTest {
+
+    @Test
+    public void readersGetWholeResponse() throws Exception {
+        final MGDResponseBuffer buffer = new MGDResponseBuffer();
+        buffer.write("<html>".getBytes("UTF-8"));
+        InputStream early = buffer.newReader(5000);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    buffer.write("<body></body>".getBytes("UTF-8"));
+                    Thread.sleep(50);
+                    buffer.write("</html>".getBytes("UTF-8"));
+                    buffer.finish(true);
+                } catch (Exception e) {
+                    buffer.finish(false);
+                }
+            }
+        });
+        writer.start();
+
+        assertEquals("<html><body></body></html>", readAll(early));
+        writer.join();
+        assertEquals("<html><body></body></html>", readAll(buffer.newReader(5000)));
+        assertTrue(buffer.awaitFinish(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void incompleteResponseFailsReader() throws IOException {
+        MGDResponseBuffer buffer = new MGDResponseBuffer();
+        buffer.write(new byte[]{1, 2, 3}, 0, 3);
+        buffer.finish(false);
+        readAll(buffer.newReader(5000));
+    }
+
+    @Test(expected = IOException.class)
+    public void readerTimesOut() throws IOException {
+        MGDResponseBuffer buffer = new MGDResponseBuffer();
+        buffer.newReader(50).read();
+    }
+
+    private static String readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int n;
+        while (-1 != (n = inputStream.read(buffer))) {
+            outputStream.write(buffer, 0, n);
+        }
+        inputStream.close();
+        return outputStream.toString("UTF-8");
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import io.mgdevjo.websdk.download.MGDDownloadRange;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDResponseFile}.
+ */
+public class MGDResponseFileTest {
+
+    private static final byte[] RESOURCE = new byte[256 * 1024];
+
+    static {
+        for (int i = 0; i < RESOURCE.length; i++) {
+            RESOURCE[i] = (byte) (i * 31);
+        }
+    }
+
+    private File tempFile;
+
+    private HttpServer server;
+
+    private String eTag = "\"v1\"";
+
+    private boolean dropConnection = true;
+
+    @Before
+    public void setUp() throws IOException {
+        tempFile = File.createTempFile("MGD_resource", ".tmp");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // a stand-in of a server which supports range requests, it drops the first connection halfway
+        server.createContext("/game.js", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    String range = exchange.getRequestHeaders().getFirst("Range");
+                    String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                    exchange.getResponseHeaders().add("ETag", eTag);
+                    exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+                    OutputStream outputStream;
+                    if (null != range && eTag.equals(ifRange)) {
+                        int start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                        exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (RESOURCE.length - 1) + "/" + RESOURCE.length);
+                        exchange.sendResponseHeaders(206, RESOURCE.length - start);
+                        outputStream = exchange.getResponseBody();
+                        outputStream.write(RESOURCE, start, RESOURCE.length - start);
+                    } else {
+                        exchange.sendResponseHeaders(200, RESOURCE.length);
+                        outputStream = exchange.getResponseBody();
+                        if (dropConnection) {
+                            dropConnection = false;
+                            outputStream.write(RESOURCE, 0, RESOURCE.length / 2);
+                            outputStream.flush();
+                            return;
+                        }
+                        outputStream.write(RESOURCE);
+                    }
+                    outputStream.close();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        tempFile.delete();
+    }
+
+    @Test
+    public void readerFollowsGrowingFile() throws Exception {
+        final MGDResponseFile responseFile = new MGDResponseFile();
+        // a reader can be created before the download starts
+        InputStream early = responseFile.newReader(5000);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    responseFile.open(tempFile);
+                    responseFile.write("var a = 1;".getBytes("UTF-8"), 0, 10);
+                    Thread.sleep(50);
+                    responseFile.write("var b = 2;".getBytes("UTF-8"), 0, 10);
+                    responseFile.finish(true);
+                } catch (Exception e) {
+                    responseFile.finish(false);
+                }
+            }
+        });
+        writer.start();
+
+        assertEquals("var a = 1;var b = 2;", readAll(early));
+        writer.join();
+        assertEquals("var a = 1;var b = 2;", readAll(responseFile.newReader(5000)));
+        assertEquals(20, responseFile.getLength());
+        assertEquals(20, tempFile.length());
+        MessageDigest sha1 = MessageDigest.getInstance("SHA1");
+        assertEquals(MGDUtils.toHexString(sha1.digest("var a = 1;var b = 2;".getBytes("UTF-8"))), responseFile.getSha1());
+
+        assertTrue(responseFile.claim());
+        assertFalse(responseFile.claim());
+        responseFile.discard();
+        assertFalse(tempFile.exists());
+    }
+
+    @Test
+    public void incompleteResponseIsDeleted() throws IOException {
+        MGDResponseFile responseFile = new MGDResponseFile();
+        responseFile.open(tempFile);
+        responseFile.write(new byte[]{1, 2, 3}, 0, 3);
+        InputStream reader = responseFile.newReader(5000);
+        assertEquals(1, reader.read());
+        responseFile.finish(false);
+
+        assertTrue(responseFile.isFailed());
+        assertNull(responseFile.getSha1());
+        assertFalse(responseFile.claim());
+        assertFalse(tempFile.exists());
+        try {
+            readAll(reader);
+            fail("reader of an incomplete response should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void awaitHeadersIsBoundedByTheTimeout() {
+        MGDResponseFile responseFile = new MGDResponseFile();
+
+        long startTime = System.currentTimeMillis();
+        assertNull(responseFile.awaitHeaders(100));
+        long waitTime = System.currentTimeMillis() - startTime;
+        assertTrue("waitTime=" + waitTime, waitTime >= 90 && waitTime < 2000);
+    }
+
+    @Test
+    public void awaitHeadersReturnsWhenTheHeadersAreSet() throws Exception {
+        final MGDResponseFile responseFile = new MGDResponseFile();
+        final Map<String, List<String>> headers = Collections.singletonMap("Content-Type", Arrays.asList("text/javascript"));
+        Thread connectThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                responseFile.setHeaders(headers);
+            }
+        });
+        connectThread.start();
+
+        assertSame(headers, responseFile.awaitHeaders(5000));
+        connectThread.join();
+    }
+
+    @Test
+    public void awaitHeadersReturnsWhenTheResponseFails() {
+        MGDResponseFile responseFile = new MGDResponseFile();
+        responseFile.finish(false);
+
+        long startTime = System.currentTimeMillis();
+        assertNull(responseFile.awaitHeaders(5000));
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+    }
+
+    @Test
+    public void droppedDownloadIsResumed() throws Exception {
+        MGDResponseFile responseFile = new MGDResponseFile();
+        InputStream reader = responseFile.newReader(5000);
+
+        HttpURLConnection connection = openConnection();
+        assertEquals(200, connection.getResponseCode());
+        responseFile.setValidator(MGDDownloadRange.getValidator(connection.getHeaderFields()));
+        assertEquals(eTag, responseFile.getValidator());
+        responseFile.open(tempFile);
+        assertFalse(copy(connection, responseFile));
+        long offset = responseFile.getLength();
+        assertTrue(offset > 0 && offset < RESOURCE.length);
+
+        connection = openConnection();
+        MGDDownloadRange.addRangeHeaders(connection, offset, responseFile.getValidator());
+        assertEquals(206, connection.getResponseCode());
+        assertEquals(offset, MGDDownloadRange.getContentRangeStart(connection.getHeaderField("Content-Range")));
+        assertTrue(copy(connection, responseFile));
+        responseFile.finish(true);
+
+        assertTrue(Arrays.equals(RESOURCE, readAllBytes(reader)));
+        MessageDigest sha1 = MessageDigest.getInstance("SHA1");
+        assertEquals(MGDUtils.toHexString(sha1.digest(RESOURCE)), responseFile.getSha1());
+    }
+
+    @Test
+    public void changedResourceIsRestarted() throws Exception {
+        MGDResponseFile responseFile = new MGDResponseFile();
+        HttpURLConnection connection = openConnection();
+        responseFile.setValidator(MGDDownloadRange.getValidator(connection.getHeaderFields()));
+        responseFile.open(tempFile);
+        assertFalse(copy(connection, responseFile));
+        InputStream reader = responseFile.newReader(5000);
+        assertTrue(reader.read() >= 0);
+        // a reader which has not read anything follows the restart
+        InputStream lateReader = responseFile.newReader(5000);
+
+        eTag = "\"v2\"";
+        connection = openConnection();
+        MGDDownloadRange.addRangeHeaders(connection, responseFile.getLength(), responseFile.getValidator());
+        assertEquals(200, connection.getResponseCode());
+        responseFile.restart();
+        assertNull(responseFile.getValidator());
+        assertTrue(copy(connection, responseFile));
+        responseFile.finish(true);
+
+        assertTrue(Arrays.equals(RESOURCE, readAllBytes(lateReader)));
+        try {
+            reader.read();
+            fail("reader of the dropped bytes should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private HttpURLConnection openConnection() throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/game.js");
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    /**
+     * @return Whether the whole response is copied.
+     */
+    private static boolean copy(HttpURLConnection connection, MGDResponseFile responseFile) throws IOException {
+        long total = responseFile.getLength() + connection.getContentLength();
+        try {
+            InputStream inputStream = connection.getInputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while (-1 != (n = inputStream.read(buffer))) {
+                responseFile.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            // the connection is dropped
+        } finally {
+            connection.disconnect();
+        }
+        return responseFile.getLength() == total;
+    }
+
+    private static byte[] readAllBytes(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while (-1 != (n = inputStream.read(buffer))) {
+            outputStream.write(buffer, 0, n);
+        }
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+
+    private static String readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int n;
+        while (-1 != (n = inputStream.read(buffer))) {
+            outputStream.write(buffer, 0, n);
+        }
+        inputStream.close();
+        return outputStream.toString("UTF-8");
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDSessionDeadline}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDSessionDeadlineTest {
+
+    private MGDSession session;
+
+    @Before
+    public void setUp() throws IOException {
+        MGDTestRuntime.getEngine();
+        session = new MGDPreloadPoolTest.TestSession("deadline");
+    }
+
+    @Test
+    public void remainingIsTheCapUntilTheBudgetStarts() {
+        MGDSessionDeadline deadline = new MGDSessionDeadline(session, 1000);
+
+        assertEquals(3000, deadline.remaining(3000));
+        assertFalse(deadline.isExhausted());
+        assertFalse(deadline.checkExhausted(MGDSessionDeadline.PHASE_CONNECT));
+    }
+
+    @Test
+    public void remainingIsCappedByTheRestOfTheBudget() {
+        MGDSessionDeadline deadline = new MGDSessionDeadline(session, 1000);
+        deadline.begin();
+
+        long remaining = deadline.remaining(3000);
+        assertTrue("remaining=" + remaining, remaining > 500 && remaining <= 1000);
+        assertEquals(200, deadline.remaining(200));
+    }
+
+    @Test
+    public void aZeroBudgetNeverStarts() {
+        MGDSessionDeadline deadline = new MGDSessionDeadline(session, 0);
+        deadline.begin();
+
+        assertEquals(3000, deadline.remaining(3000));
+        assertFalse(deadline.isExhausted());
+    }
+
+    @Test
+    public void theFirstExhaustedPhaseIsReported() throws InterruptedException {
+        MGDSessionDeadline deadline = new MGDSessionDeadline(session, 50);
+        deadline.begin();
+
+        assertFalse(deadline.checkExhausted(MGDSessionDeadline.PHASE_CACHE_LOAD));
+        Thread.sleep(80);
+
+        assertEquals(0, deadline.remaining(3000));
+        assertTrue(deadline.checkExhausted(MGDSessionDeadline.PHASE_FIRST_BYTE));
+        assertTrue(deadline.checkExhausted(MGDSessionDeadline.PHASE_FULL_BODY));
+        assertEquals(MGDSessionDeadline.PHASE_FIRST_BYTE, deadline.getExhaustedPhase());
+        assertEquals(MGDSessionDeadline.PHASE_FIRST_BYTE, session.statistics.deadlineExhaustedPhase);
+    }
+
+    @Test
+    public void restartResetsTheBudget() throws InterruptedException {
+        MGDSessionDeadline deadline = new MGDSessionDeadline(session, 50);
+        deadline.begin();
+        Thread.sleep(80);
+        assertTrue(deadline.checkExhausted(MGDSessionDeadline.PHASE_CONNECT));
+
+        // begin does not move a started budget
+        deadline.begin();
+        assertTrue(deadline.isExhausted());
+
+        deadline.restart();
+        assertFalse(deadline.isExhausted());
+        assertTrue(deadline.remaining(3000) > 0);
+        assertEquals(MGDSessionDeadline.PHASE_NONE, deadline.getExhaustedPhase());
+    }
+}
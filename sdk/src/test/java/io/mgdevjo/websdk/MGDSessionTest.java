@@ -0,0 +1,149 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDSession}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDSessionTest {
+
+    @Before
+    public void setUp() throws IOException {
+        MGDTestRuntime.getEngine();
+    }
+
+    @Test
+    public void connectionStartsWhileTheCacheIsLoaded() throws Exception {
+        final CountDownLatch connectStarted = new CountDownLatch(1);
+        final AtomicInteger connectCount = new AtomicInteger();
+        final AtomicBoolean isConnectedBeforeCacheLoaded = new AtomicBoolean(false);
+        MGDSessionConfig config = new MGDSessionConfig.Builder()
+                .setCacheInterceptor(new MGDCacheInterceptor(null) {
+                    @Override
+                    public String getCacheData(MGDSession session) {
+                        // a sequential flow only connects after the cache is loaded
+                        try {
+                            isConnectedBeforeCacheLoaded.set(connectStarted.await(5, TimeUnit.SECONDS));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return null;
+                    }
+                })
+                .setConnectionInterceptor(new MGDSessionConnectionInterceptor() {
+                    @Override
+                    public MGDSessionConnection getConnection(MGDSession session, Intent intent) {
+                        return new NotModifiedConnection(session, intent, connectStarted, connectCount);
+                    }
+                })
+                .build();
+        MGDSession session = new StandardMGDSession("parallel", "http://mgd.test/parallel", config);
+        final CountDownLatch flowFinished = new CountDownLatch(1);
+        MGDSession.Callback callback = new MGDSession.Callback() {
+            @Override
+            public void onSessionStateChange(MGDSession session, int oldState, int newState, Bundle extraData) {
+                if (MGDSession.STATE_READY == newState) {
+                    flowFinished.countDown();
+                }
+            }
+        };
+        session.addSessionStateChangedCallback(callback);
+        try {
+            session.start();
+            assertTrue("flow is not finished", flowFinished.await(10, TimeUnit.SECONDS));
+            assertTrue("connection is not started before the cache is loaded", isConnectedBeforeCacheLoaded.get());
+            // the flow uses the connection started in parallel instead of making another one
+            assertEquals(1, connectCount.get());
+        } finally {
+            session.destroy();
+        }
+    }
+
+    /**
+     * A connection which answers 304 without touching the network.
+     */
+    private static class NotModifiedConnection extends MGDSessionConnection {
+
+        private final CountDownLatch connectStarted;
+
+        private final AtomicInteger connectCount;
+
+        NotModifiedConnection(MGDSession session, Intent intent, CountDownLatch connectStarted, AtomicInteger connectCount) {
+            super(session, intent);
+            this.connectStarted = connectStarted;
+            this.connectCount = connectCount;
+        }
+
+        @Override
+        protected int internalConnect() {
+            connectCount.incrementAndGet();
+            connectStarted.countDown();
+            return MGDConstants.ERROR_CODE_SUCCESS;
+        }
+
+        @Override
+        public void disconnect() {
+
+        }
+
+        @Override
+        public int getResponseCode() {
+            return HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        @Override
+        public Map<String, List<String>> getResponseHeaderFields() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String getResponseHeaderField(String key) {
+            return null;
+        }
+
+        @Override
+        protected BufferedInputStream internalGetResponseStream() {
+            return null;
+        }
+
+        @Override
+        protected String internalGetCustomHeadFieldEtag() {
+            return CUSTOM_HEAD_FILED_ETAG;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDSessionThreadPool}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDSessionThreadPoolTest {
+
+    private MGDConfig config;
+
+    @Before
+    public void setUp() throws IOException {
+        config = MGDTestRuntime.getEngine().getConfig();
+    }
+
+    @Test
+    public void queuedTasksRunByPriorityThenInOrder() throws Exception {
+        List<CountDownLatch> releases = blockLane(MGDSessionThreadPool.LANE_CPU, config.SESSION_CPU_THREAD_COUNT);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch finished = new CountDownLatch(4);
+        try {
+            postRecording("preload1", MGDSessionThreadPool.PRIORITY_PRELOAD, order, finished);
+            postRecording("subResource", MGDSessionThreadPool.PRIORITY_SUB_RESOURCE, order, finished);
+            postRecording("foreground", MGDSessionThreadPool.PRIORITY_FOREGROUND, order, finished);
+            postRecording("preload2", MGDSessionThreadPool.PRIORITY_PRELOAD, order, finished);
+        } finally {
+            // a single free thread runs the queued tasks one by one
+            releases.get(0).countDown();
+        }
+        try {
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("foreground", "subResource", "preload1", "preload2"), order);
+        } finally {
+            for (CountDownLatch release : releases) {
+                release.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void aFullQueueRejectsTasks() throws Exception {
+        List<CountDownLatch> releases = blockLane(MGDSessionThreadPool.LANE_CPU, config.SESSION_CPU_THREAD_COUNT);
+        long rejectedCount = MGDSessionThreadPool.getStatistics(MGDSessionThreadPool.LANE_CPU).rejectedCount;
+        final CountDownLatch finished = new CountDownLatch(config.SESSION_TASK_QUEUE_CAPACITY);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                finished.countDown();
+            }
+        };
+        try {
+            for (int i = 0; i < config.SESSION_TASK_QUEUE_CAPACITY; i++) {
+                assertTrue(MGDSessionThreadPool.postTask(task, MGDSessionThreadPool.LANE_CPU, MGDSessionThreadPool.PRIORITY_PRELOAD));
+            }
+            // even a foreground task is rejected instead of growing the queue
+            assertFalse(MGDSessionThreadPool.postTask(task, MGDSessionThreadPool.LANE_CPU, MGDSessionThreadPool.PRIORITY_FOREGROUND));
+
+            MGDSessionThreadPool.Statistics statistics = MGDSessionThreadPool.getStatistics(MGDSessionThreadPool.LANE_CPU);
+            assertEquals(rejectedCount + 1, statistics.rejectedCount);
+            assertEquals(config.SESSION_TASK_QUEUE_CAPACITY, statistics.queueSize);
+            // the other lane is not affected
+            assertEquals(0, MGDSessionThreadPool.getStatistics(MGDSessionThreadPool.LANE_NETWORK).queueSize);
+        } finally {
+            for (CountDownLatch release : releases) {
+                release.countDown();
+            }
+        }
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Occupy all the threads of a lane.
+     *
+     * @return The latches which release the threads one by one
+     */
+    private static List<CountDownLatch> blockLane(int lane, int threadCount) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(threadCount);
+        List<CountDownLatch> releases = new ArrayList<CountDownLatch>();
+        for (int i = 0; i < threadCount; i++) {
+            final CountDownLatch release = new CountDownLatch(1);
+            releases.add(release);
+            assertTrue(MGDSessionThreadPool.postTask(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, lane, MGDSessionThreadPool.PRIORITY_FOREGROUND));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return releases;
+    }
+
+    private static void postRecording(final String name, int priority, final List<String> order, final CountDownLatch finished) {
+        assertTrue(MGDSessionThreadPool.postTask(new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                finished.countDown();
+            }
+        }, MGDSessionThreadPool.LANE_CPU, priority));
+    }
+}
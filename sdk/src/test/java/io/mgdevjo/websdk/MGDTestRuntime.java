@@ -0,0 +1,185 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import android.content.Context;
+
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The runtime of the local unit tests which need {@link MGDEngine}. The engine is a singleton
+ * shared by all the test classes, so it is created once with the config every test expects.
+ */
+public class MGDTestRuntime extends MGDRuntime {
+
+    public static final int DOWNLOAD_MAX_RETRY_COUNT = 3;
+
+    public static final long DOWNLOAD_RETRY_BACKOFF_MILLIS = 20;
+
+    public static final long CACHE_MAX_SIZE = 64 * 1024;
+
+    private static File cacheDir;
+
+    private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+
+    /**
+     * the delays of the tasks posted by {@link #postTaskToThread(Runnable, long)}
+     */
+    private static final List<Long> postDelays = Collections.synchronizedList(new ArrayList<Long>());
+
+    /**
+     * the tasks posted to the session threads wait for it to open
+     */
+    private static volatile CountDownLatch sessionThreadGate = new CountDownLatch(0);
+
+    private MGDTestRuntime(Context context) {
+        super(context);
+    }
+
+    /**
+     * @return The engine, it is created on the first call.
+     */
+    public static synchronized MGDEngine getEngine() throws IOException {
+        if (!MGDEngine.isGetInstanceAllowed()) {
+            cacheDir = File.createTempFile("MGD_cache", "");
+            cacheDir.delete();
+            cacheDir.mkdirs();
+            MGDConfig config = new MGDConfig.Builder()
+                    .setAutoInitDBWhenCreate(false)
+                    .setMetadataStoreType(MGDMetadataStore.TYPE_LOG)
+                    .setCacheMaxSize(CACHE_MAX_SIZE)
+                    .setDownloadMaxRetryCount(DOWNLOAD_MAX_RETRY_COUNT)
+                    .setDownloadRetryBackoffMillis(DOWNLOAD_RETRY_BACKOFF_MILLIS)
+                    .build();
+            MGDEngine.createInstance(new MGDTestRuntime(RuntimeEnvironment.getApplication()), config);
+        }
+        return MGDEngine.getInstance();
+    }
+
+    /**
+     * @return The delays of the tasks posted by {@link #postTaskToThread(Runnable, long)}, the caller may clear it.
+     */
+    public static List<Long> getPostDelays() {
+        return postDelays;
+    }
+
+    /**
+     * Hold the tasks posted to the session threads until the gate opens.
+     */
+    public static void setSessionThreadGate(CountDownLatch gate) {
+        sessionThreadGate = gate;
+    }
+
+    @Override
+    public void log(String tag, int level, String message) {
+
+    }
+
+    @Override
+    public String getCookie(String url) {
+        return null;
+    }
+
+    @Override
+    public boolean setCookie(String url, List<String> cookies) {
+        return false;
+    }
+
+    @Override
+    public String getUserAgent() {
+        return "";
+    }
+
+    @Override
+    public File getMGDCacheDir() {
+        File file = new File(cacheDir, "session");
+        file.mkdirs();
+        return file;
+    }
+
+    @Override
+    public File getMGDResourceCacheDir() {
+        File file = new File(cacheDir, "resource");
+        file.mkdirs();
+        return file;
+    }
+
+    @Override
+    public String getCurrentUserAccount() {
+        return "";
+    }
+
+    @Override
+    public boolean isMGDUrl(String url) {
+        return true;
+    }
+
+    @Override
+    public Object createWebResourceResponse(String mimeType, String encoding, InputStream data, Map<String, String> headers) {
+        return null;
+    }
+
+    @Override
+    public boolean isNetworkValid() {
+        return true;
+    }
+
+    @Override
+    public void showToast(CharSequence text, int duration) {
+
+    }
+
+    @Override
+    public void postTaskToThread(Runnable task, long delayMillis) {
+        postDelays.add(delayMillis);
+        executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean postTaskToSessionThread(final Runnable task, int priority) {
+        final CountDownLatch gate = sessionThreadGate;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                task.run();
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void notifyError(MGDSessionClient client, String url, int errorCode) {
+
+    }
+}
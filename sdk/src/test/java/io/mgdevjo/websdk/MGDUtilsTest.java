@@ -0,0 +1,40 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk;
+
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDUtils}.
+ */
+public class MGDUtilsTest {
+
+    @Test
+    public void utf8LengthIsTheEncodedLength() throws UnsupportedEncodingException {
+        String[] contents = {"", "<html>ascii</html>", "café ü", "中文页面", "emoji 😀!", "lone \ud83d surrogate"};
+        for (String content : contents) {
+            assertEquals(content, content.getBytes("UTF-8").length, MGDUtils.getUtf8Length(content));
+        }
+        assertEquals(0, MGDUtils.getUtf8Length(null));
+        // a CJK page takes three times its chars on disk
+        assertEquals(3000, MGDUtils.getUtf8Length(new String(new char[1000]).replace('\0', '中')));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDWriteBehindQueue}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDWriteBehindQueueTest {
+
+    private MGDWriteBehindQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        queue = MGDTestRuntime.getEngine().getWriteBehindQueue();
+    }
+
+    @Test
+    public void aSlowSaveDoesNotDelayAnotherSession() throws Exception {
+        String slowSessionId = "slowSave" + System.nanoTime();
+        String fastSessionId = "fastSave" + System.nanoTime();
+        int slowLane = MGDWriteBehindQueue.getWriteLaneIndex(MGDWriteBehindQueue.getSessionWriteKey(slowSessionId));
+        for (int i = 0; MGDWriteBehindQueue.getWriteLaneIndex(MGDWriteBehindQueue.getSessionWriteKey(fastSessionId)) == slowLane; i++) {
+            fastSessionId = "fastSave" + System.nanoTime() + i;
+        }
+
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            enqueue(slowSessionId, new BlockingHeaders(writing, release));
+            enqueue(fastSessionId, headers());
+
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+            assertTrue(awaitSaved(fastSessionId, 5000));
+            assertFalse(MGDDataHelper.hasSessionData(slowSessionId));
+        } finally {
+            release.countDown();
+        }
+        assertTrue(awaitSaved(slowSessionId, 5000));
+    }
+
+    private void enqueue(String sessionId, Map<String, List<String>> headers) {
+        queue.enqueueSessionWrite(sessionId, "<html>" + sessionId + "</html>", null, null, headers,
+                "eTag", "templateTag", "sha1", null, "https://example.com/" + sessionId);
+    }
+
+    private static Map<String, List<String>> headers() {
+        Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+        headers.put("Content-Type", Arrays.asList("text/html"));
+        return headers;
+    }
+
+    private static boolean awaitSaved(String sessionId, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!MGDDataHelper.hasSessionData(sessionId)) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Headers which hold the first writer off the test thread until they are released.
+     */
+    private static class BlockingHeaders extends LinkedHashMap<String, List<String>> {
+
+        private final CountDownLatch writing;
+
+        private final CountDownLatch release;
+
+        private final Thread testThread = Thread.currentThread();
+
+        private final AtomicBoolean isBlocked = new AtomicBoolean();
+
+        BlockingHeaders(CountDownLatch writing, CountDownLatch release) {
+            super(headers());
+            this.writing = writing;
+            this.release = release;
+        }
+
+        @Override
+        public Set<Map.Entry<String, List<String>>> entrySet() {
+            if (Thread.currentThread() != testThread && isBlocked.compareAndSet(false, true)) {
+                writing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.entrySet();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+
+package io.mgdevjo.websdk.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.mgdevjo.websdk.MGDConstants;
+import io.mgdevjo.websdk.MGDEngine;
+import io.mgdevjo.websdk.MGDResponseFile;
+import io.mgdevjo.websdk.MGDRuntime;
+import io.mgdevjo.websdk.MGDTestRuntime;
+import io.mgdevjo.websdk.MGDUtils;
+import io.mgdevjo.websdk.download.MGDDownloadClient.DownloadTask;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDDownloadClient} and the retries of {@link MGDDownloadScheduler},
+ * the downloads run against a local server which supports range requests.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDDownloadClientTest {
+
+    private static final byte[] RESOURCE = new byte[256 * 1024];
+
+    private static final int MAX_RETRY_COUNT = MGDTestRuntime.DOWNLOAD_MAX_RETRY_COUNT;
+
+    private static final long RETRY_BACKOFF_MILLIS = MGDTestRuntime.DOWNLOAD_RETRY_BACKOFF_MILLIS;
+
+    static {
+        for (int i = 0; i < RESOURCE.length; i++) {
+            RESOURCE[i] = (byte) (i * 31);
+        }
+    }
+
+    /**
+     * the delays of the tasks posted by {@link MGDRuntime#postTaskToThread(Runnable, long)}, they are the retry backoffs
+     */
+    private static final List<Long> postDelays = MGDTestRuntime.getPostDelays();
+
+    private HttpServer server;
+
+    /**
+     * the Range header of every request, null if the request is not a range request
+     */
+    private final List<String> requestRanges = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile boolean dropConnection;
+
+    private volatile boolean ignoreRangeStart;
+
+    private volatile int serverErrorCount;
+
+    @Before
+    public void setUp() throws IOException {
+        MGDTestRuntime.getEngine();
+        postDelays.clear();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    String range = exchange.getRequestHeaders().getFirst("Range");
+                    requestRanges.add(range);
+                    if (serverErrorCount > 0) {
+                        serverErrorCount--;
+                        exchange.sendResponseHeaders(503, -1);
+                        return;
+                    }
+                    String eTag = "\"v1\"";
+                    exchange.getResponseHeaders().add("ETag", eTag);
+                    exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+                    if (null != range && eTag.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+                        int start = ignoreRangeStart ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                        exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (RESOURCE.length - 1) + "/" + RESOURCE.length);
+                        exchange.sendResponseHeaders(206, RESOURCE.length - start);
+                        write(exchange, start);
+                    } else {
+                        exchange.sendResponseHeaders(200, RESOURCE.length);
+                        write(exchange, 0);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+
+            private void write(HttpExchange exchange, int start) throws IOException {
+                OutputStream outputStream = exchange.getResponseBody();
+                if (dropConnection) {
+                    // the connection is closed halfway
+                    dropConnection = false;
+                    outputStream.write(RESOURCE, start, (RESOURCE.length - start) / 2);
+                    outputStream.flush();
+                    return;
+                }
+                outputStream.write(RESOURCE, start, RESOURCE.length - start);
+                outputStream.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void droppedPreloadIsRetriedWithRange() throws Exception {
+        dropConnection = true;
+        DownloadTask task = createTask("/retry.js", true);
+        DownloadResult result = schedule(task);
+
+        assertTrue(Arrays.equals(RESOURCE, result.content));
+        assertEquals(2, task.mAttemptCount);
+        assertEquals(2, requestRanges.size());
+        assertNull(requestRanges.get(0));
+        assertTrue(requestRanges.get(1).matches("bytes=[1-9][0-9]*-"));
+        assertEquals(Collections.singletonList(RETRY_BACKOFF_MILLIS), postDelays);
+    }
+
+    @Test
+    public void droppedDownloadIsSuspendedAndRestored() throws Exception {
+        dropConnection = true;
+        DownloadTask task = createTask("/suspend.js", false);
+        DownloadResult result = schedule(task);
+
+        assertEquals(MGDConstants.ERROR_CODE_CONNECT_IOE, result.errorCode);
+        assertEquals(1, task.mAttemptCount);
+        assertTrue(postDelays.isEmpty());
+        File partialFile = new File(MGDEngine.getInstance().getRuntime().getMGDResourceCacheDir(), MGDUtils.getMD5(task.mResourceUrl) + ".partial.tmp");
+        assertTrue(partialFile.length() > 0 && partialFile.length() < RESOURCE.length);
+
+        // the next download of the resource resumes the partial download
+        task = createTask("/suspend.js", false);
+        result = schedule(task);
+        assertTrue(Arrays.equals(RESOURCE, result.content));
+        assertEquals(2, requestRanges.size());
+        assertEquals("bytes=" + (RESOURCE.length / 2) + "-", requestRanges.get(1));
+        assertFalse(partialFile.exists());
+    }
+
+    @Test
+    public void rangeAtWrongOffsetIsRestarted() throws Exception {
+        dropConnection = true;
+        ignoreRangeStart = true;
+        DownloadTask task = createTask("/restart.js", true);
+        DownloadResult result = schedule(task);
+
+        assertTrue(Arrays.equals(RESOURCE, result.content));
+        assertEquals(3, task.mAttemptCount);
+        assertEquals(3, requestRanges.size());
+        assertNotNull(requestRanges.get(1));
+        // the dropped bytes are downloaded again from the start
+        assertNull(requestRanges.get(2));
+        assertEquals(Arrays.asList(RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << 1), postDelays);
+    }
+
+    @Test
+    public void retriesBackOffUntilMaxRetryCount() throws Exception {
+        serverErrorCount = Integer.MAX_VALUE;
+        DownloadTask task = createTask("/unavailable.js", true);
+        DownloadResult result = schedule(task);
+
+        assertEquals(503, result.errorCode);
+        assertEquals(MAX_RETRY_COUNT + 1, task.mAttemptCount);
+        assertEquals(MAX_RETRY_COUNT + 1, requestRanges.size());
+        assertEquals(Arrays.asList(RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << 1, RETRY_BACKOFF_MILLIS << 2), postDelays);
+    }
+
+    private DownloadTask createTask(String path, boolean isPreload) {
+        DownloadTask task = new DownloadTask();
+        task.mResourceUrl = "http://127.0.0.1:" + server.getAddress().getPort() + path;
+        task.mIsPreload = isPreload;
+        return task;
+    }
+
+    private static DownloadResult schedule(DownloadTask task) throws InterruptedException {
+        DownloadResult result = new DownloadResult();
+        MGDDownloadScheduler scheduler = MGDEngine.getInstance().getDownloadScheduler();
+        // the download waits, so that the callback is attached after the callback of the scheduler
+        CountDownLatch sessionThreadGate = new CountDownLatch(1);
+        MGDTestRuntime.setSessionThreadGate(sessionThreadGate);
+        try {
+            assertSame(task, scheduler.schedule(task, result));
+            // the scheduler has released the task when the result is notified
+            assertTrue(task.attachCallback(result));
+        } finally {
+            sessionThreadGate.countDown();
+        }
+        assertTrue("download is not finished", result.finished.await(10, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private static class DownloadResult extends MGDDownloadCallback.SimpleDownloadCallback {
+
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        volatile byte[] content;
+
+        volatile int errorCode;
+
+        @Override
+        public void onSuccess(MGDResponseFile content, Map<String, List<String>> rspHeaders) {
+            try {
+                this.content = readAllBytes(content.newReader(5000));
+            } catch (IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        @Override
+        public void onError(int errorCode) {
+            this.errorCode = errorCode;
+        }
+
+        @Override
+        public void onFinish() {
+            finished.countDown();
+        }
+    }
+
+    private static byte[] readAllBytes(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while (-1 != (n = inputStream.read(buffer))) {
+            outputStream.write(buffer, 0, n);
+        }
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk.download;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import io.mgdevjo.websdk.MGDTestRuntime;
+import io.mgdevjo.websdk.download.MGDDownloadClient.DownloadTask;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDDownloadScheduler}, the session threads are held so the dispatched
+ * downloads never start.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MGDDownloadSchedulerTest {
+
+    private static final int MAX_TASKS = 3;
+
+    private static final int MAX_TASKS_PER_HOST = 2;
+
+    private MGDDownloadScheduler scheduler;
+
+    private final CountDownLatch sessionThreadGate = new CountDownLatch(1);
+
+    private final List<DownloadTask> scheduledTasks = new ArrayList<DownloadTask>();
+
+    @Before
+    public void setUp() throws IOException {
+        scheduler = new MGDDownloadScheduler(MGDTestRuntime.getEngine().getRuntime(), MAX_TASKS, MAX_TASKS_PER_HOST);
+        MGDTestRuntime.setSessionThreadGate(sessionThreadGate);
+    }
+
+    @After
+    public void tearDown() {
+        for (DownloadTask task : scheduledTasks) {
+            scheduler.release(task);
+        }
+        MGDTestRuntime.setSessionThreadGate(new CountDownLatch(0));
+        sessionThreadGate.countDown();
+    }
+
+    @Test
+    public void aHostRunsAtMostItsLimit() {
+        schedule("http://a.mgd.test/1.js");
+        schedule("http://a.mgd.test/2.js");
+        schedule("http://a.mgd.test/3.js");
+        assertEquals(MAX_TASKS_PER_HOST, scheduler.getRunningCount());
+        assertEquals(1, scheduler.getQueueSize());
+
+        // another host still gets a slot
+        schedule("http://b.mgd.test/1.js");
+        assertEquals(MAX_TASKS, scheduler.getRunningCount());
+        assertEquals(1, scheduler.getQueueSize());
+
+        // the engine-wide limit holds for every host
+        schedule("http://c.mgd.test/1.js");
+        assertEquals(MAX_TASKS, scheduler.getRunningCount());
+        assertEquals(2, scheduler.getQueueSize());
+    }
+
+    @Test
+    public void aUrlIsDownloadedOnceForAllRequesters() {
+        DownloadTask task = schedule("http://a.mgd.test/shared.js");
+        DownloadTask otherTask = newTask("http://a.mgd.test/shared.js");
+
+        assertSame(task, scheduler.schedule(otherTask, new MGDDownloadCallback.SimpleDownloadCallback()));
+        assertEquals(2, task.mRequesterCount);
+        assertEquals(1, scheduler.getRunningCount());
+        assertEquals(0, scheduler.getQueueSize());
+
+        // the task is cancelled only when its last requester releases it
+        scheduler.release(task);
+        assertFalse(task.mCancellationToken.isCancelled());
+        scheduler.release(task);
+        assertTrue(task.mCancellationToken.isCancelled());
+    }
+
+    @Test
+    public void aQueuedSharedTaskTakesTheHigherPriority() {
+        schedule("http://a.mgd.test/1.js");
+        schedule("http://a.mgd.test/2.js");
+        DownloadTask task = newTask("http://a.mgd.test/image.png");
+        task.mPriority = DownloadTask.PRIORITY_IMAGE;
+        assertSame(task, schedule(task));
+
+        DownloadTask otherTask = newTask("http://a.mgd.test/image.png");
+        otherTask.mPriority = DownloadTask.PRIORITY_CRITICAL;
+        assertSame(task, schedule(otherTask));
+        assertEquals(DownloadTask.PRIORITY_CRITICAL, task.mPriority);
+        assertEquals(1, scheduler.getQueueSize());
+    }
+
+    private DownloadTask schedule(String url) {
+        return schedule(newTask(url));
+    }
+
+    private DownloadTask schedule(DownloadTask task) {
+        DownloadTask scheduledTask = scheduler.schedule(task, new MGDDownloadCallback.SimpleDownloadCallback());
+        scheduledTasks.add(scheduledTask);
+        return scheduledTask;
+    }
+
+    private static DownloadTask newTask(String url) {
+        DownloadTask task = new DownloadTask();
+        task.mResourceUrl = url;
+        return task;
+    }
+}
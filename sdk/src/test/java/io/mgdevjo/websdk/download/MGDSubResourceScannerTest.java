@@ -0,0 +1,67 @@
+/*
+ *
+ *  * MGD is pleased to support the open source community by making MGDWebSDK available.
+ *  *
+ *  * Copyright (C) 2024 MAD Gaming Development, a Vertex-Digital company. All rights reserved.
+ *  * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *  *
+ *  * https://opensource.org/licenses/BSD-3-Clause
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ *  *
+ *  *
+ *
+ */
+
+package io.mgdevjo.websdk.download;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import io.mgdevjo.websdk.download.MGDDownloadClient.DownloadTask;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link MGDSubResourceScanner}.
+ */
+public class MGDSubResourceScannerTest {
+
+    @Test
+    public void criticalResourcesComeFirst() {
+        String html = "<html><head>"
+                + "<link rel=\"preload\" href=\"/font.woff2\" as=\"font\" crossorigin>"
+                + "<img src=\"hero.png\">"
+                + "<LINK REL=stylesheet HREF='css/main.css?a=1&amp;b=2'>"
+                + "<link rel=\"stylesheet\" href=\"print.css\" media=\"print\">"
+                + "<script src=\"https://cdn.example.com/sync.js\"></script>"
+                + "<script async src=\"async.js\"></script>"
+                + "<!-- <script src=\"commented.js\"></script> -->"
+                + "</head><body><img src=\"lazy.png\" loading=\"lazy\"><img src=\"data:image/png;base64,AA\"></body></html>";
+
+        List<MGDSubResourceScanner.SubResource> resources = MGDSubResourceScanner.scan(html, "https://www.example.com/page/index.html");
+        assertEquals(4, resources.size());
+        assertEquals("https://www.example.com/page/css/main.css?a=1&b=2", resources.get(0).url);
+        assertEquals(DownloadTask.PRIORITY_CRITICAL, resources.get(0).priority);
+        assertEquals("https://cdn.example.com/sync.js", resources.get(1).url);
+        assertEquals("https://www.example.com/font.woff2", resources.get(2).url);
+        assertEquals(DownloadTask.PRIORITY_FONT, resources.get(2).priority);
+        assertEquals("https://www.example.com/page/hero.png", resources.get(3).url);
+        assertEquals(DownloadTask.PRIORITY_IMAGE, resources.get(3).priority);
+    }
+
+    @Test
+    public void onlyTheFirstImagesAreTaken() {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            html.append("<img src=\"img").append(i).append(".png\">");
+        }
+        html.append("<img src=\"img0.png#top\">");
+
+        List<MGDSubResourceScanner.SubResource> resources = MGDSubResourceScanner.scan(html.toString(), "http://example.com/");
+        assertEquals(MGDSubResourceScanner.MAX_IMAGE_COUNT, resources.size());
+        assertEquals("http://example.com/img0.png", resources.get(0).url);
+        assertTrue(MGDSubResourceScanner.scan("<img src=a.png>", "not a url").isEmpty());
+    }
+}